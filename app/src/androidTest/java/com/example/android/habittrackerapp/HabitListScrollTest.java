@@ -0,0 +1,129 @@
+package com.example.android.habittrackerapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrolls the habit list through a few thousand habits and prints the late frames counted by
+ * {@link FrameJankCounter} to logcat under the {@link #LOG_TAG} tag, to compare builds.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HabitListScrollTest {
+
+    private static final String LOG_TAG = "HabitListScrollTest";
+
+    /** Prefix of the habits added by the test, so they can be deleted afterwards */
+    private static final String NAME_PREFIX = "Scroll test habit ";
+
+    private static final int HABITS = 2000;
+
+    /** Number of flings down the list */
+    private static final int FLINGS = 20;
+
+    @Rule
+    public ActivityTestRule<HabitActivity> mActivityRule =
+            new ActivityTestRule<>(HabitActivity.class, false, false);
+
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() {
+        mContentResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        ContentValues[] habits = new ContentValues[HABITS];
+        for (int i = 0; i < HABITS; i++) {
+            habits[i] = new ContentValues();
+            habits[i].put(HabitEntry.COLUMN_HABIT, NAME_PREFIX + i);
+            habits[i].put(HabitEntry.COLUMN_IMPORTANCE, i % 10);
+        }
+        mContentResolver.bulkInsert(HabitEntry.CONTENT_URI, habits);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(HabitEntry.CONTENT_URI, HabitEntry.COLUMN_HABIT + " LIKE ?",
+                new String[]{NAME_PREFIX + "%"});
+    }
+
+    @Test
+    public void scrollingTheList_countsTheFrames() throws Exception {
+        final HabitActivity activity = mActivityRule.launchActivity(null);
+        final RecyclerView list = (RecyclerView) activity.findViewById(R.id.list_habits);
+        waitForHabits(activity);
+
+        final FrameJankCounter counter = activity.getJankCounter();
+        if (counter == null) {
+            // Release build: nothing is counted
+            return;
+        }
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                counter.reset();
+            }
+        });
+
+        for (int i = 0; i < FLINGS; i++) {
+            runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    list.fling(0, 8000);
+                }
+            });
+            SystemClock.sleep(500);
+        }
+
+        final String[] counts = new String[1];
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                counts[0] = counter.toString();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                    assertTrue(counter.getFrames() > 0);
+                }
+            }
+        });
+        Log.i(LOG_TAG, "habits=" + HABITS + " flings=" + FLINGS + " " + counts[0]);
+    }
+
+    /**
+     * Waits until the list shows its first habits.
+     */
+    private static void waitForHabits(final HabitActivity activity) {
+        final int[] count = new int[1];
+        long deadline = SystemClock.uptimeMillis() + 10000;
+        while (SystemClock.uptimeMillis() < deadline) {
+            runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    count[0] = activity.getAdapter().getItemCount();
+                }
+            });
+            if (count[0] > 0) {
+                return;
+            }
+            SystemClock.sleep(100);
+        }
+        throw new AssertionError("The list didn't show the habits");
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.android.habittrackerapp;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Starts the habit list again and again, with and without the {@link HabitListSnapshot}, and
+ * prints the time to its first frame, to the first frame showing habits and to the habits of
+ * the database (see {@link StartupTimer}) to logcat under the {@link #LOG_TAG} tag.
+ *
+ * The times are measured from the launch of the activity. The process and the database are
+ * already up, the way they are for a warm start: for the whole cold start compare the
+ * "Displayed" and "Fully drawn" lines the system logs after {@code adb shell am start -W}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HabitStartupBenchmark {
+
+    private static final String LOG_TAG = "HabitStartupBenchmark";
+
+    /** Prefix of the habits added by the test, so they can be deleted afterwards */
+    private static final String NAME_PREFIX = "Startup test habit ";
+
+    private static final int HABITS = 500;
+
+    /** Number of starts measured for each case */
+    private static final int STARTS = 10;
+
+    private Instrumentation mInstrumentation;
+    private ContentResolver mContentResolver;
+    private File mSnapshotFile;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = InstrumentationRegistry.getTargetContext();
+        mContentResolver = context.getContentResolver();
+        mSnapshotFile = HabitActivity.getListSnapshotFile(context);
+
+        ContentValues[] habits = new ContentValues[HABITS];
+        for (int i = 0; i < HABITS; i++) {
+            habits[i] = new ContentValues();
+            habits[i].put(HabitEntry.COLUMN_HABIT, NAME_PREFIX + i);
+            habits[i].put(HabitEntry.COLUMN_IMPORTANCE, i % 10);
+        }
+        mContentResolver.bulkInsert(HabitEntry.CONTENT_URI, habits);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(HabitEntry.CONTENT_URI, HabitEntry.COLUMN_HABIT + " LIKE ?",
+                new String[]{NAME_PREFIX + "%"});
+        mSnapshotFile.delete();
+    }
+
+    @Test
+    public void startWithoutSnapshot() {
+        long[][] times = new long[3][STARTS];
+        for (int i = 0; i < STARTS; i++) {
+            mSnapshotFile.delete();
+            StartupTimer timer = start(times, i);
+            assertFalse(timer.wereHabitsDrawnFromSnapshot());
+            // Let the save finish before deleting it, or it could show in the next start
+            waitForSnapshot();
+        }
+        report("no-snapshot", times);
+    }
+
+    @Test
+    public void startWithSnapshot() {
+        // The first start saves the snapshot
+        mSnapshotFile.delete();
+        start(new long[3][1], 0);
+        waitForSnapshot();
+
+        long[][] times = new long[3][STARTS];
+        for (int i = 0; i < STARTS; i++) {
+            StartupTimer timer = start(times, i);
+            assertTrue(timer.wereHabitsDrawnFromSnapshot());
+        }
+        report("snapshot", times);
+    }
+
+    /**
+     * Starts the list, waits for the habits of the database and closes it again. Keeps the times
+     * from the launch to the first frame, to the habits drawn and to the live habits.
+     */
+    private StartupTimer start(long[][] times, int i) {
+        Intent intent = new Intent(InstrumentationRegistry.getTargetContext(), HabitActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        long launch = System.nanoTime();
+        final HabitActivity activity = (HabitActivity) mInstrumentation.startActivitySync(intent);
+        StartupTimer timer = waitForStartup(activity);
+        times[0][i] = timer.getFirstDrawNanos() - launch;
+        times[1][i] = timer.getHabitsDrawnNanos() - launch;
+        times[2][i] = timer.getLiveDataNanos() - launch;
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.finish();
+            }
+        });
+        mInstrumentation.waitForIdleSync();
+        return timer;
+    }
+
+    /**
+     * Waits until the list drew its habits and shows the ones of the database.
+     */
+    private StartupTimer waitForStartup(final HabitActivity activity) {
+        final boolean[] done = new boolean[1];
+        long deadline = SystemClock.uptimeMillis() + 10000;
+        while (SystemClock.uptimeMillis() < deadline) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    StartupTimer timer = activity.getStartupTimer();
+                    done[0] = timer.getHabitsDrawnNanos() != StartupTimer.NOT_YET
+                            && timer.getLiveDataNanos() != StartupTimer.NOT_YET;
+                }
+            });
+            if (done[0]) {
+                return activity.getStartupTimer();
+            }
+            SystemClock.sleep(20);
+        }
+        throw new AssertionError("The list didn't show the habits");
+    }
+
+    /**
+     * Waits until the snapshot is saved, in the background.
+     */
+    private void waitForSnapshot() {
+        long deadline = SystemClock.uptimeMillis() + 5000;
+        while (!mSnapshotFile.exists()) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                throw new AssertionError("The snapshot wasn't saved");
+            }
+            SystemClock.sleep(20);
+        }
+    }
+
+    /**
+     * Logs the median and 90th percentile of each time, in milliseconds.
+     */
+    private static void report(String name, long[][] times) {
+        Log.i(LOG_TAG, name
+                + " starts=" + STARTS
+                + " firstDraw" + percentiles(times[0])
+                + " habitsDrawn" + percentiles(times[1])
+                + " liveData" + percentiles(times[2]));
+    }
+
+    private static String percentiles(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return " p50_ms=" + sorted[sorted.length / 2] / 1000000
+                + " p90_ms=" + sorted[sorted.length * 9 / 10] / 1000000;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the insert latency of the old "open, insert, close" path with the shared
+ * write-ahead-logging connection of {@link HabitDbHelper#getWriter()}.
+ *
+ * Results are printed to logcat under the {@link #LOG_TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HabitInsertLatencyBenchmark {
+
+    private static final String LOG_TAG = "HabitInsertBenchmark";
+
+    private static final String DATABASE_NAME = "habits-insert-benchmark.db";
+
+    /** Number of inserts measured for each path */
+    private static final int INSERTS = 500;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * The old path: every insert opens the database file, inserts one row and closes it again.
+     */
+    @Test
+    public void insertReopeningDatabase() {
+        long[] latencies = new long[INSERTS];
+        for (int i = 0; i < INSERTS; i++) {
+            long start = System.nanoTime();
+            HabitDbHelper helper = new HabitDbHelper(mContext, DATABASE_NAME);
+            SQLiteDatabase database = helper.getWritableDatabase();
+            database.insert(HabitEntry.TABLE_HABIT, null, habit(i));
+            helper.close();
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("reopen", latencies);
+    }
+
+    /**
+     * The new path: one connection opened once, in write-ahead logging mode.
+     */
+    @Test
+    public void insertSharedConnection() {
+        HabitDbHelper helper = new HabitDbHelper(mContext, DATABASE_NAME);
+        SQLiteDatabase database = helper.getWriter();
+
+        long[] latencies = new long[INSERTS];
+        for (int i = 0; i < INSERTS; i++) {
+            long start = System.nanoTime();
+            database.insert(HabitEntry.TABLE_HABIT, null, habit(i));
+            latencies[i] = System.nanoTime() - start;
+        }
+        helper.close();
+        report("shared-wal", latencies);
+    }
+
+    private static ContentValues habit(int i) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, "Habit " + i);
+        values.put(HabitEntry.COLUMN_IMPORTANCE, i % 10);
+        return values;
+    }
+
+    /**
+     * Logs the median, 90th percentile and mean latency in microseconds.
+     */
+    private static void report(String name, long[] latencies) {
+        assertEquals(INSERTS, latencies.length);
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        Log.i(LOG_TAG, name
+                + " inserts=" + INSERTS
+                + " p50_us=" + sorted[sorted.length / 2] / 1000
+                + " p90_us=" + sorted[sorted.length * 9 / 10] / 1000
+                + " mean_us=" + total / latencies.length / 1000);
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Upgrades a large synthetic version 4 database (the first released schema) to the current
+ * version and checks that no habit is lost and that the result has the same schema as a new
+ * database. The migration time is printed to logcat under the {@link #LOG_TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HabitMigrationTest {
+
+    private static final String LOG_TAG = "HabitMigrationTest";
+
+    private static final String DATABASE_NAME = "habits-migration-test.db";
+
+    private static final String FRESH_DATABASE_NAME = "habits-migration-fresh.db";
+
+    /** Number of habits in the synthetic database */
+    private static final int HABITS = 100000;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion4_keepsTheHabits() {
+        createVersion4Database(HABITS);
+
+        long start = System.nanoTime();
+        HabitDbHelper helper = new HabitDbHelper(mContext, DATABASE_NAME);
+        SQLiteDatabase database = helper.getWriter();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        Log.i(LOG_TAG, "habits=" + HABITS + " batch=" + HabitMigrations.COPY_BATCH_SIZE
+                + " migration_ms=" + elapsedMs);
+
+        assertEquals(HABITS, DatabaseUtils.queryNumEntries(database, HabitEntry.TABLE_HABIT));
+        assertEquals(HABITS, helper.getRowCount(HabitEntry.TABLE_HABIT));
+        // The importance that was NULL is now 0
+        assertEquals(0, DatabaseUtils.longForQuery(database,
+                "SELECT COUNT(*) FROM habits WHERE importance IS NULL", null));
+        assertEquals("Habit 4242", DatabaseUtils.stringForQuery(database,
+                "SELECT habit FROM habits WHERE _id = 4243", null));
+        assertSameSchemaAsNewDatabase(database);
+        helper.close();
+    }
+
+    @Test
+    public void interruptedUpgrade_resumesTheCopy() {
+        createVersion4Database(10000);
+
+        // Upgrade to version 7, then copy part of the habits into the version 8 table, as if
+        // the process had been killed in the middle of the copy
+        SQLiteDatabase old = SQLiteDatabase.openDatabase(mContext.getDatabasePath(DATABASE_NAME).getPath(),
+                null, SQLiteDatabase.OPEN_READWRITE);
+        HabitMigrations.upgrade(old, 4, 7);
+        old.execSQL("CREATE TABLE habits_new (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "habit TEXT NOT NULL,importance INTEGER NOT NULL DEFAULT 0);");
+        old.execSQL("INSERT INTO habits_new SELECT _id, habit, IFNULL(importance, 0) FROM habits "
+                + "WHERE _id <= 4000;");
+        old.close();
+
+        HabitDbHelper helper = new HabitDbHelper(mContext, DATABASE_NAME);
+        SQLiteDatabase database = helper.getWriter();
+
+        assertEquals(10000, DatabaseUtils.queryNumEntries(database, HabitEntry.TABLE_HABIT));
+        assertEquals(10000, DatabaseUtils.longForQuery(database,
+                "SELECT COUNT(DISTINCT _id) FROM habits", null));
+        assertSameSchemaAsNewDatabase(database);
+        helper.close();
+    }
+
+    @Test
+    public void interruptedUpgrade_resumesTheSyncIds() {
+        createVersion4Database(5000);
+
+        // Upgrade to version 13, then give part of the habits their sync id, as if the process
+        // had been killed in the middle of version 14
+        SQLiteDatabase old = SQLiteDatabase.openDatabase(mContext.getDatabasePath(DATABASE_NAME).getPath(),
+                null, SQLiteDatabase.OPEN_READWRITE);
+        HabitMigrations.upgrade(old, 4, 13);
+        old.execSQL("ALTER TABLE habits ADD COLUMN sync_id TEXT;");
+        old.execSQL("UPDATE habits SET sync_id = 'kept ' || _id WHERE _id <= 3000;");
+        old.close();
+
+        HabitDbHelper helper = new HabitDbHelper(mContext, DATABASE_NAME);
+        SQLiteDatabase database = helper.getWriter();
+
+        assertEquals(3000, DatabaseUtils.longForQuery(database,
+                "SELECT COUNT(*) FROM habits WHERE sync_id = 'kept ' || _id", null));
+        assertEquals(5000, DatabaseUtils.longForQuery(database,
+                "SELECT COUNT(DISTINCT sync_id) FROM habits", null));
+        assertSameSchemaAsNewDatabase(database);
+        helper.close();
+    }
+
+    @Test
+    public void upgradeFromVersion6_summarizesTheCheckins() {
+        Map<Long, long[]> checkins = createVersion6Database();
+
+        HabitDbHelper helper = new HabitDbHelper(mContext, DATABASE_NAME);
+        SQLiteDatabase database = helper.getWriter();
+        for (Map.Entry<Long, long[]> habit : checkins.entrySet()) {
+            assertEquals("Habit " + habit.getKey(), HabitSummary.compute(habit.getValue()),
+                    HabitSummaryStore.load(database, habit.getKey()));
+        }
+        assertEquals(90, DatabaseUtils.queryNumEntries(database, SummaryEntry.TABLE_SUMMARY));
+        helper.close();
+    }
+
+    @Test
+    public void upgradeFromVersion6_buildsTheCompletionBitmaps() {
+        createVersion6Database();
+
+        // The bitmaps of the upgrade, then the ones built by the current code
+        HabitDbHelper helper = new HabitDbHelper(mContext, DATABASE_NAME);
+        String upgraded = describeCompletions(helper.getWriter());
+        helper.rebuildCompletions();
+        assertEquals(describeCompletions(helper.getWriter()), upgraded);
+        helper.close();
+    }
+
+    /**
+     * Creates a version 6 database with 100 habits and their check-ins: runs, gaps (some longer
+     * than the recent days of the summaries) and days done twice, written in no particular order,
+     * over two calendar years.
+     *
+     * @return the days of the check-ins of each habit, sorted
+     */
+    private Map<Long, long[]> createVersion6Database() {
+        createVersion4Database(100);
+
+        SQLiteDatabase old = SQLiteDatabase.openDatabase(mContext.getDatabasePath(DATABASE_NAME).getPath(),
+                null, SQLiteDatabase.OPEN_READWRITE);
+        HabitMigrations.upgrade(old, 4, 6);
+        Random random = new Random(42);
+        Map<Long, long[]> checkins = new HashMap<>();
+        old.beginTransaction();
+        try {
+            // One habit in ten has no check-in and gets no summary
+            for (long habitId = 1; habitId <= 100; habitId++) {
+                long[] days = new long[habitId % 10 == 0 ? 0 : 1 + random.nextInt(150)];
+                long day = 17000 + random.nextInt(100);
+                for (int i = 0; i < days.length; i++) {
+                    day += random.nextInt(20) == 0 ? 70 : random.nextInt(3);
+                    days[i] = day;
+                }
+                for (int i = days.length - 1; i >= 0; i--) {
+                    old.execSQL("INSERT INTO checkins (habit_id, day, created_at) VALUES (?, ?, 0);",
+                            new Object[]{habitId, days[i]});
+                }
+                checkins.put(habitId, days);
+            }
+            old.setTransactionSuccessful();
+        } finally {
+            old.endTransaction();
+        }
+        old.close();
+        return checkins;
+    }
+
+    /**
+     * Creates the database as version 4 of the app did, with the given number of habits (one in
+     * three without importance).
+     */
+    private void createVersion4Database(int habits) {
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(DATABASE_NAME), null);
+        database.execSQL("CREATE TABLE habits (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "habit TEXT NOT NULL,importance INTEGER);");
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < habits; i++) {
+                database.execSQL("INSERT INTO habits (habit, importance) VALUES (?, ?);",
+                        new Object[]{"Habit " + i, i % 3 == 0 ? null : i % 7});
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        database.setVersion(4);
+        database.close();
+    }
+
+    /**
+     * Checks that the upgraded database has the same tables, columns, indexes and triggers as
+     * one created by onCreate.
+     */
+    private void assertSameSchemaAsNewDatabase(SQLiteDatabase upgraded) {
+        HabitDbHelper freshHelper = new HabitDbHelper(mContext, FRESH_DATABASE_NAME);
+        assertEquals(describeSchema(freshHelper.getWriter()), describeSchema(upgraded));
+        freshHelper.close();
+    }
+
+    private static String describeCompletions(SQLiteDatabase database) {
+        StringBuilder completions = new StringBuilder();
+        Cursor rows = database.rawQuery("SELECT habit_id, year, hex(days) FROM habit_completions "
+                + "ORDER BY habit_id, year", null);
+        try {
+            while (rows.moveToNext()) {
+                completions.append(rows.getLong(0)).append(' ').append(rows.getInt(1)).append(' ')
+                        .append(rows.getString(2)).append('\n');
+            }
+        } finally {
+            rows.close();
+        }
+        return completions.toString();
+    }
+
+    private static String describeSchema(SQLiteDatabase database) {
+        StringBuilder schema = new StringBuilder();
+        // The shadow tables of the full-text index are left out, they follow the virtual table
+        Cursor objects = database.rawQuery("SELECT type, name, tbl_name FROM sqlite_master "
+                + "WHERE name NOT LIKE 'sqlite_%' "
+                + "AND NOT (type = 'table' AND name LIKE 'habits_search_%') "
+                + "ORDER BY type, name", null);
+        try {
+            while (objects.moveToNext()) {
+                String type = objects.getString(0);
+                String name = objects.getString(1);
+                schema.append(type).append(' ').append(name).append(" on ")
+                        .append(objects.getString(2)).append('\n');
+                if (type.equals("table")) {
+                    appendPragma(database, schema, "PRAGMA table_info(" + name + ")");
+                } else if (type.equals("index")) {
+                    appendPragma(database, schema, "PRAGMA index_info(" + name + ")");
+                }
+            }
+        } finally {
+            objects.close();
+        }
+        return schema.toString();
+    }
+
+    private static void appendPragma(SQLiteDatabase database, StringBuilder schema, String pragma) {
+        Cursor rows = database.rawQuery(pragma, null);
+        try {
+            while (rows.moveToNext()) {
+                schema.append("   ");
+                for (int i = 0; i < rows.getColumnCount(); i++) {
+                    schema.append(rows.getString(i)).append(' ');
+                }
+                schema.append('\n');
+            }
+        } finally {
+            rows.close();
+        }
+    }
+}
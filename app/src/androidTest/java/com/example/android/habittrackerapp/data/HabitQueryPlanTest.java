@@ -0,0 +1,201 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Runs EXPLAIN QUERY PLAN on every supported habit list query (each order, with and without
+ * an importance range, first and next pages, with and without the summaries) and fails if one
+ * of them scans the table or sorts in a temporary B-tree instead of reading an index.
+ *
+ * The queries with a key to start from, the next pages and the importance ranges read in
+ * importance order, must also seek their index (SEARCH): a SCAN of an index would read it from
+ * the start, slower the deeper the page. Only the first rows of a list may come from a scan of
+ * the index in order, it stops after them. (A range by name has no key to seek in the name
+ * index, its first page is such a scan.)
+ *
+ * The check-ins of one habit, whole or by day range, must be searched in the (habit_id, day)
+ * index, already in day order.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HabitQueryPlanTest {
+
+    private static final String DATABASE_NAME = "habits-query-plan-test.db";
+
+    private static final String[] HABIT_PROJECTION = {
+            HabitEntry._ID,
+            HabitEntry.COLUMN_HABIT,
+            HabitEntry.COLUMN_IMPORTANCE};
+
+    private static final String[] SUMMARY_PROJECTION = {
+            HabitEntry.TABLE_HABIT + "." + HabitEntry._ID,
+            HabitEntry.COLUMN_HABIT,
+            HabitEntry.COLUMN_IMPORTANCE,
+            SummaryEntry.COLUMN_LAST_DAY,
+            SummaryEntry.COLUMN_CURRENT_STREAK};
+
+    private Context mContext;
+    private HabitDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+
+        // A few rows, so the planner doesn't see empty tables
+        SQLiteDatabase database = mHelper.getWriter();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < 200; i++) {
+                ContentValues values = new ContentValues();
+                values.put(HabitEntry.COLUMN_HABIT, "Habit " + i);
+                values.put(HabitEntry.COLUMN_IMPORTANCE, i % 5);
+                long habitId = database.insert(HabitEntry.TABLE_HABIT, null, values);
+                for (int day = 0; day < 10; day++) {
+                    ContentValues checkin = new ContentValues();
+                    checkin.put(CheckinEntry.COLUMN_HABIT_ID, habitId);
+                    checkin.put(CheckinEntry.COLUMN_DAY, 17000 + day);
+                    checkin.put(CheckinEntry.COLUMN_CREATED_AT, 0);
+                    database.insert(CheckinEntry.TABLE_CHECKINS, null, checkin);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void supportedQueries_readAnIndex() {
+        List<String> failures = new ArrayList<>();
+        for (Uri listUri : new Uri[]{HabitEntry.CONTENT_URI, SummaryEntry.CONTENT_URI}) {
+            boolean withSummary = !listUri.equals(HabitEntry.CONTENT_URI);
+            String[] projection = withSummary ? SUMMARY_PROJECTION : HABIT_PROJECTION;
+
+            for (String order : new String[]{HabitEntry.ORDER_IMPORTANCE, HabitEntry.ORDER_NAME}) {
+                Uri ordered = HabitEntry.buildOrderedUri(listUri, order);
+                Uri ranged = HabitEntry.buildImportanceRangeUri(ordered, 1, 3);
+                String afterKey = HabitEntry.ORDER_NAME.equals(order) ? "Habit 42" : "2";
+
+                boolean rangeSeeks = HabitEntry.ORDER_IMPORTANCE.equals(order);
+
+                checkPlan(withSummary, ordered, projection, false, failures);
+                checkPlan(withSummary, ranged, projection, rangeSeeks, failures);
+                checkPlan(withSummary, HabitEntry.buildPageUri(ordered, 50), projection, false,
+                        failures);
+                checkPlan(withSummary, HabitEntry.buildPageUri(ordered, 50, afterKey, 42),
+                        projection, true, failures);
+                checkPlan(withSummary, HabitEntry.buildPageUri(ranged, 50), projection,
+                        rangeSeeks, failures);
+                checkPlan(withSummary, HabitEntry.buildPageUri(ranged, 50, afterKey, 42),
+                        projection, true, failures);
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            fail(failures.toString());
+        }
+    }
+
+    @Test
+    public void checkinQueries_searchTheHabitDayIndex() {
+        List<String> failures = new ArrayList<>();
+        Uri checkins = CheckinEntry.buildHabitCheckinsUri(42);
+        String[] projection = {CheckinEntry._ID, CheckinEntry.COLUMN_DAY};
+        String dayRange = CheckinEntry.COLUMN_DAY + " BETWEEN ? AND ?";
+
+        checkCheckinPlan(checkins, projection, null, null, failures);
+        checkCheckinPlan(checkins, projection, dayRange, new String[]{"17002", "17005"}, failures);
+
+        if (!failures.isEmpty()) {
+            fail(failures.toString());
+        }
+    }
+
+    /**
+     * Adds the steps of the plan of the check-in query that don't search the (habit_id, day)
+     * index, or sort in a temporary B-tree, to the failures.
+     */
+    private void checkCheckinPlan(Uri uri, String[] projection, String selection,
+                                  String[] selectionArgs, List<String> failures) {
+        HabitDbHelper.HabitQuery query = HabitDbHelper.buildQuery(uri, projection, selection,
+                selectionArgs, null);
+        Cursor plan = mHelper.getReader().rawQuery("EXPLAIN QUERY PLAN " + query.sql,
+                query.selectionArgs);
+        try {
+            int detailIndex = plan.getColumnIndexOrThrow("detail");
+            while (plan.moveToNext()) {
+                String detail = plan.getString(detailIndex);
+                if (!detail.startsWith("SEARCH") || !detail.contains(CheckinEntry.INDEX_HABIT_DAY)
+                        || detail.contains("TEMP B-TREE")) {
+                    failures.add(uri + " " + selection + ": " + detail);
+                }
+            }
+        } finally {
+            plan.close();
+        }
+    }
+
+    /**
+     * Adds the steps of the plan of the query that don't read an index, or, if {@code seek},
+     * don't search one, to the failures.
+     */
+    private void checkPlan(boolean withSummary, Uri uri, String[] projection, boolean seek,
+                           List<String> failures) {
+        HabitDbHelper.HabitQuery query = HabitDbHelper.buildHabitQuery(withSummary, uri, projection,
+                null, null, null);
+        Cursor plan = mHelper.getReader().rawQuery("EXPLAIN QUERY PLAN " + query.sql,
+                query.selectionArgs);
+        try {
+            int detailIndex = plan.getColumnIndexOrThrow("detail");
+            while (plan.moveToNext()) {
+                String detail = plan.getString(detailIndex);
+                boolean tableScan = detail.startsWith("SCAN") && !detail.contains("INDEX");
+                boolean indexScan = seek && detail.startsWith("SCAN");
+                if (tableScan || indexScan || detail.contains("TEMP B-TREE")) {
+                    failures.add(uri + ": " + detail);
+                } else if (seek && isHabitsStep(detail) && !detail.contains(" INDEX ")) {
+                    // Searched by rowid, not through the ordered index
+                    failures.add(uri + ": " + detail);
+                }
+            }
+        } finally {
+            plan.close();
+        }
+    }
+
+    /**
+     * Returns whether the step of a plan reads the habits table. Older SQLite versions write
+     * "SEARCH TABLE habits ...", newer ones "SEARCH habits ...".
+     */
+    private static boolean isHabitsStep(String detail) {
+        String table = " " + HabitEntry.TABLE_HABIT + " ";
+        return detail.startsWith("SEARCH" + table) || detail.startsWith("SEARCH TABLE" + table);
+    }
+}
@@ -0,0 +1,342 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.HabitAdapter;
+import com.example.android.habittrackerapp.HabitPager;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Edits habits of a 50,000 habit list and counts the rows read again for each edit, and the
+ * rows the adapter copies: the list refreshes the edited habit only, instead of reading its
+ * pages again or copying them into the adapter again. The counts are printed to logcat under
+ * the {@link #LOG_TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HabitRowRefreshTest {
+
+    private static final String LOG_TAG = "HabitRowRefreshTest";
+
+    private static final String DATABASE_NAME = "habits-row-refresh-test.db";
+
+    /** Number of habits in the list */
+    private static final int HABITS = 50000;
+
+    /** Number of pages scrolled through before editing */
+    private static final int PAGES = 10;
+
+    private static final String[] PROJECTION = {
+            HabitEntry._ID,
+            HabitEntry.COLUMN_HABIT,
+            HabitEntry.COLUMN_IMPORTANCE,
+            SummaryEntry.COLUMN_CURRENT_STREAK};
+
+    private Context mContext;
+    private HabitDbHelper mHelper;
+
+    /** Number of rows read from the database by the pager */
+    private final AtomicInteger mRowsRead = new AtomicInteger();
+
+    /**
+     * What the pager told the list: a cursor (the first page, or the added one), a
+     * {@link RowChange}, or {@link #RELOAD}
+     */
+    private final BlockingQueue<Object> mEvents = new LinkedBlockingQueue<>();
+
+    private static final Object RELOAD = new Object();
+
+    private HabitPager mPager;
+
+    /** The adapter of the list, fed by the pager as in the app */
+    private HabitAdapter mAdapter;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+        fill(mHelper.getWriter());
+
+        // The pager reads through a resolver that counts the rows it returns
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(HabitContract.CONTENT_AUTHORITY, new MockContentProvider(mContext) {
+            @Override
+            public Cursor query(Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
+                return query(uri, projection, selection, selectionArgs, sortOrder, null);
+            }
+
+            @Override
+            public Cursor query(Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder,
+                                CancellationSignal cancellationSignal) {
+                Cursor cursor = mHelper.query(uri, projection, selection, selectionArgs, sortOrder);
+                mRowsRead.addAndGet(cursor.getCount());
+                return cursor;
+            }
+        });
+        mAdapter = new HabitAdapter(mContext, null);
+        mPager = new HabitPager(resolver, null, SummaryEntry.CONTENT_URI, PROJECTION,
+                new HabitPager.Listener() {
+                    @Override
+                    public void onFirstPage(Cursor firstPage) {
+                        mAdapter.swapCursor(firstPage);
+                        mEvents.add(firstPage);
+                    }
+
+                    @Override
+                    public void onPageAdded(Cursor page) {
+                        mAdapter.appendCursor(page);
+                        mEvents.add(page);
+                    }
+
+                    @Override
+                    public void onRowChanged(int position, Cursor row) {
+                        mAdapter.changeItem(position, row);
+                        mEvents.add(new RowChange(position, row));
+                    }
+
+                    @Override
+                    public void onReloadNeeded() {
+                        mEvents.add(RELOAD);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPager.close();
+            }
+        });
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void editingALoadedHabit_readsOnlyThatHabit() throws InterruptedException {
+        Cursor pages = loadPages();
+        int loaded = pages.getCount();
+        int position = loaded / 2;
+        pages.moveToPosition(position);
+        final long id = pages.getLong(0);
+        int importance = pages.getInt(2);
+
+        // Each page was copied into the adapter once
+        waitForTheAdapter();
+        assertEquals(loaded, mAdapter.getItemsCopied());
+
+        mRowsRead.set(0);
+        rename(id, "Renamed habit");
+        RowChange change = (RowChange) nextEvent();
+        int itemsCopied = mAdapter.getItemsCopied() - loaded;
+
+        Log.i(LOG_TAG, "habits=" + HABITS + " loaded=" + loaded + " rows_read_per_edit=" + mRowsRead.get()
+                + " items_copied_per_edit=" + itemsCopied);
+        assertEquals(1, mRowsRead.get());
+        assertEquals(1, itemsCopied);
+        assertEquals(position, change.mPosition);
+        assertEquals(id, change.mId);
+        assertEquals("Renamed habit", change.mName);
+        assertEquals(importance, change.mImportance);
+
+        // The adapter replaced that habit, the neighbours are still the loaded ones
+        assertEquals(loaded, mAdapter.getItemCount());
+        assertEquals(id, mAdapter.getItemId(position));
+        pages.moveToPosition(position + 1);
+        assertEquals(pages.getLong(0), mAdapter.getItemId(position + 1));
+        assertTrue(pages.getString(1).startsWith("Habit "));
+    }
+
+    @Test
+    public void movingALoadedHabit_reloadsTheList() throws InterruptedException {
+        Cursor pages = loadPages();
+        pages.moveToPosition(pages.getCount() / 2);
+        long id = pages.getLong(0);
+
+        // The loaded habits are the most important ones, this one goes to the end
+        mRowsRead.set(0);
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_IMPORTANCE, 0);
+        update(id, values);
+
+        // The habit moved: the list must read its first page again
+        assertEquals(RELOAD, nextEvent());
+        assertEquals(1, mRowsRead.get());
+    }
+
+    @Test
+    public void editingAHabitNotLoaded_readsOnlyThatHabit() throws InterruptedException {
+        loadPages();
+
+        // The least important habits are at the end of the list, far from the loaded pages
+        Cursor last = mHelper.getReader().rawQuery("SELECT _id FROM habits "
+                + "ORDER BY importance, _id LIMIT 1", null);
+        last.moveToFirst();
+        long id = last.getLong(0);
+        last.close();
+
+        mRowsRead.set(0);
+        rename(id, "Renamed habit");
+
+        // Nothing to show, nothing else read
+        assertNull(mEvents.poll(2, TimeUnit.SECONDS));
+        assertEquals(1, mRowsRead.get());
+    }
+
+    /**
+     * Loads the first page, then scrolls through {@link #PAGES} pages.
+     *
+     * @return the loaded pages, as one cursor (not to be closed, the pages belong to the pager)
+     */
+    private Cursor loadPages() throws InterruptedException {
+        final Cursor firstPage = mHelper.query(mPager.getFirstPageUri(), PROJECTION, null, null, null);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPager.setFirstPage(firstPage);
+            }
+        });
+        List<Cursor> pages = new ArrayList<>();
+        pages.add((Cursor) nextEvent());
+
+        int loaded = firstPage.getCount();
+        for (int i = 1; i < PAGES; i++) {
+            final int lastPosition = loaded - 1;
+            final int count = loaded;
+            runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mPager.onScrolled(lastPosition, count);
+                }
+            });
+            // Only the new page
+            Cursor page = (Cursor) nextEvent();
+            assertEquals(HabitPager.PAGE_SIZE, page.getCount());
+            pages.add(page);
+            loaded += page.getCount();
+        }
+        assertEquals(PAGES * HabitPager.PAGE_SIZE, loaded);
+        return new MergeCursor(pages.toArray(new Cursor[pages.size()]));
+    }
+
+    private void rename(long id, String name) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        update(id, values);
+    }
+
+    /**
+     * Updates the habit, then tells the pager as the change notification of "habits/#" would.
+     */
+    private void update(final long id, ContentValues values) {
+        assertEquals(1, mHelper.update(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id), values, null, null));
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPager.onHabitChanged(id);
+            }
+        });
+    }
+
+    /**
+     * A habit refreshed in place, read from the row given by the pager (closed after the call).
+     */
+    private static final class RowChange {
+        final int mPosition;
+        final long mId;
+        final String mName;
+        final int mImportance;
+
+        RowChange(int position, Cursor row) {
+            mPosition = position;
+            mId = row.getLong(0);
+            mName = row.getString(1);
+            mImportance = row.getInt(2);
+        }
+    }
+
+    /**
+     * Waits until the adapter shows the habits given to it (no diff running any more).
+     */
+    private void waitForTheAdapter() throws InterruptedException {
+        final boolean[] pending = new boolean[1];
+        for (int i = 0; i < 100; i++) {
+            runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    pending[0] = mAdapter.isDiffPending();
+                }
+            });
+            if (!pending[0]) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("The adapter didn't show the habits");
+    }
+
+    private Object nextEvent() throws InterruptedException {
+        Object event = mEvents.poll(10, TimeUnit.SECONDS);
+        if (event == null) {
+            throw new AssertionError("The pager didn't answer");
+        }
+        return event;
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    /**
+     * Inserts the habits "Habit 0" to "Habit 49999" with importances 0 to 9.
+     */
+    private static void fill(SQLiteDatabase database) {
+        SQLiteStatement insert = database.compileStatement(
+                "INSERT INTO habits (habit, importance) VALUES (?, ?)");
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < HABITS; i++) {
+                insert.bindString(1, "Habit " + i);
+                insert.bindLong(2, i % 10);
+                insert.executeInsert();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            insert.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link HabitWriteQueue} merges the waiting updates of a habit and writes the
+ * waiting writes together. The writer is run by hand, so the test decides what is waiting.
+ * The habits are written through the app's provider.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HabitWriteQueueTest {
+
+    /** Keeps the writer's tasks until the test runs them */
+    private final List<Runnable> mTasks = new ArrayList<>();
+
+    private HabitRepository mRepository;
+    private HabitWriteQueue mQueue;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mRepository = HabitRepository.getInstance(context);
+        mQueue = new HabitWriteQueue(context.getContentResolver(), mRepository,
+                new HabitCompactor(HabitDbHelper.getInstance(context)), new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                mTasks.add(task);
+            }
+        });
+    }
+
+    @Test
+    public void waitingUpdatesOfAHabit_areMerged() throws InterruptedException {
+        long id = insert("Read", 1);
+        mRepository.remember(new Habit(id, "Read", 1), mRepository.getGeneration());
+
+        UriCallback first = new UriCallback();
+        UriCallback second = new UriCallback();
+        UriCallback third = new UriCallback();
+        mQueue.update(id, habitValues("Read a book", 2), first);
+        mQueue.update(id, importanceValues(5), second);
+        mQueue.update(id, importanceValues(7), third);
+
+        // One task drains everything that was waiting
+        assertEquals(1, mTasks.size());
+        runTasks();
+
+        Uri habitUri = ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id);
+        assertEquals(habitUri, first.await());
+        assertEquals(habitUri, second.await());
+        assertEquals(habitUri, third.await());
+        // The name of the first update and the importance of the last one, and the old habit
+        // is no longer cached
+        assertEquals(new Habit(id, "Read a book", 7), readHabit(id));
+        assertNull(mRepository.peek(id));
+    }
+
+    @Test
+    public void badWrite_onlyFailsItself() throws InterruptedException {
+        long id = insert("Walk", 3);
+
+        UriCallback bad = new UriCallback();
+        UriCallback good = new UriCallback();
+        mQueue.insert(importanceValues(4), bad);
+        mQueue.update(id, importanceValues(6), good);
+        runTasks();
+
+        // The habit without a name is refused, the update is written anyway
+        assertNull(bad.await());
+        assertNotNull(good.await());
+        assertEquals(new Habit(id, "Walk", 6), readHabit(id));
+    }
+
+    @Test
+    public void delete_hidesTheHabit_thenPurgesIt() throws InterruptedException {
+        long id = insert("Swim", 2);
+
+        UriCallback deleted = new UriCallback();
+        UriCallback late = new UriCallback();
+        mQueue.delete(id, deleted);
+        mQueue.update(id, importanceValues(9), late);
+        runTasks();
+
+        assertEquals(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id), deleted.await());
+        // The update queued after the delete finds no habit
+        assertNull(late.await());
+        assertNull(readHabit(id));
+
+        // The purge was queued behind the writes
+        assertEquals(1, mTasks.size());
+        runTasks();
+        assertEquals(0, DatabaseUtils.queryNumEntries(HabitDbHelper.getInstance(
+                InstrumentationRegistry.getTargetContext()).getReader(), HabitEntry.TABLE_HABIT,
+                HabitEntry._ID + " = " + id));
+    }
+
+    private long insert(String name, int importance) throws InterruptedException {
+        UriCallback callback = new UriCallback();
+        mQueue.insert(habitValues(name, importance), callback);
+        runTasks();
+        Uri uri = callback.await();
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    /**
+     * Reads the habit through the provider, null if there is none (or it is deleted).
+     */
+    private static Habit readHabit(long id) {
+        Cursor cursor = InstrumentationRegistry.getTargetContext().getContentResolver().query(
+                ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id), Habit.PROJECTION,
+                null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.moveToFirst() ? Habit.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void runTasks() {
+        List<Runnable> tasks = new ArrayList<>(mTasks);
+        mTasks.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    private static ContentValues habitValues(String name, int importance) {
+        ContentValues values = importanceValues(importance);
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        return values;
+    }
+
+    private static ContentValues importanceValues(int importance) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_IMPORTANCE, importance);
+        return values;
+    }
+
+    /**
+     * Waits for the callback, which runs on the main thread.
+     */
+    private static class UriCallback implements HabitWriteQueue.Callback {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private Uri mUri;
+
+        @Override
+        public void onWriteFinished(Uri uri) {
+            mUri = uri;
+            mDone.countDown();
+        }
+
+        Uri await() throws InterruptedException {
+            assertTrue(mDone.await(5, TimeUnit.SECONDS));
+            return mUri;
+        }
+    }
+}
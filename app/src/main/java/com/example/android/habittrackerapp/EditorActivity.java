@@ -6,8 +6,9 @@ package com.example.android.habittrackerapp;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
@@ -25,10 +26,10 @@ import android.view.View;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import com.example.android.habittrackerapp.data.Habit;
 import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
-import com.example.android.habittrackerapp.data.HabitDbHelper;
-
-import static com.example.android.habittrackerapp.data.HabitContract.HabitEntry.COLUMN_HABIT;
+import com.example.android.habittrackerapp.data.HabitRepository;
+import com.example.android.habittrackerapp.data.HabitWriteQueue;
 
 /**
  * Allows user to create a new habit or edit an existing one.
@@ -39,7 +40,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      * Identifier for the habit data loader
      */
     private static final int EXISTING_HABIT_LOADER = 0;
-    private HabitDbHelper mDbHelper;
 
     /**
      * Content URI for the existing habit (null if it's a new habit)
@@ -53,6 +53,15 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     private EditText mImportanceText;
 
+    /** Reads the habit, remembers the habits seen recently */
+    private HabitRepository mRepository;
+
+    /** Generation of {@link #mRepository} when the habit started loading */
+    private long mLoadGeneration;
+
+    /** Writes the habit in the background */
+    private HabitWriteQueue mWriteQueue;
+
     /**
      * Boolean flag that keeps track of whether the habit has been edited (true) or not (false)
      */
@@ -79,6 +88,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // in order to figure out if we're creating a new pet or editing an existing one.
         Intent intent = getIntent();
         mCurrentHabitUri = intent.getData();
+        mRepository = HabitRepository.getInstance(this);
+        mWriteQueue = HabitWriteQueue.getInstance(this);
+
+        // Find all relevant views that we will need to read user input from
+        mHabitText = (EditText) findViewById(R.id.edit_habit);
+        mImportanceText = (EditText) findViewById(R.id.habit_importance);
 
         // If the intent DOES NOT contain a pet content URI, then we know that we are
         // creating a new pet.
@@ -93,22 +108,22 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             // Otherwise this is an existing pet, so change app bar to say "Edit Pet"
             setTitle(getString(R.string.edit));
 
-            // Initialize a loader to read the pet data from the database
+            // The habit is still in memory if it was edited recently. Otherwise initialize
+            // a loader to read the habit data from the database
             // and display the current values in the editor
-            getLoaderManager().initLoader(EXISTING_HABIT_LOADER, null, this);
+            Habit habit = mRepository.peek(ContentUris.parseId(mCurrentHabitUri));
+            if (habit != null) {
+                showHabit(habit);
+            } else {
+                getLoaderManager().initLoader(EXISTING_HABIT_LOADER, null, this);
+            }
         }
 
-        // Find all relevant views that we will need to read user input from
-        mHabitText = (EditText) findViewById(R.id.edit_habit);
-        mImportanceText = (EditText) findViewById(R.id.habit_importance);
-
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
         // or not, if the user tries to leave the editor without saving.
         mHabitText.setOnTouchListener(mTouchListener);
         mImportanceText.setOnTouchListener(mTouchListener);
-
-        mDbHelper = new HabitDbHelper(this);
     }
 
     /**
@@ -135,42 +150,84 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         values.put(HabitEntry.COLUMN_HABIT, habitString);
         values.put(HabitEntry.COLUMN_IMPORTANCE, importanceString);
 
+        // The write runs on the writer thread, saving never waits for the disk. The result
+        // is shown once the write is done, even if the editor is already closed.
+        HabitWriteQueue.Callback callback = new SaveResultToast(getApplicationContext());
+
         // Determine if this is a new or existing pet by checking if mCurrentPetUri is null or not
         if (mCurrentHabitUri == null) {
-            // This is a NEW pet, so insert a new pet into the provider,
-            // returning the content URI for the new pet.
-            Long newUri = mDbHelper.insert(HabitEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_habit_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_habit_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // This is a NEW pet, so queue the insertion of a new pet into the provider.
+            mWriteQueue.insert(values, callback);
         } else {
-            // Otherwise this is an EXISTING pet, so update the pet with content URI: mCurrentPetUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentPetUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentHabitUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_insert_habit_failed),
+            // Otherwise this is an EXISTING pet, so queue an update of the pet with content
+            // URI: mCurrentPetUri. If an earlier save of the same habit is still waiting,
+            // the two are written as one.
+            mWriteQueue.update(ContentUris.parseId(mCurrentHabitUri), values, callback);
+        }
+    }
+
+    /**
+     * Shows whether a queued save succeeded. It only keeps the application context, so a
+     * write finishing after the editor closed doesn't leak the editor.
+     */
+    private static class SaveResultToast implements HabitWriteQueue.Callback {
+
+        private final Context mContext;
+
+        SaveResultToast(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public void onWriteFinished(Uri uri) {
+            // Show a toast message depending on whether or not the write was successful.
+            if (uri == null) {
+                // If there is no URI, then there was an error with the insertion or update.
+                Toast.makeText(mContext, mContext.getString(R.string.editor_insert_habit_failed),
                         Toast.LENGTH_SHORT).show();
             } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_habit_successful),
+                // Otherwise, the write was successful and we can display a toast.
+                Toast.makeText(mContext, mContext.getString(R.string.editor_insert_habit_successful),
                         Toast.LENGTH_SHORT).show();
             }
         }
     }
 
+    /**
+     * Queues the delete of the habit and closes the editor. The habit leaves the list as soon as
+     * it is marked as deleted, its check-ins are purged later in the background.
+     */
+    private void deleteHabit() {
+        // Only perform the delete if this is an existing habit.
+        if (mCurrentHabitUri != null) {
+            mWriteQueue.delete(ContentUris.parseId(mCurrentHabitUri),
+                    new DeleteResultToast(getApplicationContext()));
+        }
+
+        // Close the activity
+        finish();
+    }
+
+    /**
+     * Shows whether a queued delete succeeded, like {@link SaveResultToast}.
+     */
+    private static class DeleteResultToast implements HabitWriteQueue.Callback {
+
+        private final Context mContext;
+
+        DeleteResultToast(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public void onWriteFinished(Uri uri) {
+            Toast.makeText(mContext, mContext.getString(uri == null
+                            ? R.string.editor_delete_habit_failed
+                            : R.string.editor_delete_habit_successful),
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_editor.xml file.
@@ -200,11 +257,16 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save pet to database
+                // Queue the save of the pet, it is written in the background
                 saveHabit();
-                // Exit activity
+                // Exit activity right away, without waiting for the write
                 finish();
                 return true;
+            // Respond to a click on the "Delete" menu option
+            case R.id.action_delete:
+                // Pop up confirmation dialog for deletion
+                showDeleteConfirmationDialog();
+                return true;
             // Respond to a click on the "Up" arrow button in the app bar
             case android.R.id.home:
                 // If the pet hasn't changed, continue with navigating up to parent activity
@@ -261,16 +323,14 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Since the editor shows all habit attributes, define a projection that contains
-        // all columns from the habit table
-        String[] projection = {
-                HabitEntry._ID,
-                HabitEntry.COLUMN_HABIT};
+        // Read before the habit is, a change made meanwhile keeps it out of the cache
+        mLoadGeneration = mRepository.getGeneration();
 
         // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
+        return new TracedCursorLoader(this,   // Parent activity context
+                "EditorActivity.loadHabit", // Trace section of the load
                 mCurrentHabitUri,         // Query the content URI for the current habit
-                projection,             // Columns to include in the resulting Cursor
+                Habit.PROJECTION,       // All the columns of the habit
                 null,                   // No selection clause
                 null,                   // No selection arguments
                 null);                  // Default sort order
@@ -286,22 +346,30 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
-            // Find the columns of habit attributes that we're interested in
-            int habitColumnIndex = cursor.getColumnIndex(COLUMN_HABIT);
+            Habit habit = Habit.fromCursor(cursor);
 
-            // Extract out the value from the Cursor for the given column index
-            String habit = cursor.getString(habitColumnIndex);
+            // Keep it for the next time the editor opens on this habit (not if a habit changed
+            // since the load started, nor the reloads after a change)
+            mRepository.remember(habit, mLoadGeneration);
 
             // Update the views on the screen with the values from the database
-            mHabitText.setText(habit);
-
+            showHabit(habit);
         }
     }
 
+    /**
+     * Shows the values of the habit in the input fields.
+     */
+    private void showHabit(Habit habit) {
+        mHabitText.setText(habit.getName());
+        mImportanceText.setText(String.valueOf(habit.getImportance()));
+    }
+
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // If the loader is invalidated, clear out all the data from the input fields.
         mHabitText.setText("");
+        mImportanceText.setText("");
     }
 
     /**
@@ -332,4 +400,33 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         AlertDialog alertDialog = builder.create();
         alertDialog.show();
     }
+
+    /**
+     * Prompt the user to confirm that they want to delete this habit.
+     */
+    private void showDeleteConfirmationDialog() {
+        // Create an AlertDialog.Builder and set the message, and click listeners
+        // for the positive and negative buttons on the dialog.
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage("Deseja deletar este hábito?");
+        builder.setPositiveButton("Deletar", new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Delete" button, so delete the habit.
+                deleteHabit();
+            }
+        });
+        builder.setNegativeButton("Cancelar", new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Cancel" button, so dismiss the dialog
+                // and continue editing the habit.
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+
+        // Create and show the AlertDialog
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
 }
@@ -0,0 +1,147 @@
+package com.example.android.habittrackerapp;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * Counts the frames drawn while it runs and the janky ones, the frames that came later than
+ * one and a half refresh periods after the previous one (at least one frame was skipped).
+ * It listens to {@link Choreographer}, which needs Jelly Bean: on older devices it counts
+ * nothing.
+ *
+ * Start it when the screen shows (onResume), stop it when it hides (onPause). The counts can
+ * then be read, e.g. by a test scrolling the list.
+ */
+public class FrameJankCounter {
+
+    /** Refresh period of a 60 Hz display */
+    public static final long DEFAULT_FRAME_PERIOD_NANOS = 16666667L;
+
+    private final long mFramePeriodNanos;
+
+    /** Listens to the frames, null before Jelly Bean */
+    private final Object mFrameCallback;
+
+    private boolean mRunning;
+
+    /** Time of the previous frame, 0 before the first frame */
+    private long mLastFrameNanos;
+
+    private int mFrames;
+    private int mJankyFrames;
+    private int mSkippedFrames;
+    private long mWorstFrameNanos;
+
+    /**
+     * @param framePeriodNanos the refresh period of the display, e.g. 1e9 / refresh rate
+     */
+    public FrameJankCounter(long framePeriodNanos) {
+        mFramePeriodNanos = framePeriodNanos;
+        mFrameCallback = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? new FrameCallback() : null;
+    }
+
+    /**
+     * Starts counting the frames.
+     */
+    public void start() {
+        if (mRunning || mFrameCallback == null) {
+            return;
+        }
+        mRunning = true;
+        mLastFrameNanos = 0;
+        ((FrameCallback) mFrameCallback).post();
+    }
+
+    /**
+     * Stops counting the frames, the counts are kept.
+     */
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        ((FrameCallback) mFrameCallback).remove();
+    }
+
+    /**
+     * Forgets the frames counted so far.
+     */
+    public void reset() {
+        mLastFrameNanos = 0;
+        mFrames = 0;
+        mJankyFrames = 0;
+        mSkippedFrames = 0;
+        mWorstFrameNanos = 0;
+    }
+
+    /**
+     * Counts a frame that started at the given time.
+     */
+    void onFrame(long frameTimeNanos) {
+        if (mLastFrameNanos != 0) {
+            long frameNanos = frameTimeNanos - mLastFrameNanos;
+            mFrames++;
+            if (frameNanos > mWorstFrameNanos) {
+                mWorstFrameNanos = frameNanos;
+            }
+            if (frameNanos * 2 > mFramePeriodNanos * 3) {
+                mJankyFrames++;
+                // Rounded to the nearest number of periods, the frame itself excluded
+                mSkippedFrames += (int) ((frameNanos + mFramePeriodNanos / 2) / mFramePeriodNanos) - 1;
+            }
+        }
+        mLastFrameNanos = frameTimeNanos;
+    }
+
+    /** Returns the number of frames counted */
+    public int getFrames() {
+        return mFrames;
+    }
+
+    /** Returns the number of frames that came late */
+    public int getJankyFrames() {
+        return mJankyFrames;
+    }
+
+    /** Returns the number of refresh periods without a new frame */
+    public int getSkippedFrames() {
+        return mSkippedFrames;
+    }
+
+    /** Returns the longest time between two frames, in nanoseconds */
+    public long getWorstFrameNanos() {
+        return mWorstFrameNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "frames=" + mFrames + " janky=" + mJankyFrames + " skipped=" + mSkippedFrames
+                + " worst_ms=" + mWorstFrameNanos / 1000000;
+    }
+
+    /**
+     * Asks for the next frame every frame while the counter runs. Kept in its own class, so
+     * {@link Choreographer} is only loaded on Jelly Bean and later.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class FrameCallback implements Choreographer.FrameCallback {
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void remove() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mRunning) {
+                onFrame(frameTimeNanos);
+                post();
+            }
+        }
+    }
+}
@@ -1,28 +1,46 @@
 package com.example.android.habittrackerapp;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.view.ActionMode;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.example.android.habittrackerapp.EditorActivity;
-import com.example.android.habittrackerapp.HabitCursorAdapter;
 import com.example.android.habittrackerapp.R;
+import com.example.android.habittrackerapp.data.Habit;
 import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
 import com.example.android.habittrackerapp.data.HabitDbHelper;
+import com.example.android.habittrackerapp.data.HabitReminders;
+import com.example.android.habittrackerapp.data.HabitRepository;
+import com.example.android.habittrackerapp.data.HabitWriteQueue;
+
+import java.io.File;
 
 /**
  * Displays list of habits that were entered and stored in the app.
@@ -30,21 +48,102 @@ import com.example.android.habittrackerapp.data.HabitDbHelper;
 public class HabitActivity extends AppCompatActivity
         implements LoaderManager.LoaderCallbacks<Cursor> {
 
-    /** Database helper that will provide us access to the database */
+    private static final String LOG_TAG = HabitActivity.class.getSimpleName();
+
     /** Identifier for the pet data loader */
     private static final int HABIT_LOADER = 0;
 
-    /** Adapter for the ListView */
-    HabitCursorAdapter mCursorAdapter;
-    private HabitDbHelper mDbHelper;
+    /** Columns read for each list item */
+    private static final String[] LIST_PROJECTION = {
+            HabitEntry._ID,
+            HabitEntry.COLUMN_HABIT,
+            HabitEntry.COLUMN_IMPORTANCE,
+            SummaryEntry.COLUMN_LAST_DAY,
+            SummaryEntry.COLUMN_CURRENT_STREAK,
+            SummaryEntry.COLUMN_LONGEST_STREAK,
+            SummaryEntry.COLUMN_TOTAL_CHECKINS,
+            SummaryEntry.COLUMN_RECENT_DAYS };
+
+    /** Name of the file of the {@link HabitListSnapshot}, in the cache directory */
+    private static final String LIST_SNAPSHOT_FILE = "habit-list-snapshot";
+
+    /** Key of the ids of the selected habits in the saved instance state */
+    private static final String STATE_SELECTED_IDS = "selected_ids";
+
+    /** The importances offered by the bulk edit, as in the generated data: 0 to 9 */
+    private static final int IMPORTANCE_LEVELS = 10;
+
+    /** Adapter for the RecyclerView */
+    HabitAdapter mAdapter;
+
+    /** The top habits saved for the next cold start */
+    private HabitListSnapshot mListSnapshot;
+
+    /** Times the start of the list */
+    private StartupTimer mStartupTimer;
+
+    /** Counts the late frames while the list shows, in debug builds only (see {@link #getJankCounter()}) */
+    private FrameJankCounter mJankCounter;
+
+    /** Loads the list one page at a time as the user scrolls */
+    private HabitPager mPager;
+
+    /** Text searched by the user, null when the whole list is shown */
+    private String mSearchText;
+
+    /**
+     * Watches the single habits, see {@link HabitEntry#LIST_CHANGES_URI}. The loader's cursor
+     * only watches the changes of the whole list.
+     */
+    private ContentObserver mHabitObserver;
 
     /** Content URI for the existing habit (null if it's a new habit) */
     private Uri mCurrentHabitUri;
 
+    /** The contextual app bar of the selected habits, null when none are selected */
+    private ActionMode mActionMode;
+
+    /**
+     * The actions on the selected habits. Each one is a single write of all of them, so
+     * changing 200 habits is one update (and one refresh of the list), not 200.
+     */
+    private final ActionMode.Callback mSelectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_habits_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            switch (item.getItemId()) {
+                case R.id.action_set_importance:
+                    showImportanceDialog();
+                    return true;
+                case R.id.action_delete_selected:
+                    showDeleteSelectedConfirmationDialog();
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            mActionMode = null;
+            mAdapter.clearSelection();
+        }
+    };
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mStartupTimer = new StartupTimer();
         setContentView(R.layout.activity_habit);
 
         // Setup FAB to open EditorActivity
@@ -57,29 +156,32 @@ public class HabitActivity extends AppCompatActivity
             }
         });
 
-        // Find the ListView which will be populated with the pet data
-        ListView habitListView = (ListView) findViewById(R.id.list_habits);
+        // Find the RecyclerView which will be populated with the pet data
+        RecyclerView habitListView = (RecyclerView) findViewById(R.id.list_habits);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        habitListView.setLayoutManager(layoutManager);
+        // The list fills the screen, its size doesn't depend on the habits shown
+        habitListView.setHasFixedSize(true);
 
         // Setup an Adapter to create a list item for each row of pet data in the Cursor.
-        // There is no pet data yet (until the loader finishes) so pass in null for the Cursor.
-        HabitDbHelper db_h = new HabitDbHelper(this);
-
-        mCursorAdapter = new HabitCursorAdapter(this, db_h.sectAll());
-        habitListView.setAdapter(mCursorAdapter);
-
-        // Setup the item click listener
-        habitListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // There is no pet data yet (until the loader finishes), the list is empty.
+        mAdapter = new HabitAdapter(this, new HabitAdapter.OnHabitClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onHabitClick(Habit habit) {
+                // While habits are selected, a click selects (or unselects) one more
+                if (mActionMode != null) {
+                    toggleSelection(habit.getId());
+                    return;
+                }
+
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(HabitActivity.this, EditorActivity.class);
 
                 // Form the content URI that represents the specific pet that was clicked on,
-                // by appending the "id" (passed as input to this method) onto the
-                // {@link HabitEntry#CONTENT_URI}.
+                // by appending the "id" onto the {@link HabitEntry#CONTENT_URI}.
                 // For example, the URI would be "content://com.example.android.pets/pets/2"
                 // if the pet with ID 2 was clicked on.
-                Uri currentHabitUri = ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id);
+                Uri currentHabitUri = ContentUris.withAppendedId(HabitEntry.CONTENT_URI, habit.getId());
 
                 // Set the URI on the data field of the intent
                 intent.setData(currentHabitUri);
@@ -87,11 +189,280 @@ public class HabitActivity extends AppCompatActivity
                 // Launch the {@link EditorActivity} to display the data for the current pet.
                 startActivity(intent);
             }
+
+            @Override
+            public void onHabitLongClick(Habit habit) {
+                toggleSelection(habit.getId());
+            }
+        });
+        habitListView.setAdapter(mAdapter);
+
+        // The habits selected before a rotation stay selected
+        long[] selectedIds = savedInstanceState == null ? null
+                : savedInstanceState.getLongArray(STATE_SELECTED_IDS);
+        if (selectedIds != null && selectedIds.length > 0) {
+            mAdapter.setSelectedIds(selectedIds);
+            mActionMode = startSupportActionMode(mSelectionCallback);
+            updateSelectionTitle(selectedIds.length);
+        }
+
+        // The loader reads the first page, the pager reads the next ones while scrolling
+        mPager = new HabitPager(getContentResolver(), HabitRepository.getInstance(this),
+                SummaryEntry.CONTENT_URI, LIST_PROJECTION,
+                new HabitPager.Listener() {
+                    @Override
+                    public void onFirstPage(Cursor firstPage) {
+                        mAdapter.swapCursor(firstPage);
+                    }
+
+                    @Override
+                    public void onPageAdded(Cursor page) {
+                        mAdapter.appendCursor(page);
+                    }
+
+                    @Override
+                    public void onRowChanged(int position, Cursor row) {
+                        mAdapter.changeItem(position, row);
+                    }
+
+                    @Override
+                    public void onReloadNeeded() {
+                        reloadList();
+                    }
+                });
+        habitListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Wait for the last page to be shown before asking for the next one
+                if (!mAdapter.isDiffPending()) {
+                    mPager.onScrolled(layoutManager.findLastVisibleItemPosition(),
+                            mAdapter.getItemCount());
+                }
+            }
         });
-        // To access our database, we instantiate our subclass of SQLiteOpenHelper
-        // and pass the context, which is the current activity.
-        mDbHelper = new HabitDbHelper(this);
+
+        if (BuildConfig.DEBUG) {
+            float refreshRate = getWindowManager().getDefaultDisplay().getRefreshRate();
+            mJankCounter = new FrameJankCounter(refreshRate > 0
+                    ? (long) (1000000000L / refreshRate) : FrameJankCounter.DEFAULT_FRAME_PERIOD_NANOS);
+        }
+
+        // Until the database answers, show the top habits saved by the last run. The database
+        // itself is only opened by the loader, in the background.
+        mStartupTimer.watch(habitListView);
+        mListSnapshot = new HabitListSnapshot(getListSnapshotFile(this), LIST_PROJECTION);
+        if (savedInstanceState == null) {
+            Cursor snapshot = mListSnapshot.read();
+            if (snapshot != null) {
+                mAdapter.swapCursor(snapshot);
+                snapshot.close();
+                mStartupTimer.onSnapshotShown();
+            }
+        }
         getLoaderManager().initLoader(HABIT_LOADER, null, this);
+
+        // When a single habit changes (e.g. it was edited, or checked in) only that habit is
+        // read again, the rest of the list stays as it is
+        mHabitObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onHabitsChanged(uri);
+            }
+        };
+        getContentResolver().registerContentObserver(HabitEntry.CONTENT_URI, true, mHabitObserver);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (mJankCounter != null) {
+            mJankCounter.start();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (mJankCounter != null) {
+            mJankCounter.stop();
+        }
+    }
+
+    /**
+     * Returns the frame counter of the list, null in release builds. For the tests.
+     */
+    public FrameJankCounter getJankCounter() {
+        return mJankCounter;
+    }
+
+    /**
+     * Returns the times of the start of the list. For the tests.
+     */
+    public StartupTimer getStartupTimer() {
+        return mStartupTimer;
+    }
+
+    /**
+     * Returns the file of the top habits saved for the next cold start.
+     */
+    static File getListSnapshotFile(Context context) {
+        return new File(context.getCacheDir(), LIST_SNAPSHOT_FILE);
+    }
+
+    /**
+     * Returns the adapter of the list. For the tests.
+     */
+    public HabitAdapter getAdapter() {
+        return mAdapter;
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (mActionMode != null) {
+            outState.putLongArray(STATE_SELECTED_IDS, mAdapter.getSelectedIds());
+        }
+    }
+
+    /**
+     * Selects or unselects the habit, starting the contextual app bar with the first selected
+     * habit and finishing it when the last one is unselected.
+     */
+    private void toggleSelection(long id) {
+        int selected = mAdapter.toggleSelection(id);
+        if (selected == 0) {
+            if (mActionMode != null) {
+                mActionMode.finish();
+            }
+            return;
+        }
+        if (mActionMode == null) {
+            mActionMode = startSupportActionMode(mSelectionCallback);
+        }
+        updateSelectionTitle(selected);
+    }
+
+    private void updateSelectionTitle(int selected) {
+        if (mActionMode != null) {
+            mActionMode.setTitle(getResources().getQuantityString(R.plurals.habits_selected,
+                    selected, selected));
+        }
+    }
+
+    /**
+     * Asks for the importance to give to all the selected habits.
+     */
+    private void showImportanceDialog() {
+        final long[] ids = mAdapter.getSelectedIds();
+        String[] levels = new String[IMPORTANCE_LEVELS];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = String.valueOf(i);
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_set_importance);
+        builder.setItems(levels, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                ContentValues values = new ContentValues();
+                values.put(HabitEntry.COLUMN_IMPORTANCE, which);
+                HabitWriteQueue.getInstance(HabitActivity.this).updateAll(ids, values,
+                        new BulkResultToast(getApplicationContext(),
+                                R.string.habits_update_successful, R.string.habits_update_failed));
+                if (mActionMode != null) {
+                    mActionMode.finish();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Asks the user to confirm the delete of all the selected habits.
+     */
+    private void showDeleteSelectedConfirmationDialog() {
+        final long[] ids = mAdapter.getSelectedIds();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(getResources().getQuantityString(R.plurals.habits_delete_confirmation,
+                ids.length, ids.length));
+        builder.setPositiveButton(R.string.action_delete_selected, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // Marked as deleted in one write, the check-ins are purged later
+                HabitWriteQueue.getInstance(HabitActivity.this).deleteAll(ids,
+                        new BulkResultToast(getApplicationContext(),
+                                R.string.habits_delete_successful, R.string.habits_delete_failed));
+                if (mActionMode != null) {
+                    mActionMode.finish();
+                }
+            }
+        });
+        builder.setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Shows whether a bulk write succeeded. It only keeps the application context, so a write
+     * finishing after the list closed doesn't leak the activity.
+     */
+    private static class BulkResultToast implements HabitWriteQueue.Callback {
+
+        private final Context mContext;
+        private final int mSuccessMessage;
+        private final int mFailureMessage;
+
+        BulkResultToast(Context context, int successMessage, int failureMessage) {
+            mContext = context;
+            mSuccessMessage = successMessage;
+            mFailureMessage = failureMessage;
+        }
+
+        @Override
+        public void onWriteFinished(Uri uri) {
+            Toast.makeText(mContext, uri == null ? mFailureMessage : mSuccessMessage,
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        getContentResolver().unregisterContentObserver(mHabitObserver);
+        mPager.close();
+    }
+
+    /**
+     * Called for every change under the habits URI.
+     *
+     * @param uri the changed URI, null before Jelly Bean (which doesn't tell)
+     */
+    private void onHabitsChanged(Uri uri) {
+        long habitId = uri == null ? -1 : HabitEntry.getHabitId(uri);
+        if (habitId != -1 && mSearchText == null) {
+            mPager.onHabitChanged(habitId);
+        } else if (uri == null || habitId != -1) {
+            // Don't know what changed, or a habit of the search results (which are ranked)
+            reloadList();
+        }
+        // Otherwise the whole list changed, the loader reloads it already
+    }
+
+    /**
+     * Reads the list again from the first page (or the search again).
+     */
+    private void reloadList() {
+        Loader<Cursor> loader = getLoaderManager().getLoader(HABIT_LOADER);
+        if (loader != null) {
+            loader.onContentChanged();
+        }
     }
 
 //    @Override
@@ -106,7 +477,7 @@ public class HabitActivity extends AppCompatActivity
      */
     private void displayDatabaseInfo() {
         // Create and/or open a database to read from it
-        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        SQLiteDatabase db = HabitDbHelper.getInstance(this).getReader();
 
         // Define a projection that specifies which columns from the database
         // you will actually use after this query.
@@ -173,6 +544,36 @@ public class HabitActivity extends AppCompatActivity
         Uri newUri = getContentResolver().insert(HabitEntry.CONTENT_URI, values);
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Inflate the menu options from the res/menu/menu_habits.xml file.
+        // This adds menu items to the app bar.
+        getMenuInflater().inflate(R.menu.menu_habits, menu);
+        // The dummy insert is for debugging only (it inserts a habit without a name)
+        menu.findItem(R.id.action_insert_habit).setVisible(false);
+
+        // Search as the user types. Restarting the loader cancels the search still running
+        // for the previous text, only the last one is read to the end.
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String searchText = TextUtils.isEmpty(newText.trim()) ? null : newText;
+                if (!TextUtils.equals(searchText, mSearchText)) {
+                    mSearchText = searchText;
+                    getLoaderManager().restartLoader(HABIT_LOADER, null, HabitActivity.this);
+                }
+                return true;
+            }
+        });
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -188,30 +589,71 @@ public class HabitActivity extends AppCompatActivity
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                HabitEntry._ID,
-                HabitEntry.COLUMN_HABIT,
-                HabitEntry.COLUMN_IMPORTANCE };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                HabitEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+        TracedCursorLoader loader;
+        if (mSearchText != null) {
+            // The best matches of the search, they aren't paged
+            loader = new TracedCursorLoader(this, "HabitActivity.loadSearch",
+                    HabitEntry.buildPageUri(HabitEntry.buildSearchUri(mSearchText), HabitPager.PAGE_SIZE),
+                    LIST_PROJECTION, null, null, null);
+        } else {
+            // This loader will execute the ContentProvider's query method on a background thread
+            loader = new TracedCursorLoader(this,   // Parent activity context
+                    "HabitActivity.loadFirstPage", // Trace section of the load
+                    mPager.getFirstPageUri(), // First page of the habits joined with their summaries
+                    LIST_PROJECTION,        // Columns to include in the resulting Cursor
+                    null,                   // No selection clause
+                    null,                   // No selection arguments
+                    null);                  // Keyset order of the pages
+        }
+        // The habits shown open in the editor without being read again
+        loader.setRepository(HabitRepository.getInstance(this));
+        return loader;
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link PetCursorAdapter} with this new cursor containing updated pet data
-        mCursorAdapter.swapCursor(data);
+        if (mSearchText != null) {
+            // Search results replace the pages of the list
+            mPager.close();
+            mAdapter.swapCursor(data);
+            return;
+        }
+
+        // The data changed (or was loaded for the first time): start over from the new first
+        // page, the pager hands it to the adapter. It replaces the habits of the snapshot.
+        mPager.setFirstPage(data);
+        mListSnapshot.save(data);
+        if (mStartupTimer.onLiveDataShown()) {
+            onStartupComplete();
+        }
+    }
+
+    /**
+     * Called once the habits of the database are shown for the first time.
+     */
+    private void onStartupComplete() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Shows as "Fully drawn" in the logcat of the system, next to "Displayed"
+            reportFullyDrawn();
+        }
+        if (BuildConfig.DEBUG) {
+            Log.i(LOG_TAG, "Startup " + mStartupTimer);
+        }
+
+        // Register the next reminder (a force stop drops it), once the list doesn't compete
+        // for the database any more
+        final HabitReminders reminders = HabitDbHelper.getInstance(this).getReminders();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                reminders.start();
+            }
+        });
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        mPager.setFirstPage(null);
     }
 }
\ No newline at end of file
@@ -0,0 +1,481 @@
+package com.example.android.habittrackerapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.example.android.habittrackerapp.data.Habit;
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+import com.example.android.habittrackerapp.data.HabitMetrics;
+import com.example.android.habittrackerapp.data.HabitSummary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link RecyclerView} adapter for the habit list.
+ *
+ * The rows of the cursors given to {@link #swapCursor(Cursor)} are copied into {@link Item}s,
+ * so the adapter never keeps a cursor: the loader and the pager can close theirs whenever they
+ * want. The copy reads the cursor windows already filled in the background, the column indices
+ * are looked up once per cursor. The old and new items are then compared with {@link DiffUtil}
+ * on a background thread, and only the rows that changed are bound again. The pages added at
+ * the end of the list ({@link #appendCursor(Cursor)}) and the habits refreshed one by one
+ * ({@link #changeItem(int, Cursor)}) are only copied themselves, without a diff.
+ *
+ * The habits can be selected (for a bulk edit): the selected ones show as activated. The
+ * selection is kept by id, so it survives the list changing under it.
+ */
+public class HabitAdapter extends RecyclerView.Adapter<HabitAdapter.HabitViewHolder> {
+
+    /**
+     * Receives the clicks on the habits of the list.
+     */
+    public interface OnHabitClickListener {
+        void onHabitClick(Habit habit);
+
+        /**
+         * A long click, which starts selecting habits.
+         */
+        void onHabitLongClick(Habit habit);
+    }
+
+    /**
+     * Computes the differences between the lists, one at a time, off the main thread.
+     */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+    private final OnHabitClickListener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The habits shown. Only modified in place while no diff is pending, otherwise a new list
+     * replaces it when its diff is done.
+     */
+    private List<Item> mItems = new ArrayList<>();
+
+    /** The newest habits: {@link #mItems}, or the new list of the pending diff */
+    private List<Item> mLatestItems = mItems;
+
+    /** Incremented on every swap, so an older diff finishing late is dropped */
+    private int mGeneration;
+
+    /** The generation of the habits shown */
+    private int mShownGeneration;
+
+    /** The column indices of the last cursor, reused while the columns stay the same */
+    private Columns mColumns;
+
+    /** Number of items copied so far, from the cursors or from the lists of items */
+    private int mItemsCopied;
+
+    /** The ids of the selected habits */
+    private final Set<Long> mSelectedIds = new HashSet<>();
+
+    public HabitAdapter(Context context, OnHabitClickListener listener) {
+        mContext = context;
+        mListener = listener;
+        // The ids are the habit ids, so the items keep their views when the list changes
+        setHasStableIds(true);
+    }
+
+    /**
+     * Shows the habits of the cursor (null to show none). The cursor is read right away and
+     * not kept. The differences with the habits shown before are computed in the background
+     * and animated once known.
+     */
+    public void swapCursor(Cursor cursor) {
+        List<Item> newItems = new ArrayList<>();
+        readItems(cursor, newItems);
+        swapItems(newItems);
+    }
+
+    /**
+     * Shows the habits of the cursor after the ones shown, e.g. the next page of the list. Only
+     * the rows of the cursor are copied.
+     */
+    public void appendCursor(Cursor cursor) {
+        if (!isDiffPending()) {
+            int start = mItems.size();
+            readItems(cursor, mItems);
+            notifyItemRangeInserted(start, mItems.size() - start);
+            return;
+        }
+
+        // The habits shown are about to be replaced, append to the ones replacing them
+        List<Item> newItems = new ArrayList<>(mLatestItems);
+        mItemsCopied += newItems.size();
+        readItems(cursor, newItems);
+        swapItems(newItems);
+    }
+
+    /**
+     * Shows the habit of the cursor (at its current row) at the given position, instead of the
+     * same habit shown there. Only that row is copied and bound again.
+     */
+    public void changeItem(int position, Cursor cursor) {
+        Item item = new Item(cursor, getColumns(cursor));
+        mItemsCopied++;
+        // Not the list the position was found in (e.g. search results shown meanwhile)
+        if (position >= mLatestItems.size() || mLatestItems.get(position).mId != item.mId) {
+            return;
+        }
+
+        if (!isDiffPending()) {
+            mItems.set(position, item);
+            notifyItemChanged(position);
+            return;
+        }
+
+        // The habits shown are about to be replaced, change the ones replacing them
+        List<Item> newItems = new ArrayList<>(mLatestItems);
+        mItemsCopied += newItems.size();
+        newItems.set(position, item);
+        swapItems(newItems);
+    }
+
+    /**
+     * Returns the number of items copied so far, from the cursors or from the lists of items.
+     * For the tests.
+     */
+    public int getItemsCopied() {
+        return mItemsCopied;
+    }
+
+    /**
+     * Shows the given habits, after a diff with the ones shown.
+     */
+    private void swapItems(final List<Item> newItems) {
+        final int generation = ++mGeneration;
+        final List<Item> oldItems = mItems;
+        mLatestItems = newItems;
+
+        // Nothing to compare with: no need for a diff
+        if (oldItems.isEmpty() || newItems.isEmpty()) {
+            mItems = newItems;
+            mShownGeneration = generation;
+            notifyDataSetChanged();
+            return;
+        }
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff =
+                        DiffUtil.calculateDiff(new ItemDiff(oldItems, newItems), true);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list was swapped in meanwhile, it has its own diff
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mItems = newItems;
+                        mShownGeneration = generation;
+                        diff.dispatchUpdatesTo(HabitAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns whether a newer list is still being compared with the shown one (its habits
+     * aren't shown yet).
+     */
+    public boolean isDiffPending() {
+        return mShownGeneration != mGeneration;
+    }
+
+    /**
+     * Copies the rows of the cursor to the end of the items.
+     */
+    private void readItems(Cursor cursor, List<Item> items) {
+        if (cursor == null || cursor.getCount() == 0) {
+            return;
+        }
+        Columns columns = getColumns(cursor);
+        for (int position = 0; cursor.moveToPosition(position); position++) {
+            items.add(new Item(cursor, columns));
+        }
+        mItemsCopied += cursor.getCount();
+    }
+
+    /**
+     * Returns the column indices of the cursor, looked up again only if its columns changed.
+     */
+    private Columns getColumns(Cursor cursor) {
+        String[] columnNames = cursor.getColumnNames();
+        if (mColumns == null || !Arrays.equals(mColumns.mNames, columnNames)) {
+            mColumns = new Columns(cursor, columnNames);
+        }
+        return mColumns;
+    }
+
+    /**
+     * Selects the habit, or unselects it if it was selected.
+     *
+     * @return the number of habits selected now
+     */
+    public int toggleSelection(long id) {
+        if (!mSelectedIds.remove(id)) {
+            mSelectedIds.add(id);
+        }
+        int position = findPosition(id);
+        if (position != -1) {
+            notifyItemChanged(position);
+        }
+        return mSelectedIds.size();
+    }
+
+    /**
+     * Selects the given habits instead of the selected ones, e.g. after a rotation.
+     */
+    public void setSelectedIds(long[] ids) {
+        mSelectedIds.clear();
+        for (long id : ids) {
+            mSelectedIds.add(id);
+        }
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Unselects all the habits.
+     */
+    public void clearSelection() {
+        if (!mSelectedIds.isEmpty()) {
+            mSelectedIds.clear();
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Returns the ids of the selected habits, in no particular order.
+     */
+    public long[] getSelectedIds() {
+        long[] ids = new long[mSelectedIds.size()];
+        int i = 0;
+        for (long id : mSelectedIds) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the position of the habit in the list, -1 if it isn't shown.
+     */
+    private int findPosition(long id) {
+        for (int position = 0; position < mItems.size(); position++) {
+            if (mItems.get(position).mId == id) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).mId;
+    }
+
+    @Override
+    public HabitViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+        return new HabitViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(HabitViewHolder holder, int position) {
+        HabitMetrics.beginSection("HabitAdapter.bind");
+        try {
+            Item item = mItems.get(position);
+            holder.mItem = item;
+
+            // Update the TextViews with the attributes for the current habit
+            holder.mHabitTextView.setText(item.mName);
+            holder.mImportanceTextView.setText(String.valueOf(item.mImportance));
+            holder.mStreakTextView.setText(getStreakText(item));
+            holder.itemView.setActivated(mSelectedIds.contains(item.mId));
+        } finally {
+            HabitMetrics.endSection();
+        }
+    }
+
+    /**
+     * Builds the streak line from the summary columns joined to the habit row (see
+     * {@link SummaryEntry#CONTENT_URI}). Nothing is scanned, the summary is already up to date.
+     */
+    private String getStreakText(Item item) {
+        // Habits without check-ins have no summary row
+        if (!item.mHasSummary) {
+            return mContext.getString(R.string.habit_no_checkins);
+        }
+
+        long today = CheckinEntry.toEpochDay(System.currentTimeMillis(), TimeZone.getDefault());
+        return mContext.getString(R.string.habit_streak_summary,
+                HabitSummary.currentStreak(item.mLastDay, item.mCurrentStreak, today),
+                item.mLongestStreak,
+                Math.round(HabitSummary.completionRate(item.mLastDay, item.mRecentDays, today) * 100));
+    }
+
+    /**
+     * Holds the views of one list item, found once when the item is created.
+     */
+    class HabitViewHolder extends RecyclerView.ViewHolder
+            implements View.OnClickListener, View.OnLongClickListener {
+
+        final TextView mHabitTextView;
+        final TextView mImportanceTextView;
+        final TextView mStreakTextView;
+
+        /** The habit shown */
+        Item mItem;
+
+        HabitViewHolder(View itemView) {
+            super(itemView);
+            mHabitTextView = (TextView) itemView.findViewById(R.id.habit_textView);
+            mImportanceTextView = (TextView) itemView.findViewById(R.id.habit_importance);
+            mStreakTextView = (TextView) itemView.findViewById(R.id.habit_streak);
+            itemView.setOnClickListener(this);
+            itemView.setOnLongClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (mItem != null) {
+                mListener.onHabitClick(new Habit(mItem.mId, mItem.mName, mItem.mImportance));
+            }
+        }
+
+        @Override
+        public boolean onLongClick(View view) {
+            if (mItem == null) {
+                return false;
+            }
+            mListener.onHabitLongClick(new Habit(mItem.mId, mItem.mName, mItem.mImportance));
+            return true;
+        }
+    }
+
+    /**
+     * The indices of the list columns in a cursor, -1 for the missing ones (e.g. the summary
+     * columns of a plain habit list).
+     */
+    private static final class Columns {
+        final String[] mNames;
+        final int mId;
+        final int mName;
+        final int mImportance;
+        final int mLastDay;
+        final int mCurrentStreak;
+        final int mLongestStreak;
+        final int mTotalCheckins;
+        final int mRecentDays;
+
+        Columns(Cursor cursor, String[] names) {
+            mNames = names;
+            mId = cursor.getColumnIndexOrThrow(HabitEntry._ID);
+            mName = cursor.getColumnIndexOrThrow(HabitEntry.COLUMN_HABIT);
+            mImportance = cursor.getColumnIndexOrThrow(HabitEntry.COLUMN_IMPORTANCE);
+            mLastDay = cursor.getColumnIndex(SummaryEntry.COLUMN_LAST_DAY);
+            mCurrentStreak = cursor.getColumnIndex(SummaryEntry.COLUMN_CURRENT_STREAK);
+            mLongestStreak = cursor.getColumnIndex(SummaryEntry.COLUMN_LONGEST_STREAK);
+            mTotalCheckins = cursor.getColumnIndex(SummaryEntry.COLUMN_TOTAL_CHECKINS);
+            mRecentDays = cursor.getColumnIndex(SummaryEntry.COLUMN_RECENT_DAYS);
+        }
+    }
+
+    /**
+     * One habit of the list, with its summary. Immutable.
+     */
+    static final class Item {
+        final long mId;
+        final String mName;
+        final int mImportance;
+        final boolean mHasSummary;
+        final long mLastDay;
+        final int mCurrentStreak;
+        final int mLongestStreak;
+        final long mRecentDays;
+
+        Item(Cursor cursor, Columns columns) {
+            mId = cursor.getLong(columns.mId);
+            mName = cursor.getString(columns.mName);
+            mImportance = cursor.getInt(columns.mImportance);
+            mHasSummary = columns.mTotalCheckins != -1 && !cursor.isNull(columns.mTotalCheckins);
+            mLastDay = mHasSummary ? cursor.getLong(columns.mLastDay) : 0;
+            mCurrentStreak = mHasSummary ? cursor.getInt(columns.mCurrentStreak) : 0;
+            mLongestStreak = mHasSummary ? cursor.getInt(columns.mLongestStreak) : 0;
+            mRecentDays = mHasSummary ? cursor.getLong(columns.mRecentDays) : 0;
+        }
+
+        /**
+         * Returns whether the item shows the same thing as the other one.
+         */
+        boolean sameContentAs(Item other) {
+            return mImportance == other.mImportance
+                    && mHasSummary == other.mHasSummary
+                    && mLastDay == other.mLastDay
+                    && mCurrentStreak == other.mCurrentStreak
+                    && mLongestStreak == other.mLongestStreak
+                    && mRecentDays == other.mRecentDays
+                    && TextUtils.equals(mName, other.mName);
+        }
+    }
+
+    /**
+     * Compares two lists of habits, by id and then by content.
+     */
+    private static final class ItemDiff extends DiffUtil.Callback {
+        private final List<Item> mOldItems;
+        private final List<Item> mNewItems;
+
+        ItemDiff(List<Item> oldItems, List<Item> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).mId == mNewItems.get(newItemPosition).mId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).sameContentAs(mNewItems.get(newItemPosition));
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.android.habittrackerapp;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the top habits of the list in a small file, so a cold start can show them right away,
+ * from the first frame, before the database is even opened. The list loaded from the database
+ * then replaces them.
+ *
+ * The file holds at most {@link #MAX_ROWS} rows, a screenful: reading it takes well under a
+ * millisecond, which is why {@link #read()} is the only disk access made on the main thread.
+ * It is saved again, in the background, whenever the first page of the list changes.
+ *
+ * The format is [version, column names, rows], each value a type byte followed by the value.
+ * A file that can't be read (older version, other columns, truncated) is ignored.
+ */
+public class HabitListSnapshot {
+
+    private static final String LOG_TAG = HabitListSnapshot.class.getSimpleName();
+
+    /** Number of habits kept, enough to fill the first screen */
+    public static final int MAX_ROWS = 20;
+
+    /** Version of the format written, other versions are ignored */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_LONG = 1;
+    private static final int TYPE_DOUBLE = 2;
+    private static final int TYPE_TEXT = 3;
+
+    private final File mFile;
+
+    /** Runs the saves, one after the other */
+    private final Executor mExecutor;
+
+    /** The columns of the list, a snapshot with other columns is ignored */
+    private final String[] mColumns;
+
+    /** The rows saved last, so an unchanged first page isn't written again */
+    private Object[][] mSavedRows;
+
+    /**
+     * @param file    where the habits are kept, e.g. in the cache directory
+     * @param columns the columns of the list
+     */
+    public HabitListSnapshot(File file, String[] columns) {
+        // One save after the other, so the last one wins
+        this(file, columns, AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    HabitListSnapshot(File file, String[] columns, Executor executor) {
+        mFile = file;
+        mColumns = columns.clone();
+        mExecutor = executor;
+    }
+
+    /**
+     * Reads the habits saved last, null if there are none (first start, or the file couldn't be
+     * read).
+     */
+    public Cursor read() {
+        DataInputStream input;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            Object[][] rows = readRows(input);
+            if (rows == null) {
+                return null;
+            }
+            mSavedRows = rows;
+            MatrixCursor cursor = new MatrixCursor(mColumns, rows.length);
+            for (Object[] row : rows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring the unreadable snapshot " + mFile, e);
+            return null;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException e) {
+                // Nothing left to read
+            }
+        }
+    }
+
+    private Object[][] readRows(DataInputStream input) throws IOException {
+        if (input.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        String[] columns = new String[input.readInt()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = input.readUTF();
+        }
+        if (!Arrays.equals(columns, mColumns)) {
+            // Saved by an older version of the list
+            return null;
+        }
+
+        int count = input.readInt();
+        if (count < 0 || count > MAX_ROWS) {
+            throw new IOException("Bad row count " + count);
+        }
+        Object[][] rows = new Object[count][columns.length];
+        for (Object[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                int type = input.readByte();
+                switch (type) {
+                    case TYPE_NULL:
+                        row[i] = null;
+                        break;
+                    case TYPE_LONG:
+                        row[i] = input.readLong();
+                        break;
+                    case TYPE_DOUBLE:
+                        row[i] = input.readDouble();
+                        break;
+                    case TYPE_TEXT:
+                        row[i] = input.readUTF();
+                        break;
+                    default:
+                        throw new IOException("Bad value type " + type);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Saves the first {@link #MAX_ROWS} habits of the cursor, the first page of the list. The
+     * rows are copied right away (the cursor can be closed after) and written in the background,
+     * unless they didn't change since the last save.
+     */
+    public void save(Cursor firstPage) {
+        final Object[][] rows = copyRows(firstPage);
+        if (Arrays.deepEquals(rows, mSavedRows)) {
+            return;
+        }
+        mSavedRows = rows;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(rows);
+                } catch (IOException e) {
+                    // The next start shows the list a little later, that's all
+                    Log.w(LOG_TAG, "Failed to save the snapshot " + mFile, e);
+                }
+            }
+        });
+    }
+
+    private Object[][] copyRows(Cursor cursor) {
+        int[] indices = new int[mColumns.length];
+        for (int i = 0; i < mColumns.length; i++) {
+            indices[i] = cursor.getColumnIndexOrThrow(mColumns[i]);
+        }
+
+        Object[][] rows = new Object[Math.min(cursor.getCount(), MAX_ROWS)][];
+        for (int position = 0; position < rows.length && cursor.moveToPosition(position); position++) {
+            Object[] row = new Object[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                switch (cursor.getType(indices[i])) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        row[i] = null;
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(indices[i]);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(indices[i]);
+                        break;
+                    default:
+                        row[i] = cursor.getString(indices[i]);
+                        break;
+                }
+            }
+            rows[position] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * Writes the rows next to the file first, then replaces it, so a start never reads a half
+     * written snapshot.
+     */
+    private void write(Object[][] rows) throws IOException {
+        File partial = new File(mFile.getPath() + ".partial");
+        DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partial)));
+        try {
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(mColumns.length);
+            for (String column : mColumns) {
+                output.writeUTF(column);
+            }
+            output.writeInt(rows.length);
+            for (Object[] row : rows) {
+                for (Object value : row) {
+                    if (value == null) {
+                        output.writeByte(TYPE_NULL);
+                    } else if (value instanceof Long) {
+                        output.writeByte(TYPE_LONG);
+                        output.writeLong((Long) value);
+                    } else if (value instanceof Double) {
+                        output.writeByte(TYPE_DOUBLE);
+                        output.writeDouble((Double) value);
+                    } else {
+                        output.writeByte(TYPE_TEXT);
+                        output.writeUTF((String) value);
+                    }
+                }
+            }
+        } finally {
+            output.close();
+        }
+        if (!partial.renameTo(mFile)) {
+            partial.delete();
+            throw new IOException("Can't replace " + mFile);
+        }
+    }
+
+    /**
+     * Deletes the saved habits, e.g. to measure a start without them.
+     */
+    public void delete() {
+        mSavedRows = null;
+        mFile.delete();
+    }
+}
@@ -0,0 +1,416 @@
+package com.example.android.habittrackerapp;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.text.TextUtils;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitMetrics;
+import com.example.android.habittrackerapp.data.HabitRepository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads a habit list one page at a time, in the keyset order of
+ * {@link HabitEntry#buildPageUri(Uri, int, String, long)}. Only the first page is read when the
+ * list opens, the next ones are read in the background as the user scrolls towards the end,
+ * and handed over one by one: the list appends each new page to the rows it already has.
+ *
+ * When a single habit changes ({@link #onHabitChanged(long)}) only that habit is read again,
+ * and handed over with its position: the list replaces that one row. The pages are loaded
+ * again only if the habit moved in the list.
+ *
+ * The habits read by the pager are remembered in the {@link HabitRepository}, so opening one
+ * of them in the editor doesn't read it again.
+ */
+public class HabitPager {
+
+    /**
+     * Number of habits per page, about two screens of list items.
+     */
+    public static final int PAGE_SIZE = 50;
+
+    /**
+     * Receives the pages as they are loaded.
+     */
+    public interface Listener {
+        /**
+         * Called with a new first page (null when there are no pages): the list starts over
+         * from it.
+         */
+        void onFirstPage(Cursor firstPage);
+
+        /**
+         * Called with the next page once it is loaded, its rows follow the ones already given.
+         */
+        void onPageAdded(Cursor page);
+
+        /**
+         * Called when a loaded habit changed but kept its place in the list. The cursor is
+         * positioned on the new values of the habit, in the columns of the pages, and closed
+         * once the call returns.
+         */
+        void onRowChanged(int position, Cursor row);
+
+        /**
+         * Called when a changed habit can't just be refreshed in place: it moved in the list,
+         * left it or joined the loaded part of it. The first page must be loaded again (and
+         * given to {@link #setFirstPage(Cursor)}).
+         */
+        void onReloadNeeded();
+    }
+
+    private final ContentResolver mContentResolver;
+    private final HabitRepository mRepository;
+    private final Uri mListUri;
+    private final String[] mProjection;
+    private final Listener mListener;
+
+    /**
+     * Loaded pages, in order. The first one belongs to the loader and isn't closed here. Every
+     * page but the last one has {@link #PAGE_SIZE} rows, so the page of a position is
+     * {@code position / PAGE_SIZE}.
+     */
+    private final List<Cursor> mPages = new ArrayList<>();
+
+    /** Number of rows in the loaded pages */
+    private int mLoadedCount;
+
+    /** The position of each loaded habit, by id */
+    private final Map<Long, Integer> mPositions = new HashMap<>();
+
+    /** The task loading the next page, null when idle */
+    private NextPageTask mNextPageTask;
+
+    /** True once a page came back shorter than {@link #PAGE_SIZE} */
+    private boolean mEndReached;
+
+    /**
+     * Incremented with every new first page, so a habit read again for older pages isn't
+     * shown over the new ones.
+     */
+    private int mFirstPageGeneration;
+
+    /**
+     * @param repository where to remember the habits read, null to remember none
+     * @param listUri    the habit list to page through, e.g. {@link HabitEntry#CONTENT_URI}, with
+     *                   its order and filters if any
+     * @param projection the columns to read, must contain {@link HabitEntry#_ID} and the sort
+     *                   column of the list ({@link HabitEntry#getSortColumn(Uri)}), and the
+     *                   columns of {@link com.example.android.habittrackerapp.data.Habit#PROJECTION}
+     *                   if there is a repository
+     */
+    public HabitPager(ContentResolver contentResolver, HabitRepository repository, Uri listUri,
+                      String[] projection, Listener listener) {
+        mContentResolver = contentResolver;
+        mRepository = repository;
+        mListUri = listUri;
+        mProjection = projection;
+        mListener = listener;
+    }
+
+    /**
+     * Returns the URI of the first page, for the loader.
+     */
+    public Uri getFirstPageUri() {
+        return HabitEntry.buildPageUri(mListUri, PAGE_SIZE);
+    }
+
+    /**
+     * Starts over from a freshly loaded first page (null when the loader is reset). The pages
+     * loaded after the old first page are dropped.
+     */
+    public void setFirstPage(Cursor firstPage) {
+        if (mNextPageTask != null) {
+            mNextPageTask.cancel(false);
+            mNextPageTask = null;
+        }
+        for (int i = 1; i < mPages.size(); i++) {
+            mPages.get(i).close();
+        }
+        mPages.clear();
+        mLoadedCount = 0;
+        mPositions.clear();
+        mFirstPageGeneration++;
+
+        if (firstPage == null) {
+            mEndReached = true;
+            mListener.onFirstPage(null);
+            return;
+        }
+        mEndReached = firstPage.getCount() < PAGE_SIZE;
+        appendPage(firstPage);
+        mListener.onFirstPage(firstPage);
+    }
+
+    /**
+     * Call when the list scrolls. Loads the next page once the last visible position gets within
+     * half a page of the loaded end.
+     */
+    public void onScrolled(int lastVisiblePosition, int loadedCount) {
+        if (mEndReached || mNextPageTask != null || mPages.isEmpty()
+                || lastVisiblePosition < loadedCount - PAGE_SIZE / 2) {
+            return;
+        }
+
+        // The next page starts after the last loaded row
+        Cursor lastPage = mPages.get(mPages.size() - 1);
+        if (!lastPage.moveToLast()) {
+            return;
+        }
+        String lastKey = lastPage.getString(lastPage.getColumnIndex(HabitEntry.getSortColumn(mListUri)));
+        long lastId = lastPage.getLong(lastPage.getColumnIndex(HabitEntry._ID));
+
+        mNextPageTask = new NextPageTask();
+        mNextPageTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                HabitEntry.buildPageUri(mListUri, PAGE_SIZE, lastKey, lastId));
+    }
+
+    /**
+     * Closes the pages loaded by the pager (not the first one, which belongs to the loader).
+     */
+    public void close() {
+        setFirstPage(null);
+    }
+
+    /**
+     * Call when a single habit changed, e.g. on a change notification of its URI
+     * ({@link HabitEntry#getHabitId(Uri)}). Only that habit is read again, in the background.
+     */
+    public void onHabitChanged(long habitId) {
+        if (mPages.isEmpty()) {
+            return;
+        }
+        // One after the other, so two changes of the same habit are shown in order
+        new RefreshRowTask(habitId, mFirstPageGeneration)
+                .executeOnExecutor(AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    private void addPage(Cursor page) {
+        mNextPageTask = null;
+        if (page == null) {
+            return;
+        }
+        mEndReached = page.getCount() < PAGE_SIZE;
+        if (page.getCount() == 0) {
+            page.close();
+            return;
+        }
+        appendPage(page);
+        // Only the new rows, the list already has the others
+        mListener.onPageAdded(page);
+    }
+
+    /**
+     * Adds the page after the loaded ones, and the positions of its habits.
+     */
+    private void appendPage(Cursor page) {
+        mPages.add(page);
+        int idColumn = page.getColumnIndex(HabitEntry._ID);
+        for (int row = 0; page.moveToPosition(row); row++) {
+            mPositions.put(page.getLong(idColumn), mLoadedCount + row);
+        }
+        mLoadedCount += page.getCount();
+    }
+
+    /**
+     * Shows a habit read again by {@link RefreshRowTask}.
+     *
+     * @param row the cursor positioned on the new values of the habit, null if the habit is no
+     *            longer in the list (deleted, or filtered out)
+     * @param key the sort key of the habit
+     */
+    private void showRefreshedRow(long habitId, Cursor row, String key) {
+        Integer position = mPositions.get(habitId);
+        if (position != null) {
+            // A habit that left the list or moved in it: the rows around it change too
+            if (row == null || !TextUtils.equals(key, getSortKey(position))) {
+                mListener.onReloadNeeded();
+                return;
+            }
+            mListener.onRowChanged(position, row);
+            return;
+        }
+
+        // A habit not loaded (yet) that now belongs in the loaded part of the list
+        if (row != null && (mEndReached || sortsBeforeLastLoaded(key, habitId))) {
+            mListener.onReloadNeeded();
+        }
+    }
+
+    /**
+     * Moves to the loaded row at the position, in its page, and returns the page.
+     */
+    private Cursor moveToRow(int position) {
+        Cursor page = mPages.get(position / PAGE_SIZE);
+        page.moveToPosition(position % PAGE_SIZE);
+        return page;
+    }
+
+    /**
+     * Returns the sort key of the loaded row at the position. A habit refreshed in place kept
+     * its key, the page still holds it.
+     */
+    private String getSortKey(int position) {
+        Cursor page = moveToRow(position);
+        return page.getString(page.getColumnIndex(HabitEntry.getSortColumn(mListUri)));
+    }
+
+    /**
+     * Returns whether a habit with the given sort key and id comes before the last loaded one,
+     * in the keyset order of the list.
+     */
+    private boolean sortsBeforeLastLoaded(String key, long habitId) {
+        int last = mLoadedCount - 1;
+        String lastKey = getSortKey(last);
+        Cursor lastPage = moveToRow(last);
+        long lastId = lastPage.getLong(lastPage.getColumnIndex(HabitEntry._ID));
+
+        int order;
+        if (HabitEntry.COLUMN_HABIT.equals(HabitEntry.getSortColumn(mListUri))) {
+            // By name, then by id
+            order = compareUtf8(key, lastKey);
+            if (order == 0) {
+                order = compare(habitId, lastId);
+            }
+        } else {
+            // Most important first, then newest first
+            order = compare(Long.parseLong(lastKey), Long.parseLong(key));
+            if (order == 0) {
+                order = compare(lastId, habitId);
+            }
+        }
+        return order < 0;
+    }
+
+    /**
+     * Compares the strings in the order of their UTF-8 bytes, the order of the BINARY collation
+     * of SQLite. That is the order of their code points, which {@link String#compareTo(String)}
+     * doesn't follow: it compares UTF-16 units, and puts the characters above U+FFFF (stored as
+     * two surrogates, 0xD800 to 0xDFFF) before the ones from U+E000 to U+FFFF.
+     */
+    static int compareUtf8(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; ) {
+            int codePointA = a.codePointAt(i);
+            int codePointB = b.codePointAt(i);
+            if (codePointA != codePointB) {
+                return codePointA < codePointB ? -1 : 1;
+            }
+            // Same code point, same number of units in both
+            i += Character.charCount(codePointA);
+        }
+        return compare(a.length(), b.length());
+    }
+
+    /** Same as Long.compare, which needs API 19 */
+    private static int compare(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * Reads one habit of the list again off the main thread, with the columns, order and
+     * filters of the list.
+     */
+    private class RefreshRowTask extends AsyncTask<Void, Void, Cursor> {
+
+        private final long mHabitId;
+        private final int mGeneration;
+        private String mKey;
+
+        RefreshRowTask(long habitId, int generation) {
+            mHabitId = habitId;
+            mGeneration = generation;
+        }
+
+        @Override
+        protected Cursor doInBackground(Void... params) {
+            HabitMetrics.beginSection("HabitPager.refreshRow");
+            try {
+                long generation = mRepository == null ? 0 : mRepository.getGeneration();
+                Cursor cursor = mContentResolver.query(mListUri, mProjection,
+                        HabitEntry.TABLE_HABIT + "." + HabitEntry._ID + " = ?",
+                        new String[]{String.valueOf(mHabitId)}, null);
+                if (cursor != null && cursor.moveToFirst()) {
+                    // Read here, the main thread only copies the row from the filled window
+                    mKey = cursor.getString(cursor.getColumnIndex(HabitEntry.getSortColumn(mListUri)));
+                    if (mRepository != null) {
+                        mRepository.rememberAll(cursor, generation);
+                    }
+                }
+                return cursor;
+            } finally {
+                HabitMetrics.endSection();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Cursor cursor) {
+            if (cursor == null) {
+                return;
+            }
+            try {
+                // Ignored if the pages were loaded again in the meantime, they are up to date
+                if (mGeneration == mFirstPageGeneration && !mPages.isEmpty()) {
+                    showRefreshedRow(mHabitId, cursor.moveToFirst() ? cursor : null, mKey);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected void onCancelled(Cursor cursor) {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Reads one page off the main thread.
+     */
+    private class NextPageTask extends AsyncTask<Uri, Void, Cursor> {
+
+        @Override
+        protected Cursor doInBackground(Uri... uris) {
+            HabitMetrics.beginSection("HabitPager.loadNextPage");
+            try {
+                // Read before the page, so a habit changed meanwhile isn't remembered
+                long generation = mRepository == null ? 0 : mRepository.getGeneration();
+                Cursor page = mContentResolver.query(uris[0], mProjection, null, null, null);
+                if (page != null) {
+                    // Fill the cursor window here, not on the main thread
+                    page.getCount();
+                    if (mRepository != null) {
+                        mRepository.rememberAll(page, generation);
+                    }
+                }
+                return page;
+            } finally {
+                HabitMetrics.endSection();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Cursor page) {
+            if (mNextPageTask == this) {
+                addPage(page);
+            } else if (page != null) {
+                page.close();
+            }
+        }
+
+        @Override
+        protected void onCancelled(Cursor page) {
+            if (page != null) {
+                page.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.android.habittrackerapp;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitDbHelper;
+import com.example.android.habittrackerapp.data.HabitReminders;
+
+/**
+ * Shows the reminders of the habits when their alarm goes off, and registers the alarm again
+ * when the system dropped it (reboot, app update) or the clock changed.
+ *
+ * The work reads the database, so it runs in the background while the broadcast is kept alive
+ * with {@link #goAsync()}.
+ */
+public class ReminderReceiver extends BroadcastReceiver {
+
+    /** Tag of the reminder notifications, their id is the habit id */
+    private static final String NOTIFICATION_TAG = "reminder";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final Context appContext = context.getApplicationContext();
+        final String action = intent.getAction();
+        final PendingResult result = goAsync();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handle(appContext, action);
+                } finally {
+                    result.finish();
+                }
+            }
+        });
+    }
+
+    private static void handle(Context context, String action) {
+        HabitReminders reminders = HabitDbHelper.getInstance(context).getReminders();
+        if (HabitReminders.ACTION_REMINDER.equals(action)) {
+            // Takes the due habits and registers the next alarm
+            for (long habitId : reminders.pollDue()) {
+                showReminder(context, habitId);
+            }
+        } else {
+            // Boot, app update, time or time zone change
+            reminders.reschedule();
+        }
+    }
+
+    /**
+     * Shows the reminder of the habit, unless it was deleted meanwhile. Touching it opens the
+     * habit in the editor.
+     */
+    private static void showReminder(Context context, long habitId) {
+        Uri habitUri = ContentUris.withAppendedId(HabitEntry.CONTENT_URI, habitId);
+        String name;
+        Cursor cursor = context.getContentResolver().query(habitUri,
+                new String[]{HabitEntry.COLUMN_HABIT}, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            name = cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+
+        Intent intent = new Intent(context, EditorActivity.class).setData(habitUri);
+        PendingIntent contentIntent = PendingIntent.getActivity(context, (int) habitId, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        Notification notification = new NotificationCompat.Builder(context)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(name)
+                .setContentText(context.getString(R.string.reminder_notification_text))
+                .setContentIntent(contentIntent)
+                .setAutoCancel(true)
+                .build();
+        NotificationManagerCompat.from(context).notify(NOTIFICATION_TAG, (int) habitId, notification);
+    }
+}
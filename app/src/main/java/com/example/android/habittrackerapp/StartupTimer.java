@@ -0,0 +1,121 @@
+package com.example.android.habittrackerapp;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Times the start of the habit list, from the creation of the activity: to its first frame, to
+ * the first frame showing habits (from the {@link HabitListSnapshot} on a cold start, if there
+ * is one) and to the habits loaded from the database.
+ *
+ * The times are {@link System#nanoTime()} values, so a test running in the same process can
+ * measure them from when it launched the activity.
+ */
+public class StartupTimer {
+
+    /** Not happened yet */
+    public static final long NOT_YET = -1;
+
+    private final long mCreateNanos;
+
+    private long mFirstDrawNanos = NOT_YET;
+    private long mHabitsDrawnNanos = NOT_YET;
+    private long mLiveDataNanos = NOT_YET;
+
+    /** Whether the first habits drawn came from the snapshot */
+    private boolean mDrawnFromSnapshot;
+
+    /** Whether the habits shown are still the ones of the snapshot */
+    private boolean mShowingSnapshot;
+
+    /**
+     * Starts timing, call it when the activity is created.
+     */
+    public StartupTimer() {
+        mCreateNanos = System.nanoTime();
+    }
+
+    /**
+     * Watches the frames of the list until it draws its first habits.
+     */
+    public void watch(final RecyclerView list) {
+        final ViewTreeObserver observer = list.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                long now = System.nanoTime();
+                if (mFirstDrawNanos == NOT_YET) {
+                    mFirstDrawNanos = now;
+                }
+                if (list.getChildCount() > 0) {
+                    mHabitsDrawnNanos = now;
+                    mDrawnFromSnapshot = mShowingSnapshot;
+                    removeListener(list, this);
+                }
+                return true;
+            }
+        });
+    }
+
+    private static void removeListener(View view, ViewTreeObserver.OnPreDrawListener listener) {
+        // The observer given at first may have been merged into the window's since
+        ViewTreeObserver observer = view.getViewTreeObserver();
+        if (observer.isAlive()) {
+            observer.removeOnPreDrawListener(listener);
+        }
+    }
+
+    /**
+     * Call when the habits of the snapshot are shown.
+     */
+    public void onSnapshotShown() {
+        mShowingSnapshot = true;
+    }
+
+    /**
+     * Call when the habits loaded from the database replace the ones shown.
+     *
+     * @return true the first time, when the start is complete
+     */
+    public boolean onLiveDataShown() {
+        mShowingSnapshot = false;
+        if (mLiveDataNanos != NOT_YET) {
+            return false;
+        }
+        mLiveDataNanos = System.nanoTime();
+        return true;
+    }
+
+    public long getCreateNanos() {
+        return mCreateNanos;
+    }
+
+    public long getFirstDrawNanos() {
+        return mFirstDrawNanos;
+    }
+
+    public long getHabitsDrawnNanos() {
+        return mHabitsDrawnNanos;
+    }
+
+    public long getLiveDataNanos() {
+        return mLiveDataNanos;
+    }
+
+    public boolean wereHabitsDrawnFromSnapshot() {
+        return mDrawnFromSnapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "firstDraw=" + millisSinceCreate(mFirstDrawNanos)
+                + " habitsDrawn=" + millisSinceCreate(mHabitsDrawnNanos)
+                + (mDrawnFromSnapshot ? " (snapshot)" : "")
+                + " liveData=" + millisSinceCreate(mLiveDataNanos);
+    }
+
+    private String millisSinceCreate(long nanos) {
+        return nanos == NOT_YET ? "-" : (nanos - mCreateNanos) / 1000000 + "ms";
+    }
+}
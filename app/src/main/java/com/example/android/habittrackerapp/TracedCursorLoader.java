@@ -0,0 +1,55 @@
+package com.example.android.habittrackerapp;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.habittrackerapp.data.HabitMetrics;
+import com.example.android.habittrackerapp.data.HabitRepository;
+
+/**
+ * A {@link CursorLoader} whose background load is a trace section, so it shows up in systrace
+ * and Perfetto next to the queries it runs. The habits it reads can also be remembered in a
+ * {@link HabitRepository} (see {@link #setRepository(HabitRepository)}).
+ */
+public class TracedCursorLoader extends CursorLoader {
+
+    private final String mSectionName;
+
+    /** Where to remember the habits read, null to remember none */
+    private HabitRepository mRepository;
+
+    /**
+     * @param sectionName name of the trace section, e.g. "HabitActivity.load"
+     */
+    public TracedCursorLoader(Context context, String sectionName, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+        mSectionName = sectionName;
+    }
+
+    /**
+     * Remembers the habits of each load in the repository. The projection must contain the
+     * columns of {@link com.example.android.habittrackerapp.data.Habit#PROJECTION}.
+     */
+    public void setRepository(HabitRepository repository) {
+        mRepository = repository;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        HabitMetrics.beginSection(mSectionName);
+        try {
+            // Read before the habits, so a habit changed meanwhile isn't remembered
+            long generation = mRepository == null ? 0 : mRepository.getGeneration();
+            Cursor cursor = super.loadInBackground();
+            if (cursor != null && mRepository != null) {
+                mRepository.rememberAll(cursor, generation);
+            }
+            return cursor;
+        } finally {
+            HabitMetrics.endSection();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.android.habittrackerapp.data;
+
+import java.util.Arrays;
+
+/**
+ * The done days of one habit in one calendar year, one bit per day: bit i is the i-th day of
+ * the year (bit 0 is the 1st of January). A whole year fits in {@link #WORDS} longs, stored as
+ * a BLOB of at most 46 bytes in {@link HabitContract.CompletionEntry#COLUMN_DAYS}.
+ *
+ * Days are local epoch days, see {@link HabitContract.CheckinEntry#toEpochDay}. Plain Java, no
+ * Android classes.
+ */
+public final class CompletionBitmap {
+
+    /** Longs holding the days of a year, 366 bits at most */
+    static final int WORDS = 6;
+
+    /** Days from 0001-01-01 to 1970-01-01, in the proleptic Gregorian calendar */
+    private static final long DAYS_0001_TO_1970 = 719162;
+
+    /** Days in 400 years, the Gregorian calendar repeats after them */
+    private static final long DAYS_PER_400_YEARS = 146097;
+
+    private final int mYear;
+
+    /** Epoch day of the 1st of January */
+    private final long mFirstDay;
+
+    /** Number of days of the year, 365 or 366 */
+    private final int mLength;
+
+    private final long[] mWords;
+
+    /**
+     * Creates the bitmap of a year with no done days.
+     */
+    public CompletionBitmap(int year) {
+        this(year, new long[WORDS]);
+    }
+
+    private CompletionBitmap(int year, long[] words) {
+        mYear = year;
+        mFirstDay = firstDayOfYear(year);
+        mLength = (int) (firstDayOfYear(year + 1) - mFirstDay);
+        mWords = words;
+    }
+
+    /**
+     * Reads a bitmap written by {@link #toBlob()}.
+     *
+     * @throws IllegalArgumentException if the blob is longer than a year
+     */
+    public static CompletionBitmap fromBlob(int year, byte[] blob) {
+        if (blob.length > WORDS * 8) {
+            throw new IllegalArgumentException("Completion bitmap of " + blob.length + " bytes");
+        }
+        long[] words = new long[WORDS];
+        for (int i = 0; i < blob.length; i++) {
+            words[i >> 3] |= (blob[i] & 0xffL) << ((i & 7) << 3);
+        }
+        return new CompletionBitmap(year, words);
+    }
+
+    /**
+     * Returns the bitmap as little-endian bytes, without the trailing zero bytes: a year done
+     * up to March takes 12 bytes, an empty one none.
+     */
+    public byte[] toBlob() {
+        int length = WORDS * 8;
+        while (length > 0 && byteAt(length - 1) == 0) {
+            length--;
+        }
+        byte[] blob = new byte[length];
+        for (int i = 0; i < length; i++) {
+            blob[i] = byteAt(i);
+        }
+        return blob;
+    }
+
+    private byte byteAt(int i) {
+        return (byte) (mWords[i >> 3] >>> ((i & 7) << 3));
+    }
+
+    /**
+     * Returns the epoch day of the 1st of January of the year.
+     */
+    public static long firstDayOfYear(int year) {
+        long y = year - 1L;
+        return 365 * y + floorDiv(y, 4) - floorDiv(y, 100) + floorDiv(y, 400) - DAYS_0001_TO_1970;
+    }
+
+    /**
+     * Returns the year of the epoch day.
+     */
+    public static int yearOf(long day) {
+        // Close to the right year, off by one at most around the 1st of January
+        int year = (int) (1970 + floorDiv(day * 400, DAYS_PER_400_YEARS));
+        while (firstDayOfYear(year) > day) {
+            year--;
+        }
+        while (firstDayOfYear(year + 1) <= day) {
+            year++;
+        }
+        return year;
+    }
+
+    private static long floorDiv(long a, long b) {
+        long q = a / b;
+        return (a % b != 0 && (a < 0) != (b < 0)) ? q - 1 : q;
+    }
+
+    public int getYear() {
+        return mYear;
+    }
+
+    public long getFirstDay() {
+        return mFirstDay;
+    }
+
+    /**
+     * Returns the epoch day of the 31st of December of the year.
+     */
+    public long getLastDay() {
+        return mFirstDay + mLength - 1;
+    }
+
+    /**
+     * Returns the number of days of the year, 365 or 366.
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Returns whether the given day of this year is done.
+     */
+    public boolean isDone(long day) {
+        int bit = indexOf(day);
+        return (mWords[bit >> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Marks the given day of this year as done or not.
+     *
+     * @return whether the bitmap changed
+     */
+    public boolean setDone(long day, boolean done) {
+        int bit = indexOf(day);
+        long word = mWords[bit >> 6];
+        long changed = done ? word | (1L << bit) : word & ~(1L << bit);
+        mWords[bit >> 6] = changed;
+        return changed != word;
+    }
+
+    private int indexOf(long day) {
+        long bit = day - mFirstDay;
+        if (bit < 0 || bit >= mLength) {
+            throw new IllegalArgumentException("Day " + day + " is not in " + mYear);
+        }
+        return (int) bit;
+    }
+
+    /**
+     * Returns whether no day of the year is done.
+     */
+    public boolean isEmpty() {
+        for (long word : mWords) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of done days from bit {@code from} to bit {@code to}, both included,
+     * one bit count per word.
+     */
+    int count(int from, int to) {
+        if (from > to) {
+            return 0;
+        }
+        int first = from >> 6;
+        int last = to >> 6;
+        int count = 0;
+        for (int i = first; i <= last; i++) {
+            long word = mWords[i];
+            if (i == first) {
+                word &= -1L << from;
+            }
+            if (i == last) {
+                word &= -1L >>> (63 - (to & 63));
+            }
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of consecutive done days ending on bit {@code to} (included), looking
+     * at the bits from {@code to} down to 0 only.
+     */
+    int runEndingAt(int to) {
+        int i = to >> 6;
+        // The missed days of the word, up to bit to
+        long missed = ~mWords[i] & (-1L >>> (63 - (to & 63)));
+        int run = 0;
+        while (missed == 0) {
+            run += (to & 63) + 1;
+            if (i == 0) {
+                return run;
+            }
+            to = (--i << 6) | 63;
+            missed = ~mWords[i];
+        }
+        return run + (to - ((i << 6) | (63 - Long.numberOfLeadingZeros(missed))));
+    }
+
+    /**
+     * Returns the number of consecutive done days from bit 0 up.
+     */
+    int runFromStart() {
+        int run = 0;
+        for (int i = 0; i < WORDS; i++) {
+            int ones = Long.numberOfTrailingZeros(~mWords[i]);
+            run += ones;
+            if (ones < 64) {
+                break;
+            }
+        }
+        return Math.min(run, mLength);
+    }
+
+    /**
+     * Returns the length of the longest run of done days inside the year.
+     */
+    int longestRun() {
+        int longest = 0;
+        int run = 0;
+        for (int i = 0; i < WORDS; i++) {
+            long word = mWords[i];
+            if (word == -1L) {
+                run += 64;
+                continue;
+            }
+            // The run coming from the previous words goes on with the low ones of this one
+            run += Long.numberOfTrailingZeros(~word);
+            longest = Math.max(longest, run);
+            // The longest run inside the word: each step drops the last bit of every run
+            int inside = 0;
+            for (long ones = word; ones != 0; ones &= ones >>> 1) {
+                inside++;
+            }
+            longest = Math.max(longest, inside);
+            // The high ones of the word go on in the next one
+            run = Long.numberOfLeadingZeros(~word);
+        }
+        return Math.max(longest, run);
+    }
+
+    /**
+     * Copies {@code length} bits from bit {@code from} of this year into {@code dst}, starting
+     * at bit {@code dstFrom}. The bits of {@code dst} must be clear.
+     */
+    void copyTo(int from, long[] dst, long dstFrom, int length) {
+        while (length > 0) {
+            // Up to 64 bits at a time, from at most two words on each side
+            int chunk = Math.min(64, length);
+            long bits = mWords[from >> 6] >>> (from & 63);
+            if ((from & 63) != 0 && (from >> 6) + 1 < WORDS) {
+                bits |= mWords[(from >> 6) + 1] << (64 - (from & 63));
+            }
+            if (chunk < 64) {
+                bits &= (1L << chunk) - 1;
+            }
+            int word = (int) (dstFrom >> 6);
+            int shift = (int) (dstFrom & 63);
+            dst[word] |= bits << shift;
+            if (shift != 0 && word + 1 < dst.length) {
+                dst[word + 1] |= bits >>> (64 - shift);
+            }
+            from += chunk;
+            dstFrom += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CompletionBitmap)) {
+            return false;
+        }
+        CompletionBitmap other = (CompletionBitmap) o;
+        return mYear == other.mYear && Arrays.equals(mWords, other.mWords);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mYear + Arrays.hashCode(mWords);
+    }
+
+    @Override
+    public String toString() {
+        return "CompletionBitmap{year=" + mYear + ", doneDays=" + count(0, mLength - 1) + "}";
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.habittrackerapp.data;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The done days of one habit, as one {@link CompletionBitmap} per year
+ * ({@link HabitDbHelper#getCompletions(long)}). The queries work on whole words of the bitmaps:
+ * counting the done days of a year is six bit counts, whatever the number of check-ins.
+ *
+ * Days are local epoch days, see {@link HabitContract.CheckinEntry#toEpochDay}. Plain Java, no
+ * Android classes.
+ */
+public final class CompletionHistory {
+
+    /** The bitmaps by year, the years without any done day may be left out */
+    private final TreeMap<Integer, CompletionBitmap> mYears = new TreeMap<>();
+
+    /**
+     * Creates a history with no done days.
+     */
+    public CompletionHistory() {
+    }
+
+    /**
+     * Adds the bitmap of a year, replacing the one it had.
+     */
+    public void put(CompletionBitmap bitmap) {
+        mYears.put(bitmap.getYear(), bitmap);
+    }
+
+    /**
+     * Returns the bitmap of the year, null if the history has none.
+     */
+    public CompletionBitmap get(int year) {
+        return mYears.get(year);
+    }
+
+    /**
+     * Returns the bitmaps, earliest year first.
+     */
+    public Iterable<CompletionBitmap> getYears() {
+        return mYears.values();
+    }
+
+    /**
+     * Marks the day as done or not.
+     *
+     * @return whether the history changed
+     */
+    public boolean setDone(long day, boolean done) {
+        int year = CompletionBitmap.yearOf(day);
+        CompletionBitmap bitmap = mYears.get(year);
+        if (bitmap == null) {
+            if (!done) {
+                return false;
+            }
+            bitmap = new CompletionBitmap(year);
+            mYears.put(year, bitmap);
+        }
+        return bitmap.setDone(day, done);
+    }
+
+    public boolean isDone(long day) {
+        CompletionBitmap bitmap = mYears.get(CompletionBitmap.yearOf(day));
+        return bitmap != null && bitmap.isDone(day);
+    }
+
+    /**
+     * Returns the number of done days from {@code fromDay} to {@code toDay}, both included.
+     */
+    public int countDone(long fromDay, long toDay) {
+        if (fromDay > toDay) {
+            return 0;
+        }
+        int count = 0;
+        for (CompletionBitmap bitmap : mYears.subMap(CompletionBitmap.yearOf(fromDay), true,
+                CompletionBitmap.yearOf(toDay), true).values()) {
+            long first = Math.max(fromDay, bitmap.getFirstDay());
+            long last = Math.min(toDay, bitmap.getLastDay());
+            count += bitmap.count((int) (first - bitmap.getFirstDay()), (int) (last - bitmap.getFirstDay()));
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of consecutive done days ending on the given day, 0 if it isn't done.
+     * A streak going back over the 1st of January goes on in the year before.
+     */
+    public int streakEndingOn(long day) {
+        int year = CompletionBitmap.yearOf(day);
+        CompletionBitmap bitmap = mYears.get(year);
+        if (bitmap == null) {
+            return 0;
+        }
+        int to = (int) (day - bitmap.getFirstDay());
+        int run = bitmap.runEndingAt(to);
+        int streak = run;
+        while (run == to + 1) {
+            // Done up to the 1st of January: go on with the 31st of December
+            bitmap = mYears.get(--year);
+            if (bitmap == null) {
+                break;
+            }
+            to = bitmap.getLength() - 1;
+            run = bitmap.runEndingAt(to);
+            streak += run;
+        }
+        return streak;
+    }
+
+    /**
+     * Returns the streak still alive on the given day: the run ending today, or yesterday if
+     * today isn't done yet (like {@link HabitSummary#currentStreak}).
+     */
+    public int currentStreak(long today) {
+        int streak = streakEndingOn(today);
+        return streak > 0 ? streak : streakEndingOn(today - 1);
+    }
+
+    /**
+     * Returns the length of the longest run of consecutive done days.
+     */
+    public int longestStreak() {
+        int longest = 0;
+        // The run still going on at the end of the previous year, if it was the year before
+        int run = 0;
+        int previousYear = Integer.MIN_VALUE;
+        for (Map.Entry<Integer, CompletionBitmap> entry : mYears.entrySet()) {
+            CompletionBitmap bitmap = entry.getValue();
+            if (entry.getKey() != previousYear + 1) {
+                run = 0;
+            }
+            int fromStart = bitmap.runFromStart();
+            longest = Math.max(longest, Math.max(run + fromStart, bitmap.longestRun()));
+            run = fromStart == bitmap.getLength()
+                    ? run + fromStart
+                    : bitmap.runEndingAt(bitmap.getLength() - 1);
+            previousYear = entry.getKey();
+        }
+        return longest;
+    }
+
+    /**
+     * Returns the done days from {@code fromDay} to {@code toDay} as bits, for a heatmap: bit i
+     * (bit i % 64 of word i / 64) is set if the day fromDay + i is done.
+     */
+    public long[] getDays(long fromDay, long toDay) {
+        if (fromDay > toDay) {
+            return new long[0];
+        }
+        long[] days = new long[(int) ((toDay - fromDay) / 64 + 1)];
+        for (CompletionBitmap bitmap : mYears.subMap(CompletionBitmap.yearOf(fromDay), true,
+                CompletionBitmap.yearOf(toDay), true).values()) {
+            long first = Math.max(fromDay, bitmap.getFirstDay());
+            long last = Math.min(toDay, bitmap.getLastDay());
+            bitmap.copyTo((int) (first - bitmap.getFirstDay()), days, first - fromDay,
+                    (int) (last - first + 1));
+        }
+        return days;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.habittrackerapp.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reads CSV (RFC 4180) one record at a time. Fields may be quoted with ", a quoted field can
+ * hold commas, line breaks and doubled quotes. Records end with \n or \r\n.
+ *
+ * CSV has no NULL: an empty field that isn't quoted is read as null, a quoted one ("") as the
+ * empty string, the way {@link CsvWriter} writes them.
+ */
+final class CsvReader {
+
+    private final Reader mReader;
+
+    /** The field being read */
+    private final StringBuilder mField = new StringBuilder();
+
+    /** A character read ahead and not used yet, -2 if none */
+    private int mPending = -2;
+
+    /** Line of the next character, for the error messages */
+    private int mLine = 1;
+
+    /**
+     * @param reader to read from, better buffered: it is read one character at a time
+     */
+    CsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Reads the next record into the given list, cleared first.
+     *
+     * @return false at the end of the input (the list is then empty)
+     * @throws IOException if the input can't be read or isn't valid CSV
+     */
+    boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        int c = read();
+        if (c == -1) {
+            return false;
+        }
+
+        mField.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (c == '"' && mField.length() == 0 && !quoted) {
+                quoted = true;
+                c = readQuoted();
+                if (c != ',' && c != '\n' && c != '\r' && c != -1) {
+                    throw new IOException("Unexpected character after a quoted field at line " + mLine);
+                }
+                continue;
+            }
+
+            if (c == ',' || c == '\n' || c == '\r' || c == -1) {
+                // An unquoted empty field is NULL
+                fields.add(quoted || mField.length() > 0 ? mField.toString() : null);
+                mField.setLength(0);
+                quoted = false;
+                if (c == ',') {
+                    c = read();
+                    continue;
+                }
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        mPending = next;
+                    }
+                }
+                if (c != -1) {
+                    mLine++;
+                }
+                return true;
+            }
+
+            mField.append((char) c);
+            c = read();
+        }
+    }
+
+    /**
+     * Reads a quoted field into {@link #mField}, after its opening quote.
+     *
+     * @return the character after the closing quote
+     */
+    private int readQuoted() throws IOException {
+        int startLine = mLine;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new IOException("Unterminated quoted field starting at line " + startLine);
+            }
+            if (c == '"') {
+                c = read();
+                if (c != '"') {
+                    return c;
+                }
+                // A doubled quote stands for one quote
+            } else if (c == '\n') {
+                mLine++;
+            }
+            mField.append((char) c);
+        }
+    }
+
+    private int read() throws IOException {
+        if (mPending != -2) {
+            int c = mPending;
+            mPending = -2;
+            return c;
+        }
+        return mReader.read();
+    }
+}
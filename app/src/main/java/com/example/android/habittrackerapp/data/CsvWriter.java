@@ -0,0 +1,67 @@
+package com.example.android.habittrackerapp.data;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes CSV (RFC 4180) one record at a time, read back by {@link CsvReader}. Fields are only
+ * quoted when they need to be. null is written as an empty field and the empty string as "",
+ * so the two can be told apart.
+ */
+final class CsvWriter {
+
+    private final Writer mWriter;
+
+    /**
+     * @param writer to write to, better buffered: the fields are written one by one
+     */
+    CsvWriter(Writer writer) {
+        mWriter = writer;
+    }
+
+    /**
+     * Writes one record. The values are written with {@link String#valueOf(Object)}, null as
+     * an empty field.
+     */
+    void writeRecord(Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                mWriter.write(',');
+            }
+            if (values[i] != null) {
+                writeField(String.valueOf(values[i]));
+            }
+        }
+        mWriter.write("\r\n");
+    }
+
+    private void writeField(String field) throws IOException {
+        if (!needsQuotes(field)) {
+            mWriter.write(field);
+            return;
+        }
+        mWriter.write('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                mWriter.write('"');
+            }
+            mWriter.write(c);
+        }
+        mWriter.write('"');
+    }
+
+    private static boolean needsQuotes(String field) {
+        if (field.isEmpty()) {
+            // Otherwise it would be read back as null
+            return true;
+        }
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.android.habittrackerapp.data;
+
+import android.database.Cursor;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+/**
+ * One row of the habits table. Instances are immutable, so the cached ones can be shared.
+ */
+public final class Habit {
+
+    /** Columns needed by {@link #fromCursor(Cursor)} */
+    public static final String[] PROJECTION = {
+            HabitEntry._ID,
+            HabitEntry.COLUMN_HABIT,
+            HabitEntry.COLUMN_IMPORTANCE};
+
+    private final long mId;
+    private final String mName;
+    private final int mImportance;
+
+    public Habit(long id, String name, int importance) {
+        mId = id;
+        mName = name;
+        mImportance = importance;
+    }
+
+    /**
+     * Reads the habit at the current position of the cursor, which must have the columns of
+     * {@link #PROJECTION} (any other columns, like the summary ones of the list, are ignored).
+     */
+    public static Habit fromCursor(Cursor cursor) {
+        return new Habit(
+                cursor.getLong(cursor.getColumnIndexOrThrow(HabitEntry._ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(HabitEntry.COLUMN_HABIT)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(HabitEntry.COLUMN_IMPORTANCE)));
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getImportance() {
+        return mImportance;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Habit)) {
+            return false;
+        }
+        Habit other = (Habit) o;
+        return mId == other.mId
+                && mImportance == other.mImportance
+                && (mName == null ? other.mName == null : mName.equals(other.mName));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mId ^ (mId >>> 32));
+        result = 31 * result + (mName == null ? 0 : mName.hashCode());
+        result = 31 * result + mImportance;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Habit{id=" + mId + ", name=" + mName + ", importance=" + mImportance + "}";
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.android.habittrackerapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.data.HabitContract.ChangeEntry;
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.CompletionEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+
+/**
+ * Purges the deleted habits (the tombstones left by {@link HabitDbHelper#delete}) with their
+ * check-ins, summaries and completions, then gives the freed pages back to the file system.
+ *
+ * The purge runs in batches of at most {@link #DEFAULT_BATCH_SIZE} deleted rows, each in its
+ * own short transaction, so a habit with years of check-ins never holds the write lock for
+ * long. {@link HabitWriteQueue} runs one batch at a time on the writer thread, the saves queued
+ * in between go first.
+ */
+final class HabitCompactor {
+
+    private static final String LOG_TAG = HabitCompactor.class.getSimpleName();
+
+    /** Default number of rows (habits and check-ins) deleted per transaction */
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** Value of PRAGMA auto_vacuum when the free pages are only released on request */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final HabitDbHelper mDbHelper;
+
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+
+    HabitCompactor(HabitDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Sets the number of rows deleted per transaction.
+     */
+    HabitCompactor setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        mBatchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Purges every deleted habit, one batch after the other, then vacuums the file. For callers
+     * that don't need to let other writes in between.
+     *
+     * @return the number of rows deleted
+     */
+    long compact() {
+        long purged = 0;
+        int batch;
+        while ((batch = purgeBatch()) > 0) {
+            purged += batch;
+        }
+        vacuum();
+        return purged;
+    }
+
+    /**
+     * Deletes the next batch of deleted rows in one transaction, the oldest deleted habits
+     * first: their check-ins, then the habit, its summary and its completions once it has no
+     * check-ins left.
+     *
+     * @return the number of rows deleted, 0 when there is nothing left to purge
+     */
+    int purgeBatch() {
+        SQLiteDatabase database = mDbHelper.getWriter();
+        int budget = mBatchSize;
+        int purged = 0;
+        database.beginTransaction();
+        SQLiteStatement deleteCheckins = null;
+        SQLiteStatement deleteSummary = null;
+        SQLiteStatement deleteCompletions = null;
+        SQLiteStatement deleteHabit = null;
+        try {
+            long[] habitIds = findDeletedHabits(database, budget);
+            if (habitIds.length == 0) {
+                return 0;
+            }
+
+            // There is no DELETE ... LIMIT in the SQLite of Android, the check-ins to delete
+            // are picked by rowid from the (habit_id, day) index instead
+            deleteCheckins = database.compileStatement("DELETE FROM " + CheckinEntry.TABLE_CHECKINS
+                    + " WHERE " + CheckinEntry._ID + " IN (SELECT " + CheckinEntry._ID
+                    + " FROM " + CheckinEntry.TABLE_CHECKINS + " WHERE " + CheckinEntry.COLUMN_HABIT_ID
+                    + " = ? LIMIT ?)");
+            deleteSummary = database.compileStatement("DELETE FROM " + SummaryEntry.TABLE_SUMMARY
+                    + " WHERE " + SummaryEntry.COLUMN_HABIT_ID + " = ?");
+            deleteCompletions = database.compileStatement("DELETE FROM " + CompletionEntry.TABLE_COMPLETIONS
+                    + " WHERE " + CompletionEntry.COLUMN_HABIT_ID + " = ?");
+            deleteHabit = database.compileStatement("DELETE FROM " + HabitEntry.TABLE_HABIT
+                    + " WHERE " + HabitEntry._ID + " = ? AND "
+                    + HabitEntry.COLUMN_DELETED_AT + " IS NOT NULL");
+
+            for (long habitId : habitIds) {
+                deleteCheckins.bindLong(1, habitId);
+                deleteCheckins.bindLong(2, budget);
+                int checkins = deleteCheckins.executeUpdateDelete();
+                purged += checkins;
+                budget -= checkins;
+                if (budget == 0) {
+                    // The habit may have check-ins left, the next batch goes on with them
+                    break;
+                }
+
+                deleteSummary.bindLong(1, habitId);
+                deleteSummary.executeUpdateDelete();
+                deleteCompletions.bindLong(1, habitId);
+                deleteCompletions.executeUpdateDelete();
+                deleteHabit.bindLong(1, habitId);
+                purged += deleteHabit.executeUpdateDelete();
+                budget--;
+                if (budget == 0) {
+                    break;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            closeQuietly(deleteCheckins);
+            closeQuietly(deleteSummary);
+            closeQuietly(deleteCompletions);
+            closeQuietly(deleteHabit);
+            database.endTransaction();
+        }
+        return purged;
+    }
+
+    /**
+     * Returns the ids of the oldest deleted habits, at most {@code limit}, read from the
+     * deleted_at index. The deletes {@link HabitSync} hasn't sent yet wait for it.
+     */
+    private static long[] findDeletedHabits(SQLiteDatabase database, int limit) {
+        Cursor cursor = database.query(HabitEntry.TABLE_HABIT, new String[]{HabitEntry._ID},
+                HabitEntry.COLUMN_DELETED_AT + " IS NOT NULL AND " + HabitEntry._ID + " NOT IN (SELECT "
+                        + ChangeEntry.COLUMN_HABIT_ID + " FROM " + ChangeEntry.TABLE_CHANGES + ")",
+                null, null, null,
+                HabitEntry.COLUMN_DELETED_AT, String.valueOf(limit));
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Gives the free pages of the file (left by the purge) back to the file system, so the
+     * file shrinks instead of only growing.
+     *
+     * That needs PRAGMA auto_vacuum = INCREMENTAL, which SQLite only applies to an existing
+     * file through a full VACUUM (the file already has tables when the helper creates ours).
+     * The first call does it, once, rewriting the whole file. Must not be called inside a
+     * transaction.
+     *
+     * @return the number of pages released
+     */
+    long vacuum() {
+        SQLiteDatabase database = mDbHelper.getWriter();
+        try {
+            if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null)
+                    != AUTO_VACUUM_INCREMENTAL) {
+                long pages = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+                database.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                database.execSQL("VACUUM");
+                return pages;
+            }
+
+            long pages = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+            if (pages == 0) {
+                return 0;
+            }
+            // The pragma releases one page per result row, the cursor has to read them all
+            Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            return pages;
+        } catch (SQLiteException e) {
+            // E.g. the VACUUM found the database busy, the next compaction tries again
+            Log.w(LOG_TAG, "Failed to vacuum the database", e);
+            return 0;
+        }
+    }
+
+    private static void closeQuietly(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.CompletionEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes the habit_completions table, the done days of each habit as one
+ * {@link CompletionBitmap} per year. Like {@link HabitSummaryStore}, the writes expect to run
+ * inside the transaction that changes the check-ins.
+ */
+final class HabitCompletionStore {
+
+    private static final String[] BITMAP_COLUMNS = {
+            CompletionEntry.COLUMN_YEAR,
+            CompletionEntry.COLUMN_DAYS};
+
+    private HabitCompletionStore() {
+    }
+
+    /**
+     * Creates the habit_completions table. The (habit_id, year) primary key gives the years of
+     * a habit in order.
+     */
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + CompletionEntry.TABLE_COMPLETIONS + " ("
+                + CompletionEntry.COLUMN_HABIT_ID + " INTEGER NOT NULL, "
+                + CompletionEntry.COLUMN_YEAR + " INTEGER NOT NULL, "
+                + CompletionEntry.COLUMN_DAYS + " BLOB NOT NULL, "
+                + "PRIMARY KEY (" + CompletionEntry.COLUMN_HABIT_ID + ", " + CompletionEntry.COLUMN_YEAR + "));");
+    }
+
+    /**
+     * Returns the years {@code fromYear} to {@code toYear} of the habit (an empty history if it
+     * has no check-ins then).
+     */
+    static CompletionHistory load(SQLiteDatabase db, long habitId, int fromYear, int toYear) {
+        CompletionHistory history = new CompletionHistory();
+        Cursor cursor = db.query(CompletionEntry.TABLE_COMPLETIONS, BITMAP_COLUMNS,
+                CompletionEntry.COLUMN_HABIT_ID + "=? AND " + CompletionEntry.COLUMN_YEAR + " BETWEEN ? AND ?",
+                new String[]{String.valueOf(habitId), String.valueOf(fromYear), String.valueOf(toYear)},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                history.put(CompletionBitmap.fromBlob(cursor.getInt(0), cursor.getBlob(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return history;
+    }
+
+    /**
+     * Returns one year of the habit (an empty one if it has no check-in that year).
+     */
+    static CompletionBitmap loadYear(SQLiteDatabase db, long habitId, int year) {
+        Cursor cursor = db.query(CompletionEntry.TABLE_COMPLETIONS, new String[]{CompletionEntry.COLUMN_DAYS},
+                CompletionEntry.COLUMN_HABIT_ID + "=? AND " + CompletionEntry.COLUMN_YEAR + "=?",
+                new String[]{String.valueOf(habitId), String.valueOf(year)}, null, null, null);
+        try {
+            return cursor.moveToFirst()
+                    ? CompletionBitmap.fromBlob(year, cursor.getBlob(0))
+                    : new CompletionBitmap(year);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stores one year of the habit, removing the row if no day of it is done.
+     */
+    static void save(SQLiteDatabase db, long habitId, CompletionBitmap bitmap) {
+        if (bitmap.isEmpty()) {
+            db.delete(CompletionEntry.TABLE_COMPLETIONS,
+                    CompletionEntry.COLUMN_HABIT_ID + "=? AND " + CompletionEntry.COLUMN_YEAR + "=?",
+                    new String[]{String.valueOf(habitId), String.valueOf(bitmap.getYear())});
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(CompletionEntry.COLUMN_HABIT_ID, habitId);
+        values.put(CompletionEntry.COLUMN_YEAR, bitmap.getYear());
+        values.put(CompletionEntry.COLUMN_DAYS, bitmap.toBlob());
+        db.replace(CompletionEntry.TABLE_COMPLETIONS, null, values);
+    }
+
+    /**
+     * Throws away every bitmap and builds them all again from the check-ins, in one pass over
+     * the (habit_id, day) index.
+     */
+    static void rebuildAll(SQLiteDatabase db) {
+        db.delete(CompletionEntry.TABLE_COMPLETIONS, null, null);
+
+        Cursor cursor = db.query(CheckinEntry.TABLE_CHECKINS,
+                new String[]{CheckinEntry.COLUMN_HABIT_ID, CheckinEntry.COLUMN_DAY},
+                null, null, null, null,
+                CheckinEntry.COLUMN_HABIT_ID + ", " + CheckinEntry.COLUMN_DAY);
+        try {
+            long habitId = 0;
+            CompletionBitmap bitmap = null;
+            while (cursor.moveToNext()) {
+                long rowHabitId = cursor.getLong(0);
+                long day = cursor.getLong(1);
+                if (bitmap != null && (rowHabitId != habitId || day > bitmap.getLastDay())) {
+                    save(db, habitId, bitmap);
+                    bitmap = null;
+                }
+                if (bitmap == null) {
+                    bitmap = new CompletionBitmap(CompletionBitmap.yearOf(day));
+                }
+                habitId = rowHabitId;
+                bitmap.setDone(day, true);
+            }
+            if (bitmap != null) {
+                save(db, habitId, bitmap);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Collects the check-in changes of one transaction and applies them to the bitmaps, reading
+     * and writing each touched year only once.
+     */
+    static final class Batch {
+
+        private final SQLiteDatabase mDatabase;
+
+        /** Years loaded in this batch, by habit id */
+        private final Map<Long, CompletionHistory> mHistories = new HashMap<>();
+
+        /** Years changed in this batch, by habit id */
+        private final Map<Long, Set<Integer>> mChanged = new HashMap<>();
+
+        /** Habits and days that lost a check-in, as pairs of habit id and day */
+        private final List<long[]> mRemoved = new ArrayList<>();
+
+        Batch(SQLiteDatabase database) {
+            mDatabase = database;
+        }
+
+        /**
+         * A check-in was appended for the habit on the given day.
+         */
+        void appended(long habitId, long day) {
+            if (bitmap(habitId, day).setDone(day, true)) {
+                changed(habitId, day);
+            }
+        }
+
+        /**
+         * A check-in of the habit on the given day was deleted. The day stays done if it has
+         * other check-ins, that is checked at the end.
+         */
+        void removed(long habitId, long day) {
+            mRemoved.add(new long[]{habitId, day});
+        }
+
+        /**
+         * Writes the years changed by this batch.
+         */
+        void commit() {
+            for (long[] removed : mRemoved) {
+                long habitId = removed[0];
+                long day = removed[1];
+                if (bitmap(habitId, day).isDone(day) && !hasCheckin(habitId, day)) {
+                    bitmap(habitId, day).setDone(day, false);
+                    changed(habitId, day);
+                }
+            }
+            for (Map.Entry<Long, Set<Integer>> entry : mChanged.entrySet()) {
+                CompletionHistory history = mHistories.get(entry.getKey());
+                for (int year : entry.getValue()) {
+                    save(mDatabase, entry.getKey(), history.get(year));
+                }
+            }
+        }
+
+        private boolean hasCheckin(long habitId, long day) {
+            return DatabaseUtils.longForQuery(mDatabase,
+                    "SELECT EXISTS (SELECT 1 FROM " + CheckinEntry.TABLE_CHECKINS + " WHERE "
+                            + CheckinEntry.COLUMN_HABIT_ID + "=? AND " + CheckinEntry.COLUMN_DAY + "=?)",
+                    new String[]{String.valueOf(habitId), String.valueOf(day)}) != 0;
+        }
+
+        private void changed(long habitId, long day) {
+            Set<Integer> years = mChanged.get(habitId);
+            if (years == null) {
+                years = new HashSet<>();
+                mChanged.put(habitId, years);
+            }
+            years.add(CompletionBitmap.yearOf(day));
+        }
+
+        private CompletionBitmap bitmap(long habitId, long day) {
+            CompletionHistory history = mHistories.get(habitId);
+            if (history == null) {
+                history = new CompletionHistory();
+                mHistories.put(habitId, history);
+            }
+            int year = CompletionBitmap.yearOf(day);
+            CompletionBitmap bitmap = history.get(year);
+            if (bitmap == null) {
+                bitmap = loadYear(mDatabase, habitId, year);
+                history.put(bitmap);
+            }
+            return bitmap;
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package com.example.android.habittrackerapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import java.util.List;
+import java.util.TimeZone;
 
 /**
  * Created by Gabriel on 23/04/2018.
@@ -39,6 +44,34 @@ public class HabitContract {
      */
     public static final String PATH_HABITS = "habits";
 
+    /**
+     * Path (appended to the habits content URI) for the row count statistics.
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path for the check-ins log, both on its own (content://com.example.android.habits/checkins)
+     * and under a single habit (content://com.example.android.habits/habits/3/checkins).
+     */
+    public static final String PATH_CHECKINS = "checkins";
+
+    /**
+     * Path (appended to the habits content URI) for the habits joined with their summaries.
+     */
+    public static final String PATH_SUMMARY = "summary";
+
+    /**
+     * Path (appended to the habits content URI, and followed by the searched text) for the
+     * full-text search of habits, e.g. content://com.example.android.habits/habits/search/run
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path (appended to the habits content URI) that only carries change notifications, see
+     * {@link HabitEntry#LIST_CHANGES_URI}. It can't be queried.
+     */
+    public static final String PATH_LIST = "list";
+
     /**
      * Inner class that defines constant values for the habits database table.
      * Each entry in the table represents a single habit.
@@ -48,6 +81,17 @@ public class HabitContract {
         /** The content URI to access the pet data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_HABITS);
 
+        /**
+         * The notification URI of the habit lists (all of them, summaries and searches
+         * included). It is notified when habits are added or removed, or when many change at
+         * once, through {@link #CONTENT_URI}: then the lists are read again.
+         *
+         * The update of a single habit only notifies the URI of that habit ("habits/3"), which
+         * doesn't reach this one: the lists watch the habit URIs themselves and read again just
+         * the changed habit (see {@link #getHabitId(Uri)}).
+         */
+        public static final Uri LIST_CHANGES_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LIST);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
          */
@@ -78,10 +122,466 @@ public class HabitContract {
         public final static String COLUMN_HABIT ="habit";
 
         /**
-         * Habit.
+         * Importance of the habit, higher first. Defaults to 0.
          *
          * Type: INTEGER
          */
         public final static String COLUMN_IMPORTANCE ="importance";
+
+        /**
+         * When the habit was deleted, in milliseconds since the epoch, or NULL for a habit that
+         * wasn't. A deleted habit is only marked (a tombstone), it disappears from every query
+         * right away and is purged later in the background, with its check-ins.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELETED_AT = "deleted_at";
+
+        /**
+         * Time of the day the habit reminds the user, in minutes after midnight (local time), or
+         * NULL for a habit without reminder. See {@link ReminderRule}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REMINDER_TIME = "reminder_time";
+
+        /**
+         * Days of the week of the reminder, bit 0 for Sunday to bit 6 for Saturday, or NULL for
+         * every day. See {@link ReminderRule}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REMINDER_DAYS = "reminder_days";
+
+        /**
+         * Id of the habit on every device of the user, set when it is created (the _id is only
+         * local). See {@link HabitSync}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SYNC_ID = "sync_id";
+
+        /**
+         * When the habit was last changed, in milliseconds since the epoch, on the device that
+         * changed it. The latest change wins when two devices changed the same habit.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UPDATED_AT = "updated_at";
+
+        /**
+         * Device id of the other device that made the last change, NULL when it was made on
+         * this device.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_UPDATED_BY = "updated_by";
+
+        /**
+         * Name of the index serving {@link #ORDER_IMPORTANCE} and the importance range filters.
+         * It holds every column of the table, so the list never reads the table itself.
+         */
+        public final static String INDEX_IMPORTANCE = "habits_by_importance";
+
+        /** Name of the index serving {@link #ORDER_NAME}, it holds every column too */
+        public final static String INDEX_NAME = "habits_by_name";
+
+        /** Name of the index finding the deleted habits to purge, oldest first */
+        public final static String INDEX_DELETED_AT = "habits_by_deleted_at";
+
+        /** Name of the unique index of {@link #COLUMN_SYNC_ID} */
+        public final static String INDEX_SYNC_ID = "habits_by_sync_id";
+
+        /** Name of the full-text index of the habit names, kept in sync by triggers */
+        public final static String TABLE_SEARCH = "habits_search";
+
+        /**
+         * Query parameter with the order of the habits, {@link #ORDER_IMPORTANCE} or
+         * {@link #ORDER_NAME}. Each order is served by its own index, so it never needs a sort.
+         */
+        public static final String QUERY_PARAM_ORDER = "order";
+
+        /** Most important habits first, the newest first among habits of the same importance */
+        public static final String ORDER_IMPORTANCE = "importance";
+
+        /** Habits by name (compared byte by byte, so case sensitive), the oldest first among equal names */
+        public static final String ORDER_NAME = "name";
+
+        /** Query parameter with the lowest importance to return (included) */
+        public static final String QUERY_PARAM_MIN_IMPORTANCE = "min_importance";
+
+        /** Query parameter with the highest importance to return (included) */
+        public static final String QUERY_PARAM_MAX_IMPORTANCE = "max_importance";
+
+        /**
+         * Query parameter with the maximum number of habits to return. When present, the habits
+         * are returned in the {@link #QUERY_PARAM_ORDER} order ({@link #ORDER_IMPORTANCE} if
+         * none), starting after the row given by {@link #QUERY_PARAM_AFTER_KEY} and
+         * {@link #QUERY_PARAM_AFTER_ID} (if any).
+         */
+        public static final String QUERY_PARAM_LIMIT = "limit";
+
+        /**
+         * Query parameter with the sort key (see {@link #getSortColumn(Uri)}) of the last habit
+         * of the previous page.
+         */
+        public static final String QUERY_PARAM_AFTER_KEY = "after_key";
+
+        /** Query parameter with the id of the last habit of the previous page */
+        public static final String QUERY_PARAM_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter with the ids of the habits, comma separated, that an update or a delete
+         * of {@link #CONTENT_URI} applies to (with the selection, if any). All of them are
+         * written in one statement and one transaction, see {@link #buildSelectionUri(long[])}.
+         */
+        public static final String QUERY_PARAM_IDS = "ids";
+
+        /**
+         * Returns the given list URI (e.g. {@link #CONTENT_URI}) in the given order,
+         * {@link #ORDER_IMPORTANCE} or {@link #ORDER_NAME}.
+         */
+        public static Uri buildOrderedUri(Uri listUri, String order) {
+            return listUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_ORDER, order)
+                    .build();
+        }
+
+        /**
+         * Returns the given list URI restricted to the habits with an importance between
+         * {@code min} and {@code max}, both included.
+         */
+        public static Uri buildImportanceRangeUri(Uri listUri, int min, int max) {
+            return listUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_MIN_IMPORTANCE, String.valueOf(min))
+                    .appendQueryParameter(QUERY_PARAM_MAX_IMPORTANCE, String.valueOf(max))
+                    .build();
+        }
+
+        /**
+         * Returns the column the habits of the list URI are sorted by, the one whose value goes
+         * in {@link #QUERY_PARAM_AFTER_KEY}.
+         */
+        public static String getSortColumn(Uri listUri) {
+            return ORDER_NAME.equals(listUri.getQueryParameter(QUERY_PARAM_ORDER))
+                    ? COLUMN_HABIT : COLUMN_IMPORTANCE;
+        }
+
+        /**
+         * Returns the id of the habit of a single habit URI ("habits/3") or of the data under it
+         * ("habits/3/checkins"), or -1 for any other URI (e.g. a list).
+         */
+        public static long getHabitId(Uri uri) {
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() >= 2 && PATH_HABITS.equals(segments.get(0))
+                    && TextUtils.isDigitsOnly(segments.get(1)) && !segments.get(1).isEmpty()) {
+                return Long.parseLong(segments.get(1));
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the URI of the habits (with their summaries, like {@link SummaryEntry#CONTENT_URI})
+         * whose name has words starting with the words of the given text, best matches first.
+         * The text must contain at least one letter or digit to match anything.
+         * {@link #QUERY_PARAM_LIMIT} can be added to read only the best matches.
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(text)
+                    .build();
+        }
+
+        /**
+         * Returns the URI of the given habits, to update or delete them all at once (e.g. the
+         * habits selected in the list). A single change of {@link #CONTENT_URI} is notified.
+         */
+        public static Uri buildSelectionUri(long[] ids) {
+            StringBuilder idList = new StringBuilder(ids.length * 6);
+            for (int i = 0; i < ids.length; i++) {
+                if (i > 0) {
+                    idList.append(',');
+                }
+                idList.append(ids[i]);
+            }
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_IDS, idList.toString())
+                    .build();
+        }
+
+        /**
+         * Returns the URI of the first page of habits of the given list URI
+         * (e.g. {@link #CONTENT_URI}).
+         */
+        public static Uri buildPageUri(Uri listUri, int pageSize) {
+            return listUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Returns the URI of the page of habits that follows the habit with the given sort key
+         * and id (the last row of the previous page).
+         */
+        public static Uri buildPageUri(Uri listUri, int pageSize, String afterKey, long afterId) {
+            return listUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, String.valueOf(pageSize))
+                    .appendQueryParameter(QUERY_PARAM_AFTER_KEY, afterKey)
+                    .appendQueryParameter(QUERY_PARAM_AFTER_ID, String.valueOf(afterId))
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the statistics table. Each entry holds the
+     * row count of one table, kept current by triggers, so counting never scans the table.
+     */
+    public static final class StatsEntry implements BaseColumns {
+
+        /** The content URI to access the statistics, e.g. content://com.example.android.habits/habits/stats */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(HabitEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the list of counters.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /** Name of the database table for the statistics */
+        public final static String TABLE_STATS = "habit_stats";
+
+        /**
+         * Name of the counted table, e.g. {@link HabitEntry#TABLE_HABIT}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_TABLE_NAME = "table_name";
+
+        /**
+         * Number of rows in the counted table.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ROW_COUNT = "row_count";
+    }
+
+    /**
+     * Inner class that defines constant values for the check-ins database table.
+     * Each entry records one time a habit was done. The table is append-only.
+     */
+    public static final class CheckinEntry implements BaseColumns {
+
+        /** The content URI to access all the check-ins in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_CHECKINS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of check-ins.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHECKINS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single check-in.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHECKINS;
+
+        /** Name of the database table for check-ins */
+        public final static String TABLE_CHECKINS = "checkins";
+
+        /** Name of the (habit_id, day) index */
+        public final static String INDEX_HABIT_DAY = "checkins_habit_day";
+
+        /** Milliseconds in one day */
+        private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+        /**
+         * {@link HabitEntry#_ID} of the habit that was done.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_HABIT_ID = "habit_id";
+
+        /**
+         * Local day the habit was done, as the number of days since 1970-01-01
+         * (see {@link #toEpochDay(long, TimeZone)}).
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DAY = "day";
+
+        /**
+         * When the check-in was recorded, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CREATED_AT = "created_at";
+
+        /**
+         * Returns the content URI for the check-ins of the given habit,
+         * e.g. content://com.example.android.habits/habits/3/checkins
+         */
+        public static Uri buildHabitCheckinsUri(long habitId) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, habitId),
+                    PATH_CHECKINS);
+        }
+
+        /**
+         * Returns the local day of the given time, as the number of days since 1970-01-01.
+         */
+        public static long toEpochDay(long timeMillis, TimeZone timeZone) {
+            long localMillis = timeMillis + timeZone.getOffset(timeMillis);
+            long day = localMillis / DAY_MILLIS;
+            // Round towards negative infinity, for days before 1970
+            if (localMillis < 0 && localMillis % DAY_MILLIS != 0) {
+                day--;
+            }
+            return day;
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the habit summary table. Each entry holds the
+     * streaks and recent completions of one habit, updated in the same transaction as its
+     * check-ins (see {@link com.example.android.habittrackerapp.data.HabitSummary}).
+     */
+    public static final class SummaryEntry {
+
+        /**
+         * The content URI to access the habits joined with their summary, e.g.
+         * content://com.example.android.habits/habits/summary. Rows have the {@link HabitEntry}
+         * columns plus the summary ones (NULL for habits without check-ins).
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(HabitEntry.CONTENT_URI, PATH_SUMMARY);
+
+        /** Name of the database table for summaries */
+        public final static String TABLE_SUMMARY = "habit_summary";
+
+        /**
+         * {@link HabitEntry#_ID} of the summarized habit.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_HABIT_ID = "habit_id";
+
+        /**
+         * Most recent day with a check-in (see {@link CheckinEntry#COLUMN_DAY}).
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LAST_DAY = "last_day";
+
+        /**
+         * Consecutive done days ending on {@link #COLUMN_LAST_DAY}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CURRENT_STREAK = "current_streak";
+
+        /**
+         * Longest run of consecutive done days.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LONGEST_STREAK = "longest_streak";
+
+        /**
+         * Number of check-ins.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_CHECKINS = "total_checkins";
+
+        /**
+         * Number of distinct done days.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ACTIVE_DAYS = "active_days";
+
+        /**
+         * Bit mask of the 64 days ending on {@link #COLUMN_LAST_DAY}, bit i set if the day
+         * last_day - i was done.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RECENT_DAYS = "recent_days";
+    }
+
+    /**
+     * Inner class that defines constant values for the completions table. Each entry holds the
+     * done days of one habit in one year as a bitmap, derived from its check-ins in the same
+     * transaction (see {@link com.example.android.habittrackerapp.data.CompletionBitmap}).
+     */
+    public static final class CompletionEntry {
+
+        /** Name of the database table for completions */
+        public final static String TABLE_COMPLETIONS = "habit_completions";
+
+        /**
+         * {@link HabitEntry#_ID} of the habit.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_HABIT_ID = "habit_id";
+
+        /**
+         * Calendar year of the days, e.g. 2018.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_YEAR = "year";
+
+        /**
+         * One bit per day of the year, set if the habit was done that day
+         * (see {@link com.example.android.habittrackerapp.data.CompletionBitmap#toBlob()}).
+         *
+         * Type: BLOB
+         */
+        public final static String COLUMN_DAYS = "days";
+    }
+
+    /**
+     * Inner class that defines constant values for the change log table. Each entry is a habit
+     * changed on this device since it was last sent to the server, written by triggers while
+     * sync is on (see {@link HabitSync}).
+     */
+    public static final class ChangeEntry implements BaseColumns {
+
+        /** Name of the database table for the change log */
+        public final static String TABLE_CHANGES = "habit_changes";
+
+        /**
+         * {@link HabitEntry#_ID} of the changed habit, once: a new change of the same habit
+         * replaces its entry, with a new _id.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_HABIT_ID = "habit_id";
+    }
+
+    /**
+     * Inner class that defines constant values for the sync state table. It has one row while
+     * sync is on, none otherwise.
+     */
+    public static final class SyncStateEntry {
+
+        /** Name of the database table for the sync state */
+        public final static String TABLE_SYNC_STATE = "habit_sync";
+
+        /**
+         * Random id of this device, sent with its changes.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_DEVICE_ID = "device_id";
+
+        /**
+         * Token of the server changes received so far, NULL before the first sync.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_TOKEN = "token";
     }
 }
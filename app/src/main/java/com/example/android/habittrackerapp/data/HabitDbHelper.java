@@ -5,12 +5,19 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
 import android.util.Log;
 
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
 import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.StatsEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
 
 /**
  * Created by Gabriel on 26/04/2018.
@@ -21,7 +28,10 @@ import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
  */
 public class HabitDbHelper extends SQLiteOpenHelper {
 
-    private static HabitDbHelper mDbHelper;
+    /**
+     * The single helper shared by the whole process (Activities, {@link HabitProvider}...).
+     */
+    private static HabitDbHelper sInstance;
 
     /**
      * Name of the database file
@@ -31,7 +41,7 @@ public class HabitDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 14;
 
     /**
      * URI matcher code for the content URI for the habits table
@@ -43,6 +53,44 @@ public class HabitDbHelper extends SQLiteOpenHelper {
      */
     private static final int HABIT_ID = 101;
 
+    /**
+     * URI matcher code for the content URI for the row count statistics
+     */
+    private static final int STATS = 102;
+
+    /**
+     * URI matcher code for the content URI for the check-ins of a single habit
+     */
+    private static final int HABIT_CHECKINS = 103;
+
+    /**
+     * URI matcher code for the content URI for the habits joined with their summaries
+     */
+    private static final int HABITS_SUMMARY = 104;
+
+    /**
+     * URI matcher code for the content URI for the full-text search of habits
+     */
+    private static final int HABITS_SEARCH = 105;
+
+    /**
+     * URI matcher code for the content URI for the check-ins table
+     */
+    private static final int CHECKINS = 200;
+
+    /**
+     * URI matcher code for the content URI for a single check-in in the check-ins table
+     */
+    private static final int CHECKIN_ID = 201;
+
+    /**
+     * The URI matcher codes, and their names in the metrics and trace sections.
+     */
+    private static final int[] MATCH_CODES = {
+            HABITS, HABIT_ID, STATS, HABIT_CHECKINS, HABITS_SUMMARY, HABITS_SEARCH, CHECKINS, CHECKIN_ID};
+    private static final String[] MATCH_NAMES = {
+            "HABITS", "HABIT_ID", "STATS", "HABIT_CHECKINS", "HABITS_SUMMARY", "HABITS_SEARCH", "CHECKINS", "CHECKIN_ID"};
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -50,14 +98,8 @@ public class HabitDbHelper extends SQLiteOpenHelper {
      */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
-    /**
-     * Constructs a new instance of {@link HabitDbHelper}.
-     *
-     * @param context of the app
-     */
-    public HabitDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
-
+    // Static initializer. This is run the first time anything is called from this class.
+    static {
         // The calls to addURI() go here, for all of the content URI patterns that the provider
         // should recognize. All paths added to the UriMatcher have a corresponding code to return
         // when a match is found.
@@ -75,6 +117,215 @@ public class HabitDbHelper extends SQLiteOpenHelper {
         // For example, "content://com.example.android.habits/habits/3" matches, but
         // "content://com.example.android.habits/habits" (without a number at the end) doesn't match.
         sUriMatcher.addURI(HabitContract.CONTENT_AUTHORITY, HabitContract.PATH_HABITS+ "/#", HABIT_ID);
+
+        // The content URI of the form "content://com.example.android.habits/habits/stats" will map
+        // to the integer code {@link #STATS}. It doesn't clash with "habits/#", since "#" only
+        // matches numbers.
+        sUriMatcher.addURI(HabitContract.CONTENT_AUTHORITY,
+                HabitContract.PATH_HABITS + "/" + HabitContract.PATH_STATS, STATS);
+
+        // "content://com.example.android.habits/habits/3/checkins" gives the check-ins of habit 3,
+        // "content://com.example.android.habits/checkins" and ".../checkins/#" give all of them
+        // or a single one.
+        sUriMatcher.addURI(HabitContract.CONTENT_AUTHORITY,
+                HabitContract.PATH_HABITS + "/#/" + HabitContract.PATH_CHECKINS, HABIT_CHECKINS);
+        sUriMatcher.addURI(HabitContract.CONTENT_AUTHORITY, HabitContract.PATH_CHECKINS, CHECKINS);
+        sUriMatcher.addURI(HabitContract.CONTENT_AUTHORITY, HabitContract.PATH_CHECKINS + "/#", CHECKIN_ID);
+
+        // "content://com.example.android.habits/habits/summary" gives the habits, each joined with
+        // its streak and completion summary.
+        sUriMatcher.addURI(HabitContract.CONTENT_AUTHORITY,
+                HabitContract.PATH_HABITS + "/" + HabitContract.PATH_SUMMARY, HABITS_SUMMARY);
+
+        // "content://com.example.android.habits/habits/search/run" gives the habits matching
+        // "run". The "*" wildcard matches any text, numbers included, but "search" is never a
+        // number so it doesn't clash with "habits/#".
+        sUriMatcher.addURI(HabitContract.CONTENT_AUTHORITY,
+                HabitContract.PATH_HABITS + "/" + HabitContract.PATH_SEARCH + "/*", HABITS_SEARCH);
+    }
+
+    /** Importance and id columns, qualified so they can be used in joins */
+    private static final String HABIT_IMPORTANCE = HabitEntry.TABLE_HABIT + "." + HabitEntry.COLUMN_IMPORTANCE;
+    private static final String HABIT_ID_COLUMN = HabitEntry.TABLE_HABIT + "." + HabitEntry._ID;
+
+    /**
+     * The habits table joined with the habit_summary table (habits without check-ins have
+     * NULL summary columns).
+     */
+    private static final String SUMMARY_JOIN = " LEFT OUTER JOIN " + SummaryEntry.TABLE_SUMMARY
+            + " ON " + HabitEntry.TABLE_HABIT + "." + HabitEntry._ID + " = "
+            + SummaryEntry.TABLE_SUMMARY + "." + SummaryEntry.COLUMN_HABIT_ID;
+    private static final String HABITS_JOIN_SUMMARY = HabitEntry.TABLE_HABIT + SUMMARY_JOIN;
+
+    /** Name column, qualified so it can be used in joins */
+    private static final String HABIT_NAME = HabitEntry.TABLE_HABIT + "." + HabitEntry.COLUMN_HABIT;
+
+    /**
+     * Selection of the habits that weren't deleted. Every query of the habits adds it: the
+     * deleted ones stay in the table, as tombstones, until {@link HabitCompactor} purges them.
+     *
+     * The unary + keeps SQLite from answering it with the deleted_at index (nearly every row is
+     * NULL there): the ordered covering indexes must still serve the lists, without a sort. The
+     * index is only for the purge, which looks for the rows that are NOT NULL.
+     */
+    static final String NOT_DELETED = "+" + HabitEntry.TABLE_HABIT + "." + HabitEntry.COLUMN_DELETED_AT + " IS NULL";
+
+    /**
+     * The database connection, opened once on the first {@link #getWriter()} or
+     * {@link #getReader()} call and kept open for the life of the process.
+     */
+    private volatile SQLiteDatabase mDatabase;
+
+    /** Context used to find the database file */
+    private final Context mContext;
+
+    /** Times of the queries and writes, by kind of URI */
+    private final HabitMetrics mMetrics = new HabitMetrics(MATCH_CODES, MATCH_NAMES);
+
+    /** Schedules the reminders of the habits, created on first use */
+    private HabitReminders mReminders;
+
+    /** The compiled statements of the hot writes, created on first use */
+    private HabitStatements mStatements;
+
+    /**
+     * Constructs a new instance of {@link HabitDbHelper}. Use {@link #getInstance(Context)} instead,
+     * so the whole process shares one connection.
+     *
+     * @param context of the app
+     * @param name    of the database file
+     */
+    HabitDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        mContext = context;
+    }
+
+    /**
+     * Returns the process-wide {@link HabitDbHelper}, creating it on the first call. The database
+     * itself is only opened when it is first needed.
+     *
+     * @param context of the app
+     */
+    public static synchronized HabitDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            // Use the application context, so we don't leak the Activity that asked first
+            sInstance = new HabitDbHelper(context.getApplicationContext(), DATABASE_NAME);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the database to write to. The connection is opened once and never closed, so
+     * writes don't pay for reopening the file and reloading the schema every time.
+     */
+    public SQLiteDatabase getWriter() {
+        SQLiteDatabase database = mDatabase;
+        if (database == null) {
+            synchronized (this) {
+                if (mDatabase == null) {
+                    // Upgrade an old database first, in batched transactions, so opening it
+                    // finds it at the current version
+                    if (getDatabaseName() != null) {
+                        HabitMigrations.migrate(mContext.getDatabasePath(getDatabaseName()),
+                                DATABASE_VERSION);
+                    }
+                    mDatabase = getWritableDatabase();
+                }
+                database = mDatabase;
+            }
+        }
+        return database;
+    }
+
+    /**
+     * Returns the database to read from. With write-ahead logging the same
+     * {@link SQLiteDatabase} runs reads on its own pooled connections, so readers don't wait
+     * for the writer (and the writer doesn't wait for readers).
+     */
+    public SQLiteDatabase getReader() {
+        return getWriter();
+    }
+
+    /**
+     * Returns the compiled statements of the hot writes, on the connection of
+     * {@link #getWriter()}.
+     */
+    private synchronized HabitStatements getStatements() {
+        if (mStatements == null) {
+            mStatements = new HabitStatements(getWriter());
+        }
+        return mStatements;
+    }
+
+    /**
+     * Releases the compiled statements, then closes the database.
+     */
+    @Override
+    public synchronized void close() {
+        if (mStatements != null) {
+            mStatements.close();
+            mStatements = null;
+        }
+        super.close();
+    }
+
+    /**
+     * Returns the reminders of the habits of this database. Their schedule follows the writes
+     * made through this helper.
+     */
+    public synchronized HabitReminders getReminders() {
+        if (mReminders == null) {
+            mReminders = new HabitReminders(mContext, this);
+        }
+        return mReminders;
+    }
+
+    /**
+     * Returns the reminders if anything used them yet, null otherwise (then there is no
+     * schedule to keep current: it is read from the table when first used).
+     */
+    private synchronized HabitReminders peekReminders() {
+        return mReminders;
+    }
+
+    /**
+     * Call after the reminders of the given habits were written without going through this
+     * helper (a sync), once the transaction committed: theirs are read again.
+     */
+    void onRemindersChanged(long[] habitIds) {
+        HabitReminders reminders = peekReminders();
+        if (reminders != null && habitIds.length > 0) {
+            reminders.onRemindersChanged(habitIds);
+        }
+    }
+
+    /**
+     * Call after the habits were written without going through this helper (a restore, an
+     * import): their reminders are read again.
+     */
+    void onHabitsReplaced() {
+        HabitReminders reminders = peekReminders();
+        if (reminders != null) {
+            reminders.reload();
+        }
+    }
+
+    /**
+     * Returns the latency metrics of the queries and writes made through this helper.
+     */
+    public HabitMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Turn on write-ahead logging every time the database is opened.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     /**
@@ -86,39 +337,187 @@ public class HabitDbHelper extends SQLiteOpenHelper {
         String SQL_CREATE_HABITS_TABLE = "CREATE TABLE " + HabitEntry.TABLE_HABIT + " ("
                 + HabitEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + HabitEntry.COLUMN_HABIT + " TEXT NOT NULL,"
-                + HabitEntry.COLUMN_IMPORTANCE + " INTEGER);";
+                + HabitEntry.COLUMN_IMPORTANCE + " INTEGER NOT NULL DEFAULT 0, "
+                + HabitEntry.COLUMN_DELETED_AT + " INTEGER, "
+                + HabitEntry.COLUMN_REMINDER_TIME + " INTEGER, "
+                + HabitEntry.COLUMN_REMINDER_DAYS + " INTEGER, "
+                + HabitEntry.COLUMN_SYNC_ID + " TEXT, "
+                + HabitEntry.COLUMN_UPDATED_AT + " INTEGER NOT NULL DEFAULT 0, "
+                + HabitEntry.COLUMN_UPDATED_BY + " TEXT);";
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_HABITS_TABLE);
+
+        createHabitIndexes(db);
+
+        createStats(db);
+        createCheckins(db);
+        HabitSummaryStore.createTable(db);
+        HabitCompletionStore.createTable(db);
+        HabitSearch.createTable(db);
+        HabitSync.createTables(db);
+    }
+
+    /**
+     * Creates the covering indexes of the two list orders. Each one starts with the sort key and
+     * the _id tie-breaker, in the keyset order of the pages, and ends with the remaining columns,
+     * so a page is one range read of the index and never touches the table or needs a sort.
+     * (_id has to be spelled out: if it were left implicit, after the other column, the index
+     * couldn't give the tie-breaker order.) The deleted_at column is there so the deleted
+     * habits are skipped inside the index too.
+     *
+     * The deleted_at index lets the background purge find the deleted habits without a scan,
+     * the unique sync_id one lets {@link HabitSync} find the habit a received change is about.
+     */
+    private static void createHabitIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + HabitEntry.INDEX_IMPORTANCE + " ON " + HabitEntry.TABLE_HABIT + " ("
+                + HabitEntry.COLUMN_IMPORTANCE + ", " + HabitEntry._ID + ", " + HabitEntry.COLUMN_HABIT
+                + ", " + HabitEntry.COLUMN_DELETED_AT + ");");
+        db.execSQL("CREATE INDEX " + HabitEntry.INDEX_NAME + " ON " + HabitEntry.TABLE_HABIT + " ("
+                + HabitEntry.COLUMN_HABIT + ", " + HabitEntry._ID + ", " + HabitEntry.COLUMN_IMPORTANCE
+                + ", " + HabitEntry.COLUMN_DELETED_AT + ");");
+        db.execSQL("CREATE INDEX " + HabitEntry.INDEX_DELETED_AT + " ON " + HabitEntry.TABLE_HABIT + " ("
+                + HabitEntry.COLUMN_DELETED_AT + ");");
+        db.execSQL("CREATE UNIQUE INDEX " + HabitEntry.INDEX_SYNC_ID + " ON " + HabitEntry.TABLE_HABIT + " ("
+                + HabitEntry.COLUMN_SYNC_ID + ");");
+    }
+
+    /**
+     * Creates the row count statistics table and the triggers that keep it current, so counting
+     * the habits never needs to scan the habits table.
+     */
+    private static void createStats(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + StatsEntry.TABLE_STATS + " ("
+                + StatsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + StatsEntry.COLUMN_TABLE_NAME + " TEXT NOT NULL UNIQUE, "
+                + StatsEntry.COLUMN_ROW_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+
+        createCountTriggers(db, HabitEntry.TABLE_HABIT, HabitEntry.COLUMN_DELETED_AT);
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * Creates the append-only check-ins table. The composite (habit_id, day) index serves both
+     * the lookups of one habit and its day ranges, already sorted by day.
+     */
+    private static void createCheckins(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + CheckinEntry.TABLE_CHECKINS + " ("
+                + CheckinEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + CheckinEntry.COLUMN_HABIT_ID + " INTEGER NOT NULL, "
+                + CheckinEntry.COLUMN_DAY + " INTEGER NOT NULL, "
+                + CheckinEntry.COLUMN_CREATED_AT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX " + CheckinEntry.INDEX_HABIT_DAY + " ON " + CheckinEntry.TABLE_CHECKINS
+                + " (" + CheckinEntry.COLUMN_HABIT_ID + ", " + CheckinEntry.COLUMN_DAY + ");");
+
+        createCountTriggers(db, CheckinEntry.TABLE_CHECKINS, null);
+    }
+
+    /**
+     * Creates the counter of the given table, and the triggers that add/subtract one on every
+     * insert/delete. They run inside the statement that changes the table, so the counter is
+     * always exact, even for rolled back transactions.
+     *
+     * @param deletedAt the tombstone column of the table, or null. Rows with a tombstone aren't
+     *                  counted: setting it subtracts one, and purging the row later doesn't.
+     */
+    private static void createCountTriggers(SQLiteDatabase db, String table, String deletedAt) {
+        // Seed the counter with the rows that are already there (one scan, only here)
+        db.execSQL("INSERT INTO " + StatsEntry.TABLE_STATS + " ("
+                + StatsEntry.COLUMN_TABLE_NAME + ", " + StatsEntry.COLUMN_ROW_COUNT + ") "
+                + "SELECT '" + table + "', COUNT(*) FROM " + table
+                + (deletedAt == null ? "" : " WHERE " + deletedAt + " IS NULL") + ";");
+
+        db.execSQL("CREATE TRIGGER " + table + "_count_insert AFTER INSERT ON " + table
+                + (deletedAt == null ? "" : " WHEN new." + deletedAt + " IS NULL") + " BEGIN "
+                + "UPDATE " + StatsEntry.TABLE_STATS + " SET " + StatsEntry.COLUMN_ROW_COUNT + " = "
+                + StatsEntry.COLUMN_ROW_COUNT + " + 1 WHERE " + StatsEntry.COLUMN_TABLE_NAME + " = '" + table + "'; "
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + table + "_count_delete AFTER DELETE ON " + table
+                + (deletedAt == null ? "" : " WHEN old." + deletedAt + " IS NULL") + " BEGIN "
+                + "UPDATE " + StatsEntry.TABLE_STATS + " SET " + StatsEntry.COLUMN_ROW_COUNT + " = "
+                + StatsEntry.COLUMN_ROW_COUNT + " - 1 WHERE " + StatsEntry.COLUMN_TABLE_NAME + " = '" + table + "'; "
+                + "END;");
+        if (deletedAt != null) {
+            db.execSQL("CREATE TRIGGER " + table + "_count_tombstone AFTER UPDATE OF " + deletedAt
+                    + " ON " + table + " WHEN old." + deletedAt + " IS NULL AND new." + deletedAt
+                    + " IS NOT NULL BEGIN "
+                    + "UPDATE " + StatsEntry.TABLE_STATS + " SET " + StatsEntry.COLUMN_ROW_COUNT + " = "
+                    + StatsEntry.COLUMN_ROW_COUNT + " - 1 WHERE " + StatsEntry.COLUMN_TABLE_NAME + " = '" + table + "'; "
+                    + "END;");
+        }
+    }
+
+    /**
+     * This is called when the database needs to be upgraded. {@link #getWriter()} normally
+     * upgrades the database before opening it, this only runs if something else opened it
+     * first (then all the steps run in the single transaction of the helper).
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE " + HabitEntry.TABLE_HABIT + ";");
+        if (oldVersion >= HabitMigrations.FIRST_VERSION) {
+            HabitMigrations.upgrade(db, oldVersion, newVersion);
+            return;
+        }
+
+        // Versions before the first release only had the habits table and can't be upgraded,
+        // start over
+        db.execSQL("DROP TABLE IF EXISTS " + HabitEntry.TABLE_HABIT + ";");
         onCreate(db);
     }
 
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
-
-        // This cursor will hold the result of the query
-        Cursor cursor;
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
 
+    /**
+     * Same as {@link #query(Uri, String[], String, String[], String)}. The habit lists and the
+     * search stop early, throwing {@link android.os.OperationCanceledException}, once the
+     * cancellation signal (if any) is triggered, e.g. when the searched text changes.
+     *
+     * The cursor window is filled before returning, so the time recorded in the metrics is the
+     * time of the whole query (the loaders fill it right away anyway). A query slower than the
+     * threshold of the metrics is logged with its plan.
+     */
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
+        long start = startTiming(HabitMetrics.QUERY, match);
+        HabitQuery query = null;
+        try {
+            query = buildQuery(match, uri, projection, selection, selectionArgs, sortOrder);
+            Cursor cursor = rawQuery(getReader(), query, cancellationSignal);
+            cursor.getCount();
+            return cursor;
+        } finally {
+            long nanos = stopTiming(HabitMetrics.QUERY, match, start);
+            if (query != null && mMetrics.isSlow(nanos)) {
+                mMetrics.logSlowQuery(getReader(), match, query.sql, query.selectionArgs, nanos);
+            }
+        }
+    }
+
+    /**
+     * Builds the SELECT statement {@link #query(Uri, String[], String, String[], String)} runs
+     * for the given URI, e.g. to check its plan.
+     */
+    static HabitQuery buildQuery(Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
+        return buildQuery(sUriMatcher.match(uri), uri, projection, selection, selectionArgs,
+                sortOrder);
+    }
+
+    /**
+     * Builds the SELECT statement of a query on the URI with the given matcher code.
+     */
+    private static HabitQuery buildQuery(int match, Uri uri, String[] projection, String selection,
+                                         String[] selectionArgs, String sortOrder) {
         switch (match) {
             case HABITS:
                 // For the HABITS code, query the habits table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the habits table.
-                cursor = database.query(HabitEntry.TABLE_HABIT, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
+                return buildHabitQuery(false, uri, projection, selection, selectionArgs, sortOrder);
             case HABIT_ID:
                 // For the HABIT_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.habits/habits/3",
@@ -128,33 +527,224 @@ public class HabitDbHelper extends SQLiteOpenHelper {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = HabitEntry._ID + "=?";
+                selection = HabitEntry._ID + "=? AND " + NOT_DELETED;
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
 
                 // This will perform a query on the habits table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(HabitEntry.TABLE_HABIT, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
+                // Cursor containing that row of the table (none if the habit was deleted). It is
+                // the most frequent query, its SQL is kept per projection.
+                if (sortOrder == null) {
+                    return new HabitQuery(HabitStatements.buildHabitByIdSql(projection), selectionArgs);
+                }
+                return buildTableQuery(HabitEntry.TABLE_HABIT, projection, selection, selectionArgs,
+                        sortOrder);
+            case HABITS_SUMMARY:
+                // Same as HABITS, with the summary columns of each habit. The summary table is
+                // keyed by habit id, so this is one extra lookup per habit.
+                return buildHabitQuery(true, uri, projection, selection, selectionArgs, sortOrder);
+            case HABITS_SEARCH:
+                // The habits matching the last path segment, found through the full-text index
+                return HabitSearch.buildQuery(uri.getLastPathSegment(), projection,
+                        selection, selectionArgs, uri.getQueryParameter(HabitEntry.QUERY_PARAM_LIMIT));
+            case STATS:
+                // The statistics table has one row per counted table, reading it is O(1)
+                return buildTableQuery(StatsEntry.TABLE_STATS, projection, selection, selectionArgs,
+                        sortOrder);
+            case HABIT_CHECKINS:
+                // The check-ins of one habit, served by the (habit_id, day) index. Any extra
+                // selection (e.g. a day range) is added to the habit_id one.
+                selection = DatabaseUtils.concatenateWhere(CheckinEntry.COLUMN_HABIT_ID + "=?", selection);
+                selectionArgs = prependSelectionArg(uri.getPathSegments().get(1), selectionArgs);
+                if (sortOrder == null) {
+                    sortOrder = CheckinEntry.COLUMN_DAY + ", " + CheckinEntry._ID;
+                }
+                return buildTableQuery(CheckinEntry.TABLE_CHECKINS, projection, selection,
+                        selectionArgs, sortOrder);
+            case CHECKINS:
+                return buildTableQuery(CheckinEntry.TABLE_CHECKINS, projection, selection,
+                        selectionArgs, sortOrder);
+            case CHECKIN_ID:
+                selection = CheckinEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return buildTableQuery(CheckinEntry.TABLE_CHECKINS, projection, selection,
+                        selectionArgs, sortOrder);
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
-        return cursor;
+    }
+
+    /**
+     * Builds the same statement as {@link SQLiteDatabase#query(String, String[], String,
+     * String[], String, String, String)} would, so it can be logged when it is slow.
+     */
+    private static HabitQuery buildTableQuery(String table, String[] projection, String selection,
+                                              String[] selectionArgs, String sortOrder) {
+        return new HabitQuery(SQLiteQueryBuilder.buildQueryString(false, table, projection,
+                selection, null, null, sortOrder, null), selectionArgs);
+    }
+
+    /**
+     * Starts timing an operation on the URI with the given matcher code, in a trace section.
+     *
+     * @return the start time, for {@link #stopTiming(int, int, long)}
+     */
+    private long startTiming(int operation, int match) {
+        HabitMetrics.beginSection(mMetrics.getSectionName(operation, match));
+        return System.nanoTime();
+    }
+
+    /**
+     * Ends the trace section of {@link #startTiming(int, int)} and records the time.
+     *
+     * @return the time of the operation, in nanoseconds
+     */
+    private long stopTiming(int operation, int match, long start) {
+        long nanos = System.nanoTime() - start;
+        HabitMetrics.endSection();
+        mMetrics.record(operation, match, nanos);
+        return nanos;
+    }
+
+    /**
+     * Runs the query, cancelable if a signal is given. Signals only exist from Jelly Bean on,
+     * older versions never pass one.
+     */
+    private static Cursor rawQuery(SQLiteDatabase database, HabitQuery query,
+                                   CancellationSignal cancellationSignal) {
+        if (cancellationSignal != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return database.rawQuery(query.sql, query.selectionArgs, cancellationSignal);
+        }
+        return database.rawQuery(query.sql, query.selectionArgs);
+    }
+
+    /**
+     * A SELECT statement and its arguments.
+     */
+    static final class HabitQuery {
+        final String sql;
+        final String[] selectionArgs;
+
+        HabitQuery(String sql, String[] selectionArgs) {
+            this.sql = sql;
+            this.selectionArgs = selectionArgs;
+        }
+    }
+
+    /**
+     * Builds the query of a list of habits (with their summaries if {@code withSummary}).
+     *
+     * The deleted habits are left out. The importance range of
+     * {@link HabitEntry#QUERY_PARAM_MIN_IMPORTANCE} and
+     * {@link HabitEntry#QUERY_PARAM_MAX_IMPORTANCE} is added to the selection. If the URI has an
+     * order or asks for a page (see {@link HabitEntry#buildPageUri}) the rows come in that order,
+     * read from its covering index, and a page starts right after the last row of the previous
+     * page (keyset paging). The plain range on the first key lets SQLite seek the index to the
+     * key of that row instead of reading every row before it (an OR alone isn't a range it can
+     * seek with). A deep page by name then costs about what the first one does; a deep page by
+     * importance still skips the rows with the same importance that come before it. Otherwise
+     * {@code sortOrder} is used as given.
+     *
+     * @throws IllegalArgumentException if a query parameter isn't valid
+     */
+    static HabitQuery buildHabitQuery(boolean withSummary, Uri uri, String[] projection,
+                                      String selection, String[] selectionArgs, String sortOrder) {
+        // Read from the same covering index, the deleted habits cost no table lookup either
+        selection = DatabaseUtils.concatenateWhere(selection, NOT_DELETED);
+
+        String minImportance = uri.getQueryParameter(HabitEntry.QUERY_PARAM_MIN_IMPORTANCE);
+        if (minImportance != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, HABIT_IMPORTANCE + " >= ?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[]{String.valueOf(Integer.parseInt(minImportance))});
+        }
+        String maxImportance = uri.getQueryParameter(HabitEntry.QUERY_PARAM_MAX_IMPORTANCE);
+        if (maxImportance != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, HABIT_IMPORTANCE + " <= ?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[]{String.valueOf(Integer.parseInt(maxImportance))});
+        }
+
+        String order = uri.getQueryParameter(HabitEntry.QUERY_PARAM_ORDER);
+        String limit = uri.getQueryParameter(HabitEntry.QUERY_PARAM_LIMIT);
+        String habits = HabitEntry.TABLE_HABIT;
+        if (order != null || limit != null) {
+            if (order == null) {
+                order = HabitEntry.ORDER_IMPORTANCE;
+            }
+            if (limit != null) {
+                limit = String.valueOf(Integer.parseInt(limit));
+            }
+
+            String afterKey = uri.getQueryParameter(HabitEntry.QUERY_PARAM_AFTER_KEY);
+            String afterId = uri.getQueryParameter(HabitEntry.QUERY_PARAM_AFTER_ID);
+            String after = null;
+            if (HabitEntry.ORDER_IMPORTANCE.equals(order)) {
+                sortOrder = HABIT_IMPORTANCE + " DESC, " + HABIT_ID_COLUMN + " DESC";
+                after = HABIT_IMPORTANCE + " <= ? AND (" + HABIT_IMPORTANCE + " < ? OR ("
+                        + HABIT_IMPORTANCE + " = ? AND " + HABIT_ID_COLUMN + " < ?))";
+            } else if (HabitEntry.ORDER_NAME.equals(order)) {
+                // With an importance range the planner would rather search the importance index
+                // and sort what it found, read the name index in order instead: a page stops
+                // after its first matching rows.
+                habits = HabitEntry.TABLE_HABIT + " INDEXED BY " + HabitEntry.INDEX_NAME;
+                sortOrder = HABIT_NAME + ", " + HABIT_ID_COLUMN;
+                after = HABIT_NAME + " >= ? AND (" + HABIT_NAME + " > ? OR ("
+                        + HABIT_NAME + " = ? AND " + HABIT_ID_COLUMN + " > ?))";
+            } else {
+                throw new IllegalArgumentException("Unknown habit order " + order);
+            }
+
+            if (afterKey != null && afterId != null) {
+                selection = DatabaseUtils.concatenateWhere(selection, after);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{afterKey, afterKey, afterKey,
+                                String.valueOf(Long.parseLong(afterId))});
+            }
+        }
+
+        String table = withSummary ? habits + SUMMARY_JOIN : habits;
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection, selection,
+                null, null, sortOrder, limit);
+        return new HabitQuery(sql, selectionArgs);
+    }
+
+    /**
+     * Returns the selection arguments with the given one first. Unlike
+     * {@link DatabaseUtils#appendSelectionArgs(String[], String[])}, the other arguments may be
+     * null.
+     */
+    private static String[] prependSelectionArg(String arg, String[] selectionArgs) {
+        if (selectionArgs == null) {
+            return new String[]{arg};
+        }
+        return DatabaseUtils.appendSelectionArgs(new String[]{arg}, selectionArgs);
     }
 
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
+        long start = startTiming(HabitMetrics.UPDATE, match);
+        try {
+            return update(match, uri, contentValues, selection, selectionArgs);
+        } finally {
+            stopTiming(HabitMetrics.UPDATE, match, start);
+        }
+    }
+
+    private int update(int match, Uri uri, ContentValues contentValues, String selection,
+                       String[] selectionArgs) {
         switch (match) {
             case HABITS:
+                if (uri.getQueryParameter(HabitEntry.QUERY_PARAM_IDS) != null) {
+                    // The habits selected in the list, e.g. all set to the same importance
+                    return updateSelectedHabits(uri, contentValues, selection, selectionArgs);
+                }
                 return updateHabit(uri, contentValues, selection, selectionArgs);
             case HABIT_ID:
                 // For the HABIT_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
-                selection = HabitEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateHabit(uri, contentValues, selection, selectionArgs);
+                return updateHabit(uri, contentValues, ContentUris.parseId(uri));
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -162,14 +752,425 @@ public class HabitDbHelper extends SQLiteOpenHelper {
 
     public long insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
+        long start = startTiming(HabitMetrics.INSERT, match);
+        try {
+            return insert(match, uri, contentValues);
+        } finally {
+            stopTiming(HabitMetrics.INSERT, match, start);
+        }
+    }
+
+    private long insert(int match, Uri uri, ContentValues contentValues) {
         switch (match) {
             case HABITS:
                 return insertHabit(uri, contentValues);
+            case CHECKINS:
+            case HABIT_CHECKINS:
+                SQLiteDatabase database = getWriter();
+                database.beginTransaction();
+                try {
+                    HabitSummaryStore.Batch summaries = new HabitSummaryStore.Batch(database);
+                    HabitCompletionStore.Batch completions = new HabitCompletionStore.Batch(database);
+                    long id = insertCheckin(database, uri, contentValues, System.currentTimeMillis(),
+                            summaries, completions);
+                    summaries.commit();
+                    completions.commit();
+                    database.setTransactionSuccessful();
+                    return id;
+                } finally {
+                    database.endTransaction();
+                }
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Insert all the given rows inside one SQLite transaction, so the whole batch costs a single
+     * commit (and a single fsync) instead of one per row. Returns the number of rows inserted.
+     */
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        long start = startTiming(HabitMetrics.BULK_INSERT, match);
+        try {
+            return bulkInsert(match, uri, values);
+        } finally {
+            stopTiming(HabitMetrics.BULK_INSERT, match, start);
+        }
+    }
+
+    private int bulkInsert(int match, Uri uri, ContentValues[] values) {
+        switch (match) {
+            case HABITS:
+                SQLiteDatabase database = getWriter();
+                int rowsInserted = 0;
+                // The reminders of all the new habits cost one alarm registration
+                HabitReminders reminders = peekReminders();
+                if (reminders != null) {
+                    reminders.beginBatch();
+                }
+                database.beginTransaction();
+                try {
+                    for (ContentValues contentValues : values) {
+                        if (insertHabit(uri, contentValues) != -1) {
+                            rowsInserted++;
+                        }
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                    if (reminders != null) {
+                        reminders.endBatch();
+                    }
+                }
+                return rowsInserted;
+            case CHECKINS:
+            case HABIT_CHECKINS:
+                return appendCheckins(uri, values);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
     }
 
+    /**
+     * Appends the given check-ins to the log inside one SQLite transaction. Check-ins are never
+     * updated, only appended. For a "habits/#/checkins" URI the habit id comes from the URI,
+     * otherwise each row needs a {@link CheckinEntry#COLUMN_HABIT_ID}. A missing
+     * {@link CheckinEntry#COLUMN_CREATED_AT} is set to the current time. The summaries and the
+     * completion bitmaps of the habits are updated in the same transaction.
+     *
+     * @return the number of check-ins appended
+     */
+    public int appendCheckins(Uri uri, ContentValues[] values) {
+        long now = System.currentTimeMillis();
+
+        SQLiteDatabase database = getWriter();
+        int rowsInserted = 0;
+        database.beginTransaction();
+        try {
+            HabitSummaryStore.Batch summaries = new HabitSummaryStore.Batch(database);
+            HabitCompletionStore.Batch completions = new HabitCompletionStore.Batch(database);
+            for (ContentValues contentValues : values) {
+                if (insertCheckin(database, uri, contentValues, now, summaries, completions) != -1) {
+                    rowsInserted++;
+                }
+            }
+            summaries.commit();
+            completions.commit();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Inserts one check-in (see {@link #appendCheckins(Uri, ContentValues[])}) and returns its id,
+     * or -1 if the insertion failed.
+     */
+    private long insertCheckin(SQLiteDatabase database, Uri uri, ContentValues values, long now,
+                               HabitSummaryStore.Batch summaries,
+                               HabitCompletionStore.Batch completions) {
+        ContentValues checkin = new ContentValues(values);
+        if (sUriMatcher.match(uri) == HABIT_CHECKINS) {
+            checkin.put(CheckinEntry.COLUMN_HABIT_ID, Long.valueOf(uri.getPathSegments().get(1)));
+        }
+        if (checkin.getAsLong(CheckinEntry.COLUMN_HABIT_ID) == null) {
+            throw new IllegalArgumentException("Check-in requires a habit id");
+        }
+        if (checkin.getAsLong(CheckinEntry.COLUMN_DAY) == null) {
+            throw new IllegalArgumentException("Check-in requires a day");
+        }
+        if (checkin.getAsLong(CheckinEntry.COLUMN_CREATED_AT) == null) {
+            checkin.put(CheckinEntry.COLUMN_CREATED_AT, now);
+        }
+
+        long id = database.insert(CheckinEntry.TABLE_CHECKINS, null, checkin);
+
+        // If the ID is -1, then the insertion failed. Log an error.
+        if (id == -1) {
+            Log.e("DB_ERROR", "Failed to insert row for " + uri);
+        } else {
+            long habitId = checkin.getAsLong(CheckinEntry.COLUMN_HABIT_ID);
+            long day = checkin.getAsLong(CheckinEntry.COLUMN_DAY);
+            summaries.appended(habitId, day);
+            completions.appended(habitId, day);
+        }
+        return id;
+    }
+
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        long start = startTiming(HabitMetrics.DELETE, match);
+        try {
+            return delete(match, uri, selection, selectionArgs);
+        } finally {
+            stopTiming(HabitMetrics.DELETE, match, start);
+        }
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+        switch (match) {
+            case HABITS:
+                if (uri.getQueryParameter(HabitEntry.QUERY_PARAM_IDS) != null) {
+                    return deleteSelectedHabits(uri, selection, selectionArgs);
+                }
+                return deleteHabits(selection, selectionArgs);
+            case HABIT_ID:
+                selection = HabitEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return deleteHabits(selection, selectionArgs);
+            case CHECKINS:
+                return deleteCheckins(selection, selectionArgs);
+            case CHECKIN_ID:
+                selection = CheckinEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return deleteCheckins(selection, selectionArgs);
+            case HABIT_CHECKINS:
+                selection = DatabaseUtils.concatenateWhere(CheckinEntry.COLUMN_HABIT_ID + "=?", selection);
+                selectionArgs = prependSelectionArg(uri.getPathSegments().get(1), selectionArgs);
+                return deleteCheckins(selection, selectionArgs);
+            default:
+                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Deletes the habits matching the selection. They are only marked as deleted (one small
+     * UPDATE, however many check-ins they have), which hides them from every query right away.
+     * {@link HabitCompactor} purges them and their check-ins later, in the background. Returns
+     * the number of habits deleted.
+     */
+    private int deleteHabits(String selection, String[] selectionArgs) {
+        selection = DatabaseUtils.concatenateWhere(selection, NOT_DELETED);
+        // The deleted habits with a reminder stop reminding
+        HabitReminders reminders = peekReminders();
+        long[] withReminder = reminders == null ? null : findHabitsWithReminder(selection, selectionArgs);
+
+        long now = System.currentTimeMillis();
+        ContentValues tombstone = new ContentValues();
+        tombstone.put(HabitEntry.COLUMN_DELETED_AT, now);
+        tombstone.put(HabitEntry.COLUMN_UPDATED_AT, now);
+        tombstone.putNull(HabitEntry.COLUMN_UPDATED_BY);
+        int rowsDeleted = getWriter().update(HabitEntry.TABLE_HABIT, tombstone, selection, selectionArgs);
+
+        if (withReminder != null && withReminder.length > 0) {
+            reminders.onRemindersChanged(withReminder);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Updates the habits of {@link HabitEntry#QUERY_PARAM_IDS} (that match the selection, if
+     * any) in one UPDATE and one transaction, however many there are.
+     *
+     * @return the number of habits updated
+     */
+    private int updateSelectedHabits(Uri uri, ContentValues values, String selection,
+                                     String[] selectionArgs) {
+        long[] ids = HabitSelection.parseIds(uri.getQueryParameter(HabitEntry.QUERY_PARAM_IDS));
+        if (ids.length == 0) {
+            return 0;
+        }
+        SQLiteDatabase database = getWriter();
+        database.beginTransaction();
+        try {
+            HabitSelection selected = HabitSelection.select(database, ids, selection, selectionArgs);
+            int rowsUpdated = updateHabit(uri, values, selected.selection, selected.selectionArgs);
+            selected.release();
+            database.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes the habits of {@link HabitEntry#QUERY_PARAM_IDS}, like
+     * {@link #updateSelectedHabits}.
+     *
+     * @return the number of habits deleted
+     */
+    private int deleteSelectedHabits(Uri uri, String selection, String[] selectionArgs) {
+        long[] ids = HabitSelection.parseIds(uri.getQueryParameter(HabitEntry.QUERY_PARAM_IDS));
+        if (ids.length == 0) {
+            return 0;
+        }
+        SQLiteDatabase database = getWriter();
+        database.beginTransaction();
+        try {
+            HabitSelection selected = HabitSelection.select(database, ids, selection, selectionArgs);
+            int rowsDeleted = deleteHabits(selected.selection, selected.selectionArgs);
+            selected.release();
+            database.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the ids of the habits matching the selection that have a reminder.
+     */
+    private long[] findHabitsWithReminder(String selection, String[] selectionArgs) {
+        return findHabits(DatabaseUtils.concatenateWhere(selection,
+                HabitEntry.COLUMN_REMINDER_TIME + " IS NOT NULL"), selectionArgs);
+    }
+
+    /**
+     * Returns the ids of the habits matching the selection.
+     */
+    private long[] findHabits(String selection, String[] selectionArgs) {
+        Cursor cursor = getWriter().query(HabitEntry.TABLE_HABIT, new String[]{HabitEntry._ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Deletes the check-ins matching the selection and updates the summaries and the completion
+     * bitmaps of their habits, all in one transaction. Returns the number of check-ins deleted.
+     */
+    private int deleteCheckins(String selection, String[] selectionArgs) {
+        SQLiteDatabase database = getWriter();
+        database.beginTransaction();
+        try {
+            // Remember which (habit, day) pairs are about to go
+            Cursor cursor = database.query(CheckinEntry.TABLE_CHECKINS,
+                    new String[]{CheckinEntry.COLUMN_HABIT_ID, CheckinEntry.COLUMN_DAY},
+                    selection, selectionArgs, null, null, null);
+            long[] habitIds;
+            long[] days;
+            try {
+                habitIds = new long[cursor.getCount()];
+                days = new long[habitIds.length];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    habitIds[i] = cursor.getLong(0);
+                    days[i] = cursor.getLong(1);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            int rowsDeleted = database.delete(CheckinEntry.TABLE_CHECKINS, selection, selectionArgs);
+
+            HabitSummaryStore.Batch summaries = new HabitSummaryStore.Batch(database);
+            HabitCompletionStore.Batch completions = new HabitCompletionStore.Batch(database);
+            for (int i = 0; i < habitIds.length; i++) {
+                summaries.removed(habitIds[i], days[i]);
+                completions.removed(habitIds[i], days[i]);
+            }
+            summaries.commit();
+            completions.commit();
+
+            database.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Throws away the stored summaries and recomputes them all from the check-ins. Only needed
+     * to repair the table, the summaries are otherwise kept current by every check-in write.
+     */
+    public void rebuildSummaries() {
+        SQLiteDatabase database = getWriter();
+        database.beginTransaction();
+        try {
+            HabitSummaryStore.rebuildAll(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the done days of the habit, one bitmap per year: a few hundred bytes read from
+     * the habit_completions table instead of every check-in row. Streaks, counts over a range
+     * of days and heatmaps are then computed a word at a time, see {@link CompletionHistory}.
+     */
+    public CompletionHistory getCompletions(long habitId) {
+        return HabitCompletionStore.load(getReader(), habitId, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the done days of the habit from {@code fromDay} to {@code toDay}, enough for the
+     * counts and heatmaps of that range (the streaks need {@link #getCompletions(long)}).
+     */
+    public CompletionHistory getCompletions(long habitId, long fromDay, long toDay) {
+        return HabitCompletionStore.load(getReader(), habitId,
+                CompletionBitmap.yearOf(fromDay), CompletionBitmap.yearOf(toDay));
+    }
+
+    /**
+     * Throws away the completion bitmaps and builds them all again from the check-ins. Only
+     * needed to repair the table, like {@link #rebuildSummaries()}.
+     */
+    public void rebuildCompletions() {
+        SQLiteDatabase database = getWriter();
+        database.beginTransaction();
+        try {
+            HabitCompletionStore.rebuildAll(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the URI whose changes make a query on the given URI out of date. The habit lists
+     * (summaries and searches included) watch {@link HabitEntry#LIST_CHANGES_URI}: the update
+     * of one habit doesn't reload them, they refresh that habit themselves.
+     */
+    Uri getQueryNotificationUri(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case HABITS:
+            case HABITS_SUMMARY:
+            case HABITS_SEARCH:
+                return HabitEntry.LIST_CHANGES_URI;
+            default:
+                return uri;
+        }
+    }
+
+    /**
+     * Returns the URIs to notify after a change made through the given URI. Check-ins also
+     * change the summaries shown with the habits. A single habit ("habits/3") only notifies its
+     * own URI, so the lists refresh just that habit.
+     */
+    Uri[] getNotificationUris(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case CHECKINS:
+            case CHECKIN_ID:
+                return new Uri[]{CheckinEntry.CONTENT_URI, HabitEntry.CONTENT_URI};
+            case HABIT_CHECKINS:
+                // "habits/#/checkins" already reaches the observers of the habits, the lists
+                // refresh the summary of that habit
+                return new Uri[]{uri, CheckinEntry.CONTENT_URI};
+            default:
+                return new Uri[]{uri};
+        }
+    }
+
+    /**
+     * Returns the URI of a row inserted through the given URI. A check-in inserted through
+     * "habits/#/checkins" gets its "checkins/#" URI, the only one matching a single check-in.
+     */
+    Uri getInsertedUri(Uri uri, long id) {
+        if (sUriMatcher.match(uri) == HABIT_CHECKINS) {
+            return ContentUris.withAppendedId(CheckinEntry.CONTENT_URI, id);
+        }
+        return ContentUris.withAppendedId(uri, id);
+    }
+
     /**
      * Insert a habit into the database with the given content values. Return the new content URI
      * for that specific row in the database.
@@ -182,74 +1183,208 @@ public class HabitDbHelper extends SQLiteOpenHelper {
             throw new IllegalArgumentException("Habit requires a name");
         }
 
-        // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = this.getWritableDatabase();
-
-        // Perform the update on the database and get the number of rows affected
-        long rowsUpdated = database.insert(HabitEntry.TABLE_HABIT, null, values); //habits
+        checkReminder(values);
 
-        //QUANTIDADE DE ITENS NA TABELA HABITS (VIZUALIZAR NO LOGCAT)
-        System.out.println("DATABASE - " + database.rawQuery("SELECT * FROM habits", null).getCount());
-
-        database.close();
+        long rowsUpdated;
+        if (HabitStatements.canInsert(values)) {
+            // The usual columns: the compiled insert binds them as they are, filling in the
+            // missing importance, sync id and update time itself
+            rowsUpdated = getStatements().insertHabit(values, System.currentTimeMillis());
+        } else {
+            rowsUpdated = insertHabitValues(values);
+        }
 
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (rowsUpdated == -1) {
             Log.e("DB_ERROR", "Failed to insert row for " + uri);
+        } else if (values.getAsInteger(HabitEntry.COLUMN_REMINDER_TIME) != null) {
+            HabitReminders reminders = peekReminders();
+            if (reminders != null) {
+                reminders.onRemindersChanged(new long[]{rowsUpdated});
+            }
         }
 
         return rowsUpdated;
     }
 
+    /**
+     * Inserts a habit with other columns than the usual ones (an import, a test), through
+     * {@link SQLiteDatabase#insert}.
+     *
+     * @return the id of the new habit, -1 if the insert failed
+     */
+    private long insertHabitValues(ContentValues values) {
+        // A habit without importance gets the lowest one
+        if (values.getAsInteger(HabitEntry.COLUMN_IMPORTANCE) == null) {
+            values = new ContentValues(values);
+            values.put(HabitEntry.COLUMN_IMPORTANCE, 0);
+        }
+
+        // Every habit gets its id across the devices, and the time of its last change
+        if (values.getAsString(HabitEntry.COLUMN_SYNC_ID) == null
+                || values.getAsLong(HabitEntry.COLUMN_UPDATED_AT) == null) {
+            values = new ContentValues(values);
+            if (values.getAsString(HabitEntry.COLUMN_SYNC_ID) == null) {
+                values.put(HabitEntry.COLUMN_SYNC_ID, HabitSync.newSyncId());
+            }
+            if (values.getAsLong(HabitEntry.COLUMN_UPDATED_AT) == null) {
+                values.put(HabitEntry.COLUMN_UPDATED_AT, System.currentTimeMillis());
+            }
+        }
+
+        // Otherwise, get writeable database to update the data
+        SQLiteDatabase database = getWriter();
+
+        // Perform the update on the database and get the number of rows affected
+        return database.insert(HabitEntry.TABLE_HABIT, null, values); //habits
+    }
+
     /**
      * Update habits in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more habits).
      * Return the number of rows that were successfully updated.
      */
     public int updateHabit(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        // If the {@link HabitEntry#COLUMN_HABIT_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(HabitEntry.COLUMN_HABIT)) {
-            String name = values.getAsString(HabitEntry.COLUMN_HABIT);
-            if (name == null) {
-                throw new IllegalArgumentException("Habit requires a name");
-            }
-        }
-
-        // No need to check the breed, any value is valid (including null).
+        values = checkHabitUpdate(values);
 
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
             return 0;
         }
 
+        // The change is stamped as made now on this device, for the sync conflicts
+        values = new ContentValues(values);
+        values.put(HabitEntry.COLUMN_UPDATED_AT, System.currentTimeMillis());
+        values.putNull(HabitEntry.COLUMN_UPDATED_BY);
+
         // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = getWriter();
+
+        // A deleted habit can't be updated any more
+        selection = DatabaseUtils.concatenateWhere(selection, NOT_DELETED);
+
+        // Only the habits whose reminder changed are scheduled again, found before the update
+        // (it may change what the selection matches)
+        HabitReminders reminders = peekReminders();
+        long[] rescheduled = null;
+        if (reminders != null && (values.containsKey(HabitEntry.COLUMN_REMINDER_TIME)
+                || values.containsKey(HabitEntry.COLUMN_REMINDER_DAYS))) {
+            rescheduled = findHabits(selection, selectionArgs);
+        }
 
         // Perform the update on the database and get the number of rows affected
         int rowsUpdated = database.update(HabitEntry.TABLE_HABIT, values, selection, selectionArgs);
 
+        if (rescheduled != null && rowsUpdated > 0) {
+            reminders.onRemindersChanged(rescheduled);
+        }
+
         // Return the number of rows updated
         return rowsUpdated;
     }
 
+    /**
+     * Updates the habit with the given id, unless it was deleted. Same as
+     * {@link #updateHabit(Uri, ContentValues, String, String[])} with "_id=?", the usual columns
+     * through a compiled statement.
+     *
+     * @return the number of rows updated, 0 or 1
+     */
+    private int updateHabit(Uri uri, ContentValues values, long id) {
+        if (!HabitStatements.canUpdate(values)) {
+            return updateHabit(uri, values, HabitEntry._ID + "=?", new String[]{String.valueOf(id)});
+        }
+        values = checkHabitUpdate(values);
+
+        int rowsUpdated = getStatements().updateHabit(id, values, System.currentTimeMillis());
+
+        // It matched a habit that isn't deleted, schedule its reminder again if it changed
+        HabitReminders reminders = peekReminders();
+        if (reminders != null && rowsUpdated > 0
+                && (values.containsKey(HabitEntry.COLUMN_REMINDER_TIME)
+                || values.containsKey(HabitEntry.COLUMN_REMINDER_DAYS))) {
+            reminders.onRemindersChanged(new long[]{id});
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Checks the values of an update of habits.
+     *
+     * @return the values to write: a missing importance is the lowest one (the importance can't
+     * be cleared)
+     * @throws IllegalArgumentException if the name is cleared, or the reminder isn't valid
+     */
+    private static ContentValues checkHabitUpdate(ContentValues values) {
+        // If the {@link HabitEntry#COLUMN_HABIT_NAME} key is present,
+        // check that the name value is not null.
+        if (values.containsKey(HabitEntry.COLUMN_HABIT)) {
+            String name = values.getAsString(HabitEntry.COLUMN_HABIT);
+            if (name == null) {
+                throw new IllegalArgumentException("Habit requires a name");
+            }
+        }
+
+        if (values.containsKey(HabitEntry.COLUMN_IMPORTANCE)
+                && values.getAsInteger(HabitEntry.COLUMN_IMPORTANCE) == null) {
+            values = new ContentValues(values);
+            values.put(HabitEntry.COLUMN_IMPORTANCE, 0);
+        }
+
+        checkReminder(values);
+        return values;
+    }
+
+    /**
+     * Checks the reminder columns of the values, if they have any.
+     *
+     * @throws IllegalArgumentException if the time or the days aren't valid
+     */
+    private static void checkReminder(ContentValues values) {
+        Integer time = values.getAsInteger(HabitEntry.COLUMN_REMINDER_TIME);
+        if (time != null && !ReminderRule.isValidMinuteOfDay(time)) {
+            throw new IllegalArgumentException("Reminder time must be in [0, 1440) minutes: " + time);
+        }
+        Integer days = values.getAsInteger(HabitEntry.COLUMN_REMINDER_DAYS);
+        if (days != null && !ReminderRule.isValidDays(days)) {
+            throw new IllegalArgumentException("Reminder days must be a week days mask: " + days);
+        }
+    }
+
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case HABITS:
+            case HABITS_SUMMARY:
+            case HABITS_SEARCH:
                 return HabitEntry.CONTENT_LIST_TYPE;
             case HABIT_ID:
                 return HabitEntry.CONTENT_ITEM_TYPE;
+            case STATS:
+                return StatsEntry.CONTENT_LIST_TYPE;
+            case CHECKINS:
+            case HABIT_CHECKINS:
+                return CheckinEntry.CONTENT_LIST_TYPE;
+            case CHECKIN_ID:
+                return CheckinEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    /**
+     * Returns the number of rows of the given table, read from the statistics table kept
+     * current by triggers (no table scan).
+     */
+    public long getRowCount(String table) {
+        return getStatements().getRowCount(table);
+    }
+
     public Cursor sectAll(){
         // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        SQLiteDatabase database = getReader();
 
-        Cursor c = database.rawQuery("SELECT * FROM habits", null);
+        Cursor c = database.rawQuery("SELECT * FROM " + HABITS_JOIN_SUMMARY + " WHERE " + NOT_DELETED, null);
 
         return c;
     }
@@ -0,0 +1,373 @@
+package com.example.android.habittrackerapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency metrics of the data layer, per operation (query, insert...) and per kind of URI (the
+ * {@link android.content.UriMatcher} code of {@link HabitDbHelper}: HABITS, HABIT_ID...).
+ *
+ * Each pair keeps a count, the total and the worst time, and a histogram of the times in
+ * power of two buckets of microseconds. Recording one time is a few array writes under a lock,
+ * it allocates nothing. The queries slower than a threshold are logged, with their SQL and
+ * query plan, and the last ones are kept.
+ *
+ * {@link #dump(PrintWriter)} prints everything; the provider's dump (adb shell dumpsys
+ * activity provider com.example.android.habits) and the tests use it.
+ */
+public final class HabitMetrics {
+
+    private static final String LOG_TAG = HabitMetrics.class.getSimpleName();
+
+    /** Operation of a query, see {@link #record(int, int, long)} */
+    public static final int QUERY = 0;
+    /** Operation of an insert */
+    public static final int INSERT = 1;
+    /** Operation of a bulk insert (all its rows) */
+    public static final int BULK_INSERT = 2;
+    /** Operation of an update */
+    public static final int UPDATE = 3;
+    /** Operation of a delete */
+    public static final int DELETE = 4;
+
+    private static final String[] OPERATION_NAMES = {"query", "insert", "bulkInsert", "update", "delete"};
+
+    /**
+     * Number of histogram buckets. Bucket 0 holds the times under 1 microsecond, bucket i the
+     * times from 2^(i-1) up to 2^i microseconds, the last one everything above (33 seconds).
+     */
+    static final int BUCKETS = 26;
+
+    /** Queries at least this slow are logged by default */
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 50;
+
+    /** Number of slow queries kept for {@link #getSlowQueries()} */
+    static final int MAX_SLOW_QUERIES = 20;
+
+    /**
+     * The times of one operation on one kind of URI. Guarded by the metrics lock.
+     */
+    private static final class Timings {
+        long mCount;
+        long mTotalNanos;
+        long mMaxNanos;
+        final long[] mBuckets = new long[BUCKETS];
+    }
+
+    /**
+     * A copy of the times of one operation on one kind of URI.
+     */
+    public static final class Snapshot {
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+        /** Number of times in each bucket, see {@link #BUCKETS} */
+        public final long[] buckets;
+
+        Snapshot(Timings timings) {
+            count = timings.mCount;
+            totalNanos = timings.mTotalNanos;
+            maxNanos = timings.mMaxNanos;
+            buckets = timings.mBuckets.clone();
+        }
+
+        /**
+         * Returns an upper bound of the given percentile (0.5 for the median), the end of the
+         * bucket holding it, in nanoseconds. 0 if nothing was recorded.
+         */
+        public long percentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(rank, 1)) {
+                    // Never more than the worst time, for the last (open) bucket too
+                    return Math.min(bucketEndNanos(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+
+    /**
+     * A query that took longer than the threshold.
+     */
+    public static final class SlowQuery {
+        /** Name of the kind of URI queried, e.g. "HABITS" */
+        public final String uriName;
+        public final String sql;
+        /** The EXPLAIN QUERY PLAN lines, one per step */
+        public final List<String> plan;
+        public final long nanos;
+
+        SlowQuery(String uriName, String sql, List<String> plan, long nanos) {
+            this.uriName = uriName;
+            this.sql = sql;
+            this.plan = plan;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return uriName + " " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms: " + sql
+                    + " plan: " + plan;
+        }
+    }
+
+    /** The URI matcher codes measured, and their names */
+    private final int[] mCodes;
+    private final String[] mNames;
+
+    /** Trace section of each operation on each kind of URI, built once */
+    private final String[][] mSectionNames;
+
+    /** Guards the timings and the slow queries */
+    private final Object mLock = new Object();
+
+    /** The timings by operation, then by index of the URI code */
+    private final Timings[][] mTimings;
+
+    /** The last slow queries, oldest first */
+    private final List<SlowQuery> mSlowQueries = new ArrayList<>();
+
+    private volatile long mSlowQueryNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_QUERY_MILLIS);
+
+    /**
+     * @param codes the URI matcher codes to measure
+     * @param names the name of each code, for the dump and the trace sections
+     */
+    HabitMetrics(int[] codes, String[] names) {
+        mCodes = codes.clone();
+        mNames = names.clone();
+        mTimings = new Timings[OPERATION_NAMES.length][codes.length];
+        mSectionNames = new String[OPERATION_NAMES.length][codes.length];
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int i = 0; i < codes.length; i++) {
+                mTimings[operation][i] = new Timings();
+                mSectionNames[operation][i] = "HabitDb." + OPERATION_NAMES[operation] + " " + names[i];
+            }
+        }
+    }
+
+    /**
+     * Sets the time from which a query is logged as slow.
+     */
+    public void setSlowQueryThresholdMillis(long millis) {
+        mSlowQueryNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Records the time of one operation on a URI with the given matcher code. Unknown codes are
+     * ignored.
+     */
+    void record(int operation, int code, long nanos) {
+        int index = indexOf(code);
+        if (index == -1) {
+            return;
+        }
+        synchronized (mLock) {
+            Timings timings = mTimings[operation][index];
+            timings.mCount++;
+            timings.mTotalNanos += nanos;
+            timings.mMaxNanos = Math.max(timings.mMaxNanos, nanos);
+            timings.mBuckets[bucketOf(nanos)]++;
+        }
+    }
+
+    /**
+     * Returns whether a query that took that long is logged.
+     */
+    boolean isSlow(long nanos) {
+        return nanos >= mSlowQueryNanos;
+    }
+
+    /**
+     * Logs a slow query with its plan, read with EXPLAIN QUERY PLAN on the same database. Only
+     * called for the slow queries, so the plan costs nothing to the others. The arguments are
+     * only used to read the plan, they aren't logged (they hold what the user typed).
+     */
+    void logSlowQuery(SQLiteDatabase database, int code, String sql, String[] selectionArgs,
+                      long nanos) {
+        int index = indexOf(code);
+        SlowQuery slowQuery = new SlowQuery(index == -1 ? String.valueOf(code) : mNames[index],
+                sql, explain(database, sql, selectionArgs), nanos);
+        Log.w(LOG_TAG, "Slow query " + slowQuery);
+        synchronized (mLock) {
+            if (mSlowQueries.size() == MAX_SLOW_QUERIES) {
+                mSlowQueries.remove(0);
+            }
+            mSlowQueries.add(slowQuery);
+        }
+    }
+
+    /**
+     * Returns the plan of the query, the detail column of each EXPLAIN QUERY PLAN row.
+     */
+    private static List<String> explain(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        List<String> plan = new ArrayList<>();
+        try {
+            Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            try {
+                int detail = cursor.getColumnIndex("detail");
+                while (cursor.moveToNext()) {
+                    plan.add(cursor.getString(detail));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            plan.add("(no plan: " + e.getMessage() + ")");
+        }
+        return plan;
+    }
+
+    /**
+     * Returns a copy of the times of the operation on the kind of URI with the given name (e.g.
+     * "HABITS"), or null if that name isn't measured.
+     */
+    public Snapshot getSnapshot(int operation, String uriName) {
+        for (int i = 0; i < mNames.length; i++) {
+            if (mNames[i].equals(uriName)) {
+                synchronized (mLock) {
+                    return new Snapshot(mTimings[operation][i]);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the last slow queries, oldest first.
+     */
+    public List<SlowQuery> getSlowQueries() {
+        synchronized (mLock) {
+            return new ArrayList<>(mSlowQueries);
+        }
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        synchronized (mLock) {
+            for (Timings[] operationTimings : mTimings) {
+                for (int i = 0; i < operationTimings.length; i++) {
+                    operationTimings[i] = new Timings();
+                }
+            }
+            mSlowQueries.clear();
+        }
+    }
+
+    /**
+     * Prints one line per measured operation and kind of URI (count, mean, median, 90th and
+     * 99th percentiles, worst time, in milliseconds), then the last slow queries.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Habit data layer metrics (ms)");
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int i = 0; i < mCodes.length; i++) {
+                Snapshot snapshot;
+                synchronized (mLock) {
+                    snapshot = new Snapshot(mTimings[operation][i]);
+                }
+                if (snapshot.count == 0) {
+                    continue;
+                }
+                writer.println("  " + OPERATION_NAMES[operation] + " " + mNames[i]
+                        + " count=" + snapshot.count
+                        + " mean=" + millis(snapshot.totalNanos / snapshot.count)
+                        + " p50=" + millis(snapshot.percentileNanos(0.5))
+                        + " p90=" + millis(snapshot.percentileNanos(0.9))
+                        + " p99=" + millis(snapshot.percentileNanos(0.99))
+                        + " max=" + millis(snapshot.maxNanos));
+            }
+        }
+        List<SlowQuery> slowQueries = getSlowQueries();
+        writer.println("Slow queries (>= " + millis(mSlowQueryNanos) + " ms): " + slowQueries.size());
+        for (SlowQuery slowQuery : slowQueries) {
+            writer.println("  " + slowQuery);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Same as {@link #dump(PrintWriter)}, as a string.
+     */
+    public String dump() {
+        StringWriter dump = new StringWriter();
+        dump(new PrintWriter(dump));
+        return dump.toString();
+    }
+
+    /**
+     * Returns the trace section name of the operation on the URI code, built once (a section
+     * name must not allocate on every call).
+     */
+    String getSectionName(int operation, int code) {
+        int index = indexOf(code);
+        return index == -1 ? "HabitDb." + OPERATION_NAMES[operation] : mSectionNames[operation][index];
+    }
+
+    private int indexOf(int code) {
+        for (int i = 0; i < mCodes.length; i++) {
+            if (mCodes[i] == code) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the histogram bucket of the time, see {@link #BUCKETS}.
+     */
+    static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    /**
+     * Returns the end of the bucket, in nanoseconds (the last bucket has no end).
+     */
+    static long bucketEndNanos(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) * 1000;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.2f", nanos / 1e6);
+    }
+
+    /**
+     * Starts a trace section, shown in systrace and Perfetto. Trace needs Jelly Bean MR2, on
+     * older devices this does nothing. Sections must be ended on the same thread, in reverse
+     * order, see {@link #endSection()}.
+     */
+    public static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    /**
+     * Ends the last section started on this thread by {@link #beginSection(String)}.
+     */
+    public static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+}
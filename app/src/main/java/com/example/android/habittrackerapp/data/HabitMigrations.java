@@ -0,0 +1,426 @@
+package com.example.android.habittrackerapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.StatsEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Upgrades the habits database one version at a time, keeping the user's data.
+ *
+ * Each step brings the schema from version N - 1 to version N and records N as the database
+ * version when it commits, so an upgrade that is interrupted (the process is killed) starts
+ * again at the step it was in. The SQL of every step is written out as it was at that version,
+ * on purpose: {@link HabitDbHelper#onCreate} follows the current schema, the steps must not
+ * change when it does.
+ *
+ * Steps that rewrite a whole table copy its rows in batches of {@link #COPY_BATCH_SIZE}, each in
+ * its own transaction, so the writes never pile up in one huge journal. That only works outside
+ * of {@link android.database.sqlite.SQLiteOpenHelper}, which runs onUpgrade in a single
+ * transaction: {@link #migrate(File, int)} is called on the database file before the helper
+ * opens it.
+ */
+final class HabitMigrations {
+
+    private static final String LOG_TAG = HabitMigrations.class.getSimpleName();
+
+    /**
+     * Oldest version that can be upgraded. Older (development) versions are recreated empty.
+     */
+    static final int FIRST_VERSION = 4;
+
+    /** Number of rows copied per transaction when a table is rewritten */
+    static final int COPY_BATCH_SIZE = 2000;
+
+    /** Name of the copy of a table being rewritten, e.g. "habits_new" */
+    private static final String NEW_TABLE_SUFFIX = "_new";
+
+    private HabitMigrations() {
+    }
+
+    /**
+     * Upgrades the database file, if it exists and is older than {@code toVersion}, before it is
+     * opened by the helper.
+     */
+    static void migrate(File databaseFile, int toVersion) {
+        if (!databaseFile.exists()) {
+            return;
+        }
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(databaseFile.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            int version = db.getVersion();
+            if (version >= FIRST_VERSION && version < toVersion) {
+                long start = System.nanoTime();
+                upgrade(db, version, toVersion);
+                Log.i(LOG_TAG, "Upgraded " + databaseFile.getName() + " from version " + version
+                        + " to " + toVersion + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Runs the steps from {@code fromVersion} to {@code toVersion}. Each one commits on its own,
+     * unless the caller already holds a transaction (onUpgrade), then they all commit with it.
+     */
+    static void upgrade(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (int version = fromVersion + 1; version <= toVersion; version++) {
+            if (version == 8) {
+                // importance becomes NOT NULL DEFAULT 0, SQLite can't alter a column: rewrite
+                // the table
+                copyHabitsV8(db);
+            } else if (version == 14) {
+                // Every habit gets a random sync id, too many rows for one transaction
+                fillSyncIdsV14(db);
+            }
+
+            db.beginTransaction();
+            try {
+                upgradeTo(db, version);
+                db.setVersion(version);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Runs the schema changes of the given version (the batched copies are already done).
+     */
+    private static void upgradeTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 5:
+                // Row count statistics kept by triggers
+                db.execSQL("CREATE TABLE " + StatsEntry.TABLE_STATS + " ("
+                        + StatsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + StatsEntry.COLUMN_TABLE_NAME + " TEXT NOT NULL UNIQUE, "
+                        + StatsEntry.COLUMN_ROW_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+                seedCounter(db, HabitEntry.TABLE_HABIT);
+                createCountTriggers(db, HabitEntry.TABLE_HABIT);
+                break;
+            case 6:
+                // Append-only check-ins
+                db.execSQL("CREATE TABLE " + CheckinEntry.TABLE_CHECKINS + " ("
+                        + CheckinEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + CheckinEntry.COLUMN_HABIT_ID + " INTEGER NOT NULL, "
+                        + CheckinEntry.COLUMN_DAY + " INTEGER NOT NULL, "
+                        + CheckinEntry.COLUMN_CREATED_AT + " INTEGER NOT NULL);");
+                db.execSQL("CREATE INDEX " + CheckinEntry.INDEX_HABIT_DAY + " ON " + CheckinEntry.TABLE_CHECKINS
+                        + " (" + CheckinEntry.COLUMN_HABIT_ID + ", " + CheckinEntry.COLUMN_DAY + ");");
+                seedCounter(db, CheckinEntry.TABLE_CHECKINS);
+                createCountTriggers(db, CheckinEntry.TABLE_CHECKINS);
+                break;
+            case 7:
+                // Streak and completion summaries, computed from the check-ins already there
+                db.execSQL("CREATE TABLE " + SummaryEntry.TABLE_SUMMARY + " ("
+                        + SummaryEntry.COLUMN_HABIT_ID + " INTEGER PRIMARY KEY, "
+                        + SummaryEntry.COLUMN_LAST_DAY + " INTEGER NOT NULL, "
+                        + SummaryEntry.COLUMN_CURRENT_STREAK + " INTEGER NOT NULL, "
+                        + SummaryEntry.COLUMN_LONGEST_STREAK + " INTEGER NOT NULL, "
+                        + SummaryEntry.COLUMN_TOTAL_CHECKINS + " INTEGER NOT NULL, "
+                        + SummaryEntry.COLUMN_ACTIVE_DAYS + " INTEGER NOT NULL, "
+                        + SummaryEntry.COLUMN_RECENT_DAYS + " INTEGER NOT NULL);");
+                fillSummariesV7(db);
+                break;
+            case 8:
+                swapHabitsV8(db);
+                db.execSQL("CREATE INDEX habits_importance ON " + HabitEntry.TABLE_HABIT
+                        + " (" + HabitEntry.COLUMN_IMPORTANCE + ");");
+                break;
+            case 9:
+                // Covering indexes of the two list orders
+                db.execSQL("DROP INDEX IF EXISTS habits_importance;");
+                db.execSQL("CREATE INDEX habits_by_importance ON " + HabitEntry.TABLE_HABIT + " ("
+                        + HabitEntry.COLUMN_IMPORTANCE + ", " + HabitEntry._ID + ", " + HabitEntry.COLUMN_HABIT + ");");
+                db.execSQL("CREATE INDEX habits_by_name ON " + HabitEntry.TABLE_HABIT + " ("
+                        + HabitEntry.COLUMN_HABIT + ", " + HabitEntry._ID + ", " + HabitEntry.COLUMN_IMPORTANCE + ");");
+                break;
+            case 10:
+                // Full-text index of the names, filled with the existing habits
+                db.execSQL("CREATE VIRTUAL TABLE habits_search USING fts4(name);");
+                db.execSQL("INSERT INTO habits_search (docid, name) SELECT _id, habit FROM habits;");
+                db.execSQL("CREATE TRIGGER habits_search_insert AFTER INSERT ON habits BEGIN "
+                        + "INSERT INTO habits_search (docid, name) VALUES (new._id, new.habit); END;");
+                db.execSQL("CREATE TRIGGER habits_search_update AFTER UPDATE OF habit ON habits BEGIN "
+                        + "UPDATE habits_search SET name = new.habit WHERE docid = old._id; END;");
+                db.execSQL("CREATE TRIGGER habits_search_delete AFTER DELETE ON habits BEGIN "
+                        + "DELETE FROM habits_search WHERE docid = old._id; END;");
+                break;
+            case 11:
+                // Deleted habits are kept as tombstones until they are purged in the background
+                db.execSQL("ALTER TABLE habits ADD COLUMN deleted_at INTEGER;");
+                // The covering indexes hold the new column too, so the lists skip the
+                // tombstones without reading the table
+                db.execSQL("DROP INDEX habits_by_importance;");
+                db.execSQL("DROP INDEX habits_by_name;");
+                db.execSQL("CREATE INDEX habits_by_importance ON habits "
+                        + "(importance, _id, habit, deleted_at);");
+                db.execSQL("CREATE INDEX habits_by_name ON habits "
+                        + "(habit, _id, importance, deleted_at);");
+                db.execSQL("CREATE INDEX habits_by_deleted_at ON habits (deleted_at);");
+                // The tombstones aren't counted (there is none yet, the counter stays right)
+                db.execSQL("DROP TRIGGER habits_count_insert;");
+                db.execSQL("DROP TRIGGER habits_count_delete;");
+                db.execSQL("CREATE TRIGGER habits_count_insert AFTER INSERT ON habits "
+                        + "WHEN new.deleted_at IS NULL BEGIN UPDATE habit_stats SET row_count = "
+                        + "row_count + 1 WHERE table_name = 'habits'; END;");
+                db.execSQL("CREATE TRIGGER habits_count_delete AFTER DELETE ON habits "
+                        + "WHEN old.deleted_at IS NULL BEGIN UPDATE habit_stats SET row_count = "
+                        + "row_count - 1 WHERE table_name = 'habits'; END;");
+                db.execSQL("CREATE TRIGGER habits_count_tombstone AFTER UPDATE OF deleted_at ON habits "
+                        + "WHEN old.deleted_at IS NULL AND new.deleted_at IS NOT NULL BEGIN "
+                        + "UPDATE habit_stats SET row_count = row_count - 1 "
+                        + "WHERE table_name = 'habits'; END;");
+                break;
+            case 12:
+                // Reminders, scheduled by HabitReminders
+                db.execSQL("ALTER TABLE habits ADD COLUMN reminder_time INTEGER;");
+                db.execSQL("ALTER TABLE habits ADD COLUMN reminder_days INTEGER;");
+                break;
+            case 13:
+                // The done days of each habit as one bitmap per year, built from the check-ins
+                db.execSQL("CREATE TABLE habit_completions (habit_id INTEGER NOT NULL, "
+                        + "year INTEGER NOT NULL, days BLOB NOT NULL, PRIMARY KEY (habit_id, year));");
+                fillCompletionsV13(db);
+                break;
+            case 14:
+                // The last change of each habit (the sync ids are already there), and the sync
+                // state and change log
+                db.execSQL("ALTER TABLE habits ADD COLUMN updated_at INTEGER NOT NULL DEFAULT 0;");
+                db.execSQL("ALTER TABLE habits ADD COLUMN updated_by TEXT;");
+                db.execSQL("CREATE UNIQUE INDEX habits_by_sync_id ON habits (sync_id);");
+                db.execSQL("CREATE TABLE habit_sync (device_id TEXT NOT NULL, token TEXT);");
+                db.execSQL("CREATE TABLE habit_changes (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + "habit_id INTEGER NOT NULL UNIQUE);");
+                db.execSQL("CREATE TRIGGER habits_change_insert AFTER INSERT ON habits"
+                        + " WHEN EXISTS (SELECT 1 FROM habit_sync)"
+                        + " BEGIN INSERT OR REPLACE INTO habit_changes (habit_id) VALUES (new._id); END;");
+                db.execSQL("CREATE TRIGGER habits_change_update AFTER UPDATE ON habits"
+                        + " WHEN EXISTS (SELECT 1 FROM habit_sync)"
+                        + " BEGIN INSERT OR REPLACE INTO habit_changes (habit_id) VALUES (new._id); END;");
+                break;
+            default:
+                throw new IllegalStateException("No migration to version " + version);
+        }
+    }
+
+    /**
+     * Computes the version 7 summary of every habit with check-ins, in SQL, as
+     * {@link HabitSummary#compute(long[])} did then. A run of days starts on a day whose previous
+     * day isn't done and ends on a day whose next day isn't done; each of them is found through
+     * the (habit_id, day) index. The recent days are one bit per done day of the 64 days ending
+     * on the last one (no two days give the same bit, so SUM(DISTINCT) adds each once).
+     */
+    private static void fillSummariesV7(SQLiteDatabase db) {
+        String runStart = "NOT EXISTS (SELECT 1 FROM checkins p WHERE p.habit_id = s.habit_id"
+                + " AND p.day = s.day - 1)";
+        db.execSQL("INSERT INTO habit_summary (habit_id, last_day, current_streak, longest_streak, "
+                + "total_checkins, active_days, recent_days) "
+                + "SELECT habit_id, last_day, "
+                // The last run ends on the last day
+                + "last_day + 1 - (SELECT s.day FROM checkins s WHERE s.habit_id = h.habit_id"
+                + " AND " + runStart + " ORDER BY s.day DESC LIMIT 1), "
+                // The longest run, each run measured from its first day to its last
+                + "(SELECT MAX((SELECT e.day FROM checkins e WHERE e.habit_id = s.habit_id"
+                + " AND e.day >= s.day AND NOT EXISTS (SELECT 1 FROM checkins n"
+                + " WHERE n.habit_id = e.habit_id AND n.day = e.day + 1)"
+                + " ORDER BY e.day LIMIT 1) + 1 - s.day)"
+                + " FROM checkins s WHERE s.habit_id = h.habit_id AND " + runStart + "), "
+                + "total_checkins, active_days, "
+                + "(SELECT SUM(DISTINCT 1 << (h.last_day - c.day)) FROM checkins c"
+                + " WHERE c.habit_id = h.habit_id AND c.day > h.last_day - 64) "
+                + "FROM (SELECT habit_id, MAX(day) AS last_day, COUNT(*) AS total_checkins,"
+                + " COUNT(DISTINCT day) AS active_days FROM checkins GROUP BY habit_id) h;");
+    }
+
+    /**
+     * Builds the version 13 completion bitmaps from the check-ins: for each habit and year, bit
+     * i of the little-endian BLOB is the i-th day of the year, and the trailing zero bytes are
+     * left out. SQL computes every non-zero byte (the days are epoch days, strftime() gives
+     * their year and day of the year); SQLite can't turn them into a BLOB by itself, so they are
+     * put together here.
+     */
+    private static void fillCompletionsV13(SQLiteDatabase db) {
+        String year = "CAST(strftime('%Y', day * 86400, 'unixepoch') AS INTEGER)";
+        String dayOfYear = "(CAST(strftime('%j', day * 86400, 'unixepoch') AS INTEGER) - 1)";
+        Cursor cursor = db.rawQuery("SELECT habit_id, " + year + " AS year, "
+                + dayOfYear + " / 8 AS byte, SUM(DISTINCT 1 << (" + dayOfYear + " % 8)) AS bits "
+                + "FROM checkins GROUP BY habit_id, year, byte ORDER BY habit_id, year, byte", null);
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO habit_completions (habit_id, year, days) VALUES (?, ?, ?)");
+        try {
+            // The bytes of the current habit and year, 46 at most
+            byte[] days = new byte[46];
+            int length = 0;
+            long habitId = -1;
+            long habitYear = 0;
+            while (true) {
+                boolean more = cursor.moveToNext();
+                if (length > 0 && (!more || cursor.getLong(0) != habitId
+                        || cursor.getLong(1) != habitYear)) {
+                    insert.bindLong(1, habitId);
+                    insert.bindLong(2, habitYear);
+                    insert.bindBlob(3, Arrays.copyOf(days, length));
+                    insert.executeInsert();
+                    Arrays.fill(days, (byte) 0);
+                    length = 0;
+                }
+                if (!more) {
+                    return;
+                }
+                habitId = cursor.getLong(0);
+                habitYear = cursor.getLong(1);
+                int index = cursor.getInt(2);
+                days[index] = (byte) cursor.getInt(3);
+                length = index + 1;
+            }
+        } finally {
+            insert.close();
+            cursor.close();
+        }
+    }
+
+    /**
+     * Copies the habits into the version 8 table, with a NOT NULL importance, in batches. If a
+     * previous upgrade was interrupted the copy goes on after the last row it copied.
+     */
+    private static void copyHabitsV8(SQLiteDatabase db) {
+        String newTable = HabitEntry.TABLE_HABIT + NEW_TABLE_SUFFIX;
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + newTable + " ("
+                + HabitEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + HabitEntry.COLUMN_HABIT + " TEXT NOT NULL,"
+                + HabitEntry.COLUMN_IMPORTANCE + " INTEGER NOT NULL DEFAULT 0);");
+
+        copyInBatches(db, HabitEntry.TABLE_HABIT, newTable,
+                HabitEntry._ID + ", " + HabitEntry.COLUMN_HABIT + ", " + HabitEntry.COLUMN_IMPORTANCE,
+                HabitEntry._ID + ", " + HabitEntry.COLUMN_HABIT + ", IFNULL(" + HabitEntry.COLUMN_IMPORTANCE + ", 0)");
+    }
+
+    /**
+     * Adds the version 14 sync id column and gives every habit a random id, in batches. If a
+     * previous upgrade was interrupted the ids go on after the last habit that got one.
+     */
+    private static void fillSyncIdsV14(SQLiteDatabase db) {
+        if (!hasColumn(db, "habits", "sync_id")) {
+            db.execSQL("ALTER TABLE habits ADD COLUMN sync_id TEXT;");
+        }
+        long lastId = DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(_id), 0) FROM habits WHERE sync_id IS NOT NULL", null);
+        while (true) {
+            long batchLastId;
+            db.beginTransaction();
+            try {
+                String[] after = {String.valueOf(lastId)};
+                batchLastId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(_id), ?1) FROM "
+                        + "(SELECT _id FROM habits WHERE _id > ?1 ORDER BY _id LIMIT "
+                        + COPY_BATCH_SIZE + ")", after);
+                db.execSQL("UPDATE habits SET sync_id = lower(hex(randomblob(16))) "
+                        + "WHERE _id > ? AND _id <= ?", new Object[]{lastId, batchLastId});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (batchLastId == lastId) {
+                return;
+            }
+            lastId = batchLastId;
+        }
+    }
+
+    private static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            while (columns.moveToNext()) {
+                if (column.equals(columns.getString(columns.getColumnIndexOrThrow("name")))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            columns.close();
+        }
+    }
+
+    /**
+     * Replaces the habits table with its version 8 copy and puts its triggers back.
+     */
+    private static void swapHabitsV8(SQLiteDatabase db) {
+        String newTable = HabitEntry.TABLE_HABIT + NEW_TABLE_SUFFIX;
+
+        // Keep the AUTOINCREMENT sequence, so the ids of deleted habits are never reused
+        long sequence = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence"
+                + " WHERE name = ?", new String[]{HabitEntry.TABLE_HABIT});
+
+        // Dropping the table drops its count triggers too (without firing them)
+        db.execSQL("DROP TABLE " + HabitEntry.TABLE_HABIT + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + HabitEntry.TABLE_HABIT + ";");
+        db.execSQL("UPDATE sqlite_sequence SET seq = MAX(seq, " + sequence + ") WHERE name = '"
+                + HabitEntry.TABLE_HABIT + "';");
+        createCountTriggers(db, HabitEntry.TABLE_HABIT);
+    }
+
+    /**
+     * Copies the rows of {@code from} into {@code to} in _id order, {@link #COPY_BATCH_SIZE}
+     * rows per transaction, starting after the rows already in {@code to}.
+     *
+     * @param columns    the columns of {@code to} to fill
+     * @param selectList the values of these columns, read from {@code from}
+     */
+    static void copyInBatches(SQLiteDatabase db, String from, String to, String columns,
+                              String selectList) {
+        long lastId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(_id), 0) FROM " + to, null);
+        while (true) {
+            long batchLastId;
+            db.beginTransaction();
+            try {
+                db.execSQL("INSERT INTO " + to + " (" + columns + ") SELECT " + selectList
+                        + " FROM " + from + " WHERE _id > ? ORDER BY _id LIMIT " + COPY_BATCH_SIZE,
+                        new Object[]{lastId});
+                batchLastId = DatabaseUtils.longForQuery(db,
+                        "SELECT IFNULL(MAX(_id), 0) FROM " + to, null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (batchLastId == lastId) {
+                return;
+            }
+            lastId = batchLastId;
+        }
+    }
+
+    /**
+     * Counts the rows already in the table, once, when its counter is created.
+     */
+    private static void seedCounter(SQLiteDatabase db, String table) {
+        db.execSQL("INSERT INTO " + StatsEntry.TABLE_STATS + " ("
+                + StatsEntry.COLUMN_TABLE_NAME + ", " + StatsEntry.COLUMN_ROW_COUNT + ") "
+                + "SELECT '" + table + "', COUNT(*) FROM " + table + ";");
+    }
+
+    /**
+     * The row count triggers of version 5.
+     */
+    private static void createCountTriggers(SQLiteDatabase db, String table) {
+        db.execSQL("CREATE TRIGGER " + table + "_count_insert AFTER INSERT ON " + table + " BEGIN "
+                + "UPDATE " + StatsEntry.TABLE_STATS + " SET " + StatsEntry.COLUMN_ROW_COUNT + " = "
+                + StatsEntry.COLUMN_ROW_COUNT + " + 1 WHERE " + StatsEntry.COLUMN_TABLE_NAME + " = '" + table + "'; "
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + table + "_count_delete AFTER DELETE ON " + table + " BEGIN "
+                + "UPDATE " + StatsEntry.TABLE_STATS + " SET " + StatsEntry.COLUMN_ROW_COUNT + " = "
+                + StatsEntry.COLUMN_ROW_COUNT + " - 1 WHERE " + StatsEntry.COLUMN_TABLE_NAME + " = '" + table + "'; "
+                + "END;");
+    }
+}
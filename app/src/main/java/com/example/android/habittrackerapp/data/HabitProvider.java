@@ -0,0 +1,246 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.CancellationSignal;
+
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link ContentProvider} for Habits app. Every call is delegated to {@link HabitDbHelper}, this
+ * class only adds the change notifications and the transactions around batched writes.
+ */
+public class HabitProvider extends ContentProvider {
+
+    /** Database helper object */
+    private HabitDbHelper mDbHelper;
+
+    /**
+     * Above this number of changed URIs, a batch notifies the whole habits and check-ins URIs
+     * instead of each changed one (the lists then read everything again, which is cheaper than
+     * refreshing that many habits one by one).
+     */
+    static final int MAX_BATCH_NOTIFICATIONS = 20;
+
+    /**
+     * Set while {@link #applyBatch(ArrayList)} runs on the current thread, to the URIs changed
+     * by the batch so far. The single operations of the batch don't notify, the batch notifies
+     * once for each changed URI when it is done.
+     */
+    private final ThreadLocal<Set<Uri>> mBatchChanges = new ThreadLocal<>();
+
+    public HabitProvider() {
+    }
+
+    /**
+     * Creates a provider over the given database helper instead of the app's one, for the tests.
+     */
+    HabitProvider(HabitDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Initialize the provider and the database helper object.
+     */
+    @Override
+    public boolean onCreate() {
+        if (mDbHelper == null) {
+            mDbHelper = HabitDbHelper.getInstance(getContext());
+        }
+        return true;
+    }
+
+    /**
+     * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Same as above, cancelable: the {@link android.content.CursorLoader} cancels the signal
+     * when it is restarted, so a search that is no longer needed (the user typed another
+     * character) stops instead of running to the end.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        Cursor cursor = mDbHelper.query(uri, projection, selection, selectionArgs, sortOrder,
+                cancellationSignal);
+
+        // Set notification URI on the Cursor,
+        // so we know what content URI the Cursor was created for.
+        // If the data at this URI changes, then we know we need to update the Cursor.
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                mDbHelper.getQueryNotificationUri(uri));
+        return cursor;
+    }
+
+    /**
+     * Insert new data into the provider with the given ContentValues.
+     */
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        long id = mDbHelper.insert(uri, contentValues);
+
+        // If the ID is -1, then the insertion failed (the helper already logged the error).
+        if (id == -1) {
+            return null;
+        }
+
+        // Notify all listeners that the data has changed for the habit content URI
+        notifyChange(uri);
+
+        // Return the URI of the newly inserted row
+        return mDbHelper.getInsertedUri(uri, id);
+    }
+
+    /**
+     * Insert all the given rows inside one SQLite transaction, so the whole batch costs a single
+     * commit (and a single fsync) instead of one per row.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        int rowsInserted = mDbHelper.bulkInsert(uri, values);
+
+        // One notification for the whole batch
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply all the operations inside one SQLite transaction. If any operation fails the whole
+     * batch is rolled back.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWriter();
+        ContentProviderResult[] results;
+
+        Set<Uri> changes = new LinkedHashSet<>();
+        mBatchChanges.set(changes);
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mBatchChanges.remove();
+        }
+
+        // The single operations were silenced, send one notification per changed URI (a batch
+        // of updates of single habits only refreshes those habits in the lists)
+        if (changes.size() > MAX_BATCH_NOTIFICATIONS) {
+            // Straight to the resolver: the check-ins URI would notify the habits one again
+            getContext().getContentResolver().notifyChange(HabitEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(CheckinEntry.CONTENT_URI, null);
+        } else {
+            for (Uri changedUri : changes) {
+                if (!hasChangedAncestor(changes, changedUri)) {
+                    getContext().getContentResolver().notifyChange(changedUri, null);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     */
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection,
+                      String[] selectionArgs) {
+        int rowsUpdated = mDbHelper.update(uri, contentValues, selection, selectionArgs);
+
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the data at the given selection and selection arguments.
+     */
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        int rowsDeleted = mDbHelper.delete(uri, selection, selectionArgs);
+
+        // If 1 or more rows were deleted, then notify all listeners that the data at the
+        // given URI has changed
+        if (rowsDeleted != 0) {
+            notifyChange(uri);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Prints the latency metrics of the data layer, for
+     * "adb shell dumpsys activity provider com.example.android.habits".
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mDbHelper.getMetrics().dump(writer);
+    }
+
+    /**
+     * Returns the MIME type of data for the content URI.
+     */
+    @Override
+    public String getType(Uri uri) {
+        return mDbHelper.getType(uri);
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed, unless a batch is being
+     * applied on this thread (the batch notifies once when it finishes).
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchChanges = mBatchChanges.get();
+        for (Uri changedUri : mDbHelper.getNotificationUris(uri)) {
+            // The query parameters don't matter to the observers
+            changedUri = changedUri.buildUpon().clearQuery().build();
+            if (batchChanges != null) {
+                batchChanges.add(changedUri);
+            } else {
+                getContext().getContentResolver().notifyChange(changedUri, null);
+            }
+        }
+    }
+
+    /**
+     * Returns whether one of the changed URIs is an ancestor of the given one ("habits" for
+     * "habits/3"). Notifying the ancestor already reaches the observers of the URI.
+     */
+    private static boolean hasChangedAncestor(Set<Uri> changes, Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        for (Uri other : changes) {
+            List<String> otherSegments = other.getPathSegments();
+            if (otherSegments.size() < segments.size()
+                    && segments.subList(0, otherSegments.size()).equals(otherSegments)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
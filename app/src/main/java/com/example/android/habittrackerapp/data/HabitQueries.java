@@ -0,0 +1,134 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the {@link ObservableQuery ObservableQueries} of the app, one per query: the
+ * screens observing the same query share its runs and its result.
+ *
+ * All the queries run on one small pool of background threads ({@link #QUERY_THREADS}), so a
+ * burst of changes can't start more reads than the database has connections to serve. Each
+ * query has at most one run going on, so the pool's queue never holds more than one task per
+ * observed query.
+ *
+ * Call it on the main thread.
+ */
+public class HabitQueries {
+
+    /** Threads running the queries */
+    static final int QUERY_THREADS = 2;
+
+    /** Debounce window of the queries when none is given */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+    /** Idle threads stop after this long */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static HabitQueries sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final Executor mExecutor;
+    private final Handler mMainHandler;
+
+    /** The queries that have subscribers */
+    private final Map<ObservableQuery.Query<?>, ObservableQuery<?>> mQueries = new HashMap<>();
+
+    HabitQueries(ContentResolver contentResolver, Executor executor, Handler mainHandler) {
+        mContentResolver = contentResolver;
+        mExecutor = executor;
+        mMainHandler = mainHandler;
+    }
+
+    /**
+     * Returns the process-wide queries, creating them (and their threads) on the first call.
+     *
+     * @param context of the app
+     */
+    public static synchronized HabitQueries getInstance(Context context) {
+        if (sInstance == null) {
+            // Use the application context, so we don't leak the Activity that asked first
+            sInstance = new HabitQueries(context.getApplicationContext().getContentResolver(),
+                    newQueryExecutor(), new Handler(Looper.getMainLooper()));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the pool running the queries. Its threads have the background priority, so a
+     * long query doesn't take the CPU from the main thread, and stop when idle.
+     */
+    private static Executor newQueryExecutor() {
+        final AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(QUERY_THREADS, QUERY_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "HabitQuery-" + count.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Same as below, with the {@link #DEFAULT_DEBOUNCE_MILLIS default debounce window}.
+     */
+    public <T> ObservableQuery<T> observe(ObservableQuery.Query<T> query) {
+        return observe(query, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Returns the observable of the query: the one already observed if an equal query has
+     * subscribers (then it keeps its debounce window), a new one otherwise. Subscribe to it
+     * right away, it is forgotten when it has no subscribers.
+     *
+     * @param debounceMillis how long the changes are collected before the query runs again
+     */
+    public <T> ObservableQuery<T> observe(final ObservableQuery.Query<T> query, long debounceMillis) {
+        @SuppressWarnings("unchecked")
+        ObservableQuery<T> observable = (ObservableQuery<T>) mQueries.get(query);
+        if (observable == null) {
+            final Object[] created = new Object[1];
+            observable = new ObservableQuery<>(query, mContentResolver, mExecutor, mMainHandler,
+                    debounceMillis, new Runnable() {
+                        @Override
+                        public void run() {
+                            // Unless an observable of the same query was handed out since
+                            if (mQueries.get(query) == created[0]) {
+                                mQueries.remove(query);
+                            }
+                        }
+                    });
+            created[0] = observable;
+            mQueries.put(query, observable);
+        }
+        return observable;
+    }
+
+    /**
+     * Returns the number of queries that have subscribers. For the tests.
+     */
+    int getActiveCount() {
+        return mQueries.size();
+    }
+}
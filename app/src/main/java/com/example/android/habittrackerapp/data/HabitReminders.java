@@ -0,0 +1,214 @@
+package com.example.android.habittrackerapp.data;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the reminders of the habits of one database ({@link HabitDbHelper#getReminders()}),
+ * with a {@link ReminderScheduler} registering a single alarm: the earliest reminder.
+ *
+ * The reminders are read from the table once, on first use, then kept current by the writes of
+ * the helper: only the habits whose reminder changed (or that were deleted) are read again.
+ *
+ * The alarm is a broadcast of {@link #ACTION_REMINDER} to this app, its receiver calls
+ * {@link #pollDue()} and shows the reminders. The system drops the alarms on reboot: the
+ * receiver calls {@link #reschedule()} then.
+ *
+ * Everything here may read the database, don't call it on the main thread.
+ */
+public class HabitReminders implements ReminderScheduler.Wakeup {
+
+    private static final String LOG_TAG = HabitReminders.class.getSimpleName();
+
+    /** Action of the alarm broadcast */
+    public static final String ACTION_REMINDER = "com.example.android.habittrackerapp.action.REMINDER";
+
+    /** Reminders due longer ago than this when the alarm goes off are skipped */
+    static final long MAX_LATENESS_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /** Number of habit ids per query when reading changed reminders */
+    private static final int IDS_PER_QUERY = 500;
+
+    private final Context mContext;
+    private final HabitDbHelper mDbHelper;
+
+    /** Null until the reminders are first read from the table. Guarded by this. */
+    private ReminderScheduler mScheduler;
+
+    HabitReminders(Context context, HabitDbHelper dbHelper) {
+        mContext = context;
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Returns the scheduler, reading every reminder from the table the first time.
+     */
+    private ReminderScheduler scheduler() {
+        if (mScheduler == null) {
+            mScheduler = new ReminderScheduler(TimeZone.getDefault(), this);
+            mScheduler.beginBatch();
+            try {
+                readReminders(null, null);
+            } finally {
+                mScheduler.endBatch();
+            }
+        }
+        return mScheduler;
+    }
+
+    /**
+     * Makes sure the earliest reminder is registered, e.g. when the app starts (a force stop
+     * drops the alarms).
+     */
+    public synchronized void start() {
+        scheduler().reregister();
+    }
+
+    /**
+     * Registers the earliest reminder again, after a reboot. When the time zone changed the
+     * reminders are computed again, they are in local time.
+     */
+    public synchronized void reschedule() {
+        ReminderScheduler scheduler = scheduler();
+        scheduler.setTimeZone(TimeZone.getDefault(), System.currentTimeMillis());
+        scheduler.reregister();
+    }
+
+    /**
+     * Reads every reminder again, after the whole table changed (e.g. a restore).
+     */
+    public synchronized void reload() {
+        ReminderScheduler scheduler = scheduler();
+        scheduler.beginBatch();
+        try {
+            scheduler.clear();
+            readReminders(null, null);
+        } finally {
+            scheduler.endBatch();
+        }
+    }
+
+    /**
+     * Returns the habits whose reminder is due now, and schedules their next one. The
+     * reminders missed by more than {@link #MAX_LATENESS_MILLIS} are skipped.
+     */
+    public synchronized long[] pollDue() {
+        return scheduler().pollDue(System.currentTimeMillis(), MAX_LATENESS_MILLIS);
+    }
+
+    /**
+     * Returns the time of the next reminder of the habit, {@link ReminderScheduler#NONE} if it
+     * has none.
+     */
+    public synchronized long getNextReminder(long habitId) {
+        return scheduler().getNextReminder(habitId);
+    }
+
+    /**
+     * Called by the helper after the reminders of the given habits changed (or the habits were
+     * deleted): reads theirs again.
+     */
+    synchronized void onRemindersChanged(long[] habitIds) {
+        if (mScheduler == null) {
+            // Not read yet: the first use reads them all, changes included
+            return;
+        }
+        mScheduler.beginBatch();
+        try {
+            for (long habitId : habitIds) {
+                mScheduler.remove(habitId);
+            }
+            for (int from = 0; from < habitIds.length; from += IDS_PER_QUERY) {
+                int to = Math.min(habitIds.length, from + IDS_PER_QUERY);
+                StringBuilder selection = new StringBuilder(HabitEntry._ID + " IN (");
+                String[] selectionArgs = new String[to - from];
+                for (int i = from; i < to; i++) {
+                    selection.append(i == from ? "?" : ",?");
+                    selectionArgs[i - from] = String.valueOf(habitIds[i]);
+                }
+                readReminders(selection.append(')').toString(), selectionArgs);
+            }
+        } finally {
+            mScheduler.endBatch();
+        }
+    }
+
+    /**
+     * Starts a batch of changes, the alarm is only registered at the end, see
+     * {@link ReminderScheduler#beginBatch()}.
+     */
+    synchronized void beginBatch() {
+        scheduler().beginBatch();
+    }
+
+    /**
+     * Ends a batch started by {@link #beginBatch()}.
+     */
+    synchronized void endBatch() {
+        scheduler().endBatch();
+    }
+
+    /**
+     * Schedules the reminders of the habits matching the selection (all of them if null), the
+     * ones that have a reminder and weren't deleted.
+     */
+    private void readReminders(String selection, String[] selectionArgs) {
+        SQLiteDatabase database = mDbHelper.getReader();
+        selection = DatabaseUtils.concatenateWhere(selection,
+                HabitEntry.COLUMN_REMINDER_TIME + " IS NOT NULL AND " + HabitDbHelper.NOT_DELETED);
+        Cursor cursor = database.query(HabitEntry.TABLE_HABIT, new String[]{HabitEntry._ID,
+                        HabitEntry.COLUMN_REMINDER_TIME, HabitEntry.COLUMN_REMINDER_DAYS},
+                selection, selectionArgs, null, null, null);
+        long now = System.currentTimeMillis();
+        try {
+            while (cursor.moveToNext()) {
+                Integer days = cursor.isNull(2) ? null : cursor.getInt(2);
+                mScheduler.set(cursor.getLong(0), ReminderRule.fromColumns(cursor.getInt(1), days), now);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void schedule(long timeMillis) {
+        AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent alarm = getAlarmIntent();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // A reminder is for a precise time, even in Doze
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, timeMillis, alarm);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            alarmManager.setExact(AlarmManager.RTC_WAKEUP, timeMillis, alarm);
+        } else {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, timeMillis, alarm);
+        }
+        Log.d(LOG_TAG, "Next reminder at " + timeMillis);
+    }
+
+    @Override
+    public void cancel() {
+        AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(getAlarmIntent());
+    }
+
+    /**
+     * Returns the broadcast of the alarm. There is only ever one alarm, the same intent
+     * replaces it.
+     */
+    private PendingIntent getAlarmIntent() {
+        Intent intent = new Intent(ACTION_REMINDER).setPackage(mContext.getPackageName());
+        return PendingIntent.getBroadcast(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the habits read recently in a small LRU cache, so opening the editor on a habit doesn't
+ * query the database. The habit list fills it with the pages it reads
+ * ({@link #rememberAll(Cursor, long)}), the editor with the habits it loads. The habits are
+ * written through {@link HabitWriteQueue}.
+ *
+ * Cached habits are dropped when they change: on the writes of the queue, and on the change
+ * notifications of the provider for the writes made elsewhere.
+ */
+public class HabitRepository {
+
+    /** Number of habits kept in the cache */
+    private static final int CACHE_SIZE = 64;
+
+    private static HabitRepository sInstance;
+
+    /** The recently used habits, by id */
+    private final LruCache<Long, Habit> mCache = new LruCache<>(CACHE_SIZE);
+
+    /**
+     * Incremented on every invalidation, so a habit read from the database while it was being
+     * changed isn't cached (it may be the old version).
+     */
+    private final AtomicLong mGeneration = new AtomicLong();
+
+    private final ContentResolver mContentResolver;
+
+    /**
+     * Use {@link #getInstance(Context)}, this one is for the tests.
+     */
+    HabitRepository(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+        // Changes made by anyone (bulk inserts, batches...) reach the cache. There is no
+        // Handler: the cache is thread-safe, so the notification can run on any thread.
+        contentResolver.registerContentObserver(HabitEntry.CONTENT_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        onChange(selfChange, null);
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        invalidate(uri);
+                    }
+                });
+    }
+
+    /**
+     * Returns the process-wide repository, creating it on the first call.
+     *
+     * @param context of the app
+     */
+    public static synchronized HabitRepository getInstance(Context context) {
+        if (sInstance == null) {
+            // Use the application context, so we don't leak the Activity that asked first
+            sInstance = new HabitRepository(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the habit if it is in the cache, without touching the database (null otherwise).
+     * Safe to call on the main thread.
+     */
+    public Habit peek(long id) {
+        return mCache.get(id);
+    }
+
+    /**
+     * Returns the habit, from the cache or else from the database (null if there is no such
+     * habit). Not on the main thread.
+     */
+    public Habit get(long id) {
+        Habit habit = peek(id);
+        if (habit != null) {
+            return habit;
+        }
+
+        long generation = mGeneration.get();
+        Cursor cursor = mContentResolver.query(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id),
+                Habit.PROJECTION, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            habit = Habit.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+        remember(habit, generation);
+        return habit;
+    }
+
+    /**
+     * Returns the generation of the cache, to read before reading a habit that will be passed
+     * to {@link #remember(Habit, long)}.
+     */
+    public long getGeneration() {
+        return mGeneration.get();
+    }
+
+    /**
+     * Caches a habit read elsewhere (e.g. by a loader), unless a habit changed since
+     * {@code generation} was read (before the habit was): it may be the old version then.
+     */
+    public void remember(Habit habit, long generation) {
+        if (mGeneration.get() != generation) {
+            return;
+        }
+        mCache.put(habit.getId(), habit);
+        // An invalidation between the check and the put may have missed the habit, drop it
+        if (mGeneration.get() != generation) {
+            mCache.remove(habit.getId());
+        }
+    }
+
+    /**
+     * Caches all the habits of a cursor read elsewhere, e.g. a page of the list, with the same
+     * check as {@link #remember(Habit, long)}. The cursor must have the columns of
+     * {@link Habit#PROJECTION}, and is left after its last row.
+     */
+    public void rememberAll(Cursor cursor, long generation) {
+        for (int position = 0; cursor.moveToPosition(position); position++) {
+            if (mGeneration.get() != generation) {
+                return;
+            }
+            remember(Habit.fromCursor(cursor), generation);
+        }
+    }
+
+    /**
+     * Drops the cached habits changed at the given URI: one habit for "habits/#", none for the
+     * data under a habit (its check-ins), all of them for anything else (or no URI).
+     */
+    void invalidate(Uri uri) {
+        mGeneration.incrementAndGet();
+
+        long id = uri == null ? -1 : HabitEntry.getHabitId(uri);
+        if (id != -1) {
+            if (uri.getPathSegments().size() == 2) {
+                mCache.remove(id);
+            }
+            return;
+        }
+        mCache.evictAll();
+    }
+}
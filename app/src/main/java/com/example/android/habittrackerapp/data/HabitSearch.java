@@ -0,0 +1,138 @@
+package com.example.android.habittrackerapp.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+
+/**
+ * Full-text search over the habit names. The names are indexed in an FTS4 table kept in sync
+ * with the habits table by triggers, so a search reads the matching habits from the full-text
+ * index instead of running a LIKE '%text%' scan over every habit.
+ */
+final class HabitSearch {
+
+    /** Indexed column of the search table, the docid is the habit _id */
+    private static final String COLUMN_NAME = "name";
+
+    private static final String HABIT_NAME = HabitEntry.TABLE_HABIT + "." + HabitEntry.COLUMN_HABIT;
+
+    /** The search table joined with the habits, and their summaries */
+    private static final String SEARCH_JOIN_HABITS = HabitEntry.TABLE_SEARCH
+            + " JOIN " + HabitEntry.TABLE_HABIT + " ON "
+            + HabitEntry.TABLE_HABIT + "." + HabitEntry._ID + " = " + HabitEntry.TABLE_SEARCH + ".docid"
+            + " LEFT OUTER JOIN " + SummaryEntry.TABLE_SUMMARY + " ON "
+            + HabitEntry.TABLE_HABIT + "." + HabitEntry._ID + " = "
+            + SummaryEntry.TABLE_SUMMARY + "." + SummaryEntry.COLUMN_HABIT_ID;
+
+    /**
+     * Best matches first: names starting with the searched text, then the shortest names (the
+     * searched words are a bigger part of them), then the most important habits.
+     */
+    private static final String RANK_ORDER = HABIT_NAME + " LIKE ? ESCAPE '\\' DESC, "
+            + "length(" + HABIT_NAME + "), "
+            + HabitEntry.TABLE_HABIT + "." + HabitEntry.COLUMN_IMPORTANCE + " DESC, "
+            + HabitEntry.TABLE_HABIT + "." + HabitEntry._ID;
+
+    private HabitSearch() {
+    }
+
+    /**
+     * Creates the search table, fills it with the existing habits and creates the triggers that
+     * keep it in sync with the habits table.
+     *
+     * The FTS4 "simple" tokenizer is used as it is available on every API level: words are runs
+     * of letters and digits, and only ASCII letters are case folded.
+     */
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + HabitEntry.TABLE_SEARCH
+                + " USING fts4(" + COLUMN_NAME + ");");
+        db.execSQL("INSERT INTO " + HabitEntry.TABLE_SEARCH + " (docid, " + COLUMN_NAME + ") "
+                + "SELECT " + HabitEntry._ID + ", " + HabitEntry.COLUMN_HABIT
+                + " FROM " + HabitEntry.TABLE_HABIT + ";");
+
+        db.execSQL("CREATE TRIGGER " + HabitEntry.TABLE_SEARCH + "_insert AFTER INSERT ON "
+                + HabitEntry.TABLE_HABIT + " BEGIN "
+                + "INSERT INTO " + HabitEntry.TABLE_SEARCH + " (docid, " + COLUMN_NAME + ") "
+                + "VALUES (new." + HabitEntry._ID + ", new." + HabitEntry.COLUMN_HABIT + "); "
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + HabitEntry.TABLE_SEARCH + "_update AFTER UPDATE OF "
+                + HabitEntry.COLUMN_HABIT + " ON " + HabitEntry.TABLE_HABIT + " BEGIN "
+                + "UPDATE " + HabitEntry.TABLE_SEARCH + " SET " + COLUMN_NAME + " = new." + HabitEntry.COLUMN_HABIT
+                + " WHERE docid = old." + HabitEntry._ID + "; "
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + HabitEntry.TABLE_SEARCH + "_delete AFTER DELETE ON "
+                + HabitEntry.TABLE_HABIT + " BEGIN "
+                + "DELETE FROM " + HabitEntry.TABLE_SEARCH + " WHERE docid = old." + HabitEntry._ID + "; "
+                + "END;");
+    }
+
+    /**
+     * Turns the text typed by the user into an FTS MATCH expression: every word of the text
+     * must start a word of the name, so "dri wat" finds "Drink water".
+     *
+     * @return the expression, or null if the text has no word at all
+     */
+    static String toMatchQuery(String text) {
+        StringBuilder match = new StringBuilder();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && isWordChar(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                // Each word is a quoted prefix query, so FTS operators (OR, NEAR, -...) typed
+                // by the user are searched as plain words
+                match.append('"').append(text, start, i).append("*\"");
+                start = -1;
+            }
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    /**
+     * Same word characters as the "simple" tokenizer: ASCII letters and digits, and every
+     * non-ASCII character.
+     */
+    private static boolean isWordChar(char c) {
+        return c >= 128 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Builds the query of the habits (with their summaries) matching the text, best matches
+     * first. The ranking only sorts the matching habits, never the whole table.
+     */
+    static HabitDbHelper.HabitQuery buildQuery(String text, String[] projection, String selection,
+                                               String[] selectionArgs, String limit) {
+        String match = toMatchQuery(text);
+        String where;
+        String[] args;
+        if (match == null) {
+            // Nothing to search for, nothing found
+            where = "0";
+            args = null;
+        } else {
+            where = DatabaseUtils.concatenateWhere(HabitEntry.TABLE_SEARCH + " MATCH ?", selection);
+            // The deleted habits stay in the index until they are purged
+            where = DatabaseUtils.concatenateWhere(where, HabitDbHelper.NOT_DELETED);
+            // appendSelectionArgs() can't take null new arguments
+            args = selectionArgs == null ? new String[]{match}
+                    : DatabaseUtils.appendSelectionArgs(new String[]{match}, selectionArgs);
+        }
+
+        String namePrefix = text.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        args = DatabaseUtils.appendSelectionArgs(args, new String[]{namePrefix});
+
+        if (limit != null) {
+            limit = String.valueOf(Integer.parseInt(limit));
+        }
+        String sql = SQLiteQueryBuilder.buildQueryString(false, SEARCH_JOIN_HABITS, projection, where,
+                null, null, RANK_ORDER, limit);
+        return new HabitDbHelper.HabitQuery(sql, args);
+    }
+}
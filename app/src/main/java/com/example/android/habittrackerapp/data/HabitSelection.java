@@ -0,0 +1,109 @@
+package com.example.android.habittrackerapp.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+/**
+ * The selection of the habits given by id in {@link HabitEntry#QUERY_PARAM_IDS}, for a bulk
+ * update or delete.
+ *
+ * A few ids are bound as "_id IN (?, ?...)". SQLite takes at most {@link #MAX_ARGUMENTS}
+ * arguments per statement though, so more ids are written to a temporary table first and the
+ * selection reads them from there ("_id IN (SELECT ...)"). The table lives in the connection
+ * of the transaction: create the selection, run the statement and {@link #release()} it in the
+ * same transaction.
+ */
+final class HabitSelection {
+
+    /** The most arguments a statement can have, in the SQLite of the older Android versions */
+    static final int MAX_ARGUMENTS = 999;
+
+    /** The temporary table of the ids of a large selection */
+    static final String TABLE_SELECTION = "habit_selection";
+
+    /** The selection of the habits, with the given one */
+    final String selection;
+    final String[] selectionArgs;
+
+    /** The database whose temporary table holds the ids, null if there is none */
+    private final SQLiteDatabase mDatabase;
+
+    private HabitSelection(String selection, String[] selectionArgs, SQLiteDatabase database) {
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+        mDatabase = database;
+    }
+
+    /**
+     * Returns the ids of the parameter, e.g. "3,12,40".
+     *
+     * @throws IllegalArgumentException if one of them isn't a number
+     */
+    static long[] parseIds(String ids) {
+        if (ids.isEmpty()) {
+            return new long[0];
+        }
+        String[] parts = ids.split(",");
+        long[] parsed = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                parsed[i] = Long.parseLong(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid habit id " + parts[i], e);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Selects the habits with the given ids among those matching the selection. Must be called
+     * in a transaction.
+     */
+    static HabitSelection select(SQLiteDatabase database, long[] ids, String selection,
+                                 String[] selectionArgs) {
+        int otherArguments = selectionArgs == null ? 0 : selectionArgs.length;
+        if (ids.length + otherArguments <= MAX_ARGUMENTS) {
+            StringBuilder in = new StringBuilder(HabitEntry._ID).append(" IN (");
+            String[] idArgs = new String[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                in.append(i > 0 ? ", ?" : "?");
+                idArgs[i] = String.valueOf(ids[i]);
+            }
+            in.append(')');
+            return new HabitSelection(DatabaseUtils.concatenateWhere(in.toString(), selection),
+                    otherArguments == 0 ? idArgs : DatabaseUtils.appendSelectionArgs(idArgs, selectionArgs),
+                    null);
+        }
+
+        // Too many for the arguments, one compiled insert per id (in the caller's transaction,
+        // so nothing is written to the disk)
+        database.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + TABLE_SELECTION
+                + " (" + HabitEntry._ID + " INTEGER PRIMARY KEY)");
+        database.execSQL("DELETE FROM " + TABLE_SELECTION);
+        SQLiteStatement insert = database.compileStatement("INSERT OR IGNORE INTO "
+                + TABLE_SELECTION + " (" + HabitEntry._ID + ") VALUES (?)");
+        try {
+            for (long id : ids) {
+                insert.bindLong(1, id);
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+        String in = HabitEntry._ID + " IN (SELECT " + HabitEntry._ID + " FROM " + TABLE_SELECTION + ")";
+        return new HabitSelection(DatabaseUtils.concatenateWhere(in, selection), selectionArgs,
+                database);
+    }
+
+    /**
+     * Empties the temporary table, if the selection used one.
+     */
+    void release() {
+        if (mDatabase != null) {
+            mDatabase.execSQL("DELETE FROM " + TABLE_SELECTION);
+        }
+    }
+}
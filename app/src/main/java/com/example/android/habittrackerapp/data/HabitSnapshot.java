@@ -0,0 +1,659 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitTransfer.Table;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Backs the whole database up into a compact binary snapshot, and restores it, much faster than
+ * a row by row export (see {@link HabitTransfer}).
+ *
+ * The snapshot holds the tables of {@link Table} (the derived tables, summaries, completions,
+ * counts and search index, are rebuilt on restore). It starts with {@link #MAGIC} and is then a series of
+ * blocks, each one [type, payload length, payload, CRC32 of all three]: a header block with
+ * the versions, then for each table a block naming its columns followed by blocks of rows, and
+ * an end block, so a truncated file is noticed.
+ *
+ * The values of a row are varints tagged with their type. Integers are stored as the zigzag
+ * difference with the value of the previous row in the same column, so ascending ids, days and
+ * times take one or two bytes. Each block of rows starts over, so it can be checked and decoded
+ * on its own.
+ *
+ * The restore maps the file in memory and replays it into SQLite with compiled statements, all
+ * in one transaction: a damaged snapshot fails the restore and leaves the database as it was.
+ *
+ * Everything here reads or writes the disk, don't call it on the main thread.
+ */
+public class HabitSnapshot {
+
+    /** First bytes of every snapshot */
+    static final byte[] MAGIC = {'H', 'S', 'N', 'P'};
+
+    /** Version of the format written, restores refuse newer ones */
+    static final int FORMAT_VERSION = 1;
+
+    /** Block with the versions and the time of the backup */
+    private static final int BLOCK_HEADER = 1;
+
+    /** Block with the name and the columns of the next table */
+    private static final int BLOCK_TABLE = 2;
+
+    /** Block with rows of the last named table */
+    private static final int BLOCK_ROWS = 3;
+
+    /** Last block of a complete snapshot */
+    private static final int BLOCK_END = 4;
+
+    /** Value tags, in the low 2 bits of the first varint of every value */
+    private static final int TAG_NULL = 0;
+    private static final int TAG_INTEGER_DELTA = 1;
+    private static final int TAG_TEXT = 2;
+    private static final int TAG_INTEGER = 3;
+
+    /** Payload size after which a block of rows is written out */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /** Number of rows read from the database per query of the backup */
+    private static final int PAGE_SIZE = 10000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final HabitDbHelper mDbHelper;
+
+    /** Told about the restores, null for none */
+    private final ContentResolver mContentResolver;
+
+    public HabitSnapshot(Context context) {
+        this(HabitDbHelper.getInstance(context), context.getContentResolver());
+    }
+
+    HabitSnapshot(HabitDbHelper dbHelper, ContentResolver contentResolver) {
+        mDbHelper = dbHelper;
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Backs the database up into the file. The snapshot is written next to it first and only
+     * replaces it once complete, so a failed backup doesn't destroy the previous one.
+     *
+     * @return the number of rows backed up
+     */
+    public long backup(File file) throws IOException {
+        File partial = new File(file.getPath() + ".partial");
+        FileOutputStream output = new FileOutputStream(partial);
+        long rows;
+        try {
+            rows = backup(output.getChannel());
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!partial.renameTo(file)) {
+            partial.delete();
+            throw new IOException("Can't replace " + file);
+        }
+        return rows;
+    }
+
+    private long backup(FileChannel channel) throws IOException {
+        BlockWriter writer = new BlockWriter(channel);
+        writer.writeMagic();
+
+        Block header = writer.start(BLOCK_HEADER);
+        header.writeVarint(FORMAT_VERSION);
+        header.writeVarint(mDbHelper.getWriter().getVersion());
+        header.writeVarint(System.currentTimeMillis());
+        writer.finish(header);
+
+        // One transaction for the whole backup, so the check-ins match their habits
+        SQLiteDatabase database = mDbHelper.getWriter();
+        long rows = 0;
+        database.beginTransactionNonExclusive();
+        try {
+            for (Table table : Table.values()) {
+                rows += backupTable(database, table, writer);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        writer.finish(writer.start(BLOCK_END));
+        writer.flush();
+        return rows;
+    }
+
+    /**
+     * Writes the table block and the row blocks of the table, reading it one page at a time.
+     */
+    private long backupTable(SQLiteDatabase database, Table table, BlockWriter writer)
+            throws IOException {
+        Block tableBlock = writer.start(BLOCK_TABLE);
+        tableBlock.writeString(table.mName);
+        tableBlock.writeVarint(table.mColumns.length);
+        for (String column : table.mColumns) {
+            tableBlock.writeString(column);
+        }
+        writer.finish(tableBlock);
+
+        String sql = "SELECT " + TextUtils.join(", ", table.mColumns)
+                + " FROM " + table.mName
+                + " WHERE " + HabitEntry._ID + " > ?"
+                + " ORDER BY " + HabitEntry._ID
+                + " LIMIT " + PAGE_SIZE;
+        RowEncoder rows = new RowEncoder(writer, table.mColumns.length);
+        long lastId = Long.MIN_VALUE;
+        long count = 0;
+        while (true) {
+            Cursor cursor = database.rawQuery(sql, new String[]{String.valueOf(lastId)});
+            int pageRows;
+            try {
+                pageRows = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    rows.write(cursor);
+                    lastId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            count += pageRows;
+            if (pageRows < PAGE_SIZE) {
+                break;
+            }
+        }
+        rows.flush();
+        return count;
+    }
+
+    /**
+     * Replaces the habits and their check-ins with the ones of the snapshot. The columns the
+     * tables don't have (any more) are ignored, as are the tables of the snapshot that don't
+     * exist here.
+     *
+     * @return the number of rows restored
+     * @throws IOException if the file can't be read, or isn't a complete snapshot (the database
+     *                     is then left as it was)
+     */
+    public long restore(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        long rows;
+        try {
+            FileChannel channel = input.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + channel.size());
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            rows = restore(buffer);
+        } finally {
+            input.close();
+        }
+
+        // The restored habits remind the user with their own schedule
+        mDbHelper.onHabitsReplaced();
+        if (mContentResolver != null) {
+            // Everything changed: reaches the lists, the caches and the check-in observers
+            mContentResolver.notifyChange(HabitEntry.CONTENT_URI, null);
+            mContentResolver.notifyChange(CheckinEntry.CONTENT_URI, null);
+        }
+        return rows;
+    }
+
+    private long restore(ByteBuffer buffer) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        if (buffer.remaining() < magic.length) {
+            throw new IOException("Not a habit snapshot");
+        }
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a habit snapshot");
+        }
+
+        BlockReader reader = new BlockReader(buffer);
+        Block header = reader.next();
+        if (header.mType != BLOCK_HEADER) {
+            throw new IOException("Snapshot without header");
+        }
+        int formatVersion = (int) header.readVarint();
+        if (formatVersion > FORMAT_VERSION) {
+            throw new IOException("Snapshot format " + formatVersion + " is newer than "
+                    + FORMAT_VERSION);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWriter();
+        long rows = 0;
+        RowDecoder decoder = null;
+        database.beginTransaction();
+        try {
+            for (Table table : Table.values()) {
+                database.delete(table.mName, null, null);
+            }
+
+            while (true) {
+                Block block = reader.next();
+                if (block.mType == BLOCK_END) {
+                    break;
+                } else if (block.mType == BLOCK_TABLE) {
+                    if (decoder != null) {
+                        decoder.close();
+                    }
+                    decoder = RowDecoder.forTable(database, block);
+                } else if (block.mType == BLOCK_ROWS) {
+                    if (decoder == null) {
+                        throw new IOException("Rows before their table");
+                    }
+                    rows += decoder.insert(block);
+                }
+                // Other blocks come from newer versions of the format, skip them
+            }
+
+            // The summaries and completions are only derived from the check-ins
+            HabitSummaryStore.rebuildAll(database);
+            HabitCompletionStore.rebuildAll(database);
+            database.setTransactionSuccessful();
+        } finally {
+            if (decoder != null) {
+                decoder.close();
+            }
+            database.endTransaction();
+        }
+        return rows;
+    }
+
+    /**
+     * Zigzag encoding, so small negative numbers take few bytes too.
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * The payload of a block, written or read.
+     */
+    private static final class Block {
+        final int mType;
+        byte[] mBytes;
+        int mLength;
+        int mPosition;
+
+        Block(int type, byte[] bytes, int length) {
+            mType = type;
+            mBytes = bytes;
+            mLength = length;
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                mBytes[mLength++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBytes[mLength++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, 0, mBytes, mLength, length);
+            mLength += length;
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarint(bytes.length);
+            writeBytes(bytes, bytes.length);
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPosition >= mLength) {
+                    throw new IOException("Truncated block");
+                }
+                byte b = mBytes[mPosition++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        String readString(int length) throws IOException {
+            if (length < 0 || length > mLength - mPosition) {
+                throw new IOException("Truncated block");
+            }
+            String value = new String(mBytes, mPosition, length, UTF_8);
+            mPosition += length;
+            return value;
+        }
+
+        String readString() throws IOException {
+            return readString((int) readVarint());
+        }
+
+        private void ensureCapacity(int extra) {
+            if (mLength + extra > mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length * 2, mLength + extra));
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks to the file, through one reused buffer.
+     */
+    private static final class BlockWriter {
+        private final FileChannel mChannel;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(BLOCK_SIZE * 2);
+        private final CRC32 mCrc = new CRC32();
+
+        /** The payload bytes, reused from block to block */
+        private byte[] mPayload = new byte[BLOCK_SIZE + 1024];
+
+        BlockWriter(FileChannel channel) {
+            mChannel = channel;
+        }
+
+        void writeMagic() throws IOException {
+            write(MAGIC, MAGIC.length);
+        }
+
+        Block start(int type) {
+            return new Block(type, mPayload, 0);
+        }
+
+        void finish(Block block) throws IOException {
+            // Keep the grown array for the next blocks
+            mPayload = block.mBytes;
+
+            Block prefix = new Block(block.mType, new byte[20], 0);
+            prefix.writeVarint(block.mType);
+            prefix.writeVarint(block.mLength);
+            write(prefix.mBytes, prefix.mLength);
+            write(block.mBytes, block.mLength);
+
+            mCrc.reset();
+            mCrc.update(prefix.mBytes, 0, prefix.mLength);
+            mCrc.update(block.mBytes, 0, block.mLength);
+            byte[] crc = ByteBuffer.allocate(4).putInt((int) mCrc.getValue()).array();
+            write(crc, crc.length);
+        }
+
+        private void write(byte[] bytes, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                if (!mBuffer.hasRemaining()) {
+                    flush();
+                }
+                int chunk = Math.min(mBuffer.remaining(), length - offset);
+                mBuffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        void flush() throws IOException {
+            mBuffer.flip();
+            while (mBuffer.hasRemaining()) {
+                mChannel.write(mBuffer);
+            }
+            mBuffer.clear();
+        }
+    }
+
+    /**
+     * Reads and checks the blocks of a mapped snapshot.
+     */
+    private static final class BlockReader {
+        private final ByteBuffer mBuffer;
+        private final CRC32 mCrc = new CRC32();
+
+        /** The type and length of the block, as varints */
+        private final byte[] mPrefix = new byte[20];
+
+        /** The payload bytes, reused from block to block */
+        private byte[] mPayload = new byte[BLOCK_SIZE + 1024];
+
+        BlockReader(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        Block next() throws IOException {
+            int start = mBuffer.position();
+            int type = (int) readVarint();
+            long length = readVarint();
+            if (length < 0 || length + 4 > mBuffer.remaining()) {
+                throw new IOException("Truncated snapshot");
+            }
+
+            // The checksum covers the type and length too
+            int end = mBuffer.position();
+            mBuffer.position(start);
+            mBuffer.get(mPrefix, 0, end - start);
+            mCrc.reset();
+            mCrc.update(mPrefix, 0, end - start);
+
+            if (length > mPayload.length) {
+                mPayload = new byte[(int) length];
+            }
+            mBuffer.get(mPayload, 0, (int) length);
+            mCrc.update(mPayload, 0, (int) length);
+            if (mBuffer.getInt() != (int) mCrc.getValue()) {
+                throw new IOException("Damaged snapshot block at byte " + mBuffer.position());
+            }
+            return new Block(type, mPayload, (int) length);
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (!mBuffer.hasRemaining()) {
+                    throw new IOException("Truncated snapshot");
+                }
+                byte b = mBuffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+
+    /**
+     * Encodes rows into blocks, writing a block out whenever it is full.
+     */
+    private static final class RowEncoder {
+        private final BlockWriter mWriter;
+        private final long[] mPrevious;
+
+        /** The encoded rows not written yet, behind their count in the block */
+        private final Block mRows = new Block(BLOCK_ROWS, new byte[BLOCK_SIZE + 1024], 0);
+        private int mRowCount;
+
+        RowEncoder(BlockWriter writer, int columns) {
+            mWriter = writer;
+            mPrevious = new long[columns];
+        }
+
+        void write(Cursor cursor) throws IOException {
+            for (int i = 0; i < mPrevious.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        mRows.writeVarint(TAG_NULL);
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        long value = cursor.getLong(i);
+                        long delta = zigzag(value - mPrevious[i]);
+                        if ((delta >>> 62) == 0) {
+                            mRows.writeVarint(delta << 2 | TAG_INTEGER_DELTA);
+                        } else {
+                            // Too far from the previous value to keep the tag bits
+                            mRows.writeVarint(TAG_INTEGER);
+                            mRows.writeVarint(value);
+                        }
+                        mPrevious[i] = value;
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        byte[] bytes = cursor.getString(i).getBytes(UTF_8);
+                        mRows.writeVarint((long) bytes.length << 2 | TAG_TEXT);
+                        mRows.writeBytes(bytes, bytes.length);
+                        break;
+                    default:
+                        throw new IOException("Can't back up the value of column " + i
+                                + " of type " + cursor.getType(i));
+                }
+            }
+            mRowCount++;
+            if (mRows.mLength >= BLOCK_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Writes out the rows not written yet, and starts the next block over.
+         */
+        void flush() throws IOException {
+            if (mRowCount == 0) {
+                return;
+            }
+            Block block = mWriter.start(BLOCK_ROWS);
+            block.writeVarint(mRowCount);
+            block.writeBytes(mRows.mBytes, mRows.mLength);
+            mWriter.finish(block);
+
+            mRows.mLength = 0;
+            mRowCount = 0;
+            // Each block decodes on its own
+            Arrays.fill(mPrevious, 0);
+        }
+    }
+
+    /**
+     * Inserts the rows of the blocks of one table.
+     */
+    private static final class RowDecoder {
+        private final SQLiteStatement mInsert;
+
+        /** The index of the statement argument of each snapshot column, 0 for the ignored ones */
+        private final int[] mArguments;
+
+        private final long[] mPrevious;
+
+        private RowDecoder(SQLiteStatement insert, int[] arguments) {
+            mInsert = insert;
+            mArguments = arguments;
+            mPrevious = new long[arguments.length];
+        }
+
+        /**
+         * Returns the decoder of the table named by the block, which doesn't insert anything if
+         * the table isn't one of {@link Table}.
+         */
+        static RowDecoder forTable(SQLiteDatabase database, Block block) throws IOException {
+            String name = block.readString();
+            int[] arguments = new int[(int) block.readVarint()];
+
+            Table table = null;
+            for (Table candidate : Table.values()) {
+                if (candidate.mName.equals(name)) {
+                    table = candidate;
+                }
+            }
+
+            StringBuilder columns = new StringBuilder();
+            StringBuilder values = new StringBuilder();
+            int argument = 0;
+            for (int i = 0; i < arguments.length; i++) {
+                String column = block.readString();
+                if (table != null && table.indexOf(column) != -1) {
+                    arguments[i] = ++argument;
+                    columns.append(argument > 1 ? ", " : "").append(column);
+                    values.append(argument > 1 ? ", ?" : "?");
+                }
+            }
+            if (argument == 0) {
+                return new RowDecoder(null, arguments);
+            }
+            SQLiteStatement insert = database.compileStatement("INSERT INTO " + table.mName
+                    + " (" + columns + ") VALUES (" + values + ")");
+            return new RowDecoder(insert, arguments);
+        }
+
+        /**
+         * Inserts the rows of the block.
+         *
+         * @return the number of rows inserted
+         */
+        int insert(Block block) throws IOException {
+            Arrays.fill(mPrevious, 0);
+            int rows = (int) block.readVarint();
+            for (int row = 0; row < rows; row++) {
+                for (int i = 0; i < mArguments.length; i++) {
+                    readValue(block, i);
+                }
+                if (mInsert != null) {
+                    mInsert.executeInsert();
+                }
+            }
+            if (block.mPosition != block.mLength) {
+                throw new IOException("Unexpected bytes after the rows of a block");
+            }
+            return mInsert == null ? 0 : rows;
+        }
+
+        private void readValue(Block block, int column) throws IOException {
+            int argument = mArguments[column];
+            long first = block.readVarint();
+            switch ((int) (first & 3)) {
+                case TAG_NULL:
+                    if (argument != 0) {
+                        mInsert.bindNull(argument);
+                    }
+                    break;
+                case TAG_INTEGER_DELTA:
+                    mPrevious[column] += unzigzag(first >>> 2);
+                    if (argument != 0) {
+                        mInsert.bindLong(argument, mPrevious[column]);
+                    }
+                    break;
+                case TAG_TEXT:
+                    String text = block.readString((int) (first >>> 2));
+                    if (argument != 0) {
+                        mInsert.bindString(argument, text);
+                    }
+                    break;
+                default:
+                    mPrevious[column] = block.readVarint();
+                    if (argument != 0) {
+                        mInsert.bindLong(argument, mPrevious[column]);
+                    }
+            }
+        }
+
+        void close() {
+            if (mInsert != null) {
+                mInsert.close();
+            }
+        }
+    }
+}
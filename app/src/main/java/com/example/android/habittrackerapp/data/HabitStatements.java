@@ -0,0 +1,312 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.StatsEntry;
+
+import java.util.Arrays;
+
+/**
+ * The compiled statements of the hot writes of {@link HabitDbHelper}: insert a habit and update
+ * one habit by id. Each one is compiled once, on first use, and then only bound and run, so
+ * those calls don't build the SQL, parse it, nor copy the values again.
+ *
+ * A statement has one set of bindings, so the calls from several threads must run one after
+ * the other. No Java lock is held while they wait for that, it would deadlock against a thread
+ * holding the database connection (in a transaction) and waiting for the lock: every call runs
+ * in a transaction of its own, or in the caller's, which gives it the connection to itself.
+ * Only the lazy creation of the statements is synchronized, once the connection is held.
+ *
+ * The reads don't take the connection that way (they would wait for the writes), they keep
+ * their SQL the same instead, see {@link #getRowCount} and {@link #buildHabitByIdSql}.
+ *
+ * The statements belong to the connection of the helper, {@link #close()} them with it.
+ */
+final class HabitStatements {
+
+    private static final String LOG_TAG = HabitStatements.class.getSimpleName();
+
+    /**
+     * The columns the insert statement binds, in order. A habit with any other column goes
+     * through {@link SQLiteDatabase#insert}.
+     */
+    private static final String[] INSERT_COLUMNS = {
+            HabitEntry.COLUMN_HABIT,
+            HabitEntry.COLUMN_IMPORTANCE,
+            HabitEntry.COLUMN_REMINDER_TIME,
+            HabitEntry.COLUMN_REMINDER_DAYS,
+            HabitEntry.COLUMN_SYNC_ID,
+            HabitEntry.COLUMN_UPDATED_AT};
+
+    /**
+     * The columns the update statements can set, a statement per subset of them (the bits of
+     * its index in {@link #mUpdates}). Any other column goes through {@link SQLiteDatabase#update}.
+     */
+    private static final String[] UPDATE_COLUMNS = {
+            HabitEntry.COLUMN_HABIT,
+            HabitEntry.COLUMN_IMPORTANCE,
+            HabitEntry.COLUMN_REMINDER_TIME,
+            HabitEntry.COLUMN_REMINDER_DAYS};
+
+    private static final String ROW_COUNT_SQL = "SELECT " + StatsEntry.COLUMN_ROW_COUNT
+            + " FROM " + StatsEntry.TABLE_STATS + " WHERE " + StatsEntry.COLUMN_TABLE_NAME + " = ?";
+
+    /** Projections of the by-id query whose SQL is kept, see {@link #buildHabitByIdSql} */
+    private static final int QUERY_CACHE_SIZE = 4;
+
+    private static final String[][] sQueryProjections = new String[QUERY_CACHE_SIZE][];
+    private static final String[] sQuerySql = new String[QUERY_CACHE_SIZE];
+    private static int sNextQuery;
+
+    private final SQLiteDatabase mDatabase;
+
+    private SQLiteStatement mInsert;
+    private final SQLiteStatement[] mUpdates = new SQLiteStatement[1 << UPDATE_COLUMNS.length];
+
+    HabitStatements(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Returns whether {@link #insertHabit} can insert the values: all their columns are in
+     * {@link #INSERT_COLUMNS}.
+     */
+    static boolean canInsert(ContentValues values) {
+        return countKnown(values, INSERT_COLUMNS) == values.size();
+    }
+
+    /**
+     * Returns whether {@link #updateHabit} can write the values: all their columns are in
+     * {@link #UPDATE_COLUMNS}, and there is at least one.
+     */
+    static boolean canUpdate(ContentValues values) {
+        int size = values.size();
+        return size > 0 && countKnown(values, UPDATE_COLUMNS) == size;
+    }
+
+    /**
+     * Returns how many of the columns the values have. No iterator or key set is made, the
+     * lookups don't allocate.
+     */
+    private static int countKnown(ContentValues values, String[] columns) {
+        int known = 0;
+        for (String column : columns) {
+            if (values.containsKey(column)) {
+                known++;
+            }
+        }
+        return known;
+    }
+
+    /**
+     * Inserts a habit whose values passed {@link #canInsert}. A missing importance is the lowest
+     * one, a missing sync id or update time is made here.
+     *
+     * @param now the update time of a habit without one
+     * @return the id of the new habit, -1 if the insert failed (as {@link SQLiteDatabase#insert})
+     */
+    long insertHabit(ContentValues values, long now) {
+        long id;
+        mDatabase.beginTransactionNonExclusive();
+        try {
+            SQLiteStatement insert;
+            synchronized (this) {
+                if (mInsert == null) {
+                    mInsert = mDatabase.compileStatement("INSERT INTO " + HabitEntry.TABLE_HABIT + " ("
+                            + join(INSERT_COLUMNS, ", ") + ") VALUES (?, ?, ?, ?, ?, ?)");
+                }
+                insert = mInsert;
+            }
+
+            try {
+                bind(insert, 1, values.get(HabitEntry.COLUMN_HABIT));
+                Object importance = values.get(HabitEntry.COLUMN_IMPORTANCE);
+                if (importance == null) {
+                    insert.bindLong(2, 0);
+                } else {
+                    bind(insert, 2, importance);
+                }
+                bind(insert, 3, values.get(HabitEntry.COLUMN_REMINDER_TIME));
+                bind(insert, 4, values.get(HabitEntry.COLUMN_REMINDER_DAYS));
+                Object syncId = values.get(HabitEntry.COLUMN_SYNC_ID);
+                if (syncId == null) {
+                    insert.bindString(5, HabitSync.newSyncId());
+                } else {
+                    bind(insert, 5, syncId);
+                }
+                Object updatedAt = values.get(HabitEntry.COLUMN_UPDATED_AT);
+                if (updatedAt == null) {
+                    insert.bindLong(6, now);
+                } else {
+                    bind(insert, 6, updatedAt);
+                }
+                id = insert.executeInsert();
+            } catch (SQLException e) {
+                // Like SQLiteDatabase.insert(), e.g. a sync id that is already taken
+                Log.e(LOG_TAG, "Failed to insert a habit", e);
+                id = -1;
+            } finally {
+                // Don't keep the name alive until the next insert
+                insert.clearBindings();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return id;
+    }
+
+    /**
+     * Updates the habit with the given id, unless it was deleted, with values that passed
+     * {@link #canUpdate}. The change is stamped as made now on this device.
+     *
+     * @return the number of rows updated, 0 or 1
+     */
+    int updateHabit(long id, ContentValues values, long now) {
+        int columns = 0;
+        for (int i = 0; i < UPDATE_COLUMNS.length; i++) {
+            if (values.containsKey(UPDATE_COLUMNS[i])) {
+                columns |= 1 << i;
+            }
+        }
+
+        int rowsUpdated;
+        mDatabase.beginTransactionNonExclusive();
+        try {
+            SQLiteStatement update;
+            synchronized (this) {
+                if (mUpdates[columns] == null) {
+                    mUpdates[columns] = mDatabase.compileStatement(buildUpdateSql(columns));
+                }
+                update = mUpdates[columns];
+            }
+
+            try {
+                int argument = 0;
+                for (int i = 0; i < UPDATE_COLUMNS.length; i++) {
+                    if ((columns & (1 << i)) != 0) {
+                        bind(update, ++argument, values.get(UPDATE_COLUMNS[i]));
+                    }
+                }
+                update.bindLong(++argument, now);
+                update.bindLong(++argument, id);
+                rowsUpdated = update.executeUpdateDelete();
+            } finally {
+                update.clearBindings();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Returns the UPDATE of the columns whose bits are set, with the update time and the habit
+     * id as its last two arguments.
+     */
+    private static String buildUpdateSql(int columns) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(HabitEntry.TABLE_HABIT).append(" SET ");
+        for (int i = 0; i < UPDATE_COLUMNS.length; i++) {
+            if ((columns & (1 << i)) != 0) {
+                sql.append(UPDATE_COLUMNS[i]).append(" = ?, ");
+            }
+        }
+        return sql.append(HabitEntry.COLUMN_UPDATED_AT).append(" = ?, ")
+                .append(HabitEntry.COLUMN_UPDATED_BY).append(" = NULL WHERE ")
+                .append(HabitEntry._ID).append(" = ? AND ").append(HabitDbHelper.NOT_DELETED)
+                .toString();
+    }
+
+    /**
+     * Returns the number of rows of the table, from the statistics table.
+     */
+    long getRowCount(String table) {
+        // Always the same SQL: SQLite finds it in the statement cache of the connection
+        return DatabaseUtils.longForQuery(mDatabase, ROW_COUNT_SQL, new String[]{table});
+    }
+
+    /**
+     * Binds a value of {@link ContentValues} the way {@link SQLiteDatabase#insert} does, without
+     * turning it into a String or boxing it again.
+     */
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * Releases the statements. The next call compiles them again.
+     */
+    synchronized void close() {
+        if (mInsert != null) {
+            mInsert.close();
+            mInsert = null;
+        }
+        for (int i = 0; i < mUpdates.length; i++) {
+            if (mUpdates[i] != null) {
+                mUpdates[i].close();
+                mUpdates[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the SELECT of one habit by id (its only argument) with the given projection, unless
+     * it was deleted.
+     *
+     * A query returns a cursor, which a compiled statement can't, so this one goes through
+     * {@link SQLiteDatabase#rawQuery}. Its SQL is the same string for the same projection
+     * though: it isn't built again, and SQLite finds it in the statement cache of its
+     * connection instead of compiling it. The last few projections are kept (the screens use
+     * one or two).
+     */
+    static String buildHabitByIdSql(String[] projection) {
+        synchronized (sQuerySql) {
+            for (int i = 0; i < QUERY_CACHE_SIZE; i++) {
+                if (sQuerySql[i] != null && Arrays.equals(sQueryProjections[i], projection)) {
+                    return sQuerySql[i];
+                }
+            }
+        }
+
+        String sql = SQLiteQueryBuilder.buildQueryString(false, HabitEntry.TABLE_HABIT, projection,
+                HabitEntry._ID + "=? AND " + HabitDbHelper.NOT_DELETED, null, null, null, null);
+        synchronized (sQuerySql) {
+            // A copy, the caller may change its array afterwards
+            sQueryProjections[sNextQuery] = projection == null ? null : projection.clone();
+            sQuerySql[sNextQuery] = sql;
+            sNextQuery = (sNextQuery + 1) % QUERY_CACHE_SIZE;
+        }
+        return sql;
+    }
+
+    private static String join(String[] parts, String separator) {
+        StringBuilder joined = new StringBuilder();
+        for (String part : parts) {
+            if (joined.length() > 0) {
+                joined.append(separator);
+            }
+            joined.append(part);
+        }
+        return joined.toString();
+    }
+}
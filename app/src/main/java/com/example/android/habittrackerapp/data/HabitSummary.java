@@ -0,0 +1,255 @@
+package com.example.android.habittrackerapp.data;
+
+/**
+ * Streak and completion summary of one habit, as stored in the habit_summary table.
+ *
+ * The summary is kept up to date incrementally: {@link #append(long)} and
+ * {@link #remove(long, int)} handle the common cases (a check-in for today, another check-in on
+ * an already done day...) in O(1), and report when the change can't be applied without looking
+ * at the whole history (a back-filled day, the last check-in of a day removed). The caller then
+ * recomputes the summary with {@link #compute(long[])}.
+ *
+ * Days are local epoch days, see {@link HabitContract.CheckinEntry#toEpochDay}.
+ */
+public class HabitSummary {
+
+    /** Number of days (ending today) used for the completion rate */
+    public static final int COMPLETION_WINDOW = 30;
+
+    /** Number of days covered by {@link #mRecentDays} */
+    private static final int RECENT_DAYS = 64;
+
+    /** Most recent day with a check-in, only meaningful when {@link #mTotalCheckins} > 0 */
+    private long mLastDay;
+
+    /** Length of the run of consecutive done days ending at {@link #mLastDay} */
+    private int mCurrentStreak;
+
+    /** Length of the longest run of consecutive done days */
+    private int mLongestStreak;
+
+    /** Number of check-ins, a day can have more than one */
+    private int mTotalCheckins;
+
+    /** Number of distinct done days */
+    private int mActiveDays;
+
+    /** Bit i is set if the day mLastDay - i was done */
+    private long mRecentDays;
+
+    /**
+     * Creates the summary of a habit with no check-ins.
+     */
+    public HabitSummary() {
+    }
+
+    /**
+     * Creates a summary with the values read from the habit_summary table.
+     */
+    public HabitSummary(long lastDay, int currentStreak, int longestStreak, int totalCheckins,
+                        int activeDays, long recentDays) {
+        mLastDay = lastDay;
+        mCurrentStreak = currentStreak;
+        mLongestStreak = longestStreak;
+        mTotalCheckins = totalCheckins;
+        mActiveDays = activeDays;
+        mRecentDays = recentDays;
+    }
+
+    /**
+     * Records one more check-in on the given day.
+     *
+     * @return false if the day is an older, not yet done day. The summary is left unchanged and
+     * must be recomputed.
+     */
+    public boolean append(long day) {
+        if (mTotalCheckins == 0) {
+            mLastDay = day;
+            mCurrentStreak = 1;
+            mLongestStreak = 1;
+            mActiveDays = 1;
+            mRecentDays = 1;
+        } else if (day > mLastDay) {
+            long gap = day - mLastDay;
+            mCurrentStreak = gap == 1 ? mCurrentStreak + 1 : 1;
+            mLongestStreak = Math.max(mLongestStreak, mCurrentStreak);
+            mActiveDays++;
+            mRecentDays = (gap >= RECENT_DAYS ? 0 : mRecentDays << gap) | 1;
+            mLastDay = day;
+        } else if (!isRecentlyDone(day)) {
+            // A new day in the past can join two runs, only the full history can tell
+            return false;
+        }
+        mTotalCheckins++;
+        return true;
+    }
+
+    /**
+     * Removes one check-in of the given day.
+     *
+     * @param remainingOnDay number of check-ins left on that day after the removal
+     * @return false if the day is no longer done. The summary is left unchanged and must be
+     * recomputed.
+     */
+    public boolean remove(long day, int remainingOnDay) {
+        if (remainingOnDay == 0 || mTotalCheckins <= 1) {
+            return false;
+        }
+        mTotalCheckins--;
+        return true;
+    }
+
+    /**
+     * Recomputes the summary from scratch.
+     *
+     * @param days the days of all the check-ins of the habit, sorted, duplicates allowed
+     */
+    public static HabitSummary compute(long[] days) {
+        HabitSummary summary = new HabitSummary();
+        if (days.length == 0) {
+            return summary;
+        }
+
+        int run = 0;
+        for (int i = 0; i < days.length; i++) {
+            if (i > 0 && days[i] == days[i - 1]) {
+                continue;
+            }
+            run = i > 0 && days[i] == days[i - 1] + 1 ? run + 1 : 1;
+            summary.mActiveDays++;
+            summary.mLongestStreak = Math.max(summary.mLongestStreak, run);
+        }
+
+        long lastDay = days[days.length - 1];
+        long recentDays = 0;
+        for (long day : days) {
+            if (lastDay - day < RECENT_DAYS) {
+                recentDays |= 1L << (lastDay - day);
+            }
+        }
+
+        summary.mLastDay = lastDay;
+        summary.mCurrentStreak = run;
+        summary.mTotalCheckins = days.length;
+        summary.mRecentDays = recentDays;
+        return summary;
+    }
+
+    private boolean isRecentlyDone(long day) {
+        long age = mLastDay - day;
+        return age < RECENT_DAYS && (mRecentDays & (1L << age)) != 0;
+    }
+
+    /**
+     * Returns the streak still alive on the given day: the run ending today, or yesterday if
+     * today isn't done yet. Zero once a day was missed.
+     */
+    public static int currentStreak(long lastDay, int currentStreak, long today) {
+        return today - lastDay <= 1 ? currentStreak : 0;
+    }
+
+    /**
+     * Returns how many of the {@code window} days ending on {@code today} are done
+     * ({@code window} can't be more than 64).
+     */
+    public static int completedDays(long lastDay, long recentDays, long today, int window) {
+        long age = today - lastDay;
+        if (age < 0) {
+            // Check-ins after today (clock change, other time zone): drop the days after today
+            if (-age >= RECENT_DAYS) {
+                return 0;
+            }
+            recentDays >>>= -age;
+            age = 0;
+        }
+        if (age >= window) {
+            return 0;
+        }
+        long bits = window - age;
+        long mask = bits >= RECENT_DAYS ? -1L : (1L << bits) - 1;
+        return Long.bitCount(recentDays & mask);
+    }
+
+    /**
+     * Returns the share (0 to 1) of the last {@link #COMPLETION_WINDOW} days that are done.
+     */
+    public static float completionRate(long lastDay, long recentDays, long today) {
+        return completedDays(lastDay, recentDays, today, COMPLETION_WINDOW) / (float) COMPLETION_WINDOW;
+    }
+
+    public int getCurrentStreak(long today) {
+        return mTotalCheckins == 0 ? 0 : currentStreak(mLastDay, mCurrentStreak, today);
+    }
+
+    public float getCompletionRate(long today) {
+        return mTotalCheckins == 0 ? 0 : completionRate(mLastDay, mRecentDays, today);
+    }
+
+    public long getLastDay() {
+        return mLastDay;
+    }
+
+    public int getCurrentStreak() {
+        return mCurrentStreak;
+    }
+
+    public int getLongestStreak() {
+        return mLongestStreak;
+    }
+
+    public int getTotalCheckins() {
+        return mTotalCheckins;
+    }
+
+    public int getActiveDays() {
+        return mActiveDays;
+    }
+
+    public long getRecentDays() {
+        return mRecentDays;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HabitSummary)) {
+            return false;
+        }
+        HabitSummary other = (HabitSummary) o;
+        if (mTotalCheckins == 0 || other.mTotalCheckins == 0) {
+            return mTotalCheckins == other.mTotalCheckins;
+        }
+        return mLastDay == other.mLastDay
+                && mCurrentStreak == other.mCurrentStreak
+                && mLongestStreak == other.mLongestStreak
+                && mTotalCheckins == other.mTotalCheckins
+                && mActiveDays == other.mActiveDays
+                && mRecentDays == other.mRecentDays;
+    }
+
+    @Override
+    public int hashCode() {
+        if (mTotalCheckins == 0) {
+            return 0;
+        }
+        int result = (int) (mLastDay ^ (mLastDay >>> 32));
+        result = 31 * result + mCurrentStreak;
+        result = 31 * result + mLongestStreak;
+        result = 31 * result + mTotalCheckins;
+        result = 31 * result + mActiveDays;
+        result = 31 * result + (int) (mRecentDays ^ (mRecentDays >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "HabitSummary{lastDay=" + mLastDay
+                + ", currentStreak=" + mCurrentStreak
+                + ", longestStreak=" + mLongestStreak
+                + ", totalCheckins=" + mTotalCheckins
+                + ", activeDays=" + mActiveDays
+                + ", recentDays=" + Long.toBinaryString(mRecentDays) + "}";
+    }
+}
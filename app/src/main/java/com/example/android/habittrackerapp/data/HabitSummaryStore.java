@@ -0,0 +1,213 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes the habit_summary table, the materialized {@link HabitSummary} of each habit.
+ * All the methods expect to run inside the transaction that changes the check-ins, so the
+ * summaries are never out of date.
+ */
+final class HabitSummaryStore {
+
+    private static final String[] SUMMARY_COLUMNS = {
+            SummaryEntry.COLUMN_LAST_DAY,
+            SummaryEntry.COLUMN_CURRENT_STREAK,
+            SummaryEntry.COLUMN_LONGEST_STREAK,
+            SummaryEntry.COLUMN_TOTAL_CHECKINS,
+            SummaryEntry.COLUMN_ACTIVE_DAYS,
+            SummaryEntry.COLUMN_RECENT_DAYS};
+
+    private HabitSummaryStore() {
+    }
+
+    /**
+     * Creates the habit_summary table. The habit id is the primary key (the rowid), so joining
+     * it to the habits table is one lookup per habit.
+     */
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SummaryEntry.TABLE_SUMMARY + " ("
+                + SummaryEntry.COLUMN_HABIT_ID + " INTEGER PRIMARY KEY, "
+                + SummaryEntry.COLUMN_LAST_DAY + " INTEGER NOT NULL, "
+                + SummaryEntry.COLUMN_CURRENT_STREAK + " INTEGER NOT NULL, "
+                + SummaryEntry.COLUMN_LONGEST_STREAK + " INTEGER NOT NULL, "
+                + SummaryEntry.COLUMN_TOTAL_CHECKINS + " INTEGER NOT NULL, "
+                + SummaryEntry.COLUMN_ACTIVE_DAYS + " INTEGER NOT NULL, "
+                + SummaryEntry.COLUMN_RECENT_DAYS + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * Returns the stored summary of the habit (an empty one if it has no check-ins).
+     */
+    static HabitSummary load(SQLiteDatabase db, long habitId) {
+        Cursor cursor = db.query(SummaryEntry.TABLE_SUMMARY, SUMMARY_COLUMNS,
+                SummaryEntry.COLUMN_HABIT_ID + "=?", new String[]{String.valueOf(habitId)},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return new HabitSummary();
+            }
+            return new HabitSummary(cursor.getLong(0), cursor.getInt(1), cursor.getInt(2),
+                    cursor.getInt(3), cursor.getInt(4), cursor.getLong(5));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stores the summary of the habit, removing the row if it has no check-ins left.
+     */
+    static void save(SQLiteDatabase db, long habitId, HabitSummary summary) {
+        if (summary.getTotalCheckins() == 0) {
+            db.delete(SummaryEntry.TABLE_SUMMARY, SummaryEntry.COLUMN_HABIT_ID + "=?",
+                    new String[]{String.valueOf(habitId)});
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(SummaryEntry.COLUMN_HABIT_ID, habitId);
+        values.put(SummaryEntry.COLUMN_LAST_DAY, summary.getLastDay());
+        values.put(SummaryEntry.COLUMN_CURRENT_STREAK, summary.getCurrentStreak());
+        values.put(SummaryEntry.COLUMN_LONGEST_STREAK, summary.getLongestStreak());
+        values.put(SummaryEntry.COLUMN_TOTAL_CHECKINS, summary.getTotalCheckins());
+        values.put(SummaryEntry.COLUMN_ACTIVE_DAYS, summary.getActiveDays());
+        values.put(SummaryEntry.COLUMN_RECENT_DAYS, summary.getRecentDays());
+        db.replace(SummaryEntry.TABLE_SUMMARY, null, values);
+    }
+
+    /**
+     * Recomputes the summary of one habit from its check-ins (read in day order from the
+     * (habit_id, day) index) and stores it.
+     */
+    static HabitSummary recompute(SQLiteDatabase db, long habitId) {
+        Cursor cursor = db.query(CheckinEntry.TABLE_CHECKINS, new String[]{CheckinEntry.COLUMN_DAY},
+                CheckinEntry.COLUMN_HABIT_ID + "=?", new String[]{String.valueOf(habitId)},
+                null, null, CheckinEntry.COLUMN_DAY);
+        long[] days;
+        try {
+            days = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                days[i++] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        HabitSummary summary = HabitSummary.compute(days);
+        save(db, habitId, summary);
+        return summary;
+    }
+
+    /**
+     * Throws away every summary and recomputes them all from the check-ins, in one pass over the
+     * (habit_id, day) index.
+     */
+    static void rebuildAll(SQLiteDatabase db) {
+        db.delete(SummaryEntry.TABLE_SUMMARY, null, null);
+
+        Cursor cursor = db.query(CheckinEntry.TABLE_CHECKINS,
+                new String[]{CheckinEntry.COLUMN_HABIT_ID, CheckinEntry.COLUMN_DAY},
+                null, null, null, null,
+                CheckinEntry.COLUMN_HABIT_ID + ", " + CheckinEntry.COLUMN_DAY);
+        try {
+            long habitId = 0;
+            long[] days = new long[64];
+            int count = 0;
+            while (cursor.moveToNext()) {
+                long rowHabitId = cursor.getLong(0);
+                if (count > 0 && rowHabitId != habitId) {
+                    save(db, habitId, HabitSummary.compute(Arrays.copyOf(days, count)));
+                    count = 0;
+                }
+                habitId = rowHabitId;
+                if (count == days.length) {
+                    days = Arrays.copyOf(days, count * 2);
+                }
+                days[count++] = cursor.getLong(1);
+            }
+            if (count > 0) {
+                save(db, habitId, HabitSummary.compute(Arrays.copyOf(days, count)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Collects the check-in changes of one transaction and applies them to the summaries,
+     * reading and writing each touched summary only once.
+     */
+    static final class Batch {
+
+        private final SQLiteDatabase mDatabase;
+
+        /** Summaries loaded in this batch, by habit id */
+        private final Map<Long, HabitSummary> mSummaries = new HashMap<>();
+
+        /** Habits whose summary can't be updated incrementally and will be recomputed */
+        private final Set<Long> mStale = new HashSet<>();
+
+        Batch(SQLiteDatabase database) {
+            mDatabase = database;
+        }
+
+        /**
+         * A check-in was appended for the habit on the given day.
+         */
+        void appended(long habitId, long day) {
+            if (!mStale.contains(habitId) && !summary(habitId).append(day)) {
+                mStale.add(habitId);
+            }
+        }
+
+        /**
+         * A check-in of the habit on the given day was deleted.
+         */
+        void removed(long habitId, long day) {
+            if (mStale.contains(habitId)) {
+                return;
+            }
+            int remainingOnDay = (int) DatabaseUtils.longForQuery(mDatabase,
+                    "SELECT COUNT(*) FROM " + CheckinEntry.TABLE_CHECKINS
+                            + " WHERE " + CheckinEntry.COLUMN_HABIT_ID + "=? AND " + CheckinEntry.COLUMN_DAY + "=?",
+                    new String[]{String.valueOf(habitId), String.valueOf(day)});
+            if (!summary(habitId).remove(day, remainingOnDay)) {
+                mStale.add(habitId);
+            }
+        }
+
+        /**
+         * Writes the summaries changed by this batch.
+         */
+        void commit() {
+            for (Map.Entry<Long, HabitSummary> entry : mSummaries.entrySet()) {
+                if (!mStale.contains(entry.getKey())) {
+                    save(mDatabase, entry.getKey(), entry.getValue());
+                }
+            }
+            for (Long habitId : mStale) {
+                recompute(mDatabase, habitId);
+            }
+        }
+
+        private HabitSummary summary(long habitId) {
+            HabitSummary summary = mSummaries.get(habitId);
+            if (summary == null) {
+                summary = load(mDatabase, habitId);
+                mSummaries.put(habitId, summary);
+            }
+            return summary;
+        }
+    }
+}
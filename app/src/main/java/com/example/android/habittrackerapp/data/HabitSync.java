@@ -0,0 +1,695 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.data.HabitContract.ChangeEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SyncStateEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Syncs the habits with the other devices of the user, through a server, sending and receiving
+ * only the habits changed since the last sync.
+ *
+ * While sync is on ({@link #enable()}), triggers log every habit changed on this device in the
+ * habit_changes table. A sync is a series of exchanges, each one a single HTTP POST of gzipped
+ * JSON: the request carries the next {@link #setBatchSize(int) batch} of logged changes and
+ * the token of the server changes received so far, the response the server changes made after
+ * that token (by the other devices) and the new token. The exchanges go on until every local
+ * change is sent and the server has nothing more, so a sync with nothing new is one round-trip.
+ *
+ * Conflicts are resolved the same way on every device and on the server, so they all end up
+ * with the same habits whatever the order of the syncs: a deleted habit stays deleted,
+ * otherwise the change with the latest {@link HabitEntry#COLUMN_UPDATED_AT} wins, and the
+ * greater device id between two changes made at the same millisecond
+ * (see {@link #isNewer(long, String, long, String)}).
+ *
+ * The request:
+ * {"device":"...","token":"..." or null,"limit":200,"changes":[habit, ...]}
+ * and the response:
+ * {"token":"...","more":false,"changes":[habit, ...]}
+ * where a habit is an object with the {@link #SYNCED_COLUMNS}, e.g.
+ * {"sync_id":"...","habit":"Run","importance":2,"reminder_time":null,"reminder_days":null,
+ * "deleted_at":null,"updated_at":1530000000000,"updated_by":"..."}
+ *
+ * Everything here reads the database and the network, don't call it on the main thread.
+ */
+public class HabitSync {
+
+    private static final String LOG_TAG = HabitSync.class.getSimpleName();
+
+    /** Default number of habits sent, and asked for, per exchange */
+    static final int DEFAULT_BATCH_SIZE = 200;
+
+    private static final int TIMEOUT_MILLIS = 30 * 1000;
+
+    /** The columns of a habit sent to the server, the local _id isn't */
+    static final String[] SYNCED_COLUMNS = {
+            HabitEntry.COLUMN_SYNC_ID,
+            HabitEntry.COLUMN_HABIT,
+            HabitEntry.COLUMN_IMPORTANCE,
+            HabitEntry.COLUMN_REMINDER_TIME,
+            HabitEntry.COLUMN_REMINDER_DAYS,
+            HabitEntry.COLUMN_DELETED_AT,
+            HabitEntry.COLUMN_UPDATED_AT,
+            HabitEntry.COLUMN_UPDATED_BY};
+
+    /**
+     * What one sync did, and what it cost.
+     */
+    public static final class Result {
+        int mRoundTrips;
+        long mBytesSent;
+        long mBytesReceived;
+        int mPushed;
+        int mPulled;
+        int mApplied;
+        int mConflicts;
+
+        /** Number of HTTP exchanges with the server */
+        public int getRoundTrips() {
+            return mRoundTrips;
+        }
+
+        /** Bytes of the request bodies, compressed */
+        public long getBytesSent() {
+            return mBytesSent;
+        }
+
+        /** Bytes of the response bodies, compressed */
+        public long getBytesReceived() {
+            return mBytesReceived;
+        }
+
+        /** Number of habits sent */
+        public int getPushed() {
+            return mPushed;
+        }
+
+        /** Number of habits received */
+        public int getPulled() {
+            return mPulled;
+        }
+
+        /** Number of habits received that changed a habit of this device */
+        public int getApplied() {
+            return mApplied;
+        }
+
+        /** Number of habits received that lost to a change of this device */
+        public int getConflicts() {
+            return mConflicts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "Result{roundTrips=%d, bytesSent=%d, bytesReceived=%d, "
+                            + "pushed=%d, pulled=%d, applied=%d, conflicts=%d}",
+                    mRoundTrips, mBytesSent, mBytesReceived, mPushed, mPulled, mApplied, mConflicts);
+        }
+    }
+
+    /**
+     * The local changes sent in one exchange.
+     */
+    private static final class Push {
+        final List<ContentValues> mHabits = new ArrayList<>();
+        /** The last change log entry sent, its entries up to this one are done */
+        long mLastChangeId;
+    }
+
+    /**
+     * The answer of the server to one exchange.
+     */
+    private static final class Pull {
+        final List<ContentValues> mHabits = new ArrayList<>();
+        String mToken;
+        boolean mMore;
+    }
+
+    private final HabitDbHelper mDbHelper;
+
+    /** Told about the received changes, null for none */
+    private final ContentResolver mContentResolver;
+
+    private final URL mServerUrl;
+
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * @param serverUrl the URL the exchanges are posted to
+     */
+    public HabitSync(Context context, URL serverUrl) {
+        this(HabitDbHelper.getInstance(context), context.getContentResolver(), serverUrl);
+    }
+
+    HabitSync(HabitDbHelper dbHelper, ContentResolver contentResolver, URL serverUrl) {
+        mDbHelper = dbHelper;
+        mContentResolver = contentResolver;
+        mServerUrl = serverUrl;
+    }
+
+    /**
+     * Sets the number of habits sent, and asked for, per exchange. Bigger batches take fewer
+     * round-trips but more memory. {@link #DEFAULT_BATCH_SIZE} by default.
+     */
+    public HabitSync setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Bad batch size " + batchSize);
+        }
+        mBatchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Creates the sync state and change log tables, and the triggers logging the changed
+     * habits while sync is on. A habit is logged once however many times it changed, with the
+     * id of its last change, so the log never holds more entries than there are habits.
+     */
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SyncStateEntry.TABLE_SYNC_STATE + " ("
+                + SyncStateEntry.COLUMN_DEVICE_ID + " TEXT NOT NULL, "
+                + SyncStateEntry.COLUMN_TOKEN + " TEXT);");
+        db.execSQL("CREATE TABLE " + ChangeEntry.TABLE_CHANGES + " ("
+                + ChangeEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ChangeEntry.COLUMN_HABIT_ID + " INTEGER NOT NULL UNIQUE);");
+
+        String whenSyncing = " WHEN EXISTS (SELECT 1 FROM " + SyncStateEntry.TABLE_SYNC_STATE + ")";
+        String log = " BEGIN INSERT OR REPLACE INTO " + ChangeEntry.TABLE_CHANGES + " ("
+                + ChangeEntry.COLUMN_HABIT_ID + ") VALUES (new." + HabitEntry._ID + "); END;";
+        db.execSQL("CREATE TRIGGER " + HabitEntry.TABLE_HABIT + "_change_insert AFTER INSERT ON "
+                + HabitEntry.TABLE_HABIT + whenSyncing + log);
+        db.execSQL("CREATE TRIGGER " + HabitEntry.TABLE_HABIT + "_change_update AFTER UPDATE ON "
+                + HabitEntry.TABLE_HABIT + whenSyncing + log);
+    }
+
+    /**
+     * Returns a new {@link HabitEntry#COLUMN_SYNC_ID}, 32 random hex digits.
+     */
+    static String newSyncId() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    /**
+     * Returns whether the change made at {@code updatedAt} by {@code updatedBy} wins over the one
+     * made at {@code otherUpdatedAt} by {@code otherUpdatedBy}: the latest one, or the one with
+     * the greater device id at the same time.
+     */
+    static boolean isNewer(long updatedAt, String updatedBy, long otherUpdatedAt, String otherUpdatedBy) {
+        if (updatedAt != otherUpdatedAt) {
+            return updatedAt > otherUpdatedAt;
+        }
+        return nonNull(updatedBy).compareTo(nonNull(otherUpdatedBy)) > 0;
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Turns sync on, with a new device id. Every habit is logged, the first sync sends them
+     * all.
+     */
+    public synchronized void enable() {
+        SQLiteDatabase database = mDbHelper.getWriter();
+        database.beginTransaction();
+        try {
+            if (DatabaseUtils.queryNumEntries(database, SyncStateEntry.TABLE_SYNC_STATE) == 0) {
+                ContentValues state = new ContentValues();
+                state.put(SyncStateEntry.COLUMN_DEVICE_ID, newSyncId());
+                database.insert(SyncStateEntry.TABLE_SYNC_STATE, null, state);
+                assignSyncIds(database);
+                database.execSQL("INSERT OR REPLACE INTO " + ChangeEntry.TABLE_CHANGES + " ("
+                        + ChangeEntry.COLUMN_HABIT_ID + ") SELECT " + HabitEntry._ID + " FROM "
+                        + HabitEntry.TABLE_HABIT + " ORDER BY " + HabitEntry._ID);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Gives a sync id to the habits written without one (restored from an older snapshot,
+     * written straight into the table), the triggers log them.
+     */
+    private static void assignSyncIds(SQLiteDatabase database) {
+        database.execSQL("UPDATE " + HabitEntry.TABLE_HABIT + " SET " + HabitEntry.COLUMN_SYNC_ID
+                + " = lower(hex(randomblob(16))) WHERE " + HabitEntry.COLUMN_SYNC_ID + " IS NULL");
+    }
+
+    /**
+     * Turns sync off: the changes are no longer logged, and the ones not sent yet are
+     * forgotten.
+     */
+    public synchronized void disable() {
+        SQLiteDatabase database = mDbHelper.getWriter();
+        database.beginTransaction();
+        try {
+            database.delete(SyncStateEntry.TABLE_SYNC_STATE, null, null);
+            database.delete(ChangeEntry.TABLE_CHANGES, null, null);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the id of this device, null while sync is off.
+     */
+    public String getDeviceId() {
+        return readState(SyncStateEntry.COLUMN_DEVICE_ID);
+    }
+
+    private String readState(String column) {
+        Cursor cursor = mDbHelper.getReader().query(SyncStateEntry.TABLE_SYNC_STATE,
+                new String[]{column}, null, null, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Sends the habits changed on this device since the last sync, and receives the ones
+     * changed on the others.
+     *
+     * @throws IOException           if the server can't be reached or gave an error. The
+     *                               exchanges done before are kept, the next sync goes on from
+     *                               there.
+     * @throws IllegalStateException if sync is off
+     */
+    public synchronized Result sync() throws IOException {
+        String deviceId = getDeviceId();
+        if (deviceId == null) {
+            throw new IllegalStateException("Sync is off");
+        }
+        Result result = new Result();
+        long start = System.nanoTime();
+        assignSyncIds(mDbHelper.getWriter());
+        while (true) {
+            Push push = readChanges(deviceId);
+            Pull pull = exchange(deviceId, readState(SyncStateEntry.COLUMN_TOKEN), push, result);
+            apply(deviceId, push, pull, result);
+            if (push.mHabits.size() < mBatchSize && !pull.mMore) {
+                break;
+            }
+        }
+        if (result.mApplied > 0 && mContentResolver != null) {
+            mContentResolver.notifyChange(HabitEntry.CONTENT_URI, null);
+        }
+        Log.i(LOG_TAG, "Synced in " + (System.nanoTime() - start) / 1000000 + " ms: " + result);
+        return result;
+    }
+
+    /**
+     * Reads the next batch of logged changes, oldest first.
+     */
+    private Push readChanges(String deviceId) {
+        StringBuilder columns = new StringBuilder("c." + ChangeEntry._ID);
+        for (String column : SYNCED_COLUMNS) {
+            columns.append(", h.").append(column);
+        }
+        Cursor cursor = mDbHelper.getReader().rawQuery("SELECT " + columns
+                + " FROM " + ChangeEntry.TABLE_CHANGES + " c LEFT OUTER JOIN " + HabitEntry.TABLE_HABIT
+                + " h ON h." + HabitEntry._ID + " = c." + ChangeEntry.COLUMN_HABIT_ID
+                + " ORDER BY c." + ChangeEntry._ID + " LIMIT " + mBatchSize, null);
+        Push push = new Push();
+        try {
+            while (cursor.moveToNext()) {
+                push.mLastChangeId = cursor.getLong(0);
+                if (cursor.isNull(1)) {
+                    // The habit is gone, nothing to send
+                    continue;
+                }
+                ContentValues habit = new ContentValues();
+                for (int i = 0; i < SYNCED_COLUMNS.length; i++) {
+                    putColumn(habit, SYNCED_COLUMNS[i], cursor, i + 1);
+                }
+                if (habit.getAsString(HabitEntry.COLUMN_UPDATED_BY) == null) {
+                    // Changed on this device
+                    habit.put(HabitEntry.COLUMN_UPDATED_BY, deviceId);
+                }
+                push.mHabits.add(habit);
+            }
+        } finally {
+            cursor.close();
+        }
+        return push;
+    }
+
+    private static void putColumn(ContentValues values, String column, Cursor cursor, int index) {
+        if (cursor.isNull(index)) {
+            values.putNull(column);
+        } else if (isText(column)) {
+            values.put(column, cursor.getString(index));
+        } else {
+            values.put(column, cursor.getLong(index));
+        }
+    }
+
+    private static boolean isText(String column) {
+        return HabitEntry.COLUMN_SYNC_ID.equals(column) || HabitEntry.COLUMN_HABIT.equals(column)
+                || HabitEntry.COLUMN_UPDATED_BY.equals(column);
+    }
+
+    /**
+     * Posts one exchange to the server and reads its answer.
+     */
+    private Pull exchange(String deviceId, String token, Push push, Result result) throws IOException {
+        byte[] request = encodeRequest(deviceId, token, push);
+
+        HttpURLConnection connection = (HttpURLConnection) mServerUrl.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            // Asked for explicitly, so the response is read compressed and counted as such
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            connection.setFixedLengthStreamingMode(request.length);
+            OutputStream output = connection.getOutputStream();
+            try {
+                output.write(request);
+            } finally {
+                output.close();
+            }
+
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Sync failed with HTTP " + code);
+            }
+            CountingInputStream counted = new CountingInputStream(connection.getInputStream());
+            Pull pull;
+            try {
+                InputStream input = "gzip".equalsIgnoreCase(connection.getContentEncoding())
+                        ? new GZIPInputStream(counted) : counted;
+                pull = decodeResponse(input);
+            } finally {
+                counted.close();
+            }
+
+            result.mRoundTrips++;
+            result.mBytesSent += request.length;
+            result.mBytesReceived += counted.mCount;
+            result.mPushed += push.mHabits.size();
+            result.mPulled += pull.mHabits.size();
+            return pull;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private byte[] encodeRequest(String deviceId, String token, Push push) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(new GZIPOutputStream(bytes), "UTF-8"));
+        try {
+            writer.beginObject();
+            writer.name("device").value(deviceId);
+            writer.name("token").value(token);
+            writer.name("limit").value(mBatchSize);
+            writer.name("changes");
+            writeHabits(writer, push.mHabits);
+            writer.endObject();
+        } finally {
+            // Also finishes the gzip stream
+            writer.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the habits as a JSON array of objects.
+     */
+    static void writeHabits(JsonWriter writer, List<ContentValues> habits) throws IOException {
+        writer.beginArray();
+        for (ContentValues habit : habits) {
+            writer.beginObject();
+            for (String column : SYNCED_COLUMNS) {
+                writer.name(column);
+                if (isText(column)) {
+                    writer.value(habit.getAsString(column));
+                } else {
+                    Long value = habit.getAsLong(column);
+                    if (value == null) {
+                        writer.nullValue();
+                    } else {
+                        writer.value(value);
+                    }
+                }
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Reads a JSON array of habits, ignoring the fields that aren't {@link #SYNCED_COLUMNS}.
+     */
+    static List<ContentValues> readHabits(JsonReader reader) throws IOException {
+        List<ContentValues> habits = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ContentValues habit = new ContentValues();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                int index = indexOfSynced(name);
+                if (index == -1) {
+                    reader.skipValue();
+                } else if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    habit.putNull(name);
+                } else if (isText(name)) {
+                    habit.put(name, reader.nextString());
+                } else {
+                    habit.put(name, reader.nextLong());
+                }
+            }
+            reader.endObject();
+            if (habit.getAsString(HabitEntry.COLUMN_SYNC_ID) == null
+                    || habit.getAsLong(HabitEntry.COLUMN_UPDATED_AT) == null) {
+                throw new IOException("Habit without sync id or time: " + habit);
+            }
+            habits.add(habit);
+        }
+        reader.endArray();
+        return habits;
+    }
+
+    private static int indexOfSynced(String name) {
+        for (int i = 0; i < SYNCED_COLUMNS.length; i++) {
+            if (SYNCED_COLUMNS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Pull decodeResponse(InputStream input) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(input, "UTF-8"));
+        Pull pull = new Pull();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("token".equals(name) && reader.peek() != JsonToken.NULL) {
+                pull.mToken = reader.nextString();
+            } else if ("more".equals(name)) {
+                pull.mMore = reader.nextBoolean();
+            } else if ("changes".equals(name)) {
+                pull.mHabits.addAll(readHabits(reader));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return pull;
+    }
+
+    /**
+     * Applies one exchange in one transaction: the sent changes leave the log, the received
+     * ones are written (without being logged, they came from the server) and the new token is
+     * kept, all or nothing. The habits whose reminder changed are scheduled again once it
+     * committed.
+     */
+    private void apply(String deviceId, Push push, Pull pull, Result result) {
+        SQLiteDatabase database = mDbHelper.getWriter();
+        List<Long> rescheduled = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            // A habit changed again since it was read got a newer entry, it stays
+            database.delete(ChangeEntry.TABLE_CHANGES, ChangeEntry._ID + " <= ?",
+                    new String[]{String.valueOf(push.mLastChangeId)});
+
+            long lastLogged = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX("
+                    + ChangeEntry._ID + "), 0) FROM " + ChangeEntry.TABLE_CHANGES, null);
+            for (ContentValues habit : pull.mHabits) {
+                applyHabit(database, deviceId, habit, result, rescheduled);
+            }
+            // The triggers logged the received habits, they don't go back to the server
+            database.delete(ChangeEntry.TABLE_CHANGES, ChangeEntry._ID + " > ?",
+                    new String[]{String.valueOf(lastLogged)});
+
+            if (pull.mToken != null) {
+                ContentValues state = new ContentValues();
+                state.put(SyncStateEntry.COLUMN_TOKEN, pull.mToken);
+                database.update(SyncStateEntry.TABLE_SYNC_STATE, state, null, null);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        long[] habitIds = new long[rescheduled.size()];
+        for (int i = 0; i < habitIds.length; i++) {
+            habitIds[i] = rescheduled.get(i);
+        }
+        mDbHelper.onRemindersChanged(habitIds);
+    }
+
+    /**
+     * Writes one habit received from the server, unless the habit of this device wins. The id
+     * of a habit whose reminder it changed (or deleted with the habit) goes in
+     * {@code rescheduled}.
+     */
+    private static void applyHabit(SQLiteDatabase database, String deviceId, ContentValues remote,
+                                   Result result, List<Long> rescheduled) {
+        String syncId = remote.getAsString(HabitEntry.COLUMN_SYNC_ID);
+        boolean remoteDeleted = remote.getAsLong(HabitEntry.COLUMN_DELETED_AT) != null;
+        long remoteUpdatedAt = remote.getAsLong(HabitEntry.COLUMN_UPDATED_AT);
+        String remoteUpdatedBy = remote.getAsString(HabitEntry.COLUMN_UPDATED_BY);
+
+        ContentValues values = new ContentValues(remote);
+        values.remove(HabitEntry.COLUMN_SYNC_ID);
+        if (deviceId.equals(remoteUpdatedBy)) {
+            // Our own change, back from the server
+            values.putNull(HabitEntry.COLUMN_UPDATED_BY);
+        }
+        if (values.getAsInteger(HabitEntry.COLUMN_IMPORTANCE) == null) {
+            values.put(HabitEntry.COLUMN_IMPORTANCE, 0);
+        }
+
+        Cursor cursor = database.query(HabitEntry.TABLE_HABIT, new String[]{HabitEntry._ID,
+                        HabitEntry.COLUMN_DELETED_AT, HabitEntry.COLUMN_UPDATED_AT, HabitEntry.COLUMN_UPDATED_BY,
+                        HabitEntry.COLUMN_REMINDER_TIME, HabitEntry.COLUMN_REMINDER_DAYS},
+                HabitEntry.COLUMN_SYNC_ID + "=?", new String[]{syncId}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                if (remoteDeleted || values.getAsString(HabitEntry.COLUMN_HABIT) == null) {
+                    // Deleted before this device ever saw it
+                    return;
+                }
+                values.put(HabitEntry.COLUMN_SYNC_ID, syncId);
+                long id = database.insert(HabitEntry.TABLE_HABIT, null, values);
+                if (id != -1) {
+                    result.mApplied++;
+                    if (values.getAsLong(HabitEntry.COLUMN_REMINDER_TIME) != null) {
+                        rescheduled.add(id);
+                    }
+                }
+                return;
+            }
+
+            long id = cursor.getLong(0);
+            boolean localDeleted = !cursor.isNull(1);
+            long localUpdatedAt = cursor.getLong(2);
+            String localUpdatedBy = cursor.isNull(3) ? deviceId : cursor.getString(3);
+            if (localDeleted) {
+                // A deleted habit stays deleted
+                if (!remoteDeleted) {
+                    result.mConflicts++;
+                }
+                return;
+            }
+            // A delete wins over any change, the habit is kept as it was deleted
+            if (!remoteDeleted && !isNewer(remoteUpdatedAt, remoteUpdatedBy, localUpdatedAt, localUpdatedBy)) {
+                if (remoteUpdatedAt != localUpdatedAt || !nonNull(remoteUpdatedBy).equals(localUpdatedBy)) {
+                    // This device changed it since
+                    result.mConflicts++;
+                }
+                return;
+            }
+            if (database.update(HabitEntry.TABLE_HABIT, values, HabitEntry._ID + "=?",
+                    new String[]{String.valueOf(id)}) > 0) {
+                result.mApplied++;
+                if (remoteDeleted || changes(values, HabitEntry.COLUMN_REMINDER_TIME, cursor, 4)
+                        || changes(values, HabitEntry.COLUMN_REMINDER_DAYS, cursor, 5)) {
+                    rescheduled.add(id);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns whether the values write another number than the one at {@code index} of the
+     * cursor into the column.
+     */
+    private static boolean changes(ContentValues values, String column, Cursor cursor, int index) {
+        if (!values.containsKey(column)) {
+            return false;
+        }
+        Long value = values.getAsLong(column);
+        if (cursor.isNull(index)) {
+            return value != null;
+        }
+        return value == null || value != cursor.getLong(index);
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,556 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exports the tables of the database to CSV or JSON, and imports them back, e.g. to move the
+ * habits and their check-ins to another device or tool.
+ *
+ * Both ways stream: the export reads the table one batch of rows at a time (by _id, so it never
+ * holds a long read transaction) and the import writes one batch per transaction, so only one
+ * batch is ever in memory, whatever the size of the file. The files are read and written
+ * through NIO channels, as UTF-8.
+ *
+ * CSV files start with a header naming the columns. JSON files hold an array with one object
+ * per row. On import, the columns the table doesn't have are ignored, and the rows keep their
+ * _id if they have one: import the habits before their check-ins, into an empty database.
+ *
+ * Everything here reads or writes the disk, don't call it on the main thread.
+ */
+public class HabitTransfer {
+
+    private static final String LOG_TAG = HabitTransfer.class.getSimpleName();
+
+    /** Number of rows per batch when none is set */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final String CHARSET = "UTF-8";
+
+    /** Size of the buffer in front of the decoder of the imported files */
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The file formats.
+     */
+    public enum Format {
+        /** RFC 4180 CSV, with a header */
+        CSV,
+        /** A JSON array of objects */
+        JSON
+    }
+
+    /**
+     * The tables that can be exported and imported, with their columns in file order (_id
+     * first, the export pages by it).
+     */
+    public enum Table {
+        HABITS(HabitEntry.TABLE_HABIT, HabitEntry.CONTENT_URI,
+                HabitEntry._ID, HabitEntry.COLUMN_HABIT, HabitEntry.COLUMN_IMPORTANCE,
+                HabitEntry.COLUMN_DELETED_AT, HabitEntry.COLUMN_REMINDER_TIME,
+                HabitEntry.COLUMN_REMINDER_DAYS, HabitEntry.COLUMN_SYNC_ID,
+                HabitEntry.COLUMN_UPDATED_AT, HabitEntry.COLUMN_UPDATED_BY),
+        CHECKINS(CheckinEntry.TABLE_CHECKINS, CheckinEntry.CONTENT_URI,
+                CheckinEntry._ID, CheckinEntry.COLUMN_HABIT_ID, CheckinEntry.COLUMN_DAY,
+                CheckinEntry.COLUMN_CREATED_AT);
+
+        final String mName;
+        final Uri mUri;
+        final String[] mColumns;
+
+        Table(String name, Uri uri, String... columns) {
+            mName = name;
+            mUri = uri;
+            mColumns = columns;
+        }
+
+        /** Returns the index of the column, -1 if the table doesn't have it */
+        int indexOf(String column) {
+            return Arrays.asList(mColumns).indexOf(column);
+        }
+    }
+
+    /**
+     * Told about the progress of an export or import, on its thread, after every batch.
+     */
+    public interface ProgressListener {
+        /**
+         * @param rows the number of rows exported, or read from the file, so far
+         */
+        void onProgress(Table table, long rows);
+    }
+
+    private final HabitDbHelper mDbHelper;
+
+    /** Told about the imports, null for none */
+    private final ContentResolver mContentResolver;
+
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+
+    private ProgressListener mProgressListener;
+
+    public HabitTransfer(Context context) {
+        this(HabitDbHelper.getInstance(context), context.getContentResolver());
+    }
+
+    HabitTransfer(HabitDbHelper dbHelper, ContentResolver contentResolver) {
+        mDbHelper = dbHelper;
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Sets the number of rows read or written at a time, and imported per transaction. Bigger
+     * batches import faster but take more memory. {@link #DEFAULT_BATCH_SIZE} by default.
+     */
+    public HabitTransfer setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        mBatchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets the listener told after every batch, null for none.
+     */
+    public HabitTransfer setProgressListener(ProgressListener listener) {
+        mProgressListener = listener;
+        return this;
+    }
+
+    /**
+     * Exports the table to the file, replaced if it exists.
+     *
+     * @return the number of rows exported
+     */
+    public long exportTable(Table table, Format format, File file) throws IOException {
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        try {
+            return exportTable(table, format, channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Exports the table to the channel, which is left open.
+     *
+     * @return the number of rows exported
+     */
+    public long exportTable(Table table, Format format, WritableByteChannel channel)
+            throws IOException {
+        // The encoder of the channel writer already buffers
+        Writer writer = Channels.newWriter(channel, CHARSET);
+        RowWriter rows = format == Format.CSV
+                ? new CsvRowWriter(writer, table) : new JsonRowWriter(writer, table);
+
+        String sql = "SELECT " + TextUtils.join(", ", table.mColumns)
+                + " FROM " + table.mName
+                + " WHERE " + HabitEntry._ID + " > ?"
+                + " ORDER BY " + HabitEntry._ID
+                + " LIMIT " + mBatchSize;
+        SQLiteDatabase database = mDbHelper.getReader();
+        Object[] row = new Object[table.mColumns.length];
+        long lastId = Long.MIN_VALUE;
+        long exported = 0;
+
+        rows.begin();
+        while (true) {
+            // One batch after the last row of the previous one, straight from the primary key
+            Cursor cursor = database.rawQuery(sql, new String[]{String.valueOf(lastId)});
+            int count;
+            try {
+                count = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    readRow(cursor, row);
+                    rows.write(row);
+                }
+                if (count > 0) {
+                    cursor.moveToLast();
+                    lastId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            exported += count;
+            if (count > 0 && mProgressListener != null) {
+                mProgressListener.onProgress(table, exported);
+            }
+            if (count < mBatchSize) {
+                break;
+            }
+        }
+        rows.end();
+        writer.flush();
+        return exported;
+    }
+
+    /**
+     * Imports the rows of the file into the table.
+     *
+     * @return the number of rows imported
+     * @see #importTable(Table, Format, ReadableByteChannel)
+     */
+    public long importTable(Table table, Format format, File file) throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            return importTable(table, format, channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Imports the rows read from the channel into the table, one transaction per batch. The
+     * rows the table refuses (no habit name, a check-in without habit or day, an _id already
+     * taken...) are skipped. If the file turns out to be malformed, the import stops with an
+     * {@link IOException}: the batches before stay imported.
+     *
+     * @return the number of rows imported
+     */
+    public long importTable(Table table, Format format, ReadableByteChannel channel)
+            throws IOException {
+        Reader reader = new BufferedReader(Channels.newReader(channel, CHARSET), READ_BUFFER_SIZE);
+        RowReader rows = format == Format.CSV
+                ? new CsvRowReader(reader, table) : new JsonRowReader(reader, table);
+
+        ContentValues[] batch = new ContentValues[mBatchSize];
+        long read = 0;
+        long imported = 0;
+        try {
+            rows.begin();
+            int count;
+            do {
+                count = 0;
+                ContentValues values;
+                while (count < batch.length && (values = rows.next()) != null) {
+                    batch[count++] = values;
+                }
+                if (count == 0) {
+                    break;
+                }
+
+                imported += insertBatch(table, batch, count);
+                read += count;
+                if (mProgressListener != null) {
+                    mProgressListener.onProgress(table, read);
+                }
+            } while (count == batch.length);
+        } finally {
+            if (read - imported > 0) {
+                Log.w(LOG_TAG, "Skipped " + (read - imported) + " of the " + read + " rows of " + table);
+            }
+            // Tell the lists and caches once, however many batches there were
+            if (imported > 0 && mContentResolver != null) {
+                for (Uri uri : mDbHelper.getNotificationUris(table.mUri)) {
+                    mContentResolver.notifyChange(uri, null);
+                }
+            }
+        }
+        return imported;
+    }
+
+    /**
+     * Inserts the first {@code count} rows of the batch in one transaction.
+     *
+     * @return the number of rows inserted
+     */
+    private int insertBatch(Table table, ContentValues[] batch, int count) {
+        switch (table) {
+            case HABITS:
+                return insertHabits(batch, count);
+            case CHECKINS:
+                return insertCheckins(batch, count);
+            default:
+                throw new IllegalArgumentException("Import is not supported for " + table);
+        }
+    }
+
+    private int insertHabits(ContentValues[] batch, int count) {
+        SQLiteDatabase database = mDbHelper.getWriter();
+        int inserted = 0;
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                try {
+                    if (mDbHelper.insert(HabitEntry.CONTENT_URI, batch[i]) != -1) {
+                        inserted++;
+                    }
+                } catch (IllegalArgumentException e) {
+                    // A habit without a name, skip it
+                }
+                batch[i] = null;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return inserted;
+    }
+
+    /**
+     * Appends the check-ins with {@link HabitDbHelper#appendCheckins(Uri, ContentValues[])}, so
+     * the summaries of their habits are updated once per batch.
+     */
+    private int insertCheckins(ContentValues[] batch, int count) {
+        // The check-ins without habit or day would make the whole batch fail
+        int valid = 0;
+        for (int i = 0; i < count; i++) {
+            ContentValues values = batch[i];
+            batch[i] = null;
+            if (values.getAsLong(CheckinEntry.COLUMN_HABIT_ID) != null
+                    && values.getAsLong(CheckinEntry.COLUMN_DAY) != null) {
+                batch[valid++] = values;
+            }
+        }
+        if (valid == 0) {
+            return 0;
+        }
+        int inserted = mDbHelper.appendCheckins(CheckinEntry.CONTENT_URI,
+                valid == batch.length ? batch : Arrays.copyOf(batch, valid));
+        Arrays.fill(batch, 0, valid, null);
+        return inserted;
+    }
+
+    /**
+     * Reads the current row of the cursor as numbers, strings and nulls.
+     */
+    private static void readRow(Cursor cursor, Object[] row) {
+        for (int i = 0; i < row.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    row[i] = null;
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                default:
+                    // There are no blobs in the exported tables
+                    row[i] = cursor.getString(i);
+            }
+        }
+    }
+
+    /**
+     * Writes the rows of a table in one format.
+     */
+    private interface RowWriter {
+        void begin() throws IOException;
+
+        /** Writes a row, in the column order of the table */
+        void write(Object[] row) throws IOException;
+
+        void end() throws IOException;
+    }
+
+    /**
+     * Reads the rows of a table in one format.
+     */
+    private interface RowReader {
+        void begin() throws IOException;
+
+        /** Returns the next row, only with the columns of the table, null at the end */
+        ContentValues next() throws IOException;
+    }
+
+    private static final class CsvRowWriter implements RowWriter {
+        private final CsvWriter mWriter;
+        private final Table mTable;
+
+        CsvRowWriter(Writer writer, Table table) {
+            mWriter = new CsvWriter(writer);
+            mTable = table;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            mWriter.writeRecord(mTable.mColumns);
+        }
+
+        @Override
+        public void write(Object[] row) throws IOException {
+            mWriter.writeRecord(row);
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
+    private static final class CsvRowReader implements RowReader {
+        private final CsvReader mReader;
+        private final Table mTable;
+        private final List<String> mFields = new ArrayList<>();
+
+        /** The columns of the table by field of the file, null for the ones it doesn't have */
+        private String[] mColumns;
+
+        CsvRowReader(Reader reader, Table table) {
+            mReader = new CsvReader(reader);
+            mTable = table;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            if (!mReader.readRecord(mFields)) {
+                throw new IOException("The CSV file has no header");
+            }
+            mColumns = new String[mFields.size()];
+            for (int i = 0; i < mColumns.length; i++) {
+                String name = mFields.get(i) == null ? null : mFields.get(i).trim();
+                mColumns[i] = mTable.indexOf(name) != -1 ? name : null;
+            }
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            while (mReader.readRecord(mFields)) {
+                // Skip the blank lines
+                if (mFields.size() == 1 && mFields.get(0) == null) {
+                    continue;
+                }
+                ContentValues values = new ContentValues(mColumns.length);
+                for (int i = 0; i < mColumns.length && i < mFields.size(); i++) {
+                    if (mColumns[i] != null) {
+                        // SQLite turns the numbers of the numeric columns back into numbers
+                        values.put(mColumns[i], mFields.get(i));
+                    }
+                }
+                return values;
+            }
+            return null;
+        }
+    }
+
+    private static final class JsonRowWriter implements RowWriter {
+        private final JsonWriter mWriter;
+        private final Table mTable;
+
+        JsonRowWriter(Writer writer, Table table) {
+            mWriter = new JsonWriter(writer);
+            mTable = table;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            mWriter.beginArray();
+        }
+
+        @Override
+        public void write(Object[] row) throws IOException {
+            mWriter.beginObject();
+            for (int i = 0; i < row.length; i++) {
+                mWriter.name(mTable.mColumns[i]);
+                Object value = row[i];
+                if (value == null) {
+                    mWriter.nullValue();
+                } else if (value instanceof Long) {
+                    mWriter.value((Long) value);
+                } else if (value instanceof Double) {
+                    mWriter.value((Double) value);
+                } else {
+                    mWriter.value(value.toString());
+                }
+            }
+            mWriter.endObject();
+        }
+
+        @Override
+        public void end() throws IOException {
+            mWriter.endArray();
+            // Not closed: that would close the channel
+            mWriter.flush();
+        }
+    }
+
+    private static final class JsonRowReader implements RowReader {
+        private final JsonReader mReader;
+        private final Table mTable;
+
+        JsonRowReader(Reader reader, Table table) {
+            mReader = new JsonReader(reader);
+            mTable = table;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            mReader.beginArray();
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            if (!mReader.hasNext()) {
+                mReader.endArray();
+                return null;
+            }
+
+            ContentValues values = new ContentValues(mTable.mColumns.length);
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String name = mReader.nextName();
+                if (mTable.indexOf(name) == -1) {
+                    mReader.skipValue();
+                    continue;
+                }
+                JsonToken token = mReader.peek();
+                if (token == JsonToken.NULL) {
+                    mReader.nextNull();
+                    values.putNull(name);
+                } else if (token == JsonToken.NUMBER) {
+                    putNumber(values, name, mReader.nextString());
+                } else if (token == JsonToken.STRING) {
+                    values.put(name, mReader.nextString());
+                } else if (token == JsonToken.BOOLEAN) {
+                    values.put(name, mReader.nextBoolean() ? 1 : 0);
+                } else {
+                    // Arrays and objects don't fit in a column
+                    mReader.skipValue();
+                }
+            }
+            mReader.endObject();
+            return values;
+        }
+
+        /**
+         * Puts the number as a long when it is one, so large ids don't lose precision.
+         */
+        private static void putNumber(ContentValues values, String name, String number) {
+            try {
+                values.put(name, Long.parseLong(number));
+            } catch (NumberFormatException e) {
+                values.put(name, Double.parseDouble(number));
+            }
+        }
+    }
+}
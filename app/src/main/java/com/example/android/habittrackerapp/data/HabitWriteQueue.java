@@ -0,0 +1,464 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes habits on one background thread, so saving never blocks the main thread, even when
+ * the disk is busy.
+ *
+ * Queueing a write only takes a short lock, the writes themselves run later on the writer
+ * thread. Everything queued while the writer was busy is applied together, as one
+ * {@link ContentResolver#applyBatch} (one transaction, one change notification). Updates of a
+ * habit that are still waiting are merged into one, the later values winning.
+ *
+ * The callbacks run on the main thread once the write is done.
+ *
+ * A deleted habit is only marked as deleted. The writer purges it afterwards with
+ * {@link HabitCompactor}, one batch per task, so the saves queued meanwhile don't wait for the
+ * whole purge.
+ */
+public class HabitWriteQueue {
+
+    private static final String LOG_TAG = HabitWriteQueue.class.getSimpleName();
+
+    /**
+     * Called on the main thread when a queued write is done.
+     */
+    public interface Callback {
+        /**
+         * @param uri of the inserted, updated or deleted habit, or null if the write failed (or,
+         *            for an update or a delete, if the habit doesn't exist)
+         */
+        void onWriteFinished(Uri uri);
+    }
+
+    /**
+     * One queued insert (no id), update or delete, with the callbacks of every write merged
+     * into it. A bulk update or delete has the ids of all its habits instead of one id.
+     */
+    private static final class Write {
+        final Long mId;
+        final long[] mIds;
+        final ContentValues mValues;
+        final boolean mDelete;
+        final List<Callback> mCallbacks = new ArrayList<>(1);
+
+        Write(Long id, ContentValues values) {
+            mId = id;
+            mIds = null;
+            mValues = new ContentValues(values);
+            mDelete = false;
+        }
+
+        /**
+         * A delete of the habit.
+         */
+        Write(long id) {
+            mId = id;
+            mIds = null;
+            mValues = null;
+            mDelete = true;
+        }
+
+        /**
+         * An update of all the habits with the values, or a delete of them all if the values
+         * are null.
+         */
+        Write(long[] ids, ContentValues values) {
+            mId = null;
+            mIds = ids.clone();
+            mValues = values == null ? null : new ContentValues(values);
+            mDelete = values == null;
+        }
+
+        ContentProviderOperation toOperation() {
+            if (mIds != null) {
+                // One statement for all of them, see HabitEntry.QUERY_PARAM_IDS
+                Uri uri = HabitEntry.buildSelectionUri(mIds);
+                return mDelete ? ContentProviderOperation.newDelete(uri).build()
+                        : ContentProviderOperation.newUpdate(uri).withValues(mValues).build();
+            }
+            if (mDelete) {
+                return ContentProviderOperation.newDelete(
+                        ContentUris.withAppendedId(HabitEntry.CONTENT_URI, mId)).build();
+            }
+            if (mId == null) {
+                return ContentProviderOperation.newInsert(HabitEntry.CONTENT_URI)
+                        .withValues(mValues).build();
+            }
+            return ContentProviderOperation.newUpdate(
+                    ContentUris.withAppendedId(HabitEntry.CONTENT_URI, mId))
+                    .withValues(mValues).build();
+        }
+
+        /**
+         * Returns the URI to report for the result of this write's operation.
+         */
+        Uri getResultUri(ContentProviderResult result) {
+            if (mIds != null) {
+                return result.count != null && result.count > 0 ? HabitEntry.CONTENT_URI : null;
+            }
+            if (mId == null) {
+                return result.uri;
+            }
+            return result.count != null && result.count > 0
+                    ? ContentUris.withAppendedId(HabitEntry.CONTENT_URI, mId) : null;
+        }
+    }
+
+    private static HabitWriteQueue sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    /** Notified of every write, to drop the cached habits */
+    private final HabitRepository mRepository;
+
+    /** Purges the deleted habits, on the writer thread */
+    private final HabitCompactor mCompactor;
+
+    private final Executor mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Guards the fields below. Never held while writing. */
+    private final Object mLock = new Object();
+
+    /** The writes waiting for the writer, in order */
+    private List<Write> mPending = new ArrayList<>();
+
+    /** The waiting updates by habit id, to merge a new update of the same habit */
+    private final Map<Long, Write> mPendingUpdates = new HashMap<>();
+
+    /** Whether the writer has been asked to drain the queue and hasn't taken it yet */
+    private boolean mDrainScheduled;
+
+    /** Whether a compaction is running or waiting for the writer */
+    private boolean mCompactionScheduled;
+
+    /** Rows purged by the running compaction, only used on the writer thread */
+    private long mPurgedRows;
+
+    /**
+     * Drains the queue on the writer thread.
+     */
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Purges the next batch of deleted habits. Runs on the writer thread.
+     */
+    private final Runnable mCompact = new Runnable() {
+        @Override
+        public void run() {
+            compact();
+        }
+    };
+
+    /**
+     * @param compactor purging the deleted habits of the database written by the resolver
+     * @param executor  running the writes, one at a time
+     */
+    HabitWriteQueue(ContentResolver contentResolver, HabitRepository repository,
+                    HabitCompactor compactor, Executor executor) {
+        mContentResolver = contentResolver;
+        mRepository = repository;
+        mCompactor = compactor;
+        mExecutor = executor;
+    }
+
+    /**
+     * Returns the process-wide write queue, creating it (and its writer thread) on the first
+     * call. There must be only one, so the habits are written by a single thread.
+     *
+     * @param context of the app
+     */
+    public static synchronized HabitWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            // Use the application context, so we don't leak the Activity that asked first
+            Context appContext = context.getApplicationContext();
+            sInstance = new HabitWriteQueue(appContext.getContentResolver(),
+                    HabitRepository.getInstance(appContext),
+                    new HabitCompactor(HabitDbHelper.getInstance(appContext)), newWriterExecutor());
+            // Finish the purge of the habits deleted before the process was last killed
+            sInstance.scheduleCompaction();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the single writer thread. It has the background priority, so a long batch doesn't
+     * take the CPU from the main thread.
+     */
+    private static ExecutorService newWriterExecutor() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "HabitWriter");
+            }
+        });
+    }
+
+    /**
+     * Queues the insertion of a new habit.
+     *
+     * @param callback told the URI of the new habit, may be null
+     */
+    public void insert(ContentValues values, Callback callback) {
+        enqueue(null, values, callback);
+    }
+
+    /**
+     * Queues an update of the habit. If an update of the same habit is still waiting, the new
+     * values are merged into it.
+     *
+     * @param callback told the URI of the habit, may be null
+     */
+    public void update(long id, ContentValues values, Callback callback) {
+        enqueue(id, values, callback);
+    }
+
+    /**
+     * Queues the delete of the habit. It is gone from the lists as soon as the write is done,
+     * its check-ins are purged later.
+     *
+     * @param callback told the URI of the habit, may be null
+     */
+    public void delete(long id, Callback callback) {
+        enqueueAll(new Write(id), new long[]{id}, callback);
+    }
+
+    /**
+     * Queues an update of all the given habits with the same values (e.g. the habits selected
+     * in the list), written as one statement in one transaction with one change notification.
+     *
+     * @param callback told {@link HabitEntry#CONTENT_URI} if any habit was updated, may be null
+     */
+    public void updateAll(long[] ids, ContentValues values, Callback callback) {
+        enqueueAll(new Write(ids, values), ids, callback);
+    }
+
+    /**
+     * Queues the delete of all the given habits, like {@link #updateAll}.
+     *
+     * @param callback told {@link HabitEntry#CONTENT_URI} if any habit was deleted, may be null
+     */
+    public void deleteAll(long[] ids, Callback callback) {
+        enqueueAll(new Write(ids, null), ids, callback);
+    }
+
+    /**
+     * Queues a write that is never merged with another one.
+     *
+     * @param ids of the habits the write changes
+     */
+    private void enqueueAll(Write write, long[] ids, Callback callback) {
+        if (callback != null) {
+            write.mCallbacks.add(callback);
+        }
+
+        boolean schedule;
+        synchronized (mLock) {
+            mPending.add(write);
+            // A later update isn't merged into one that runs before this write, it runs after
+            // it (and finds no habit, after a delete)
+            for (long id : ids) {
+                mPendingUpdates.remove(id);
+            }
+
+            schedule = !mDrainScheduled;
+            mDrainScheduled = true;
+        }
+        if (schedule) {
+            mExecutor.execute(mDrain);
+        }
+    }
+
+    private void enqueue(Long id, ContentValues values, Callback callback) {
+        boolean schedule;
+        synchronized (mLock) {
+            Write write = id == null ? null : mPendingUpdates.get(id);
+            if (write != null) {
+                write.mValues.putAll(values);
+            } else {
+                write = new Write(id, values);
+                mPending.add(write);
+                if (id != null) {
+                    mPendingUpdates.put(id, write);
+                }
+            }
+            if (callback != null) {
+                write.mCallbacks.add(callback);
+            }
+
+            schedule = !mDrainScheduled;
+            mDrainScheduled = true;
+        }
+        if (schedule) {
+            mExecutor.execute(mDrain);
+        }
+    }
+
+    /**
+     * Applies every waiting write. Runs on the writer thread.
+     */
+    private void drain() {
+        List<Write> writes;
+        synchronized (mLock) {
+            writes = mPending;
+            mPending = new ArrayList<>();
+            mPendingUpdates.clear();
+            mDrainScheduled = false;
+        }
+        if (writes.isEmpty()) {
+            return;
+        }
+
+        // The cached habits are dropped before and after the write, so a read running at the
+        // same time can't cache the old version
+        invalidate(writes);
+        Uri[] uris = apply(writes);
+        invalidate(writes);
+
+        boolean deleted = false;
+        for (int i = 0; i < writes.size(); i++) {
+            deliver(writes.get(i).mCallbacks, uris[i]);
+            deleted |= writes.get(i).mDelete && uris[i] != null;
+        }
+        if (deleted) {
+            scheduleCompaction();
+        }
+    }
+
+    /**
+     * Asks the writer to purge the deleted habits, unless it already will.
+     */
+    private void scheduleCompaction() {
+        synchronized (mLock) {
+            if (mCompactionScheduled) {
+                return;
+            }
+            mCompactionScheduled = true;
+        }
+        mExecutor.execute(mCompact);
+    }
+
+    /**
+     * Purges one batch of deleted habits and queues the next one behind the writes waiting
+     * meanwhile. Vacuums the file after the last batch, if anything was purged. Runs on the
+     * writer thread.
+     */
+    private void compact() {
+        try {
+            int purged = mCompactor.purgeBatch();
+            if (purged > 0) {
+                mPurgedRows += purged;
+                mExecutor.execute(mCompact);
+                return;
+            }
+            if (mPurgedRows > 0) {
+                mCompactor.vacuum();
+            }
+        } catch (RuntimeException e) {
+            // The tombstones stay hidden, the next delete (or start) tries again
+            Log.e(LOG_TAG, "Failed to purge the deleted habits", e);
+        }
+        mPurgedRows = 0;
+        synchronized (mLock) {
+            mCompactionScheduled = false;
+        }
+    }
+
+    /**
+     * Applies the writes in one batch. If the batch fails (e.g. one habit has no name) it was
+     * rolled back, then the writes are applied one by one so only the bad ones fail.
+     *
+     * @return the URI of each write, null for the failed ones
+     */
+    private Uri[] apply(List<Write> writes) {
+        Uri[] uris = new Uri[writes.size()];
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(writes.size());
+        for (Write write : writes) {
+            operations.add(write.toOperation());
+        }
+        try {
+            ContentProviderResult[] results =
+                    mContentResolver.applyBatch(HabitContract.CONTENT_AUTHORITY, operations);
+            for (int i = 0; i < writes.size(); i++) {
+                uris[i] = writes.get(i).getResultUri(results[i]);
+            }
+            return uris;
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            if (writes.size() == 1) {
+                Log.e(LOG_TAG, "Failed to write habit", e);
+                return uris;
+            }
+            Log.w(LOG_TAG, "Failed to write " + writes.size() + " habits together, "
+                    + "writing them one by one", e);
+        }
+
+        for (int i = 0; i < writes.size(); i++) {
+            uris[i] = apply(writes.subList(i, i + 1))[0];
+        }
+        return uris;
+    }
+
+    private void invalidate(List<Write> writes) {
+        for (Write write : writes) {
+            if (write.mIds != null) {
+                for (long id : write.mIds) {
+                    mRepository.invalidate(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id));
+                }
+            } else if (write.mId != null) {
+                mRepository.invalidate(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, write.mId));
+            }
+        }
+    }
+
+    private void deliver(final List<Callback> callbacks, final Uri uri) {
+        if (callbacks.isEmpty()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback callback : callbacks) {
+                    callback.onWriteFinished(uri);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,351 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A query whose result is read again when the data under its URI changes, and handed to every
+ * subscriber. Get one from {@link HabitQueries#observe}, which shares it among the subscribers
+ * of the same query.
+ *
+ * The query runs on a background executor, the subscribers are told on the main thread. A burst
+ * of change notifications (an import notifies once per batch) is debounced: the first change
+ * schedules one run after the debounce window, the changes until then are part of it, and a
+ * change during a run only schedules one more after it. So a burst costs at most one run per
+ * window, and the result is never older than the last change by much more than a window and a
+ * run.
+ *
+ * Subscribe and unsubscribe on the main thread.
+ */
+public final class ObservableQuery<T> {
+
+    private static final String LOG_TAG = ObservableQuery.class.getSimpleName();
+
+    /**
+     * What an {@link ObservableQuery} runs. Queries that are equal (equals and hashCode) share
+     * one {@link ObservableQuery}, see {@link CursorQuery}.
+     */
+    public interface Query<T> {
+        /**
+         * Returns the URI whose changes, or the changes of its descendants, make the query run
+         * again.
+         */
+        Uri getUri();
+
+        /**
+         * Runs the query, on a background thread. The result is shared by the subscribers, it
+         * must not change afterwards.
+         */
+        T run(ContentResolver contentResolver);
+    }
+
+    /**
+     * Turns the rows of a {@link CursorQuery} into its result, on the background thread.
+     * {@link CursorQuery} compares them by class, they must not hold state of their own.
+     */
+    public interface Mapper<T> {
+        /**
+         * @param cursor positioned before the first row, closed afterwards
+         */
+        T map(Cursor cursor);
+    }
+
+    /**
+     * Called on the main thread with every new result.
+     */
+    public interface Observer<T> {
+        void onChanged(T result);
+    }
+
+    /**
+     * A subscription to the results of the query, until {@link #unsubscribe()}.
+     */
+    public final class Subscription {
+
+        private final Observer<T> mObserver;
+
+        private Subscription(Observer<T> observer) {
+            mObserver = observer;
+        }
+
+        /**
+         * Stops the results. The last subscription of the query also stops watching its URI.
+         */
+        public void unsubscribe() {
+            ObservableQuery.this.unsubscribe(this);
+        }
+    }
+
+    /**
+     * A content provider query and the mapper of its rows. Two of them with the same URI,
+     * arguments and mapper class are equal, so they share one {@link ObservableQuery}.
+     */
+    public static final class CursorQuery<T> implements Query<T> {
+
+        private final Uri mUri;
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private final Mapper<T> mMapper;
+
+        public CursorQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                           String sortOrder, Mapper<T> mapper) {
+            mUri = uri;
+            mProjection = projection;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+            mMapper = mapper;
+        }
+
+        @Override
+        public Uri getUri() {
+            return mUri;
+        }
+
+        @Override
+        public T run(ContentResolver contentResolver) {
+            Cursor cursor = contentResolver.query(mUri, mProjection, mSelection, mSelectionArgs, mSortOrder);
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                return mMapper.map(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CursorQuery)) {
+                return false;
+            }
+            CursorQuery<?> other = (CursorQuery<?>) o;
+            return mUri.equals(other.mUri)
+                    && Arrays.equals(mProjection, other.mProjection)
+                    && (mSelection == null ? other.mSelection == null : mSelection.equals(other.mSelection))
+                    && Arrays.equals(mSelectionArgs, other.mSelectionArgs)
+                    && (mSortOrder == null ? other.mSortOrder == null : mSortOrder.equals(other.mSortOrder))
+                    && mMapper.getClass() == other.mMapper.getClass();
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mUri.hashCode();
+            hash = 31 * hash + Arrays.hashCode(mProjection);
+            hash = 31 * hash + (mSelection == null ? 0 : mSelection.hashCode());
+            hash = 31 * hash + Arrays.hashCode(mSelectionArgs);
+            hash = 31 * hash + (mSortOrder == null ? 0 : mSortOrder.hashCode());
+            return 31 * hash + mMapper.getClass().hashCode();
+        }
+    }
+
+    private final Query<T> mQuery;
+    private final ContentResolver mContentResolver;
+    private final Executor mExecutor;
+    private final Handler mMainHandler;
+    private final long mDebounceMillis;
+
+    /** Told when the last subscriber left, null for none */
+    private final Runnable mOnInactive;
+
+    /** The subscriptions, in order */
+    private final List<Subscription> mSubscriptions = new ArrayList<>();
+
+    /** The last result, null before the first run */
+    private T mResult;
+    private boolean mHasResult;
+
+    /** Whether a run waits for the end of the debounce window */
+    private boolean mScheduled;
+
+    /** Whether a run is going on in the background */
+    private boolean mRunning;
+
+    /** Whether the data changed during the run going on */
+    private boolean mChangedWhileRunning;
+
+    /**
+     * Incremented when the query stops (no subscribers left), so a run started before doesn't
+     * deliver its result.
+     */
+    private int mGeneration;
+
+    /** Number of runs, for the tests */
+    private int mRunCount;
+
+    private final ContentObserver mObserver;
+
+    private final Runnable mRun = new Runnable() {
+        @Override
+        public void run() {
+            startRun();
+        }
+    };
+
+    ObservableQuery(Query<T> query, ContentResolver contentResolver, Executor executor,
+                    Handler mainHandler, long debounceMillis, Runnable onInactive) {
+        mQuery = query;
+        mContentResolver = contentResolver;
+        mExecutor = executor;
+        mMainHandler = mainHandler;
+        mDebounceMillis = debounceMillis;
+        mOnInactive = onInactive;
+        // The notifications come on the main thread, like everything else here but the runs
+        mObserver = new ContentObserver(mainHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onDataChanged();
+            }
+        };
+    }
+
+    /**
+     * Subscribes to the results. The observer gets the last result right away if there is one
+     * (otherwise after the first run), then each new one.
+     */
+    public Subscription subscribe(final Observer<T> observer) {
+        final Subscription subscription = new Subscription(observer);
+        mSubscriptions.add(subscription);
+        if (mSubscriptions.size() == 1) {
+            mContentResolver.registerContentObserver(mQuery.getUri(), true, mObserver);
+            startRun();
+        } else if (mHasResult) {
+            final T result = mResult;
+            // Posted, so the observer isn't called before subscribe() returns
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mSubscriptions.contains(subscription)) {
+                        observer.onChanged(result);
+                    }
+                }
+            });
+        }
+        return subscription;
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        if (!mSubscriptions.remove(subscription) || !mSubscriptions.isEmpty()) {
+            return;
+        }
+        // Nobody is left: stop watching, and forget the result (it would get old)
+        mContentResolver.unregisterContentObserver(mObserver);
+        mMainHandler.removeCallbacks(mRun);
+        mScheduled = false;
+        mChangedWhileRunning = false;
+        mResult = null;
+        mHasResult = false;
+        mGeneration++;
+        if (mOnInactive != null) {
+            mOnInactive.run();
+        }
+    }
+
+    /**
+     * Returns the last result, null before the first one.
+     */
+    public T getResult() {
+        return mResult;
+    }
+
+    /**
+     * Returns the number of subscriptions.
+     */
+    int getSubscriberCount() {
+        return mSubscriptions.size();
+    }
+
+    /**
+     * Returns the number of runs started. For the tests.
+     */
+    int getRunCount() {
+        return mRunCount;
+    }
+
+    private void onDataChanged() {
+        if (mSubscriptions.isEmpty()) {
+            return;
+        }
+        if (mRunning) {
+            mChangedWhileRunning = true;
+        } else if (!mScheduled) {
+            mScheduled = true;
+            mMainHandler.postDelayed(mRun, mDebounceMillis);
+        }
+    }
+
+    private void startRun() {
+        mScheduled = false;
+        if (mRunning) {
+            // One run at a time, the next one follows it
+            mChangedWhileRunning = true;
+            return;
+        }
+        mRunning = true;
+        mRunCount++;
+        final int generation = mGeneration;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                boolean ok = false;
+                try {
+                    result = mQuery.run(mContentResolver);
+                    ok = true;
+                } catch (RuntimeException e) {
+                    // The subscribers keep the last result, the next change tries again
+                    Log.e(LOG_TAG, "Failed to run the query of " + mQuery.getUri(), e);
+                }
+                final T finalResult = result;
+                final boolean finalOk = ok;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRunFinished(generation, finalResult, finalOk);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onRunFinished(int generation, T result, boolean ok) {
+        mRunning = false;
+        if (generation != mGeneration) {
+            // Stopped meanwhile. Started again since? Then it waited for this run to end.
+            mChangedWhileRunning = false;
+            if (!mSubscriptions.isEmpty()) {
+                startRun();
+            }
+            return;
+        }
+        if (ok) {
+            mResult = result;
+            mHasResult = true;
+            for (Subscription subscription : new ArrayList<>(mSubscriptions)) {
+                // An observer may unsubscribe the others
+                if (mSubscriptions.contains(subscription)) {
+                    subscription.mObserver.onChanged(result);
+                }
+            }
+        }
+        if (mChangedWhileRunning) {
+            mChangedWhileRunning = false;
+            if (!mScheduled) {
+                mScheduled = true;
+                mMainHandler.postDelayed(mRun, mDebounceMillis);
+            }
+        }
+    }
+}
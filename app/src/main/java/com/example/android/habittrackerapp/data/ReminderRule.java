@@ -0,0 +1,144 @@
+package com.example.android.habittrackerapp.data;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * When a habit reminds the user: a time of the day (in local time) and the days of the week,
+ * e.g. "every day at 08:00" or "3 times a week at 19:30" (Monday, Wednesday and Friday).
+ *
+ * Stored in {@link HabitContract.HabitEntry#COLUMN_REMINDER_TIME} and
+ * {@link HabitContract.HabitEntry#COLUMN_REMINDER_DAYS}. Plain Java, no Android classes, so the
+ * scheduling can be tested on the JVM.
+ */
+public final class ReminderRule {
+
+    /** Minutes in a day, the times of the day are below */
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    /** Days mask of every day of the week */
+    public static final int EVERY_DAY = 0x7f;
+
+    /** Minutes after midnight */
+    private final int mMinuteOfDay;
+
+    /** Bit (d - 1) is set for the {@link Calendar#DAY_OF_WEEK} d: bit 0 is Sunday */
+    private final int mDays;
+
+    /**
+     * @param minuteOfDay minutes after midnight, e.g. 8 * 60 for 08:00
+     * @param days        the days of the week, bit 0 for Sunday to bit 6 for Saturday
+     */
+    public ReminderRule(int minuteOfDay, int days) {
+        if (!isValidMinuteOfDay(minuteOfDay)) {
+            throw new IllegalArgumentException("Bad reminder time " + minuteOfDay);
+        }
+        if (!isValidDays(days)) {
+            throw new IllegalArgumentException("Bad reminder days " + days);
+        }
+        mMinuteOfDay = minuteOfDay;
+        mDays = days;
+    }
+
+    /**
+     * Returns the rule reminding every day at the given time.
+     */
+    public static ReminderRule daily(int minuteOfDay) {
+        return new ReminderRule(minuteOfDay, EVERY_DAY);
+    }
+
+    /**
+     * Returns the rule reminding the given number of times a week, on days spread over the week
+     * from Monday (3 times: Monday, Wednesday, Friday).
+     */
+    public static ReminderRule timesPerWeek(int times, int minuteOfDay) {
+        if (times < 1 || times > 7) {
+            throw new IllegalArgumentException("Bad times per week " + times);
+        }
+        int days = 0;
+        for (int i = 0; i < times; i++) {
+            // Days from Monday, wrapping to Sunday
+            int day = (Calendar.MONDAY - 1 + i * 7 / times) % 7;
+            days |= 1 << day;
+        }
+        return new ReminderRule(minuteOfDay, days);
+    }
+
+    /**
+     * Returns the rule stored in the columns of a habit, null if it has no reminder.
+     *
+     * @param minuteOfDay the reminder time column, null for no reminder
+     * @param days        the reminder days column, null for every day
+     */
+    public static ReminderRule fromColumns(Integer minuteOfDay, Integer days) {
+        if (minuteOfDay == null) {
+            return null;
+        }
+        return new ReminderRule(minuteOfDay, days == null ? EVERY_DAY : days);
+    }
+
+    static boolean isValidMinuteOfDay(int minuteOfDay) {
+        return minuteOfDay >= 0 && minuteOfDay < MINUTES_PER_DAY;
+    }
+
+    static boolean isValidDays(int days) {
+        return days > 0 && (days & ~EVERY_DAY) == 0;
+    }
+
+    public int getMinuteOfDay() {
+        return mMinuteOfDay;
+    }
+
+    public int getDays() {
+        return mDays;
+    }
+
+    /**
+     * Returns the first time strictly after the given one the habit reminds the user, in
+     * milliseconds. On a day where the clocks skip that time (daylight saving), the reminder
+     * comes as much later.
+     */
+    public long nextAfter(long timeMillis, TimeZone timeZone) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(timeMillis);
+        int year = calendar.get(Calendar.YEAR);
+        int dayOfYear = calendar.get(Calendar.DAY_OF_YEAR);
+
+        // Today, if the time hasn't passed yet, or one of the next 7 days
+        for (int i = 0; i <= 7; i++) {
+            calendar.clear();
+            calendar.set(Calendar.YEAR, year);
+            calendar.set(Calendar.DAY_OF_YEAR, dayOfYear + i);
+            calendar.set(Calendar.HOUR_OF_DAY, mMinuteOfDay / 60);
+            calendar.set(Calendar.MINUTE, mMinuteOfDay % 60);
+            long candidate = calendar.getTimeInMillis();
+            int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+            if (candidate > timeMillis && (mDays & (1 << (dayOfWeek - 1))) != 0) {
+                return candidate;
+            }
+        }
+        // Can't happen, every rule has a day
+        throw new IllegalStateException("No reminder day in " + this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ReminderRule)) {
+            return false;
+        }
+        ReminderRule rule = (ReminderRule) o;
+        return mMinuteOfDay == rule.mMinuteOfDay && mDays == rule.mDays;
+    }
+
+    @Override
+    public int hashCode() {
+        return mMinuteOfDay * 128 + mDays;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%02d:%02d days=%s", mMinuteOfDay / 60, mMinuteOfDay % 60,
+                Integer.toBinaryString(mDays));
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.android.habittrackerapp.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+
+/**
+ * Keeps the next reminder of every habit in a priority queue ordered by due time, and only
+ * asks the system for one wakeup: the earliest one.
+ *
+ * Changing the reminder of one habit computes its next time only (O(log n)), the other habits
+ * keep theirs. Its old entry stays in the queue, marked as replaced, and is dropped when it
+ * comes up (or when the replaced entries outnumber the live ones). The wakeup is only
+ * registered again when the earliest time changed; between {@link #beginBatch()} and
+ * {@link #endBatch()} not at all until the end, so a batch of changes costs one registration.
+ *
+ * Plain Java, not thread-safe: {@link HabitReminders} guards it.
+ */
+public final class ReminderScheduler {
+
+    /** No wakeup: there is no reminder */
+    public static final long NONE = -1;
+
+    /** Number of replaced entries the queue keeps before it is rebuilt without them */
+    private static final int MIN_GARBAGE_BEFORE_REBUILD = 64;
+
+    /**
+     * Asks the system to wake the app up.
+     */
+    public interface Wakeup {
+        /**
+         * Wakes the app up at the given time, instead of the time registered before.
+         */
+        void schedule(long timeMillis);
+
+        /**
+         * Cancels the registered wakeup.
+         */
+        void cancel();
+    }
+
+    /**
+     * The next reminder of one habit.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        final long mHabitId;
+        final ReminderRule mRule;
+        final long mDueAt;
+        /** Set when the habit got another entry, or lost its reminder */
+        boolean mReplaced;
+
+        Entry(long habitId, ReminderRule rule, long dueAt) {
+            mHabitId = habitId;
+            mRule = rule;
+            mDueAt = dueAt;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (mDueAt != other.mDueAt) {
+                return mDueAt < other.mDueAt ? -1 : 1;
+            }
+            return mHabitId < other.mHabitId ? -1 : (mHabitId == other.mHabitId ? 0 : 1);
+        }
+    }
+
+    private final Wakeup mWakeup;
+
+    private TimeZone mTimeZone;
+
+    /** Every entry, the replaced ones too, earliest first */
+    private PriorityQueue<Entry> mQueue = new PriorityQueue<>();
+
+    /** The live entry of every habit with a reminder */
+    private final Map<Long, Entry> mEntries = new HashMap<>();
+
+    /** Number of replaced entries still in the queue */
+    private int mGarbage;
+
+    /** The time registered with the system, {@link #NONE} if none */
+    private long mRegistered = NONE;
+
+    /** Depth of the batches in progress, see {@link #beginBatch()} */
+    private int mBatchDepth;
+
+    /**
+     * @param timeZone the time zone of the reminder times
+     * @param wakeup   registers the earliest wakeup
+     */
+    public ReminderScheduler(TimeZone timeZone, Wakeup wakeup) {
+        mTimeZone = timeZone;
+        mWakeup = wakeup;
+    }
+
+    /**
+     * Sets the reminder of the habit, replacing the one it had.
+     *
+     * @param rule the reminder, null to remove it
+     * @param now  the current time, the reminder is due after it
+     */
+    public void set(long habitId, ReminderRule rule, long now) {
+        Entry old = mEntries.get(habitId);
+        if (old != null && old.mRule.equals(rule)) {
+            return;
+        }
+        replace(old);
+        if (rule != null) {
+            add(new Entry(habitId, rule, rule.nextAfter(now, mTimeZone)));
+        }
+        register();
+    }
+
+    /**
+     * Removes the reminder of the habit, if it had one.
+     */
+    public void remove(long habitId) {
+        Entry old = mEntries.get(habitId);
+        if (old != null) {
+            replace(old);
+            register();
+        }
+    }
+
+    /**
+     * Removes every reminder.
+     */
+    public void clear() {
+        mQueue.clear();
+        mEntries.clear();
+        mGarbage = 0;
+        register();
+    }
+
+    /**
+     * Changes the time zone of the reminder times (the user traveled, or changed it): every
+     * reminder is computed again.
+     */
+    public void setTimeZone(TimeZone timeZone, long now) {
+        mTimeZone = timeZone;
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+        mQueue.clear();
+        mEntries.clear();
+        mGarbage = 0;
+        for (Entry entry : entries) {
+            add(new Entry(entry.mHabitId, entry.mRule, entry.mRule.nextAfter(now, timeZone)));
+        }
+        register();
+    }
+
+    /**
+     * Returns the habits whose reminder is due, and moves each of them on to its next time.
+     *
+     * @param now         the current time
+     * @param maxLateness reminders due longer ago than this are skipped (they were missed, e.g.
+     *                    the device was off), not returned
+     * @return the ids of the habits to remind the user about, earliest first
+     */
+    public long[] pollDue(long now, long maxLateness) {
+        beginBatch();
+        try {
+            long[] due = new long[0];
+            int count = 0;
+            Entry head;
+            while ((head = peek()) != null && head.mDueAt <= now) {
+                mQueue.poll();
+                mEntries.remove(head.mHabitId);
+                if (now - head.mDueAt <= maxLateness) {
+                    if (count == due.length) {
+                        long[] grown = new long[Math.max(4, count * 2)];
+                        System.arraycopy(due, 0, grown, 0, count);
+                        due = grown;
+                    }
+                    due[count++] = head.mHabitId;
+                }
+                add(new Entry(head.mHabitId, head.mRule, head.mRule.nextAfter(now, mTimeZone)));
+            }
+            long[] result = new long[count];
+            System.arraycopy(due, 0, result, 0, count);
+            return result;
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Returns the time of the earliest reminder, {@link #NONE} if there is none.
+     */
+    public long getNextWakeup() {
+        Entry head = peek();
+        return head == null ? NONE : head.mDueAt;
+    }
+
+    /**
+     * Returns the time of the next reminder of the habit, {@link #NONE} if it has none.
+     */
+    public long getNextReminder(long habitId) {
+        Entry entry = mEntries.get(habitId);
+        return entry == null ? NONE : entry.mDueAt;
+    }
+
+    /**
+     * Returns the number of habits with a reminder.
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Starts a batch of changes: the wakeup is only registered at the end. Batches nest.
+     */
+    public void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends a batch of changes, registering the earliest wakeup if it changed.
+     */
+    public void endBatch() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException("No batch in progress");
+        }
+        mBatchDepth--;
+        register();
+    }
+
+    /**
+     * Forgets the registered wakeup and registers the earliest one again, e.g. after a reboot
+     * (the system dropped it).
+     */
+    public void reregister() {
+        mRegistered = NONE;
+        register();
+    }
+
+    private void add(Entry entry) {
+        mEntries.put(entry.mHabitId, entry);
+        mQueue.add(entry);
+    }
+
+    private void replace(Entry old) {
+        if (old == null) {
+            return;
+        }
+        old.mReplaced = true;
+        mEntries.remove(old.mHabitId);
+        mGarbage++;
+        if (mGarbage >= MIN_GARBAGE_BEFORE_REBUILD && mGarbage > mEntries.size()) {
+            // Mostly replaced entries: rebuild the queue from the live ones, O(n)
+            mQueue = new PriorityQueue<>(mEntries.size() + 1, mQueue.comparator());
+            mQueue.addAll(mEntries.values());
+            mGarbage = 0;
+        }
+    }
+
+    /**
+     * Returns the earliest live entry, dropping the replaced ones before it.
+     */
+    private Entry peek() {
+        Entry head;
+        while ((head = mQueue.peek()) != null && head.mReplaced) {
+            mQueue.poll();
+            mGarbage--;
+        }
+        return head;
+    }
+
+    private void register() {
+        if (mBatchDepth > 0) {
+            return;
+        }
+        long next = getNextWakeup();
+        if (next == mRegistered) {
+            return;
+        }
+        mRegistered = next;
+        if (next == NONE) {
+            mWakeup.cancel();
+        } else {
+            mWakeup.schedule(next);
+        }
+    }
+}
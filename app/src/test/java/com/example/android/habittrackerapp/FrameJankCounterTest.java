@@ -0,0 +1,65 @@
+package com.example.android.habittrackerapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Feeds {@link FrameJankCounter} with made-up frame times and checks what it counts.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class FrameJankCounterTest {
+
+    private static final long PERIOD = FrameJankCounter.DEFAULT_FRAME_PERIOD_NANOS;
+
+    @Test
+    public void framesOnTime_areNotJanky() throws Exception {
+        FrameJankCounter counter = new FrameJankCounter(PERIOD);
+        long time = 1000;
+        for (int i = 0; i <= 60; i++) {
+            // A little early or late, as the vsync times are
+            counter.onFrame(time + (i % 2 == 0 ? 0 : PERIOD / 10));
+            time += PERIOD;
+        }
+
+        assertEquals(60, counter.getFrames());
+        assertEquals(0, counter.getJankyFrames());
+        assertEquals(0, counter.getSkippedFrames());
+    }
+
+    @Test
+    public void lateFrames_countTheSkippedPeriods() throws Exception {
+        FrameJankCounter counter = new FrameJankCounter(PERIOD);
+        counter.onFrame(1000);
+        counter.onFrame(1000 + PERIOD);
+        // One period skipped
+        counter.onFrame(1000 + 3 * PERIOD);
+        // Four periods skipped
+        counter.onFrame(1000 + 8 * PERIOD);
+
+        assertEquals(3, counter.getFrames());
+        assertEquals(2, counter.getJankyFrames());
+        assertEquals(5, counter.getSkippedFrames());
+        assertEquals(5 * PERIOD, counter.getWorstFrameNanos());
+    }
+
+    @Test
+    public void reset_forgetsTheFrames() throws Exception {
+        FrameJankCounter counter = new FrameJankCounter(PERIOD);
+        counter.onFrame(1000);
+        counter.onFrame(1000 + 4 * PERIOD);
+        counter.reset();
+
+        // The first frame after a reset has nothing to be compared with
+        counter.onFrame(1000 + 10 * PERIOD);
+        counter.onFrame(1000 + 11 * PERIOD);
+
+        assertEquals(1, counter.getFrames());
+        assertEquals(0, counter.getJankyFrames());
+        assertEquals(PERIOD, counter.getWorstFrameNanos());
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.habittrackerapp;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Saves the top habits with {@link HabitListSnapshot} and reads them back.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitListSnapshotTest {
+
+    private static final String[] COLUMNS = {"_id", "name", "importance", "streak"};
+
+    private File mFile;
+
+    /** The saves waiting to run */
+    private final List<Runnable> mSaves = new ArrayList<>();
+
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mSaves.add(command);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mFile = new File(RuntimeEnvironment.application.getCacheDir(), "habit-list-snapshot-test");
+        mFile.delete();
+    }
+
+    @Test
+    public void savedHabits_areReadBack() {
+        HabitListSnapshot snapshot = new HabitListSnapshot(mFile, COLUMNS, mExecutor);
+        assertNull(snapshot.read());
+
+        MatrixCursor page = new MatrixCursor(COLUMNS);
+        for (int i = 1; i <= 30; i++) {
+            page.addRow(new Object[]{i, "H\u00e1bito " + i, i % 10, i % 3 == 0 ? null : i * 2});
+        }
+        snapshot.save(page);
+        runSaves();
+
+        Cursor cursor = new HabitListSnapshot(mFile, COLUMNS, mExecutor).read();
+        try {
+            // Only the first screen is kept
+            assertEquals(HabitListSnapshot.MAX_ROWS, cursor.getCount());
+            assertTrue(cursor.moveToPosition(2));
+            assertEquals(3, cursor.getLong(0));
+            assertEquals("H\u00e1bito 3", cursor.getString(1));
+            assertEquals(3, cursor.getInt(2));
+            assertTrue(cursor.isNull(3));
+            assertTrue(cursor.moveToPosition(3));
+            assertEquals(8, cursor.getLong(3));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void unchangedHabits_areNotSavedAgain() {
+        HabitListSnapshot snapshot = new HabitListSnapshot(mFile, COLUMNS, mExecutor);
+        MatrixCursor page = new MatrixCursor(COLUMNS);
+        page.addRow(new Object[]{1, "Read", 5, 2});
+
+        snapshot.save(page);
+        snapshot.save(page);
+        assertEquals(1, mSaves.size());
+        runSaves();
+
+        // Neither after a start that read them
+        HabitListSnapshot restarted = new HabitListSnapshot(mFile, COLUMNS, mExecutor);
+        restarted.read().close();
+        restarted.save(page);
+        assertEquals(0, mSaves.size());
+
+        page.addRow(new Object[]{2, "Walk", 1, null});
+        restarted.save(page);
+        assertEquals(1, mSaves.size());
+    }
+
+    @Test
+    public void otherColumnsOrDamagedFile_areIgnored() throws Exception {
+        HabitListSnapshot snapshot = new HabitListSnapshot(mFile, COLUMNS, mExecutor);
+        MatrixCursor page = new MatrixCursor(COLUMNS);
+        page.addRow(new Object[]{1, "Read", 5, 2});
+        snapshot.save(page);
+        runSaves();
+
+        // A newer version of the list, with another column
+        String[] otherColumns = {"_id", "name", "importance", "streak", "reminder"};
+        assertNull(new HabitListSnapshot(mFile, otherColumns, mExecutor).read());
+
+        // Cut in the middle of the row
+        long length = mFile.length();
+        FileOutputStream output = new FileOutputStream(mFile, true);
+        output.getChannel().truncate(length - 3);
+        output.close();
+        assertNull(new HabitListSnapshot(mFile, COLUMNS, mExecutor).read());
+    }
+
+    private void runSaves() {
+        for (Runnable save : mSaves) {
+            save.run();
+        }
+        mSaves.clear();
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.android.habittrackerapp.data;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Times benchmark operations and writes one JSON object per result line (JSON Lines), so the
+ * results of every run can be appended to the same file and compared over time.
+ *
+ * Each line looks like:
+ * {"suite":"habit-data","benchmark":"query_habit_id","rows":1000,"ops":2000,"p50_ns":8200,
+ * "p90_ns":11000,"mean_ns":9100,"alloc_bytes":1480,"seed":42,"timestamp":1530000000000}
+ *
+ * alloc_bytes is the mean number of bytes the thread allocated per run, the garbage the
+ * operation leaves behind; -1 when the JVM can't tell.
+ */
+public class BenchmarkReport {
+
+    /**
+     * One benchmarked operation.
+     */
+    public interface Operation {
+        void run(int iteration);
+    }
+
+    private final String mSuite;
+    private final long mSeed;
+    private final File mOutput;
+
+    /**
+     * @param output the file the results are appended to, null to only print them
+     */
+    public BenchmarkReport(String suite, long seed, File output) {
+        mSuite = suite;
+        mSeed = seed;
+        mOutput = output;
+    }
+
+    /**
+     * Runs the operation {@code warmup} times unmeasured, to let the JIT and the SQLite page
+     * cache settle, then {@code ops} times measured, and reports the latency of one run.
+     *
+     * @return the median latency, in nanoseconds
+     */
+    public long measure(String benchmark, int rows, int warmup, int ops, Operation operation)
+            throws IOException {
+        for (int i = 0; i < warmup; i++) {
+            operation.run(i);
+        }
+
+        long[] latencies = new long[ops];
+        long allocated = allocatedBytes();
+        for (int i = 0; i < ops; i++) {
+            long start = System.nanoTime();
+            operation.run(warmup + i);
+            latencies[i] = System.nanoTime() - start;
+        }
+        long allocBytes = allocated == -1 ? -1 : (allocatedBytes() - allocated) / ops;
+        return report(benchmark, rows, latencies, allocBytes);
+    }
+
+    /**
+     * Returns the number of bytes the current thread allocated so far, -1 if the JVM doesn't
+     * count them.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported()
+                || !allocations.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Prints and appends the result line.
+     *
+     * @return the median latency
+     */
+    private long report(String benchmark, int rows, long[] latencies, long allocBytes)
+            throws IOException {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long latency : sorted) {
+            total += latency;
+        }
+
+        String line = String.format(Locale.US, "{\"suite\":\"%s\",\"benchmark\":\"%s\",\"rows\":%d,"
+                        + "\"ops\":%d,\"p50_ns\":%d,\"p90_ns\":%d,\"mean_ns\":%d,\"alloc_bytes\":%d,"
+                        + "\"seed\":%d,\"timestamp\":%d}",
+                mSuite, benchmark, rows, sorted.length, sorted[sorted.length / 2],
+                sorted[sorted.length * 9 / 10], total / sorted.length, allocBytes, mSeed,
+                System.currentTimeMillis());
+        System.out.println(line);
+
+        if (mOutput != null) {
+            File parent = mOutput.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Cannot create " + parent);
+            }
+            Writer writer = new FileWriter(mOutput, true);
+            try {
+                writer.write(line);
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+        }
+        return sorted[sorted.length / 2];
+    }
+}
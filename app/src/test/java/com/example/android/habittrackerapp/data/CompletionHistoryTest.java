@@ -0,0 +1,136 @@
+package com.example.android.habittrackerapp.data;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the word-level queries of {@link CompletionHistory} and {@link CompletionBitmap}
+ * against the same queries done one day at a time.
+ */
+public class CompletionHistoryTest {
+
+    /** 2018-01-01 */
+    private static final long JANUARY_1_2018 = 17532;
+
+    @Test
+    public void years_startOnTheFirstOfJanuary() throws Exception {
+        assertEquals(0, CompletionBitmap.firstDayOfYear(1970));
+        assertEquals(JANUARY_1_2018, CompletionBitmap.firstDayOfYear(2018));
+        assertEquals(-365, CompletionBitmap.firstDayOfYear(1969));
+        assertEquals(2018, CompletionBitmap.yearOf(JANUARY_1_2018));
+        assertEquals(2017, CompletionBitmap.yearOf(JANUARY_1_2018 - 1));
+        assertEquals(1969, CompletionBitmap.yearOf(-1));
+        assertEquals(366, new CompletionBitmap(2000).getLength());
+        assertEquals(365, new CompletionBitmap(2100).getLength());
+        assertEquals(366, new CompletionBitmap(2020).getLength());
+    }
+
+    @Test
+    public void blob_keepsTheDays_inAFewBytes() throws Exception {
+        CompletionBitmap bitmap = new CompletionBitmap(2018);
+        assertEquals(0, bitmap.toBlob().length);
+
+        bitmap.setDone(JANUARY_1_2018, true);
+        bitmap.setDone(JANUARY_1_2018 + 20, true);
+        // Only January: three bytes
+        assertEquals(3, bitmap.toBlob().length);
+
+        bitmap.setDone(JANUARY_1_2018 + 364, true);
+        byte[] blob = bitmap.toBlob();
+        assertTrue(blob.length + " bytes", blob.length <= 46);
+        CompletionBitmap read = CompletionBitmap.fromBlob(2018, blob);
+        assertEquals(bitmap, read);
+        assertTrue(read.isDone(JANUARY_1_2018 + 364));
+        assertFalse(read.isDone(JANUARY_1_2018 + 363));
+    }
+
+    @Test
+    public void streaks_goOnOverTheNewYear() throws Exception {
+        CompletionHistory history = new CompletionHistory();
+        // 28 December 2017 to 3 January 2018
+        for (long day = JANUARY_1_2018 - 4; day <= JANUARY_1_2018 + 2; day++) {
+            history.setDone(day, true);
+        }
+
+        assertEquals(7, history.streakEndingOn(JANUARY_1_2018 + 2));
+        assertEquals(7, history.currentStreak(JANUARY_1_2018 + 3));
+        assertEquals(0, history.currentStreak(JANUARY_1_2018 + 4));
+        assertEquals(7, history.longestStreak());
+        assertEquals(3, history.countDone(JANUARY_1_2018, JANUARY_1_2018 + 30));
+
+        // A whole year done, between two runs
+        for (long day = JANUARY_1_2018 + 3; day < JANUARY_1_2018 + 365 + 10; day++) {
+            history.setDone(day, true);
+        }
+        assertEquals(4 + 365 + 10, history.longestStreak());
+        assertEquals(4 + 365 + 10, history.streakEndingOn(JANUARY_1_2018 + 365 + 9));
+    }
+
+    @Test
+    public void randomHistories_giveTheSameAnswersAsDayByDay() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            CompletionHistory history = new CompletionHistory();
+            TreeSet<Long> done = new TreeSet<>();
+            // Runs of done days over three years, longer runs in some rounds
+            long first = JANUARY_1_2018 - 365;
+            int runLength = 1 + random.nextInt(round % 5 == 0 ? 200 : 10);
+            for (long day = first; day < first + 3 * 365; day++) {
+                if (random.nextInt(runLength + 1) != 0) {
+                    history.setDone(day, true);
+                    done.add(day);
+                }
+            }
+            // Undo a few
+            for (int i = 0; i < 20; i++) {
+                long day = first + random.nextInt(3 * 365);
+                history.setDone(day, false);
+                done.remove(day);
+            }
+
+            assertEquals(longestStreak(done), history.longestStreak());
+            for (int i = 0; i < 20; i++) {
+                long from = first - 10 + random.nextInt(3 * 365 + 20);
+                long to = from + random.nextInt(400);
+                assertEquals(done.subSet(from, true, to, true).size(), history.countDone(from, to));
+                assertEquals(streakEndingOn(done, to), history.streakEndingOn(to));
+                assertArrayEquals(days(done, from, to), history.getDays(from, to));
+            }
+        }
+    }
+
+    private static int longestStreak(TreeSet<Long> done) {
+        int longest = 0;
+        int run = 0;
+        Long previous = null;
+        for (Long day : done) {
+            run = previous != null && day == previous + 1 ? run + 1 : 1;
+            longest = Math.max(longest, run);
+            previous = day;
+        }
+        return longest;
+    }
+
+    private static int streakEndingOn(TreeSet<Long> done, long day) {
+        int streak = 0;
+        while (done.contains(day - streak)) {
+            streak++;
+        }
+        return streak;
+    }
+
+    private static long[] days(TreeSet<Long> done, long from, long to) {
+        long[] days = new long[(int) ((to - from) / 64 + 1)];
+        for (long day : done.subSet(from, true, to, true)) {
+            days[(int) ((day - from) / 64)] |= 1L << ((day - from) % 64);
+        }
+        return days;
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Updates and deletes the habits selected by id ({@link HabitEntry#QUERY_PARAM_IDS}) through
+ * {@link HabitDbHelper}, with few ids (bound as arguments) and more than SQLite takes (read
+ * from a temporary table).
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitBulkEditTest {
+
+    private static final String DATABASE_NAME = "habits-bulk-edit-test.db";
+
+    /** More habits than the arguments of one statement */
+    private static final int HABITS = 3000;
+
+    private Context mContext;
+    private HabitDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+        new HabitDataGenerator(42).fill(mHelper.getWriter(), HABITS);
+        mHelper.getWriter().execSQL("UPDATE " + HabitEntry.TABLE_HABIT + " SET "
+                + HabitEntry.COLUMN_IMPORTANCE + " = 0");
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void fewIds_updatesOnlyThem() {
+        long[] ids = {3, 10, 2999};
+        assertEquals(3, mHelper.update(HabitEntry.buildSelectionUri(ids), importance(7), null, null));
+
+        assertEquals(3, count(HabitEntry.COLUMN_IMPORTANCE + " = 7"));
+        assertEquals(3, count(HabitEntry.COLUMN_IMPORTANCE + " = 7 AND "
+                + HabitEntry._ID + " IN (3, 10, 2999)"));
+    }
+
+    @Test
+    public void manyIds_updatesOnlyThem() {
+        // Every odd id, more ids than arguments
+        long[] ids = new long[HABITS / 2];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 2 * i + 1;
+        }
+        assertEquals(ids.length, mHelper.update(HabitEntry.buildSelectionUri(ids), importance(9),
+                null, null));
+
+        assertEquals(ids.length, count(HabitEntry.COLUMN_IMPORTANCE + " = 9"));
+        assertEquals(ids.length, count(HabitEntry.COLUMN_IMPORTANCE + " = 9 AND "
+                + HabitEntry._ID + " % 2 = 1"));
+        // The temporary table was emptied in the same transaction
+        assertEquals(0, DatabaseUtils.longForQuery(mHelper.getWriter(),
+                "SELECT COUNT(*) FROM " + HabitSelection.TABLE_SELECTION, null));
+    }
+
+    @Test
+    public void selection_restrictsTheIds() {
+        mHelper.getWriter().execSQL("UPDATE " + HabitEntry.TABLE_HABIT + " SET "
+                + HabitEntry.COLUMN_IMPORTANCE + " = 1 WHERE " + HabitEntry._ID + " <= 100");
+        long[] few = {1, 2, 200};
+        long[] many = new long[HABITS];
+        for (int i = 0; i < many.length; i++) {
+            many[i] = i + 1;
+        }
+        String selection = HabitEntry.COLUMN_IMPORTANCE + " = ?";
+
+        assertEquals(2, mHelper.update(HabitEntry.buildSelectionUri(few), importance(5),
+                selection, new String[]{"1"}));
+        assertEquals(98, mHelper.update(HabitEntry.buildSelectionUri(many), importance(5),
+                selection, new String[]{"1"}));
+        assertEquals(100, count(HabitEntry.COLUMN_IMPORTANCE + " = 5"));
+    }
+
+    @Test
+    public void delete_marksTheSelectedHabitsOnly() {
+        long[] ids = new long[1200];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = HABITS - i;
+        }
+        assertEquals(ids.length, mHelper.delete(HabitEntry.buildSelectionUri(ids), null, null));
+        assertEquals(ids.length, count(HabitEntry.COLUMN_DELETED_AT + " IS NOT NULL AND "
+                + HabitEntry._ID + " > " + (HABITS - ids.length)));
+        assertEquals(HABITS - ids.length, count(HabitDbHelper.NOT_DELETED));
+
+        // The deleted ones can't be updated any more, the others still can
+        assertEquals(1, mHelper.update(HabitEntry.buildSelectionUri(new long[]{1, HABITS}),
+                importance(3), null, null));
+        assertEquals(0, mHelper.update(HabitEntry.buildSelectionUri(ids), importance(3), null, null));
+        // Nor deleted again
+        assertEquals(0, mHelper.delete(HabitEntry.buildSelectionUri(ids), null, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidId_isRejected() {
+        mHelper.update(HabitEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(HabitEntry.QUERY_PARAM_IDS, "1,two").build(), importance(3), null, null);
+    }
+
+    private static ContentValues importance(int importance) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_IMPORTANCE, importance);
+        return values;
+    }
+
+    /**
+     * Returns the number of habits, deleted or not, matching the selection.
+     */
+    private long count(String selection) {
+        Cursor cursor = mHelper.getReader().query(HabitEntry.TABLE_HABIT, new String[]{HabitEntry._ID},
+                selection, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
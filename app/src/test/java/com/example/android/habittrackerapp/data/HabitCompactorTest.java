@@ -0,0 +1,174 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Deletes habits through {@link HabitDbHelper} and purges them with {@link HabitCompactor}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitCompactorTest {
+
+    private static final String DATABASE_NAME = "habits-compactor-test.db";
+
+    private Context mContext;
+    private HabitDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void deletedHabit_isHiddenRightAway() {
+        long kept = insertHabit("Read a book", 3);
+        long deleted = insertHabit("Read the news", 5);
+        addCheckins(deleted, 3);
+
+        assertEquals(1, mHelper.delete(habitUri(deleted), null, null));
+        // Deleting it again finds nothing, and it can't be updated any more
+        assertEquals(0, mHelper.delete(habitUri(deleted), null, null));
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_IMPORTANCE, 9);
+        assertEquals(0, mHelper.update(habitUri(deleted), values, null, null));
+
+        assertEquals(String.valueOf(kept), ids(HabitEntry.CONTENT_URI));
+        assertEquals(String.valueOf(kept), ids(HabitEntry.buildPageUri(
+                HabitEntry.buildOrderedUri(HabitEntry.CONTENT_URI, HabitEntry.ORDER_NAME), 10)));
+        assertEquals(String.valueOf(kept), ids(SummaryEntry.CONTENT_URI));
+        assertEquals(String.valueOf(kept), ids(HabitEntry.buildSearchUri("read")));
+        assertEquals("", ids(habitUri(deleted)));
+        assertEquals(1, mHelper.getRowCount(HabitEntry.TABLE_HABIT));
+
+        // Only marked: the row and its check-ins are still there until the purge
+        assertEquals(2, count(HabitEntry.TABLE_HABIT));
+        assertEquals(3, count(CheckinEntry.TABLE_CHECKINS));
+    }
+
+    @Test
+    public void purge_deletesInBatches() {
+        long kept = insertHabit("Walk", 1);
+        addCheckins(kept, 4);
+        long deleted = insertHabit("Run", 2);
+        addCheckins(deleted, 25);
+        mHelper.delete(habitUri(deleted), null, null);
+
+        HabitCompactor compactor = new HabitCompactor(mHelper).setBatchSize(10);
+        assertEquals(10, compactor.purgeBatch());
+        assertEquals(10, compactor.purgeBatch());
+        // The last 5 check-ins, then the habit
+        assertEquals(6, compactor.purgeBatch());
+        assertEquals(0, compactor.purgeBatch());
+
+        assertEquals(1, count(HabitEntry.TABLE_HABIT));
+        assertEquals(4, count(CheckinEntry.TABLE_CHECKINS));
+        assertEquals(1, count(SummaryEntry.TABLE_SUMMARY));
+        assertEquals(1, count(HabitEntry.TABLE_SEARCH));
+        // The counters didn't count the tombstone twice
+        assertEquals(1, mHelper.getRowCount(HabitEntry.TABLE_HABIT));
+        assertEquals(4, mHelper.getRowCount(CheckinEntry.TABLE_CHECKINS));
+    }
+
+    @Test
+    public void compact_givesTheFreePagesBack() {
+        HabitDataGenerator generator = new HabitDataGenerator(42);
+        generator.fill(mHelper.getWriter(), 2000);
+        generator.fillCheckins(mHelper.getWriter(), 2000, 20000, 17000);
+        mHelper.delete(HabitEntry.CONTENT_URI, HabitEntry._ID + " > ?", new String[]{"100"});
+
+        HabitCompactor compactor = new HabitCompactor(mHelper);
+        // The first vacuum turns incremental vacuuming on
+        compactor.vacuum();
+        assertEquals(2, longForQuery("PRAGMA auto_vacuum"));
+
+        long pagesBefore = longForQuery("PRAGMA page_count");
+        assertTrue(compactor.compact() > 0);
+        assertEquals(0, longForQuery("PRAGMA freelist_count"));
+        assertTrue(longForQuery("PRAGMA page_count") < pagesBefore);
+
+        assertEquals(100, count(HabitEntry.TABLE_HABIT));
+        assertFalse(hasCheckinsAbove(100));
+    }
+
+    private long insertHabit(String name, int importance) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        values.put(HabitEntry.COLUMN_IMPORTANCE, importance);
+        return mHelper.insert(HabitEntry.CONTENT_URI, values);
+    }
+
+    private void addCheckins(long habitId, int days) {
+        ContentValues[] checkins = new ContentValues[days];
+        for (int day = 0; day < days; day++) {
+            checkins[day] = new ContentValues();
+            checkins[day].put(CheckinEntry.COLUMN_DAY, 17000 + day);
+        }
+        mHelper.appendCheckins(CheckinEntry.buildHabitCheckinsUri(habitId), checkins);
+    }
+
+    private static Uri habitUri(long id) {
+        return ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id);
+    }
+
+    /**
+     * Returns the ids of the habits of the query, comma separated.
+     */
+    private String ids(Uri uri) {
+        Cursor cursor = mHelper.query(uri, new String[]{HabitEntry.TABLE_HABIT + "." + HabitEntry._ID},
+                null, null, null);
+        StringBuilder ids = new StringBuilder();
+        try {
+            while (cursor.moveToNext()) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids.toString();
+    }
+
+    private long count(String table) {
+        return DatabaseUtils.queryNumEntries(mHelper.getReader(), table);
+    }
+
+    private boolean hasCheckinsAbove(long habitId) {
+        return DatabaseUtils.queryNumEntries(mHelper.getReader(), CheckinEntry.TABLE_CHECKINS,
+                CheckinEntry.COLUMN_HABIT_ID + " > " + habitId) > 0;
+    }
+
+    private long longForQuery(String sql) {
+        return DatabaseUtils.longForQuery(mHelper.getReader(), sql, null);
+    }
+}
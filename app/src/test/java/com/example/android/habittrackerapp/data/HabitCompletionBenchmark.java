@@ -0,0 +1,259 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the history queries of one habit (current and longest streak, done days in the last
+ * 30 days and a year heatmap) on the check-in rows, one row per day read from the
+ * (habit_id, day) index, and on the completion bitmaps of {@link HabitDbHelper#getCompletions}.
+ * Both give the same answers, checked before timing. Habits have 100 to 3,650 check-ins (ten
+ * years of daily use).
+ *
+ * The bitmaps are a second copy of the done days, kept next to the check-in log (which stays
+ * the source of truth: it has the times and the several check-ins of a day). Their size cost
+ * is printed too: how much the database grows, in whole pages, when they are built.
+ *
+ * Skipped by a normal test run, run it like {@link HabitDbHelperBenchmark}:
+ * ./gradlew testDebugUnitTest --tests '*HabitCompletionBenchmark' -Dhabit.benchmark=true
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitCompletionBenchmark {
+
+    private static final String DATABASE_NAME = "habits-completion-benchmark.db";
+
+    private static final long SEED = 42;
+
+    /** Check-ins per habit of the measured histories */
+    private static final int[] DEFAULT_SIZES = {100, 1000, 3650};
+
+    /** Habits of each history, the queries pick them in turn */
+    private static final int HABITS = 20;
+
+    /** First day of the histories, 2016-07-19 */
+    private static final long FIRST_DAY = 17000;
+
+    private static final int OPS = 500;
+    private static final int WARMUP = 100;
+
+    private Context mContext;
+    private BenchmarkReport mReport;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Benchmarks run with -Dhabit.benchmark=true",
+                Boolean.getBoolean("habit.benchmark"));
+        mContext = RuntimeEnvironment.application;
+        String output = System.getProperty("habit.benchmark.output");
+        mReport = new BenchmarkReport("habit-completion", SEED,
+                output == null || output.isEmpty() ? null : new File(output));
+    }
+
+    @Test
+    public void bitmapsAgainstRows() throws IOException {
+        for (int rows : readSizes()) {
+            mContext.deleteDatabase(DATABASE_NAME);
+            HabitDbHelper helper = new HabitDbHelper(mContext, DATABASE_NAME);
+            try {
+                HabitDataGenerator generator = new HabitDataGenerator(SEED);
+                generator.fill(helper.getWriter(), HABITS);
+                generator.fillCheckins(helper.getWriter(), HABITS, rows * HABITS, FIRST_DAY);
+                long withoutBitmaps = databaseBytes(helper.getWriter());
+                helper.rebuildCompletions();
+                long bitmapTableBytes = databaseBytes(helper.getWriter()) - withoutBitmaps;
+                System.out.println("habit-completion checkins_per_habit=" + rows
+                        + " database_bytes=" + withoutBitmaps
+                        + " bitmap_table_bytes=" + bitmapTableBytes
+                        + String.format(Locale.US, " overhead=%.1f%%", 100.0 * bitmapTableBytes / withoutBitmaps));
+                measure(helper, rows);
+            } finally {
+                helper.close();
+                mContext.deleteDatabase(DATABASE_NAME);
+            }
+        }
+    }
+
+    private void measure(final HabitDbHelper helper, int rows) throws IOException {
+        final SQLiteDatabase database = helper.getReader();
+        // The last day of the histories, the "today" of the queries
+        final long today = DatabaseUtils.longForQuery(database,
+                "SELECT MAX(" + CheckinEntry.COLUMN_DAY + ") FROM " + CheckinEntry.TABLE_CHECKINS, null);
+        final int year = CompletionBitmap.yearOf(today);
+        final long yearStart = CompletionBitmap.firstDayOfYear(year);
+        final long yearEnd = CompletionBitmap.firstDayOfYear(year + 1) - 1;
+
+        for (long habitId = 1; habitId <= HABITS; habitId++) {
+            CompletionHistory history = helper.getCompletions(habitId);
+            long[] days = readDays(database, habitId, FIRST_DAY, today);
+            assertEquals(currentStreak(days, today), history.currentStreak(today));
+            assertEquals(longestStreak(days), history.longestStreak());
+            assertEquals(countDone(days, today - 29, today), history.countDone(today - 29, today));
+            assertArrayEquals(heatmap(days, yearStart, yearEnd), history.getDays(yearStart, yearEnd));
+            assertArrayEquals(history.getDays(yearStart, yearEnd),
+                    helper.getCompletions(habitId, yearStart, yearEnd).getDays(yearStart, yearEnd));
+        }
+
+        mReport.measure("rows_streaks", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                long[] days = readDays(database, 1 + iteration % HABITS, FIRST_DAY, today);
+                currentStreak(days, today);
+                longestStreak(days);
+            }
+        });
+        mReport.measure("bitmap_streaks", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                CompletionHistory history = helper.getCompletions(1 + iteration % HABITS);
+                history.currentStreak(today);
+                history.longestStreak();
+            }
+        });
+
+        mReport.measure("rows_count_30_days", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                DatabaseUtils.longForQuery(database, "SELECT COUNT(DISTINCT " + CheckinEntry.COLUMN_DAY
+                                + ") FROM " + CheckinEntry.TABLE_CHECKINS + " WHERE "
+                                + CheckinEntry.COLUMN_HABIT_ID + "=? AND " + CheckinEntry.COLUMN_DAY
+                                + " BETWEEN ? AND ?",
+                        new String[]{String.valueOf(1 + iteration % HABITS),
+                                String.valueOf(today - 29), String.valueOf(today)});
+            }
+        });
+        mReport.measure("bitmap_count_30_days", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                helper.getCompletions(1 + iteration % HABITS, today - 29, today).countDone(today - 29, today);
+            }
+        });
+
+        mReport.measure("rows_heatmap_year", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                heatmap(readDays(database, 1 + iteration % HABITS, yearStart, yearEnd), yearStart, yearEnd);
+            }
+        });
+        mReport.measure("bitmap_heatmap_year", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                helper.getCompletions(1 + iteration % HABITS, yearStart, yearEnd).getDays(yearStart, yearEnd);
+            }
+        });
+
+        long bitmapBytes = DatabaseUtils.longForQuery(database, "SELECT SUM(LENGTH("
+                + HabitContract.CompletionEntry.COLUMN_DAYS + ")) FROM "
+                + HabitContract.CompletionEntry.TABLE_COMPLETIONS, null);
+        System.out.println("habit-completion checkins_per_habit=" + rows
+                + " bitmap_bytes_per_habit=" + bitmapBytes / HABITS);
+    }
+
+    /**
+     * Returns the size of the database in bytes, the pages in use (the WAL included).
+     */
+    private static long databaseBytes(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(database, "PRAGMA page_size", null);
+    }
+
+    /**
+     * Returns the distinct done days of the habit in the range, in order, from the check-in
+     * rows: the row-per-day layout.
+     */
+    private static long[] readDays(SQLiteDatabase database, long habitId, long fromDay, long toDay) {
+        Cursor cursor = database.query(true, CheckinEntry.TABLE_CHECKINS,
+                new String[]{CheckinEntry.COLUMN_DAY},
+                CheckinEntry.COLUMN_HABIT_ID + "=? AND " + CheckinEntry.COLUMN_DAY + " BETWEEN ? AND ?",
+                new String[]{String.valueOf(habitId), String.valueOf(fromDay), String.valueOf(toDay)},
+                null, null, CheckinEntry.COLUMN_DAY, null);
+        try {
+            long[] days = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                days[i] = cursor.getLong(0);
+            }
+            return days;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int currentStreak(long[] days, long today) {
+        int i = days.length - 1;
+        if (i < 0 || today - days[i] > 1) {
+            return 0;
+        }
+        int streak = 1;
+        for (; i > 0 && days[i - 1] == days[i] - 1; i--) {
+            streak++;
+        }
+        return streak;
+    }
+
+    private static int longestStreak(long[] days) {
+        int longest = 0;
+        int run = 0;
+        for (int i = 0; i < days.length; i++) {
+            run = i > 0 && days[i] == days[i - 1] + 1 ? run + 1 : 1;
+            longest = Math.max(longest, run);
+        }
+        return longest;
+    }
+
+    private static int countDone(long[] days, long fromDay, long toDay) {
+        int count = 0;
+        for (long day : days) {
+            if (day >= fromDay && day <= toDay) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long[] heatmap(long[] days, long fromDay, long toDay) {
+        long[] heatmap = new long[(int) ((toDay - fromDay) / 64 + 1)];
+        for (long day : days) {
+            if (day >= fromDay && day <= toDay) {
+                heatmap[(int) ((day - fromDay) / 64)] |= 1L << ((day - fromDay) % 64);
+            }
+        }
+        return heatmap;
+    }
+
+    /**
+     * Returns the history sizes to measure, from -Dhabit.benchmark.sizes or else
+     * {@link #DEFAULT_SIZES}.
+     */
+    private static int[] readSizes() {
+        String property = System.getProperty("habit.benchmark.sizes");
+        if (property == null || property.trim().isEmpty()) {
+            return DEFAULT_SIZES;
+        }
+        String[] parts = property.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+}
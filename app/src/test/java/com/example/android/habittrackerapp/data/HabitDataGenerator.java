@@ -0,0 +1,119 @@
+package com.example.android.habittrackerapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import java.util.Random;
+
+/**
+ * Generates habits for the tests and benchmarks. The same seed always gives the same habits,
+ * so two benchmark runs measure the same data.
+ */
+public class HabitDataGenerator {
+
+    private static final String[] VERBS = {
+            "Drink", "Read", "Run", "Walk", "Write", "Practice", "Study", "Stretch", "Cook",
+            "Meditate on", "Clean", "Call", "Learn", "Plan", "Review", "Skip"};
+
+    private static final String[] OBJECTS = {
+            "water", "a book", "5k", "the dog", "a journal", "guitar", "Spanish", "yoga", "dinner",
+            "gratitude", "the kitchen", "mom", "a new word", "the week", "the budget", "sugar"};
+
+    /** Number of rows inserted per transaction by the fill methods */
+    private static final int BATCH_SIZE = 10000;
+
+    private final Random mRandom;
+
+    public HabitDataGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Returns the next habit name, e.g. "Read a book 42". Names repeat with different numbers,
+     * like the habit lists of real users.
+     */
+    public String nextName() {
+        return VERBS[mRandom.nextInt(VERBS.length)] + " " + OBJECTS[mRandom.nextInt(OBJECTS.length)]
+                + " " + mRandom.nextInt(1000);
+    }
+
+    /**
+     * Returns the next importance, from 0 to 9, the low ones being the most common.
+     */
+    public int nextImportance() {
+        int a = mRandom.nextInt(10);
+        int b = mRandom.nextInt(10);
+        return Math.min(a, b);
+    }
+
+    /**
+     * Returns a number from 0 (included) to {@code bound} (excluded), from the same sequence.
+     */
+    public int nextInt(int bound) {
+        return mRandom.nextInt(bound);
+    }
+
+    /**
+     * Inserts {@code count} habits straight into the table, in large transactions with one
+     * compiled statement, so even a million habits are generated quickly.
+     */
+    public void fill(SQLiteDatabase db, int count) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + HabitEntry.TABLE_HABIT + " ("
+                + HabitEntry.COLUMN_HABIT + ", " + HabitEntry.COLUMN_IMPORTANCE + ") VALUES (?, ?)");
+        try {
+            for (int done = 0; done < count; ) {
+                db.beginTransaction();
+                try {
+                    int end = Math.min(count, done + BATCH_SIZE);
+                    for (; done < end; done++) {
+                        insert.bindString(1, nextName());
+                        insert.bindLong(2, nextImportance());
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Inserts {@code count} check-ins spread over the habits 1 to {@code habits}, on days
+     * going forward from {@code firstDay} with a gap now and then, the way a history grows.
+     * The summaries are not updated.
+     */
+    public void fillCheckins(SQLiteDatabase db, int habits, int count, long firstDay) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + CheckinEntry.TABLE_CHECKINS + " ("
+                + CheckinEntry.COLUMN_HABIT_ID + ", " + CheckinEntry.COLUMN_DAY + ", "
+                + CheckinEntry.COLUMN_CREATED_AT + ") VALUES (?, ?, ?)");
+        long day = firstDay;
+        try {
+            for (int done = 0; done < count; ) {
+                db.beginTransaction();
+                try {
+                    int end = Math.min(count, done + BATCH_SIZE);
+                    for (; done < end; done++) {
+                        if (done % habits == 0) {
+                            day += 1 + (mRandom.nextInt(4) == 0 ? 1 : 0);
+                        }
+                        insert.bindLong(1, 1 + done % habits);
+                        insert.bindLong(2, day);
+                        insert.bindLong(3, day * 86400000L + mRandom.nextInt(86400000));
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } finally {
+            insert.close();
+        }
+    }
+}
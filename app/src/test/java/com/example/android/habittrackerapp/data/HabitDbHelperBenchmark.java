@@ -0,0 +1,213 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the main data paths of {@link HabitDbHelper} (insert, the habit list, one habit,
+ * update and the full scan of {@link HabitDbHelper#sectAll()}) on databases of 10 to 1,000,000
+ * habits, on the JVM with Robolectric's SQLite, so no device is needed.
+ *
+ * The benchmarks are skipped by a normal test run. Run them with
+ * ./gradlew testDebugUnitTest --tests '*HabitDbHelperBenchmark' -Dhabit.benchmark=true
+ * and optionally -Dhabit.benchmark.sizes=10,1000 to pick the database sizes. The results are
+ * printed and appended, one JSON object per line, to app/build/benchmarks/habit-data.jsonl.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitDbHelperBenchmark {
+
+    private static final String DATABASE_NAME = "habits-benchmark.db";
+
+    /** The generated habits are the same on every run */
+    private static final long SEED = 42;
+
+    private static final int[] DEFAULT_SIZES = {10, 100, 1000, 10000, 100000, 1000000};
+
+    /** Number of habits in one page of the list, as in the app */
+    private static final int PAGE_SIZE = 50;
+
+    /** Measured runs of the operations touching one habit or one page */
+    private static final int OPS = 2000;
+
+    /** Unmeasured runs before them */
+    private static final int WARMUP = 500;
+
+    /**
+     * How many times slower than the first page a page by name from the middle of the list may
+     * be (it reads its own rows only, the margin is for the noise of the measures)
+     */
+    private static final int MAX_PAGE_SLOWDOWN = 3;
+
+    private Context mContext;
+    private BenchmarkReport mReport;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Benchmarks run with -Dhabit.benchmark=true",
+                Boolean.getBoolean("habit.benchmark"));
+        mContext = RuntimeEnvironment.application;
+        String output = System.getProperty("habit.benchmark.output");
+        mReport = new BenchmarkReport("habit-data", SEED,
+                output == null || output.isEmpty() ? null : new File(output));
+    }
+
+    @Test
+    public void dataPaths() throws IOException {
+        for (int rows : readSizes()) {
+            mContext.deleteDatabase(DATABASE_NAME);
+            HabitDbHelper helper = new HabitDbHelper(mContext, DATABASE_NAME);
+            try {
+                HabitDataGenerator generator = new HabitDataGenerator(SEED);
+                generator.fill(helper.getWriter(), rows);
+                assertEquals(rows, helper.getRowCount(HabitEntry.TABLE_HABIT));
+                measure(helper, generator, rows);
+            } finally {
+                helper.close();
+                mContext.deleteDatabase(DATABASE_NAME);
+            }
+        }
+    }
+
+    private void measure(final HabitDbHelper helper, final HabitDataGenerator generator,
+                         final int rows) throws IOException {
+        // The habits measured one by one are picked at random among the generated ones
+        final long[] ids = new long[WARMUP + OPS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + generator.nextInt(rows);
+        }
+
+        mReport.measure("query_habit_id", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                Uri uri = ContentUris.withAppendedId(HabitEntry.CONTENT_URI, ids[iteration]);
+                assertEquals(1, drain(helper.query(uri, Habit.PROJECTION, null, null, null)));
+            }
+        });
+
+        final Uri firstPage = HabitEntry.buildPageUri(HabitEntry.CONTENT_URI, PAGE_SIZE);
+        long firstPageNanos = mReport.measure("query_habits_first_page", rows, WARMUP, OPS,
+                new BenchmarkReport.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        drain(helper.query(firstPage, Habit.PROJECTION, null, null, null));
+                    }
+                });
+
+        // A page from the middle of the list, after the last row of the previous page. The
+        // index is searched from that importance, but the rows with the same importance before
+        // it are still read: this page gets slower with the number of habits per importance
+        final Uri middlePage = HabitEntry.buildPageUri(HabitEntry.CONTENT_URI, PAGE_SIZE,
+                "5", rows / 2);
+        mReport.measure("query_habits_middle_page", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                drain(helper.query(middlePage, Habit.PROJECTION, null, null, null));
+            }
+        });
+
+        // By name the names are nearly unique, the index is searched right to the previous row
+        final String middleName = DatabaseUtils.stringForQuery(helper.getReader(), "SELECT "
+                + HabitEntry.COLUMN_HABIT + " FROM " + HabitEntry.TABLE_HABIT + " ORDER BY "
+                + HabitEntry.COLUMN_HABIT + ", " + HabitEntry._ID + " LIMIT 1 OFFSET " + rows / 2, null);
+        final Uri middlePageByName = HabitEntry.buildPageUri(HabitEntry.buildOrderedUri(
+                HabitEntry.CONTENT_URI, HabitEntry.ORDER_NAME), PAGE_SIZE, middleName, 0);
+        long middlePageNanos = mReport.measure("query_habits_middle_page_by_name", rows, WARMUP, OPS,
+                new BenchmarkReport.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        drain(helper.query(middlePageByName, Habit.PROJECTION, null, null, null));
+                    }
+                });
+        assertTrue("Middle page by name " + middlePageNanos + " ns, first page " + firstPageNanos
+                + " ns", middlePageNanos < MAX_PAGE_SLOWDOWN * firstPageNanos);
+
+        mReport.measure("update_habit_id", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                ContentValues values = new ContentValues();
+                values.put(HabitEntry.COLUMN_IMPORTANCE, iteration % 10);
+                Uri uri = ContentUris.withAppendedId(HabitEntry.CONTENT_URI, ids[iteration]);
+                assertEquals(1, helper.update(uri, values, null, null));
+            }
+        });
+
+        mReport.measure("insert_habit", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                ContentValues values = new ContentValues();
+                values.put(HabitEntry.COLUMN_HABIT, generator.nextName());
+                values.put(HabitEntry.COLUMN_IMPORTANCE, generator.nextImportance());
+                assertTrue(helper.insert(HabitEntry.CONTENT_URI, values) != -1);
+            }
+        });
+
+        // Reading every habit gets slow with the size, so it is run fewer times
+        final long total = DatabaseUtils.queryNumEntries(helper.getReader(), HabitEntry.TABLE_HABIT);
+        int scans = Math.max(3, Math.min(100, 1000000 / rows));
+        mReport.measure("sect_all", rows, 1, scans, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(total, drain(helper.sectAll()));
+            }
+        });
+    }
+
+    /**
+     * Reads every row of the cursor, as a list would, and closes it. Just running the query
+     * doesn't fetch the rows: the cursor window is filled on the first move.
+     *
+     * @return the number of rows read
+     */
+    private static int drain(Cursor cursor) {
+        try {
+            int nameColumn = cursor.getColumnIndexOrThrow(HabitEntry.COLUMN_HABIT);
+            int count = 0;
+            while (cursor.moveToNext()) {
+                cursor.getString(nameColumn);
+                count++;
+            }
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the database sizes to measure, from -Dhabit.benchmark.sizes (e.g. "10,1000") or
+     * else {@link #DEFAULT_SIZES}.
+     */
+    private static int[] readSizes() {
+        String property = System.getProperty("habit.benchmark.sizes");
+        if (property == null || property.trim().isEmpty()) {
+            return DEFAULT_SIZES;
+        }
+        String[] parts = property.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the latency metrics {@link HabitDbHelper} keeps in its {@link HabitMetrics}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitMetricsTest {
+
+    private static final String DATABASE_NAME = "habits-metrics-test.db";
+
+    private Context mContext;
+    private HabitDbHelper mHelper;
+    private HabitMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+        mMetrics = mHelper.getMetrics();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void operations_areCountedPerKindOfUri() {
+        long id = insertHabit("Stretch");
+        insertHabit("Meditate");
+        for (int i = 0; i < 3; i++) {
+            close(mHelper.query(HabitEntry.CONTENT_URI, null, null, null, null));
+        }
+        close(mHelper.query(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id), null, null, null, null));
+        mHelper.delete(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id), null, null);
+
+        assertEquals(3, mMetrics.getSnapshot(HabitMetrics.QUERY, "HABITS").count);
+        assertEquals(1, mMetrics.getSnapshot(HabitMetrics.QUERY, "HABIT_ID").count);
+        assertEquals(2, mMetrics.getSnapshot(HabitMetrics.INSERT, "HABITS").count);
+        assertEquals(1, mMetrics.getSnapshot(HabitMetrics.DELETE, "HABIT_ID").count);
+        assertEquals(0, mMetrics.getSnapshot(HabitMetrics.UPDATE, "HABITS").count);
+        assertNull(mMetrics.getSnapshot(HabitMetrics.QUERY, "UNKNOWN"));
+
+        String dump = mMetrics.dump();
+        assertTrue(dump, dump.contains("query HABITS count=3"));
+        assertTrue(dump, dump.contains("delete HABIT_ID count=1"));
+        assertFalse(dump, dump.contains("update"));
+
+        mMetrics.reset();
+        assertEquals(0, mMetrics.getSnapshot(HabitMetrics.QUERY, "HABITS").count);
+    }
+
+    @Test
+    public void histogram_givesThePercentiles() {
+        HabitMetrics metrics = new HabitMetrics(new int[]{7}, new String[]{"TEST"});
+        // 90 fast operations (3 microseconds) and 10 slow ones (5 milliseconds)
+        for (int i = 0; i < 90; i++) {
+            metrics.record(HabitMetrics.QUERY, 7, 3000);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.record(HabitMetrics.QUERY, 7, 5000000);
+        }
+        // Unknown codes are ignored
+        metrics.record(HabitMetrics.QUERY, 8, 1);
+
+        HabitMetrics.Snapshot snapshot = metrics.getSnapshot(HabitMetrics.QUERY, "TEST");
+        assertEquals(100, snapshot.count);
+        assertEquals(5000000, snapshot.maxNanos);
+        // Bucket ends: 3 us is in [2, 4) us, 5 ms in [4096, 8192) us, capped by the worst time
+        assertEquals(4000, snapshot.percentileNanos(0.5));
+        assertEquals(4000, snapshot.percentileNanos(0.9));
+        assertEquals(5000000, snapshot.percentileNanos(0.99));
+
+        assertEquals(0, HabitMetrics.bucketOf(999));
+        assertEquals(1, HabitMetrics.bucketOf(1000));
+        assertEquals(HabitMetrics.BUCKETS - 1, HabitMetrics.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void slowQueries_areLoggedWithTheirPlan() {
+        insertHabit("Journal");
+        mMetrics.setSlowQueryThresholdMillis(0);
+        close(mHelper.query(HabitEntry.buildPageUri(HabitEntry.CONTENT_URI, 10), null, null, null, null));
+
+        List<HabitMetrics.SlowQuery> slowQueries = mMetrics.getSlowQueries();
+        assertEquals(1, slowQueries.size());
+        HabitMetrics.SlowQuery slowQuery = slowQueries.get(0);
+        assertEquals("HABITS", slowQuery.uriName);
+        assertTrue(slowQuery.sql, slowQuery.sql.startsWith("SELECT"));
+        assertFalse(slowQuery.plan.isEmpty());
+        assertTrue(slowQuery.plan.toString(), slowQuery.plan.toString().contains(HabitEntry.INDEX_IMPORTANCE));
+
+        // Only the last ones are kept
+        for (int i = 0; i < HabitMetrics.MAX_SLOW_QUERIES + 5; i++) {
+            close(mHelper.query(HabitEntry.CONTENT_URI, null, null, null, null));
+        }
+        assertEquals(HabitMetrics.MAX_SLOW_QUERIES, mMetrics.getSlowQueries().size());
+    }
+
+    private long insertHabit(String name) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        return mHelper.insert(HabitEntry.CONTENT_URI, values);
+    }
+
+    private static void close(Cursor cursor) {
+        cursor.close();
+    }
+}
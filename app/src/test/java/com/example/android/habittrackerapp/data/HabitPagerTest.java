@@ -0,0 +1,285 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.HabitPager;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pages through habit lists with {@link HabitPager}, over {@link HabitProvider}: every page
+ * continues exactly where the previous one stopped (also among habits with the same sort key),
+ * a loaded habit that changes in place is handed over alone with its position, and a habit that
+ * changes outside the loaded pages reloads the list only if SQLite now sorts it among them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitPagerTest {
+
+    private static final String DATABASE_NAME = "habits-pager-test.db";
+
+    private static final String[] PROJECTION = {
+            HabitEntry._ID,
+            HabitEntry.COLUMN_HABIT,
+            HabitEntry.COLUMN_IMPORTANCE};
+
+    /** A character above U+FFFF, stored as two UTF-16 surrogates (0xD83D 0xDE00) */
+    private static final String GRINNING_FACE = "\uD83D\uDE00";
+
+    /** The next character, U+1F601 */
+    private static final String BEAMING_FACE = "\uD83D\uDE01";
+
+    /** U+FF5E: before the faces in UTF-8 (code point) order, after them in UTF-16 order */
+    private static final String FULLWIDTH_TILDE = "\uFF5E";
+
+    private Context mContext;
+    private HabitDbHelper mHelper;
+    private HabitPager mPager;
+
+    /** The ids of the habits given to the list so far, in order */
+    private final List<Long> mShownIds = new ArrayList<>();
+
+    /** Number of pages added after the first one */
+    private int mPagesAdded;
+
+    /** Number of times the pager asked for the first page again */
+    private int mReloads;
+
+    /** The habits refreshed in place, as "position:id:name" */
+    private final List<String> mChangedRows = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+        HabitProvider provider = new HabitProvider(mHelper);
+        provider.attachInfo(mContext, null);
+        ShadowContentResolver.registerProviderInternal(HabitContract.CONTENT_AUTHORITY, provider);
+    }
+
+    @After
+    public void tearDown() {
+        if (mPager != null) {
+            mPager.close();
+        }
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void byImportance_deepPagesFollowTheList() {
+        // Five importances for 4.5 pages: every page boundary falls among equal importances
+        int habits = 4 * HabitPager.PAGE_SIZE + HabitPager.PAGE_SIZE / 2;
+        String[] names = new String[habits];
+        int[] importances = new int[habits];
+        for (int i = 0; i < habits; i++) {
+            names[i] = "Habit " + i;
+            importances[i] = i % 5;
+        }
+        insertHabits(names, importances);
+
+        openList(HabitEntry.ORDER_IMPORTANCE);
+        scrollToTheEnd();
+
+        assertEquals(4, mPagesAdded);
+        assertEquals(readIds("importance DESC, _id DESC"), mShownIds);
+    }
+
+    @Test
+    public void byName_deepPagesFollowTheList() {
+        // Few distinct names, some of them above U+FFFF, in the order of the bytes of SQLite
+        String[] distinct = {"Run", "run", "Read", GRINNING_FACE, FULLWIDTH_TILDE, BEAMING_FACE + " 1"};
+        int habits = 3 * HabitPager.PAGE_SIZE + 7;
+        String[] names = new String[habits];
+        for (int i = 0; i < habits; i++) {
+            names[i] = distinct[i % distinct.length];
+        }
+        insertHabits(names, new int[habits]);
+
+        openList(HabitEntry.ORDER_NAME);
+        scrollToTheEnd();
+
+        assertEquals(3, mPagesAdded);
+        assertEquals(readIds("habit, _id"), mShownIds);
+    }
+
+    @Test
+    public void byName_habitRenamedIntoTheLoadedPage_reloadsTheList() {
+        // The first page ends with the grinning face, the beaming faces come after it
+        String[] names = new String[HabitPager.PAGE_SIZE + 10];
+        for (int i = 0; i < HabitPager.PAGE_SIZE - 1; i++) {
+            names[i] = String.format("A %02d", i);
+        }
+        names[HabitPager.PAGE_SIZE - 1] = GRINNING_FACE;
+        for (int i = HabitPager.PAGE_SIZE; i < names.length; i++) {
+            names[i] = BEAMING_FACE + " " + i;
+        }
+        insertHabits(names, new int[names.length]);
+        openList(HabitEntry.ORDER_NAME);
+        assertEquals(HabitPager.PAGE_SIZE, mShownIds.size());
+        List<Long> notLoaded = readIds("habit, _id").subList(HabitPager.PAGE_SIZE, names.length);
+
+        // Still after the last loaded habit: nothing to do
+        rename(notLoaded.get(0), BEAMING_FACE + " renamed");
+        assertEquals(0, mReloads);
+
+        // U+FF5E sorts before the grinning face in SQLite, so it joins the first page
+        rename(notLoaded.get(1), FULLWIDTH_TILDE);
+        assertEquals(1, mReloads);
+        assertTrue(readIds("habit, _id").subList(0, HabitPager.PAGE_SIZE).contains(notLoaded.get(1)));
+    }
+
+    @Test
+    public void habitChangedInPlace_isGivenWithItsPosition() {
+        int habits = 3 * HabitPager.PAGE_SIZE;
+        String[] names = new String[habits];
+        int[] importances = new int[habits];
+        for (int i = 0; i < habits; i++) {
+            names[i] = "Habit " + i;
+            importances[i] = i % 5;
+        }
+        insertHabits(names, importances);
+        openList(HabitEntry.ORDER_IMPORTANCE);
+        scrollToTheEnd();
+
+        // A habit of the last page: same importance, so same place
+        int position = 2 * HabitPager.PAGE_SIZE + 10;
+        long id = mShownIds.get(position);
+        rename(id, "Renamed");
+
+        assertEquals(0, mReloads);
+        assertEquals(Arrays.asList(position + ":" + id + ":Renamed"), mChangedRows);
+    }
+
+    /**
+     * Opens the list in the given order: loads its first page and gives it to the pager, as
+     * the loader of the list does.
+     */
+    private void openList(String order) {
+        Uri listUri = HabitEntry.buildOrderedUri(HabitEntry.CONTENT_URI, order);
+        mPager = new HabitPager(mContext.getContentResolver(), null, listUri, PROJECTION,
+                new HabitPager.Listener() {
+                    @Override
+                    public void onFirstPage(Cursor firstPage) {
+                        mShownIds.clear();
+                        addIds(firstPage);
+                    }
+
+                    @Override
+                    public void onPageAdded(Cursor page) {
+                        mPagesAdded++;
+                        addIds(page);
+                    }
+
+                    @Override
+                    public void onRowChanged(int position, Cursor row) {
+                        mChangedRows.add(position + ":" + row.getLong(0) + ":" + row.getString(1));
+                    }
+
+                    @Override
+                    public void onReloadNeeded() {
+                        mReloads++;
+                    }
+                });
+        mPager.setFirstPage(mContext.getContentResolver().query(mPager.getFirstPageUri(),
+                PROJECTION, null, null, null));
+    }
+
+    /**
+     * Scrolls to the last shown habit until no page is added any more.
+     */
+    private void scrollToTheEnd() {
+        int shown;
+        do {
+            shown = mShownIds.size();
+            mPager.onScrolled(shown - 1, shown);
+            runTasks();
+        } while (mShownIds.size() > shown);
+    }
+
+    private void addIds(Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        for (int position = 0; cursor.moveToPosition(position); position++) {
+            mShownIds.add(cursor.getLong(cursor.getColumnIndexOrThrow(HabitEntry._ID)));
+        }
+    }
+
+    /**
+     * Renames the habit, then tells the pager as the change notification of "habits/#" would.
+     */
+    private void rename(long id, String name) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        assertEquals(1, mHelper.update(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id),
+                values, null, null));
+        mPager.onHabitChanged(id);
+        runTasks();
+    }
+
+    /**
+     * Runs the background tasks of the pager, then their results on the main thread.
+     */
+    private static void runTasks() {
+        Robolectric.flushBackgroundThreadScheduler();
+        ShadowLooper.runUiThreadTasks();
+    }
+
+    private void insertHabits(String[] names, int[] importances) {
+        SQLiteDatabase database = mHelper.getWriter();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                ContentValues values = new ContentValues();
+                values.put(HabitEntry.COLUMN_HABIT, names[i]);
+                values.put(HabitEntry.COLUMN_IMPORTANCE, importances[i]);
+                database.insert(HabitEntry.TABLE_HABIT, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Reads the ids of all the habits in the given order, in one query.
+     */
+    private List<Long> readIds(String orderBy) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = mHelper.getReader().query(HabitEntry.TABLE_HABIT,
+                new String[]{HabitEntry._ID}, null, null, null, null, orderBy);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Writes batches through {@link HabitProvider}: the transaction around each batch (all the rows
+ * or none of them) and the notifications sent once the batch is done. Also reads and writes the
+ * check-ins through their URIs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitProviderTest {
+
+    private static final String DATABASE_NAME = "habits-provider-test.db";
+
+    private Context mContext;
+    private HabitDbHelper mHelper;
+    private HabitProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+        mProvider = new HabitProvider(mHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void bulkInsert_insertsAllTheRowsWithOneNotification() {
+        ContentValues[] values = {habit("Run"), habit("Read"), habit("Walk")};
+
+        assertEquals(3, mProvider.bulkInsert(HabitEntry.CONTENT_URI, values));
+        assertEquals(3, mHelper.getRowCount(HabitEntry.TABLE_HABIT));
+        assertEquals(Arrays.asList(HabitEntry.CONTENT_URI), getNotifiedUris());
+    }
+
+    @Test
+    public void bulkInsert_withAFailingRow_insertsNothing() {
+        ContentValues[] values = {habit("Run"), habit("Read"), new ContentValues()};
+
+        try {
+            mProvider.bulkInsert(HabitEntry.CONTENT_URI, values);
+            fail("A habit without a name was inserted");
+        } catch (IllegalArgumentException expected) {
+            // The rows before the failing one were rolled back with it
+        }
+        assertEquals(0, mHelper.getRowCount(HabitEntry.TABLE_HABIT));
+        assertTrue(getNotifiedUris().isEmpty());
+    }
+
+    @Test
+    public void applyBatch_appliesAllTheOperationsWithOneNotificationPerUri()
+            throws OperationApplicationException {
+        long run = mHelper.insert(HabitEntry.CONTENT_URI, habit("Run"));
+        long read = mHelper.insert(HabitEntry.CONTENT_URI, habit("Read"));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(rename(run, "Run more"));
+        operations.add(rename(read, "Read more"));
+        operations.add(rename(run, "Run even more"));
+        ContentProviderResult[] results = mProvider.applyBatch(operations);
+
+        assertEquals(3, results.length);
+        assertEquals(Integer.valueOf(1), results[2].count);
+        assertEquals(1, countHabits(HabitEntry.COLUMN_HABIT + " = 'Run even more'"));
+        assertEquals(1, countHabits(HabitEntry.COLUMN_HABIT + " = 'Read more'"));
+        // Each changed habit once, the list reads the two habits again instead of everything
+        assertEquals(Arrays.asList(habitUri(run), habitUri(read)), getNotifiedUris());
+    }
+
+    @Test
+    public void applyBatch_withAChangeOfTheList_onlyNotifiesTheList()
+            throws OperationApplicationException {
+        long run = mHelper.insert(HabitEntry.CONTENT_URI, habit("Run"));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(rename(run, "Run more"));
+        operations.add(ContentProviderOperation.newInsert(HabitEntry.CONTENT_URI)
+                .withValues(habit("Read"))
+                .build());
+        mProvider.applyBatch(operations);
+
+        // The list notification already reaches the observers of "habits/#"
+        assertEquals(Arrays.asList(HabitEntry.CONTENT_URI), getNotifiedUris());
+    }
+
+    @Test
+    public void applyBatch_withAFailingOperation_appliesNothing() {
+        long run = mHelper.insert(HabitEntry.CONTENT_URI, habit("Run"));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(HabitEntry.CONTENT_URI)
+                .withValues(habit("Read"))
+                .build());
+        operations.add(rename(run, "Run more"));
+        // No such habit: the update changes no row and fails the batch
+        operations.add(ContentProviderOperation.newUpdate(habitUri(run + 100))
+                .withValues(habit("Walk"))
+                .withExpectedCount(1)
+                .build());
+        try {
+            mProvider.applyBatch(operations);
+            fail("The failing update was accepted");
+        } catch (OperationApplicationException expected) {
+            // The operations before the failing one were rolled back with it
+        }
+
+        assertEquals(1, mHelper.getRowCount(HabitEntry.TABLE_HABIT));
+        assertEquals(1, countHabits(HabitEntry.COLUMN_HABIT + " = 'Run'"));
+        assertTrue(getNotifiedUris().isEmpty());
+    }
+
+    @Test
+    public void applyBatch_changingManyHabits_notifiesTheWholeLists()
+            throws OperationApplicationException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i <= HabitProvider.MAX_BATCH_NOTIFICATIONS; i++) {
+            long id = mHelper.insert(HabitEntry.CONTENT_URI, habit("Habit " + i));
+            operations.add(rename(id, "Habit " + i + " renamed"));
+        }
+        mProvider.applyBatch(operations);
+
+        assertEquals(HabitProvider.MAX_BATCH_NOTIFICATIONS + 1,
+                countHabits(HabitEntry.COLUMN_HABIT + " LIKE '% renamed'"));
+        assertEquals(Arrays.asList(HabitEntry.CONTENT_URI, CheckinEntry.CONTENT_URI),
+                getNotifiedUris());
+    }
+
+    @Test
+    public void insertCheckin_ofAHabit_returnsTheCheckinUri() {
+        long run = mHelper.insert(HabitEntry.CONTENT_URI, habit("Run"));
+
+        Uri inserted = mProvider.insert(CheckinEntry.buildHabitCheckinsUri(run), checkin(null, 17000));
+
+        // "checkins/#", the only URI of a single check-in
+        assertEquals(ContentUris.withAppendedId(CheckinEntry.CONTENT_URI, ContentUris.parseId(inserted)),
+                inserted);
+        assertEquals(Arrays.asList(CheckinEntry.buildHabitCheckinsUri(run), CheckinEntry.CONTENT_URI),
+                getNotifiedUris());
+        Cursor cursor = mProvider.query(inserted, new String[]{CheckinEntry.COLUMN_HABIT_ID,
+                CheckinEntry.COLUMN_DAY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(run, cursor.getLong(0));
+            assertEquals(17000, cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void insertCheckin_withoutAHabit_fails() {
+        try {
+            mProvider.insert(CheckinEntry.CONTENT_URI, checkin(null, 17000));
+            fail("A check-in without a habit was inserted");
+        } catch (IllegalArgumentException expected) {
+            // Only "habits/#/checkins" knows the habit
+        }
+        assertEquals(0, mHelper.getRowCount(CheckinEntry.TABLE_CHECKINS));
+    }
+
+    @Test
+    public void bulkInsertCheckins_appendsAllTheRowsWithOneNotificationPerUri() {
+        long run = mHelper.insert(HabitEntry.CONTENT_URI, habit("Run"));
+        long read = mHelper.insert(HabitEntry.CONTENT_URI, habit("Read"));
+        ContentValues[] values = {checkin(run, 17000), checkin(read, 17000), checkin(run, 17001)};
+
+        assertEquals(3, mProvider.bulkInsert(CheckinEntry.CONTENT_URI, values));
+
+        assertEquals(Arrays.asList(CheckinEntry.CONTENT_URI, HabitEntry.CONTENT_URI),
+                getNotifiedUris());
+        assertEquals(3, mHelper.getRowCount(CheckinEntry.TABLE_CHECKINS));
+        // The summaries were updated with the check-ins
+        assertEquals(1, countSummaries(run, 17001, 2));
+    }
+
+    @Test
+    public void bulkInsertCheckins_withAFailingRow_appendsNothing() {
+        long run = mHelper.insert(HabitEntry.CONTENT_URI, habit("Run"));
+        ContentValues noDay = new ContentValues();
+        ContentValues[] values = {checkin(null, 17000), checkin(null, 17001), noDay};
+
+        try {
+            mProvider.bulkInsert(CheckinEntry.buildHabitCheckinsUri(run), values);
+            fail("A check-in without a day was inserted");
+        } catch (IllegalArgumentException expected) {
+            // The rows before the failing one were rolled back with it
+        }
+        assertEquals(0, mHelper.getRowCount(CheckinEntry.TABLE_CHECKINS));
+        assertEquals(0, countSummaries(run, 17001, 2));
+        assertTrue(getNotifiedUris().isEmpty());
+    }
+
+    @Test
+    public void queryCheckins_ofAHabit_readsItsDaysInOrder() {
+        long run = mHelper.insert(HabitEntry.CONTENT_URI, habit("Run"));
+        long read = mHelper.insert(HabitEntry.CONTENT_URI, habit("Read"));
+        mProvider.bulkInsert(CheckinEntry.CONTENT_URI, new ContentValues[]{checkin(run, 17003),
+                checkin(read, 17002), checkin(run, 17001), checkin(run, 17005)});
+
+        Cursor cursor = mProvider.query(CheckinEntry.buildHabitCheckinsUri(run),
+                new String[]{CheckinEntry.COLUMN_DAY}, CheckinEntry.COLUMN_DAY + " < ?",
+                new String[]{"17005"}, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToNext());
+            assertEquals(17001, cursor.getLong(0));
+            assertTrue(cursor.moveToNext());
+            assertEquals(17003, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void deleteCheckin_notifiesTheCheckinsAndTheHabits() {
+        long run = mHelper.insert(HabitEntry.CONTENT_URI, habit("Run"));
+        Uri inserted = mProvider.insert(CheckinEntry.buildHabitCheckinsUri(run), checkin(null, 17000));
+        mProvider.insert(CheckinEntry.buildHabitCheckinsUri(run), checkin(null, 17001));
+        int notified = getNotifiedUris().size();
+
+        assertEquals(1, mProvider.delete(inserted, null, null));
+
+        assertEquals(1, mHelper.getRowCount(CheckinEntry.TABLE_CHECKINS));
+        List<Uri> uris = getNotifiedUris();
+        assertEquals(Arrays.asList(CheckinEntry.CONTENT_URI, HabitEntry.CONTENT_URI),
+                uris.subList(notified, uris.size()));
+    }
+
+    private List<Uri> getNotifiedUris() {
+        List<Uri> uris = new ArrayList<>();
+        ShadowContentResolver resolver = shadowOf(mContext.getContentResolver());
+        for (ShadowContentResolver.NotifiedUri notified : resolver.getNotifiedUris()) {
+            uris.add(notified.uri);
+        }
+        return uris;
+    }
+
+    private int countHabits(String selection) {
+        return (int) DatabaseUtils.queryNumEntries(mHelper.getReader(),
+                HabitEntry.TABLE_HABIT, selection);
+    }
+
+    /**
+     * Returns the number of habits with the given id, last day and total of check-ins in the
+     * summaries (0 or 1).
+     */
+    private int countSummaries(long habitId, long lastDay, long total) {
+        return (int) DatabaseUtils.queryNumEntries(mHelper.getReader(), SummaryEntry.TABLE_SUMMARY,
+                SummaryEntry.COLUMN_HABIT_ID + " = " + habitId + " AND "
+                        + SummaryEntry.COLUMN_LAST_DAY + " = " + lastDay + " AND "
+                        + SummaryEntry.COLUMN_TOTAL_CHECKINS + " = " + total);
+    }
+
+    private static ContentValues checkin(Long habitId, long day) {
+        ContentValues values = new ContentValues();
+        if (habitId != null) {
+            values.put(CheckinEntry.COLUMN_HABIT_ID, habitId);
+        }
+        values.put(CheckinEntry.COLUMN_DAY, day);
+        return values;
+    }
+
+    private static ContentProviderOperation rename(long id, String name) {
+        return ContentProviderOperation.newUpdate(habitUri(id))
+                .withValues(habit(name))
+                .withExpectedCount(1)
+                .build();
+    }
+
+    private static ContentValues habit(String name) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        return values;
+    }
+
+    private static Uri habitUri(long id) {
+        return ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id);
+    }
+}
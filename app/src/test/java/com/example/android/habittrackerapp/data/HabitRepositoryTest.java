@@ -0,0 +1,318 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.HabitPager;
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the cache of {@link HabitRepository}: filled by the pages of the list, dropping the
+ * habits that change, keeping only the most recent ones, and never keeping a habit read while
+ * it was being changed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitRepositoryTest {
+
+    private static final String DATABASE_NAME = "habits-repository-test.db";
+
+    /** Columns of the pages, as in the list: more than the habit itself */
+    private static final String[] PROJECTION = {
+            HabitEntry._ID,
+            HabitEntry.COLUMN_HABIT,
+            HabitEntry.COLUMN_IMPORTANCE,
+            SummaryEntry.COLUMN_CURRENT_STREAK};
+
+    /** Number of habits kept by the cache */
+    private static final int CACHE_SIZE = 64;
+
+    private Context mContext;
+    private ContentResolver mContentResolver;
+    private HabitDbHelper mHelper;
+    private HabitRepository mRepository;
+    private HabitPager mPager;
+
+    /** The ids of the habits given to the list so far, in order */
+    private final List<Long> mShownIds = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+        HabitProvider provider = new HabitProvider(mHelper);
+        provider.attachInfo(mContext, null);
+        ShadowContentResolver.registerProviderInternal(HabitContract.CONTENT_AUTHORITY, provider);
+        mContentResolver = mContext.getContentResolver();
+        mRepository = new HabitRepository(mContentResolver);
+    }
+
+    @After
+    public void tearDown() {
+        if (mPager != null) {
+            mPager.close();
+        }
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void pagesOfTheList_areRemembered() {
+        insertHabits(HabitPager.PAGE_SIZE + 10);
+        openList();
+        scrollToTheEnd();
+
+        // Read by the pager, not by the repository: no query needed
+        long id = mShownIds.get(HabitPager.PAGE_SIZE + 5);
+        Habit habit = mRepository.peek(id);
+        assertNotNull(habit);
+        assertEquals(readHabit(id), habit);
+    }
+
+    @Test
+    public void habitNotRead_isReadFromTheDatabase() {
+        insertHabits(3);
+        long id = readIds().get(1);
+
+        // A miss, until a read remembers it
+        assertNull(mRepository.peek(id));
+        assertEquals(readHabit(id), mRepository.get(id));
+        assertEquals(readHabit(id), mRepository.peek(id));
+
+        // No such habit, nothing remembered
+        assertNull(mRepository.get(id + 1000));
+        assertNull(mRepository.peek(id + 1000));
+    }
+
+    @Test
+    public void habitChanged_isDroppedAlone() {
+        insertHabits(3);
+        List<Long> ids = readIds();
+        rememberAll();
+
+        mRepository.invalidate(habitUri(ids.get(0)));
+        assertNull(mRepository.peek(ids.get(0)));
+        assertNotNull(mRepository.peek(ids.get(1)));
+
+        // Its check-ins changed, not the habit
+        mRepository.invalidate(CheckinEntry.buildHabitCheckinsUri(ids.get(1)));
+        assertNotNull(mRepository.peek(ids.get(1)));
+        assertNotNull(mRepository.peek(ids.get(2)));
+    }
+
+    @Test
+    public void listChanged_dropsAllTheHabits() {
+        insertHabits(3);
+        List<Long> ids = readIds();
+
+        rememberAll();
+        mRepository.invalidate(HabitEntry.LIST_CHANGES_URI);
+        for (long id : ids) {
+            assertNull(mRepository.peek(id));
+        }
+
+        // The same through the change notification of the list
+        rememberAll();
+        mContentResolver.notifyChange(HabitEntry.CONTENT_URI, null);
+        for (long id : ids) {
+            assertNull(mRepository.peek(id));
+        }
+    }
+
+    @Test
+    public void longList_keepsTheMostRecentHabits() {
+        // More habits after the first page than the cache holds
+        insertHabits(3 * HabitPager.PAGE_SIZE + 10);
+        openList();
+        scrollToTheEnd();
+
+        // The last CACHE_SIZE habits read
+        for (int i = 0; i < mShownIds.size(); i++) {
+            Habit habit = mRepository.peek(mShownIds.get(i));
+            if (i < mShownIds.size() - CACHE_SIZE) {
+                assertNull("position " + i, habit);
+            } else {
+                assertNotNull("position " + i, habit);
+            }
+        }
+
+        // A habit used again is kept over the older ones
+        long oldest = mShownIds.get(mShownIds.size() - CACHE_SIZE);
+        long next = mShownIds.get(mShownIds.size() - CACHE_SIZE + 1);
+        mRepository.peek(oldest);
+        mRepository.get(mShownIds.get(0));
+        assertNotNull(mRepository.peek(oldest));
+        assertNull(mRepository.peek(next));
+    }
+
+    @Test
+    public void habitReadWhileChanged_isNotRemembered() {
+        insertHabits(2);
+        List<Long> ids = readIds();
+
+        // Read, then changed before it is remembered: it may be the old version
+        long generation = mRepository.getGeneration();
+        Habit habit = readHabit(ids.get(0));
+        mRepository.invalidate(habitUri(ids.get(0)));
+        mRepository.remember(habit, generation);
+        assertNull(mRepository.peek(ids.get(0)));
+
+        // Any change counts, even of another habit
+        generation = mRepository.getGeneration();
+        Cursor cursor = mContentResolver.query(HabitEntry.CONTENT_URI, Habit.PROJECTION,
+                null, null, null);
+        try {
+            mRepository.invalidate(habitUri(ids.get(1)));
+            mRepository.rememberAll(cursor, generation);
+        } finally {
+            cursor.close();
+        }
+        assertNull(mRepository.peek(ids.get(0)));
+        assertNull(mRepository.peek(ids.get(1)));
+
+        // Read after the change: remembered
+        generation = mRepository.getGeneration();
+        mRepository.remember(readHabit(ids.get(0)), generation);
+        assertNotNull(mRepository.peek(ids.get(0)));
+    }
+
+    /**
+     * Opens the list: loads its first page and gives it to the pager, as the loader of the list
+     * does (without remembering its habits).
+     */
+    private void openList() {
+        mPager = new HabitPager(mContentResolver, mRepository, SummaryEntry.CONTENT_URI, PROJECTION,
+                new HabitPager.Listener() {
+                    @Override
+                    public void onFirstPage(Cursor firstPage) {
+                        mShownIds.clear();
+                        addIds(firstPage);
+                    }
+
+                    @Override
+                    public void onPageAdded(Cursor page) {
+                        addIds(page);
+                    }
+
+                    @Override
+                    public void onRowChanged(int position, Cursor row) {
+                    }
+
+                    @Override
+                    public void onReloadNeeded() {
+                    }
+                });
+        mPager.setFirstPage(mContentResolver.query(mPager.getFirstPageUri(), PROJECTION,
+                null, null, null));
+    }
+
+    /**
+     * Scrolls to the last shown habit until no page is added any more.
+     */
+    private void scrollToTheEnd() {
+        int shown;
+        do {
+            shown = mShownIds.size();
+            mPager.onScrolled(shown - 1, shown);
+            Robolectric.flushBackgroundThreadScheduler();
+            ShadowLooper.runUiThreadTasks();
+        } while (mShownIds.size() > shown);
+    }
+
+    private void addIds(Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        for (int position = 0; cursor.moveToPosition(position); position++) {
+            mShownIds.add(cursor.getLong(cursor.getColumnIndexOrThrow(HabitEntry._ID)));
+        }
+    }
+
+    /**
+     * Remembers all the habits, read in one query.
+     */
+    private void rememberAll() {
+        long generation = mRepository.getGeneration();
+        Cursor cursor = mContentResolver.query(HabitEntry.CONTENT_URI, Habit.PROJECTION,
+                null, null, null);
+        try {
+            mRepository.rememberAll(cursor, generation);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void insertHabits(int count) {
+        SQLiteDatabase database = mHelper.getWriter();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                ContentValues values = new ContentValues();
+                values.put(HabitEntry.COLUMN_HABIT, "Habit " + i);
+                values.put(HabitEntry.COLUMN_IMPORTANCE, i % 5);
+                database.insert(HabitEntry.TABLE_HABIT, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private List<Long> readIds() {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = mHelper.getReader().query(HabitEntry.TABLE_HABIT,
+                new String[]{HabitEntry._ID}, null, null, null, null, HabitEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Reads the habit straight from the database.
+     */
+    private Habit readHabit(long id) {
+        Cursor cursor = mHelper.getReader().query(HabitEntry.TABLE_HABIT, Habit.PROJECTION,
+                HabitEntry._ID + " = ?", new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? Habit.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri habitUri(long id) {
+        return ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id);
+    }
+}
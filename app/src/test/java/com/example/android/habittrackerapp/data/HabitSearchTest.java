@@ -0,0 +1,171 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Searches the habit names through {@link HabitSearch}: the MATCH expression built from the
+ * typed text, the order of the results, the triggers keeping the full-text index in sync with
+ * the habits, and the cancellation of a search.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitSearchTest {
+
+    private static final String DATABASE_NAME = "habits-search-test.db";
+
+    private static final String[] PROJECTION = {
+            HabitEntry.TABLE_HABIT + "." + HabitEntry._ID,
+            HabitEntry.COLUMN_HABIT};
+
+    private Context mContext;
+    private HabitDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void toMatchQuery_makesEveryWordAQuotedPrefix() {
+        assertEquals("\"dri*\" \"wat*\"", HabitSearch.toMatchQuery("dri wat"));
+        assertEquals("\"Drink*\"", HabitSearch.toMatchQuery("  Drink  "));
+        // Non-ASCII characters are word characters for the "simple" tokenizer
+        assertEquals("\"caf\u00e9*\"", HabitSearch.toMatchQuery("caf\u00e9"));
+    }
+
+    @Test
+    public void toMatchQuery_dropsTheOperatorCharacters() {
+        // Quotes, stars and minus signs split the words and never reach FTS
+        assertEquals("\"run*\" \"walk*\"", HabitSearch.toMatchQuery("\"run\" -walk*"));
+        assertEquals("\"a*\" \"b*\"", HabitSearch.toMatchQuery("a\"*-b"));
+        // Operator words stay words
+        assertEquals("\"dri*\" \"OR*\" \"wat*\"", HabitSearch.toMatchQuery("dri OR wat"));
+    }
+
+    @Test
+    public void toMatchQuery_withoutWords_isNull() {
+        assertNull(HabitSearch.toMatchQuery(""));
+        assertNull(HabitSearch.toMatchQuery(" \"*-\" "));
+    }
+
+    @Test
+    public void search_findsTheWordPrefixes() {
+        insertHabit("Drink water", 0);
+        insertHabit("Walk the dog", 0);
+        insertHabit("Water the plants", 0);
+
+        assertEquals(Arrays.asList("Drink water"), search("dri wat"));
+        assertEquals(Arrays.asList("Water the plants", "Drink water"), search("WAT"));
+        // Every word must match, OR is searched as a word
+        assertEquals(Arrays.<String>asList(), search("drink OR walk"));
+        // The operator characters are ignored instead of failing the query
+        assertEquals(Arrays.asList("Walk the dog"), search("\"walk\" -dog*"));
+        assertEquals(Arrays.<String>asList(), search("*-\""));
+    }
+
+    @Test
+    public void search_ranksTheMatches() {
+        insertHabit("Speed read", 9);
+        insertHabit("Read the news", 2);
+        insertHabit("Read B", 1);
+        insertHabit("Read C", 5);
+        insertHabit("Read", 0);
+
+        // Names starting with the text first, then the shortest, then the most important
+        assertEquals(Arrays.asList("Read", "Read C", "Read B", "Read the news", "Speed read"),
+                search("read"));
+    }
+
+    @Test
+    public void search_followsTheInsertsRenamesAndDeletes() {
+        long id = insertHabit("Meditate", 0);
+        assertEquals(Arrays.asList("Meditate"), search("medi"));
+
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, "Stretch");
+        assertEquals(1, mHelper.update(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id),
+                values, null, null));
+        assertEquals(Arrays.<String>asList(), search("medi"));
+        assertEquals(Arrays.asList("Stretch"), search("stre"));
+
+        // A deleted habit is not found while it waits for the purge, and leaves the index with it
+        assertEquals(1, mHelper.delete(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id),
+                null, null));
+        assertEquals(Arrays.<String>asList(), search("stre"));
+        assertEquals(1, indexedRows(id));
+        mHelper.getWriter().delete(HabitEntry.TABLE_HABIT, HabitEntry._ID + " = " + id, null);
+        assertEquals(0, indexedRows(id));
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void canceledSearch_throws() {
+        insertHabit("Drink water", 0);
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+
+        mHelper.query(HabitEntry.buildSearchUri("dri"), PROJECTION, null, null, null, signal).close();
+    }
+
+    private long insertHabit(String name, int importance) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        values.put(HabitEntry.COLUMN_IMPORTANCE, importance);
+        return mHelper.insert(HabitEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Returns the names of the habits found for the text, in the order of the results.
+     */
+    private List<String> search(String text) {
+        Cursor cursor = mHelper.query(HabitEntry.buildSearchUri(text), PROJECTION, null, null, null);
+        try {
+            List<String> names = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(1));
+            }
+            return names;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the number of rows of the full-text index for the habit.
+     */
+    private long indexedRows(long id) {
+        return DatabaseUtils.longForQuery(mHelper.getReader(), "SELECT COUNT(*) FROM "
+                + HabitEntry.TABLE_SEARCH + " WHERE docid = ?", new String[]{String.valueOf(id)});
+    }
+}
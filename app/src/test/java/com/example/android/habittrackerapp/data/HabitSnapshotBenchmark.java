@@ -0,0 +1,217 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitTransfer.Table;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the backup and restore of {@link HabitSnapshot} with a plain SQL dump (one INSERT
+ * statement per row, replayed in one transaction), on histories of 1,000 to 1,000,000
+ * check-ins. The sizes of the two files are printed next to the timings.
+ *
+ * Skipped by a normal test run, run it like {@link HabitDbHelperBenchmark}:
+ * ./gradlew testDebugUnitTest --tests '*HabitSnapshotBenchmark' -Dhabit.benchmark=true
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitSnapshotBenchmark {
+
+    private static final String DATABASE_NAME = "habits-snapshot-benchmark.db";
+
+    private static final long SEED = 42;
+
+    /** Check-ins of the measured histories */
+    private static final int[] DEFAULT_SIZES = {1000, 10000, 100000, 1000000};
+
+    /** Check-ins per habit */
+    private static final int CHECKINS_PER_HABIT = 100;
+
+    private static final int OPS = 3;
+    private static final int WARMUP = 1;
+
+    private Context mContext;
+    private BenchmarkReport mReport;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Benchmarks run with -Dhabit.benchmark=true",
+                Boolean.getBoolean("habit.benchmark"));
+        mContext = RuntimeEnvironment.application;
+        String output = System.getProperty("habit.benchmark.output");
+        mReport = new BenchmarkReport("habit-snapshot", SEED,
+                output == null || output.isEmpty() ? null : new File(output));
+    }
+
+    @Test
+    public void snapshotAgainstSqlDump() throws IOException {
+        for (int rows : readSizes()) {
+            mContext.deleteDatabase(DATABASE_NAME);
+            HabitDbHelper helper = new HabitDbHelper(mContext, DATABASE_NAME);
+            File snapshot = File.createTempFile("habits", ".snapshot");
+            File dump = File.createTempFile("habits", ".sql");
+            try {
+                HabitDataGenerator generator = new HabitDataGenerator(SEED);
+                int habits = Math.max(1, rows / CHECKINS_PER_HABIT);
+                generator.fill(helper.getWriter(), habits);
+                generator.fillCheckins(helper.getWriter(), habits, rows, 17000);
+                helper.rebuildSummaries();
+                measure(helper, rows, snapshot, dump);
+            } finally {
+                helper.close();
+                mContext.deleteDatabase(DATABASE_NAME);
+                snapshot.delete();
+                dump.delete();
+            }
+        }
+    }
+
+    private void measure(final HabitDbHelper helper, final int rows, final File snapshot,
+                         final File dump) throws IOException {
+        final HabitSnapshot snapshots = new HabitSnapshot(helper, null);
+
+        mReport.measure("snapshot_backup", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                try {
+                    snapshots.backup(snapshot);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        mReport.measure("snapshot_restore", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                try {
+                    snapshots.restore(snapshot);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        assertEquals(rows, helper.getRowCount(CheckinEntry.TABLE_CHECKINS));
+
+        mReport.measure("sql_dump_backup", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                try {
+                    writeSqlDump(helper.getReader(), dump);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        mReport.measure("sql_dump_restore", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                try {
+                    replaySqlDump(helper.getWriter(), dump);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        assertEquals(rows, helper.getRowCount(CheckinEntry.TABLE_CHECKINS));
+
+        System.out.println("habit-snapshot rows=" + rows + " snapshot_bytes=" + snapshot.length()
+                + " sql_dump_bytes=" + dump.length());
+    }
+
+    /**
+     * Writes one INSERT statement per row of the tables of the snapshot.
+     */
+    private static void writeSqlDump(SQLiteDatabase database, File file) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            for (Table table : Table.values()) {
+                Cursor cursor = database.rawQuery("SELECT * FROM " + table.mName, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        StringBuilder values = new StringBuilder();
+                        for (int i = 0; i < cursor.getColumnCount(); i++) {
+                            if (i > 0) {
+                                values.append(',');
+                            }
+                            if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
+                                // The generated names have no line breaks
+                                DatabaseUtils.appendEscapedSQLString(values, cursor.getString(i));
+                            } else {
+                                values.append(cursor.getString(i));
+                            }
+                        }
+                        writer.write("INSERT INTO " + table.mName + " VALUES(" + values + ");\n");
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Replaces the tables with the rows of the dump, in one transaction, as the snapshot does.
+     */
+    private static void replaySqlDump(SQLiteDatabase database, File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        database.beginTransaction();
+        try {
+            for (Table table : Table.values()) {
+                database.delete(table.mName, null, null);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                database.execSQL(line);
+            }
+            HabitSummaryStore.rebuildAll(database);
+            HabitCompletionStore.rebuildAll(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the history sizes to measure, from -Dhabit.benchmark.sizes or else
+     * {@link #DEFAULT_SIZES}.
+     */
+    private static int[] readSizes() {
+        String property = System.getProperty("habit.benchmark.sizes");
+        if (property == null || property.trim().isEmpty()) {
+            return DEFAULT_SIZES;
+        }
+        String[] parts = property.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+}
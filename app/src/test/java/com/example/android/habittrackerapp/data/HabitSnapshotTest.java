@@ -0,0 +1,174 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Backs a database up with {@link HabitSnapshot} and restores it into another one.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitSnapshotTest {
+
+    private static final String SOURCE_NAME = "habits-snapshot-source.db";
+    private static final String TARGET_NAME = "habits-snapshot-target.db";
+
+    private static final int HABITS = 500;
+    private static final int CHECKINS = 20000;
+
+    private Context mContext;
+    private HabitDbHelper mSource;
+    private HabitDbHelper mTarget;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = RuntimeEnvironment.application;
+        mSource = new HabitDbHelper(mContext, SOURCE_NAME);
+        mTarget = new HabitDbHelper(mContext, TARGET_NAME);
+        mFile = File.createTempFile("habits", ".snapshot");
+
+        HabitDataGenerator generator = new HabitDataGenerator(42);
+        generator.fill(mSource.getWriter(), HABITS);
+        generator.fillCheckins(mSource.getWriter(), HABITS, CHECKINS, 17000);
+        mSource.rebuildSummaries();
+
+        // Names the encoding has to get right, and ids far from each other
+        insertHabit(mSource, 1L << 40, "\u00dcn\u00efc\u00f6d\u00e9 \u2713 \"quoted\"\nnew line");
+        insertHabit(mSource, (1L << 40) + 1, "");
+    }
+
+    @After
+    public void tearDown() {
+        mSource.close();
+        mTarget.close();
+        mContext.deleteDatabase(SOURCE_NAME);
+        mContext.deleteDatabase(TARGET_NAME);
+        mFile.delete();
+    }
+
+    @Test
+    public void restore_givesTheSameTables() throws IOException {
+        long rows = new HabitSnapshot(mSource, null).backup(mFile);
+        assertEquals(HABITS + 2 + CHECKINS, rows);
+
+        // What was in the target before is replaced
+        insertHabit(mTarget, 1, "Replaced");
+        assertEquals(rows, new HabitSnapshot(mTarget, null).restore(mFile));
+
+        for (String table : new String[]{HabitEntry.TABLE_HABIT, CheckinEntry.TABLE_CHECKINS,
+                SummaryEntry.TABLE_SUMMARY}) {
+            assertEquals(table, dump(mSource, table), dump(mTarget, table));
+        }
+        assertEquals(HABITS + 2, mTarget.getRowCount(HabitEntry.TABLE_HABIT));
+        assertEquals(CHECKINS, mTarget.getRowCount(CheckinEntry.TABLE_CHECKINS));
+
+        // The search index followed the restored habits
+        Cursor found = mTarget.query(HabitEntry.buildSearchUri("quoted"),
+                new String[]{HabitEntry._ID}, null, null, null);
+        try {
+            assertTrue(found.moveToFirst());
+            assertEquals(1L << 40, found.getLong(0));
+        } finally {
+            found.close();
+        }
+    }
+
+    @Test
+    public void snapshot_takesAFewBytesPerRow() throws IOException {
+        new HabitSnapshot(mSource, null).backup(mFile);
+
+        // A check-in takes about 8 bytes: one each for the id, the habit and the day, and the
+        // time of the day
+        assertTrue(mFile.length() + " bytes", mFile.length() < CHECKINS * 10 + HABITS * 30);
+    }
+
+    @Test
+    public void damagedSnapshot_leavesTheDatabaseAsItWas() throws IOException {
+        new HabitSnapshot(mSource, null).backup(mFile);
+        insertHabit(mTarget, 1, "Kept");
+
+        // Flip one bit in the middle of the rows
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(file.length() / 2);
+            int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 0x10);
+        } finally {
+            file.close();
+        }
+        assertRestoreFails();
+
+        // Cut off the end
+        new HabitSnapshot(mSource, null).backup(mFile);
+        file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+        assertRestoreFails();
+    }
+
+    private void assertRestoreFails() {
+        try {
+            new HabitSnapshot(mTarget, null).restore(mFile);
+            fail("The damaged snapshot should not restore");
+        } catch (IOException expected) {
+            // The transaction rolled back
+        }
+        assertEquals("1|Kept|0|null|null|null|habit-1|0|null|\n", dump(mTarget, HabitEntry.TABLE_HABIT));
+    }
+
+    private static void insertHabit(HabitDbHelper helper, long id, String name) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry._ID, id);
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        // Fixed, so the dumps can be compared
+        values.put(HabitEntry.COLUMN_SYNC_ID, "habit-" + id);
+        values.put(HabitEntry.COLUMN_UPDATED_AT, 0);
+        assertEquals(id, helper.insert(HabitEntry.CONTENT_URI, values));
+    }
+
+    /**
+     * Returns the rows of the table in a stable order.
+     */
+    private static String dump(HabitDbHelper helper, String table) {
+        Cursor cursor = helper.getReader().rawQuery("SELECT * FROM " + table + " ORDER BY 1", null);
+        StringBuilder dump = new StringBuilder();
+        try {
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    dump.append(cursor.getString(i)).append('|');
+                }
+                dump.append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return dump.toString();
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.StatsEntry;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the hot operations of {@link HabitDbHelper} (insert a habit, update one by id, read
+ * one by id, and a row count) built as SQL text on every call, as they were, and run through
+ * {@link HabitStatements} (compiled statements for the writes, the same SQL string for the
+ * reads). The "sql_" side is the old code, inline.
+ * Both write the same rows, checked before timing. Besides the latency, alloc_bytes shows the
+ * garbage of one call.
+ *
+ * The values and URIs are made before timing, so only the garbage of the call itself counts.
+ * The "compiled_" side goes through the public methods of the helper, with their URI matching
+ * and metrics: the comparison doesn't favor it.
+ *
+ * Skipped by a normal test run, run it like {@link HabitDbHelperBenchmark}:
+ * ./gradlew testDebugUnitTest --tests '*HabitStatementBenchmark' -Dhabit.benchmark=true
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitStatementBenchmark {
+
+    private static final String DATABASE_NAME = "habits-statement-benchmark.db";
+
+    private static final long SEED = 42;
+
+    private static final int[] DEFAULT_SIZES = {1000, 100000};
+
+    private static final int OPS = 5000;
+    private static final int WARMUP = 1000;
+
+    private Context mContext;
+    private BenchmarkReport mReport;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Benchmarks run with -Dhabit.benchmark=true",
+                Boolean.getBoolean("habit.benchmark"));
+        mContext = RuntimeEnvironment.application;
+        String output = System.getProperty("habit.benchmark.output");
+        mReport = new BenchmarkReport("habit-statements", SEED,
+                output == null || output.isEmpty() ? null : new File(output));
+    }
+
+    @Test
+    public void compiledAgainstSql() throws IOException {
+        for (int rows : readSizes()) {
+            mContext.deleteDatabase(DATABASE_NAME);
+            HabitDbHelper helper = new HabitDbHelper(mContext, DATABASE_NAME);
+            try {
+                HabitDataGenerator generator = new HabitDataGenerator(SEED);
+                generator.fill(helper.getWriter(), rows);
+                checkSameRows(helper);
+                measure(helper, generator, rows);
+            } finally {
+                helper.close();
+                mContext.deleteDatabase(DATABASE_NAME);
+            }
+        }
+    }
+
+    /**
+     * Writes the same habit both ways and reads it back both ways.
+     */
+    private static void checkSameRows(HabitDbHelper helper) {
+        SQLiteDatabase database = helper.getWriter();
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, "Read 10 pages");
+        values.put(HabitEntry.COLUMN_IMPORTANCE, 3);
+        values.put(HabitEntry.COLUMN_REMINDER_TIME, 480);
+        values.put(HabitEntry.COLUMN_SYNC_ID, "benchmark-sql");
+        values.put(HabitEntry.COLUMN_UPDATED_AT, 1000L);
+        long sqlId = sqlInsert(database, values);
+        values.put(HabitEntry.COLUMN_SYNC_ID, "benchmark-compiled");
+        long compiledId = helper.insert(HabitEntry.CONTENT_URI, values);
+        assertEquals(sqlId + 1, compiledId);
+        assertEquals(readHabit(database, sqlId), readHabit(database, compiledId));
+
+        ContentValues update = new ContentValues();
+        update.put(HabitEntry.COLUMN_IMPORTANCE, 5);
+        update.put(HabitEntry.COLUMN_HABIT, "Read 20 pages");
+        assertEquals(1, sqlUpdate(database, sqlId, update));
+        assertEquals(1, helper.update(ContentUris.withAppendedId(HabitEntry.CONTENT_URI, compiledId),
+                update, null, null));
+        assertEquals(readHabit(database, sqlId), readHabit(database, compiledId));
+
+        assertEquals(sqlCount(database), helper.getRowCount(HabitEntry.TABLE_HABIT));
+    }
+
+    private void measure(final HabitDbHelper helper, final HabitDataGenerator generator,
+                         final int rows) throws IOException {
+        final SQLiteDatabase database = helper.getWriter();
+        final long[] ids = new long[WARMUP + OPS];
+        final Uri[] uris = new Uri[ids.length];
+        final ContentValues[] updates = new ContentValues[ids.length];
+        final ContentValues[] inserts = new ContentValues[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + generator.nextInt(rows);
+            uris[i] = ContentUris.withAppendedId(HabitEntry.CONTENT_URI, ids[i]);
+            updates[i] = new ContentValues();
+            updates[i].put(HabitEntry.COLUMN_IMPORTANCE, i % 10);
+            inserts[i] = new ContentValues();
+            inserts[i].put(HabitEntry.COLUMN_HABIT, generator.nextName());
+            inserts[i].put(HabitEntry.COLUMN_IMPORTANCE, generator.nextImportance());
+        }
+
+        mReport.measure("sql_insert_habit", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertTrue(sqlInsert(database, inserts[iteration]) != -1);
+            }
+        });
+        mReport.measure("compiled_insert_habit", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertTrue(helper.insert(HabitEntry.CONTENT_URI, inserts[iteration]) != -1);
+            }
+        });
+
+        mReport.measure("sql_update_habit_id", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(1, sqlUpdate(database, ids[iteration], updates[iteration]));
+            }
+        });
+        mReport.measure("compiled_update_habit_id", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(1, helper.update(uris[iteration], updates[iteration], null, null));
+            }
+        });
+
+        mReport.measure("sql_query_habit_id", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(1, drain(sqlQuery(database, ids[iteration])));
+            }
+        });
+        mReport.measure("compiled_query_habit_id", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(1, drain(helper.query(uris[iteration], Habit.PROJECTION, null, null, null)));
+            }
+        });
+
+        mReport.measure("sql_row_count", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                sqlCount(database);
+            }
+        });
+        mReport.measure("compiled_row_count", rows, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                helper.getRowCount(HabitEntry.TABLE_HABIT);
+            }
+        });
+    }
+
+    /**
+     * The insert as it was: the values copied to add the sync id and update time, then
+     * {@link SQLiteDatabase#insert}, which builds and compiles the INSERT.
+     */
+    private static long sqlInsert(SQLiteDatabase database, ContentValues values) {
+        if (values.getAsString(HabitEntry.COLUMN_SYNC_ID) == null
+                || values.getAsLong(HabitEntry.COLUMN_UPDATED_AT) == null) {
+            values = new ContentValues(values);
+            if (values.getAsString(HabitEntry.COLUMN_SYNC_ID) == null) {
+                values.put(HabitEntry.COLUMN_SYNC_ID, HabitSync.newSyncId());
+            }
+            if (values.getAsLong(HabitEntry.COLUMN_UPDATED_AT) == null) {
+                values.put(HabitEntry.COLUMN_UPDATED_AT, System.currentTimeMillis());
+            }
+        }
+        return database.insert(HabitEntry.TABLE_HABIT, null, values);
+    }
+
+    /**
+     * The update by id as it was: the values copied to stamp them, the selection and its
+     * arguments built, then {@link SQLiteDatabase#update}.
+     */
+    private static int sqlUpdate(SQLiteDatabase database, long id, ContentValues values) {
+        values = new ContentValues(values);
+        values.put(HabitEntry.COLUMN_UPDATED_AT, System.currentTimeMillis());
+        values.putNull(HabitEntry.COLUMN_UPDATED_BY);
+        String selection = DatabaseUtils.concatenateWhere(HabitEntry._ID + "=?", HabitDbHelper.NOT_DELETED);
+        return database.update(HabitEntry.TABLE_HABIT, values, selection,
+                new String[]{String.valueOf(id)});
+    }
+
+    /**
+     * The query by id as it was: its SQL built on every call.
+     */
+    private static Cursor sqlQuery(SQLiteDatabase database, long id) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, HabitEntry.TABLE_HABIT,
+                Habit.PROJECTION, HabitEntry._ID + "=? AND " + HabitDbHelper.NOT_DELETED,
+                null, null, null, null);
+        return database.rawQuery(sql, new String[]{String.valueOf(id)});
+    }
+
+    private static long sqlCount(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database,
+                "SELECT " + StatsEntry.COLUMN_ROW_COUNT + " FROM " + StatsEntry.TABLE_STATS
+                        + " WHERE " + StatsEntry.COLUMN_TABLE_NAME + " = ?",
+                new String[]{HabitEntry.TABLE_HABIT});
+    }
+
+    /**
+     * Returns the habit's columns but its id and sync id, joined, to compare two habits.
+     */
+    private static String readHabit(SQLiteDatabase database, long id) {
+        Cursor cursor = database.rawQuery("SELECT " + HabitEntry.COLUMN_HABIT + ", "
+                + HabitEntry.COLUMN_IMPORTANCE + ", " + HabitEntry.COLUMN_REMINDER_TIME + ", "
+                + HabitEntry.COLUMN_REMINDER_DAYS + ", " + HabitEntry.COLUMN_UPDATED_BY + ", "
+                + HabitEntry.COLUMN_DELETED_AT + " FROM " + HabitEntry.TABLE_HABIT
+                + " WHERE " + HabitEntry._ID + " = ?", new String[]{String.valueOf(id)});
+        try {
+            assertTrue(cursor.moveToFirst());
+            StringBuilder row = new StringBuilder();
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                row.append(cursor.getString(i)).append('|');
+            }
+            return row.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int drain(Cursor cursor) {
+        try {
+            int count = 0;
+            while (cursor.moveToNext()) {
+                count++;
+            }
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the database sizes to measure, from -Dhabit.benchmark.sizes or else
+     * {@link #DEFAULT_SIZES}.
+     */
+    private static int[] readSizes() {
+        String property = System.getProperty("habit.benchmark.sizes");
+        if (property == null || property.trim().isEmpty()) {
+            return DEFAULT_SIZES;
+        }
+        String[] parts = property.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+}
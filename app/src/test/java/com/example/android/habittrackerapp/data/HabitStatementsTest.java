@@ -0,0 +1,199 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Inserts and updates habits through {@link HabitDbHelper} with the usual columns, which go
+ * through the compiled statements of {@link HabitStatements}: the values they fill in, the
+ * deleted habits they leave alone, and the reminders scheduled again after them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitStatementsTest {
+
+    private static final String DATABASE_NAME = "habits-statements-test.db";
+
+    private Context mContext;
+    private HabitDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void insert_fillsInTheMissingValues() {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, "Run");
+        assertTrue(HabitStatements.canInsert(values));
+        long before = System.currentTimeMillis();
+        long id = mHelper.insert(HabitEntry.CONTENT_URI, values);
+
+        ContentValues habit = readHabit(id);
+        // A habit without importance gets the lowest one
+        assertEquals(Integer.valueOf(0), habit.getAsInteger(HabitEntry.COLUMN_IMPORTANCE));
+        assertNotNull(habit.getAsString(HabitEntry.COLUMN_SYNC_ID));
+        assertTrue(habit.getAsLong(HabitEntry.COLUMN_UPDATED_AT) >= before);
+        assertNull(habit.getAsInteger(HabitEntry.COLUMN_REMINDER_TIME));
+        assertEquals(1, mHelper.getRowCount(HabitEntry.TABLE_HABIT));
+    }
+
+    @Test
+    public void insert_keepsTheGivenValues() {
+        long id = mHelper.insert(HabitEntry.CONTENT_URI, habit("Read", 3, "sync-1", 1234L));
+
+        ContentValues habit = readHabit(id);
+        assertEquals("Read", habit.getAsString(HabitEntry.COLUMN_HABIT));
+        assertEquals(Integer.valueOf(3), habit.getAsInteger(HabitEntry.COLUMN_IMPORTANCE));
+        assertEquals("sync-1", habit.getAsString(HabitEntry.COLUMN_SYNC_ID));
+        assertEquals(Long.valueOf(1234), habit.getAsLong(HabitEntry.COLUMN_UPDATED_AT));
+    }
+
+    @Test
+    public void insert_withATakenSyncId_fails() {
+        mHelper.insert(HabitEntry.CONTENT_URI, habit("Read", 3, "sync-1", 1234L));
+
+        assertEquals(-1, mHelper.insert(HabitEntry.CONTENT_URI, habit("Walk", 1, "sync-1", 1234L)));
+        assertEquals(1, mHelper.getRowCount(HabitEntry.TABLE_HABIT));
+        // The failed insert left the statement ready for the next one
+        assertTrue(mHelper.insert(HabitEntry.CONTENT_URI, habit("Walk", 1, "sync-2", 1234L)) != -1);
+    }
+
+    @Test
+    public void insert_joinsTheTransactionOfTheCaller() {
+        SQLiteDatabase database = mHelper.getWriter();
+        database.beginTransaction();
+        try {
+            mHelper.insert(HabitEntry.CONTENT_URI, habit("Run", 0, null, null));
+            // Not successful: rolled back with the insert
+        } finally {
+            database.endTransaction();
+        }
+        assertEquals(0, mHelper.getRowCount(HabitEntry.TABLE_HABIT));
+    }
+
+    @Test
+    public void update_stampsTheChange() {
+        long id = mHelper.insert(HabitEntry.CONTENT_URI, habit("Run", 0, null, 1234L));
+        mHelper.getWriter().execSQL("UPDATE " + HabitEntry.TABLE_HABIT + " SET "
+                + HabitEntry.COLUMN_UPDATED_BY + " = 'other device'");
+
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_IMPORTANCE, 4);
+        assertTrue(HabitStatements.canUpdate(values));
+        assertEquals(1, mHelper.update(habitUri(id), values, null, null));
+
+        ContentValues habit = readHabit(id);
+        assertEquals("Run", habit.getAsString(HabitEntry.COLUMN_HABIT));
+        assertEquals(Integer.valueOf(4), habit.getAsInteger(HabitEntry.COLUMN_IMPORTANCE));
+        assertTrue(habit.getAsLong(HabitEntry.COLUMN_UPDATED_AT) > 1234);
+        assertNull(habit.getAsString(HabitEntry.COLUMN_UPDATED_BY));
+    }
+
+    @Test
+    public void update_leavesTheDeletedHabitsAlone() {
+        long id = mHelper.insert(HabitEntry.CONTENT_URI, habit("Run", 0, null, null));
+        assertEquals(1, mHelper.delete(habitUri(id), null, null));
+
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, "Run again");
+        assertEquals(0, mHelper.update(habitUri(id), values, null, null));
+        assertEquals("Run", readHabit(id).getAsString(HabitEntry.COLUMN_HABIT));
+    }
+
+    @Test
+    public void insertAndUpdate_scheduleTheChangedReminders() {
+        HabitReminders reminders = mHelper.getReminders();
+        ContentValues values = habit("Run", 0, null, null);
+        values.put(HabitEntry.COLUMN_REMINDER_TIME, 8 * 60);
+        long withReminder = mHelper.insert(HabitEntry.CONTENT_URI, values);
+        long without = mHelper.insert(HabitEntry.CONTENT_URI, habit("Read", 0, null, null));
+        assertTrue(reminders.getNextReminder(withReminder) != ReminderScheduler.NONE);
+        assertEquals(ReminderScheduler.NONE, reminders.getNextReminder(without));
+
+        values = new ContentValues();
+        values.put(HabitEntry.COLUMN_REMINDER_TIME, 9 * 60);
+        assertEquals(1, mHelper.update(habitUri(without), values, null, null));
+        assertTrue(reminders.getNextReminder(without) != ReminderScheduler.NONE);
+
+        values = new ContentValues();
+        values.putNull(HabitEntry.COLUMN_REMINDER_TIME);
+        assertEquals(1, mHelper.update(habitUri(withReminder), values, null, null));
+        assertEquals(ReminderScheduler.NONE, reminders.getNextReminder(withReminder));
+
+        // A deleted habit keeps reminding no one
+        assertEquals(1, mHelper.delete(habitUri(without), null, null));
+        values = new ContentValues();
+        values.put(HabitEntry.COLUMN_REMINDER_TIME, 10 * 60);
+        assertEquals(0, mHelper.update(habitUri(without), values, null, null));
+        assertEquals(ReminderScheduler.NONE, reminders.getNextReminder(without));
+    }
+
+    private static ContentValues habit(String name, int importance, String syncId, Long updatedAt) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        values.put(HabitEntry.COLUMN_IMPORTANCE, importance);
+        if (syncId != null) {
+            values.put(HabitEntry.COLUMN_SYNC_ID, syncId);
+        }
+        if (updatedAt != null) {
+            values.put(HabitEntry.COLUMN_UPDATED_AT, updatedAt);
+        }
+        return values;
+    }
+
+    private static Uri habitUri(long id) {
+        return ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id);
+    }
+
+    /**
+     * Reads the row of the habit, deleted or not.
+     */
+    private ContentValues readHabit(long id) {
+        Cursor cursor = mHelper.getReader().query(HabitEntry.TABLE_HABIT, null,
+                HabitEntry._ID + "=" + id, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                if (cursor.isNull(i)) {
+                    values.putNull(cursor.getColumnName(i));
+                } else {
+                    values.put(cursor.getColumnName(i), cursor.getString(i));
+                }
+            }
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+}
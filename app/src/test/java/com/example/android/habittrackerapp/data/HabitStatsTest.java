@@ -0,0 +1,161 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the row counters kept by the count triggers against a real COUNT(*) after each kind
+ * of write: insert, tombstone, purge, and a transaction rolled back half way.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitStatsTest {
+
+    private static final String DATABASE_NAME = "habits-stats-test.db";
+
+    private Context mContext;
+    private HabitDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void counters_followInsertTombstoneAndPurge() {
+        assertCountersExact(0, 0);
+
+        long run = insertHabit("Run");
+        long read = insertHabit("Read");
+        long walk = insertHabit("Walk");
+        addCheckins(run, 3);
+        addCheckins(walk, 5);
+        assertCountersExact(3, 8);
+
+        // The tombstone hides the habit, its check-ins stay until the purge
+        assertEquals(1, mHelper.delete(habitUri(walk), null, null));
+        assertCountersExact(2, 8);
+        // Deleting it again doesn't count it twice
+        assertEquals(0, mHelper.delete(habitUri(walk), null, null));
+        assertCountersExact(2, 8);
+
+        // A habit received already deleted (e.g. by the sync) is never counted
+        ContentValues deleted = new ContentValues();
+        deleted.put(HabitEntry.COLUMN_HABIT, "Swim");
+        deleted.put(HabitEntry.COLUMN_DELETED_AT, 1234L);
+        mHelper.getWriter().insert(HabitEntry.TABLE_HABIT, null, deleted);
+        assertCountersExact(2, 8);
+
+        // The purge deletes the tombstones without counting them again
+        assertTrue(new HabitCompactor(mHelper).setBatchSize(2).compact() > 0);
+        assertCountersExact(2, 3);
+
+        assertEquals(1, mHelper.delete(habitUri(read), null, null));
+        insertHabit("Read again");
+        assertCountersExact(2, 3);
+    }
+
+    @Test
+    public void counters_followARolledBackTransaction() {
+        long run = insertHabit("Run");
+        addCheckins(run, 2);
+        long read = insertHabit("Read");
+        assertCountersExact(2, 2);
+
+        SQLiteDatabase database = mHelper.getWriter();
+        database.beginTransaction();
+        try {
+            insertHabit("Walk");
+            addCheckins(read, 4);
+            mHelper.delete(habitUri(run), null, null);
+            // The counters already see the changes of the transaction
+            assertCountersExact(2, 6);
+            // Not successful: rolled back with the counters
+        } finally {
+            database.endTransaction();
+        }
+        assertCountersExact(2, 2);
+    }
+
+    @Test
+    public void statsUri_readsTheCounters() {
+        insertHabit("Run");
+        addCheckins(insertHabit("Read"), 4);
+
+        Cursor cursor = mHelper.query(StatsEntry.CONTENT_URI,
+                new String[]{StatsEntry.COLUMN_TABLE_NAME, StatsEntry.COLUMN_ROW_COUNT},
+                null, null, StatsEntry.COLUMN_TABLE_NAME, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToNext());
+            assertEquals(CheckinEntry.TABLE_CHECKINS, cursor.getString(0));
+            assertEquals(4, cursor.getLong(1));
+            assertTrue(cursor.moveToNext());
+            assertEquals(HabitEntry.TABLE_HABIT, cursor.getString(0));
+            assertEquals(2, cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Asserts the counters hold the given numbers of habits (not deleted) and check-ins, and
+     * that a full scan of each table finds the same.
+     */
+    private void assertCountersExact(long habits, long checkins) {
+        assertEquals(habits, mHelper.getRowCount(HabitEntry.TABLE_HABIT));
+        assertEquals(habits, DatabaseUtils.queryNumEntries(mHelper.getReader(),
+                HabitEntry.TABLE_HABIT, HabitEntry.COLUMN_DELETED_AT + " IS NULL"));
+        assertEquals(checkins, mHelper.getRowCount(CheckinEntry.TABLE_CHECKINS));
+        assertEquals(checkins, DatabaseUtils.queryNumEntries(mHelper.getReader(),
+                CheckinEntry.TABLE_CHECKINS));
+    }
+
+    private long insertHabit(String name) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        return mHelper.insert(HabitEntry.CONTENT_URI, values);
+    }
+
+    private void addCheckins(long habitId, int days) {
+        ContentValues[] checkins = new ContentValues[days];
+        for (int day = 0; day < days; day++) {
+            checkins[day] = new ContentValues();
+            checkins[day].put(CheckinEntry.COLUMN_DAY, 17000 + day);
+        }
+        mHelper.appendCheckins(CheckinEntry.buildHabitCheckinsUri(habitId), checkins);
+    }
+
+    private static Uri habitUri(long id) {
+        return ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id);
+    }
+}
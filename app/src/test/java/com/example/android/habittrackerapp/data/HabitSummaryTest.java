@@ -0,0 +1,104 @@
+package com.example.android.habittrackerapp.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the incrementally maintained {@link HabitSummary} always matches the one
+ * recomputed from the full history.
+ */
+public class HabitSummaryTest {
+
+    @Test
+    public void consecutiveDays_extendTheStreak() throws Exception {
+        HabitSummary summary = new HabitSummary();
+        summary.append(100);
+        summary.append(101);
+        summary.append(101);
+        summary.append(102);
+
+        assertEquals(3, summary.getCurrentStreak(102));
+        assertEquals(3, summary.getCurrentStreak(103));
+        assertEquals(0, summary.getCurrentStreak(104));
+        assertEquals(3, summary.getLongestStreak());
+        assertEquals(4, summary.getTotalCheckins());
+        assertEquals(3, summary.getActiveDays());
+    }
+
+    @Test
+    public void missedDay_restartsTheStreak() throws Exception {
+        HabitSummary summary = HabitSummary.compute(new long[]{10, 11, 12, 13, 15});
+
+        assertEquals(1, summary.getCurrentStreak(15));
+        assertEquals(4, summary.getLongestStreak());
+    }
+
+    @Test
+    public void completionRate_countsTheLast30Days() throws Exception {
+        HabitSummary summary = HabitSummary.compute(new long[]{100, 110, 120, 129, 130});
+
+        // Days 101 to 130
+        assertEquals(4 / 30f, summary.getCompletionRate(130), 0.0001f);
+        // Days 110 to 139
+        assertEquals(4 / 30f, summary.getCompletionRate(139), 0.0001f);
+        // Days 131 to 160
+        assertEquals(0f, summary.getCompletionRate(160), 0.0001f);
+    }
+
+    @Test
+    public void backfilledDay_needsRecompute() throws Exception {
+        HabitSummary summary = HabitSummary.compute(new long[]{10, 12});
+
+        assertEquals(false, summary.append(11));
+        assertEquals(true, summary.append(12));
+    }
+
+    @Test
+    public void incrementalAndFullRecompute_agree() throws Exception {
+        Random random = new Random(42);
+
+        for (int run = 0; run < 200; run++) {
+            List<Long> days = new ArrayList<>();
+            HabitSummary incremental = new HabitSummary();
+            long today = 1000;
+
+            for (int step = 0; step < 300; step++) {
+                int action = random.nextInt(10);
+                if (action < 6 || days.isEmpty()) {
+                    // Mostly today or the next days, sometimes a late check-in for an older day
+                    long day = action == 0 ? today - random.nextInt(90) : today + random.nextInt(3);
+                    today = Math.max(today, day);
+                    days.add(day);
+                    Collections.sort(days);
+                    if (!incremental.append(day)) {
+                        incremental = HabitSummary.compute(toArray(days));
+                    }
+                } else {
+                    long day = days.remove(random.nextInt(days.size()));
+                    if (!incremental.remove(day, Collections.frequency(days, day))) {
+                        incremental = HabitSummary.compute(toArray(days));
+                    }
+                }
+
+                HabitSummary recomputed = HabitSummary.compute(toArray(days));
+                assertEquals("run " + run + " step " + step, recomputed, incremental);
+                assertEquals(recomputed.getCurrentStreak(today), incremental.getCurrentStreak(today));
+                assertEquals(recomputed.getCompletionRate(today), incremental.getCompletionRate(today), 0f);
+            }
+        }
+    }
+
+    private static long[] toArray(List<Long> days) {
+        long[] array = new long[days.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = days.get(i);
+        }
+        return array;
+    }
+}
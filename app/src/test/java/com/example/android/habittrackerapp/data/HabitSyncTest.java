@@ -0,0 +1,493 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.ChangeEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Syncs two devices, each with its own database, through {@link MockSyncServer}, an in-process
+ * HTTP server keeping the habits the way a real one would.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitSyncTest {
+
+    private static final String FIRST_NAME = "habits-sync-first.db";
+    private static final String SECOND_NAME = "habits-sync-second.db";
+
+    private Context mContext;
+    private MockSyncServer mServer;
+    private HabitDbHelper mFirst;
+    private HabitDbHelper mSecond;
+    private HabitSync mFirstSync;
+    private HabitSync mSecondSync;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = RuntimeEnvironment.application;
+        mServer = new MockSyncServer();
+        mFirst = new HabitDbHelper(mContext, FIRST_NAME);
+        mSecond = new HabitDbHelper(mContext, SECOND_NAME);
+        mFirstSync = new HabitSync(mFirst, null, mServer.getUrl());
+        mSecondSync = new HabitSync(mSecond, null, mServer.getUrl());
+        mFirstSync.enable();
+        mSecondSync.enable();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        mFirst.close();
+        mSecond.close();
+        mContext.deleteDatabase(FIRST_NAME);
+        mContext.deleteDatabase(SECOND_NAME);
+    }
+
+    @Test
+    public void sync_givesBothDevicesTheSameHabits() throws IOException {
+        insertHabit(mFirst, "Run", 2);
+        insertHabit(mFirst, "Read", 1);
+        insertHabit(mSecond, "\u00c9crire \u2713", 0);
+
+        syncAll();
+
+        assertEquals(3, mFirst.getRowCount(HabitEntry.TABLE_HABIT));
+        assertEquals(dump(mFirst), dump(mSecond));
+        // The received habits don't go back to the server
+        assertEquals(0, DatabaseUtils.queryNumEntries(mFirst.getReader(), ChangeEntry.TABLE_CHANGES));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mSecond.getReader(), ChangeEntry.TABLE_CHANGES));
+    }
+
+    @Test
+    public void sync_keepsTheLastChange() throws IOException {
+        String first = insertHabit(mFirst, "Run", 0);
+        String second = insertHabit(mFirst, "Read", 0);
+        String tie = insertHabit(mFirst, "Walk", 0);
+        syncAll();
+
+        // Changed on both devices before they sync: the latest change wins, whoever syncs first
+        long now = System.currentTimeMillis();
+        changeHabit(mFirst, first, "Run 5 km", now + 2000);
+        changeHabit(mSecond, first, "Run 3 km", now + 1000);
+        changeHabit(mFirst, second, "Read a book", now + 1000);
+        changeHabit(mSecond, second, "Read a page", now + 2000);
+        // Changed at the same millisecond: the greater device id wins
+        changeHabit(mFirst, tie, "Walk the dog", now + 3000);
+        changeHabit(mSecond, tie, "Walk home", now + 3000);
+
+        syncAll();
+
+        assertEquals(dump(mFirst), dump(mSecond));
+        assertEquals("Run 5 km", name(mSecond, first));
+        assertEquals("Read a page", name(mFirst, second));
+        boolean firstIsGreater = mFirstSync.getDeviceId().compareTo(mSecondSync.getDeviceId()) > 0;
+        assertEquals(firstIsGreater ? "Walk the dog" : "Walk home", name(mSecond, tie));
+    }
+
+    @Test
+    public void sync_keepsADeleteOverALaterChange() throws IOException {
+        String habit = insertHabit(mFirst, "Run", 0);
+        syncAll();
+
+        assertEquals(1, mFirst.delete(HabitEntry.CONTENT_URI, HabitEntry.COLUMN_SYNC_ID + "=?",
+                new String[]{habit}));
+        changeHabit(mSecond, habit, "Run again", Long.MAX_VALUE);
+        syncAll();
+
+        assertEquals(dump(mFirst), dump(mSecond));
+        assertTrue(dump(mSecond).contains("|deleted"));
+        assertEquals("Run", name(mSecond, habit));
+    }
+
+    @Test
+    public void sync_schedulesTheReceivedReminders() throws IOException {
+        String habit = insertHabit(mFirst, "Run", 0);
+        syncAll();
+        HabitReminders reminders = mSecond.getReminders();
+        long id = localId(mSecond, habit);
+        assertEquals(ReminderScheduler.NONE, reminders.getNextReminder(id));
+
+        // A reminder set on one device reminds on the other one after the sync
+        long now = System.currentTimeMillis();
+        mFirst.getWriter().execSQL("UPDATE " + HabitEntry.TABLE_HABIT + " SET "
+                        + HabitEntry.COLUMN_REMINDER_TIME + "=?, " + HabitEntry.COLUMN_UPDATED_AT + "=?, "
+                        + HabitEntry.COLUMN_UPDATED_BY + "=NULL WHERE " + HabitEntry.COLUMN_SYNC_ID + "=?",
+                new Object[]{8 * 60, now + 1000, habit});
+        syncAll();
+        assertTrue(reminders.getNextReminder(id) != ReminderScheduler.NONE);
+
+        // And stops with the habit deleted there
+        assertEquals(1, mFirst.delete(HabitEntry.CONTENT_URI, HabitEntry.COLUMN_SYNC_ID + "=?",
+                new String[]{habit}));
+        syncAll();
+        assertEquals(ReminderScheduler.NONE, reminders.getNextReminder(id));
+    }
+
+    @Test
+    public void sync_sendsOnlyTheChanges() throws IOException {
+        for (int i = 0; i < 50; i++) {
+            insertHabit(mFirst, "Habit " + i, i % 3);
+        }
+        HabitSync.Result result = mFirstSync.sync();
+        assertEquals(50, result.getPushed());
+
+        // Nothing new: one round-trip, nothing sent or received
+        result = mFirstSync.sync();
+        assertEquals(1, result.getRoundTrips());
+        assertEquals(0, result.getPushed());
+        assertEquals(0, result.getPulled());
+
+        // One change: only that habit is sent
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_IMPORTANCE, 2);
+        mFirst.update(HabitEntry.CONTENT_URI, values, HabitEntry.COLUMN_HABIT + "=?",
+                new String[]{"Habit 7"});
+        result = mFirstSync.sync();
+        assertEquals(1, result.getRoundTrips());
+        assertEquals(1, result.getPushed());
+        assertEquals(51, mServer.getHabitsReceived());
+
+        // The other device receives each habit once, at its last version
+        result = mSecondSync.sync();
+        assertEquals(50, result.getPulled());
+        assertEquals(dump(mFirst), dump(mSecond));
+    }
+
+    @Test
+    public void sync_batchesTheExchanges() throws IOException {
+        for (int i = 0; i < 25; i++) {
+            insertHabit(mFirst, "Habit " + i, 0);
+        }
+        mFirstSync.setBatchSize(10);
+        mSecondSync.setBatchSize(10);
+
+        // 10, 10 and 5 habits sent
+        HabitSync.Result result = mFirstSync.sync();
+        assertEquals(3, result.getRoundTrips());
+        assertEquals(25, result.getPushed());
+        assertEquals(3, mServer.getRequests());
+
+        // 10, 10 and 5 habits received
+        result = mSecondSync.sync();
+        assertEquals(3, result.getRoundTrips());
+        assertEquals(25, result.getPulled());
+        assertEquals(25, result.getApplied());
+        assertEquals(dump(mFirst), dump(mSecond));
+    }
+
+    @Test
+    public void sync_countsTheCompressedBytes() throws IOException {
+        for (int i = 0; i < 200; i++) {
+            insertHabit(mFirst, "Drink a glass of water " + i, 1);
+        }
+        HabitSync.Result pushed = mFirstSync.sync();
+        HabitSync.Result pulled = mSecondSync.sync();
+
+        assertEquals(mServer.getBytesReceived(), pushed.getBytesSent() + pulled.getBytesSent());
+        assertEquals(mServer.getBytesSent(), pushed.getBytesReceived() + pulled.getBytesReceived());
+        // The repeated field names and values compress well
+        assertTrue(mServer.getJsonBytesReceived() > 2 * mServer.getBytesReceived());
+        assertTrue(mServer.getJsonBytesSent() > 2 * mServer.getBytesSent());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void sync_failsWhenOff() throws IOException {
+        mFirstSync.disable();
+        mFirstSync.sync();
+    }
+
+    private void syncAll() throws IOException {
+        mFirstSync.sync();
+        mSecondSync.sync();
+        mFirstSync.sync();
+    }
+
+    /**
+     * Inserts a habit and returns its sync id.
+     */
+    private static String insertHabit(HabitDbHelper helper, String name, int importance) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        values.put(HabitEntry.COLUMN_IMPORTANCE, importance);
+        long id = helper.insert(HabitEntry.CONTENT_URI, values);
+        Cursor cursor = helper.getReader().query(HabitEntry.TABLE_HABIT,
+                new String[]{HabitEntry.COLUMN_SYNC_ID}, HabitEntry._ID + "=" + id,
+                null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Renames a habit as changed on this device at the given time (an update would stamp it
+     * with the current time).
+     */
+    private static void changeHabit(HabitDbHelper helper, String syncId, String name, long updatedAt) {
+        helper.getWriter().execSQL("UPDATE " + HabitEntry.TABLE_HABIT + " SET "
+                        + HabitEntry.COLUMN_HABIT + "=?, " + HabitEntry.COLUMN_UPDATED_AT + "=?, "
+                        + HabitEntry.COLUMN_UPDATED_BY + "=NULL WHERE " + HabitEntry.COLUMN_SYNC_ID + "=?",
+                new Object[]{name, updatedAt, syncId});
+    }
+
+    private static long localId(HabitDbHelper helper, String syncId) {
+        return DatabaseUtils.longForQuery(helper.getReader(), "SELECT " + HabitEntry._ID + " FROM "
+                + HabitEntry.TABLE_HABIT + " WHERE " + HabitEntry.COLUMN_SYNC_ID + "=?", new String[]{syncId});
+    }
+
+    private static String name(HabitDbHelper helper, String syncId) {
+        Cursor cursor = helper.getReader().query(HabitEntry.TABLE_HABIT,
+                new String[]{HabitEntry.COLUMN_HABIT}, HabitEntry.COLUMN_SYNC_ID + "=?",
+                new String[]{syncId}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the synced part of the habits (the local ids may differ), in sync id order.
+     */
+    private static String dump(HabitDbHelper helper) {
+        Cursor cursor = helper.getReader().query(HabitEntry.TABLE_HABIT, new String[]{
+                        HabitEntry.COLUMN_SYNC_ID, HabitEntry.COLUMN_HABIT, HabitEntry.COLUMN_IMPORTANCE,
+                        HabitEntry.COLUMN_UPDATED_AT, HabitEntry.COLUMN_DELETED_AT},
+                null, null, null, null, HabitEntry.COLUMN_SYNC_ID);
+        StringBuilder dump = new StringBuilder();
+        try {
+            while (cursor.moveToNext()) {
+                dump.append(cursor.getString(0)).append('|').append(cursor.getString(1))
+                        .append('|').append(cursor.getInt(2)).append('|').append(cursor.getLong(3))
+                        .append(cursor.isNull(4) ? "" : "|deleted").append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return dump.toString();
+    }
+
+    /**
+     * The server side of {@link HabitSync}: keeps the last version of every habit, resolved
+     * with the same rules as the devices, and a log of the accepted versions, whose position is
+     * the sync token.
+     */
+    static final class MockSyncServer implements HttpHandler {
+
+        private final HttpServer mServer;
+
+        /** The accepted versions, oldest first */
+        private final List<ContentValues> mLog = new ArrayList<>();
+
+        /** Position in the log of the last version of each habit, by sync id */
+        private final Map<String, Integer> mLatest = new HashMap<>();
+
+        private int mRequests;
+        private int mHabitsReceived;
+        private long mBytesReceived;
+        private long mBytesSent;
+        private long mJsonBytesReceived;
+        private long mJsonBytesSent;
+
+        MockSyncServer() throws IOException {
+            mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            mServer.createContext("/sync", this);
+            mServer.start();
+        }
+
+        URL getUrl() throws IOException {
+            return new URL("http", "127.0.0.1", mServer.getAddress().getPort(), "/sync");
+        }
+
+        void stop() {
+            mServer.stop(0);
+        }
+
+        synchronized int getRequests() {
+            return mRequests;
+        }
+
+        synchronized int getHabitsReceived() {
+            return mHabitsReceived;
+        }
+
+        synchronized long getBytesReceived() {
+            return mBytesReceived;
+        }
+
+        synchronized long getBytesSent() {
+            return mBytesSent;
+        }
+
+        synchronized long getJsonBytesReceived() {
+            return mJsonBytesReceived;
+        }
+
+        synchronized long getJsonBytesSent() {
+            return mJsonBytesSent;
+        }
+
+        @Override
+        public synchronized void handle(HttpExchange exchange) throws IOException {
+            try {
+                assertEquals("POST", exchange.getRequestMethod());
+                assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                byte[] request = readAll(exchange.getRequestBody());
+                byte[] json = readAll(new GZIPInputStream(new ByteArrayInputStream(request)));
+                mRequests++;
+                mBytesReceived += request.length;
+                mJsonBytesReceived += json.length;
+
+                byte[] response = respond(json);
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                OutputStream gzip = new GZIPOutputStream(compressed);
+                gzip.write(response);
+                gzip.close();
+                mBytesSent += compressed.size();
+                mJsonBytesSent += response.length;
+
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, compressed.size());
+                OutputStream body = exchange.getResponseBody();
+                body.write(compressed.toByteArray());
+                body.close();
+            } catch (AssertionError e) {
+                exchange.sendResponseHeaders(400, -1);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private byte[] respond(byte[] json) throws IOException {
+            JsonReader reader = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(json), "UTF-8"));
+            String device = null;
+            int token = 0;
+            int limit = 0;
+            List<ContentValues> pushed = new ArrayList<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("device".equals(name)) {
+                    device = reader.nextString();
+                } else if ("token".equals(name)) {
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        token = Integer.parseInt(reader.nextString());
+                    }
+                } else if ("limit".equals(name)) {
+                    limit = reader.nextInt();
+                } else if ("changes".equals(name)) {
+                    pushed = HabitSync.readHabits(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            for (ContentValues habit : pushed) {
+                mHabitsReceived++;
+                accept(habit);
+            }
+
+            // The last versions written by the other devices since the token
+            List<ContentValues> pulled = new ArrayList<>();
+            int position = token;
+            for (; position < mLog.size() && pulled.size() < limit; position++) {
+                ContentValues habit = mLog.get(position);
+                String syncId = habit.getAsString(HabitEntry.COLUMN_SYNC_ID);
+                if (mLatest.get(syncId) == position
+                        && !device.equals(habit.getAsString(HabitEntry.COLUMN_UPDATED_BY))) {
+                    pulled.add(habit);
+                }
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(bytes, "UTF-8"));
+            writer.beginObject();
+            writer.name("token").value(String.valueOf(position));
+            writer.name("more").value(position < mLog.size());
+            writer.name("changes");
+            HabitSync.writeHabits(writer, pulled);
+            writer.endObject();
+            writer.close();
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Keeps the version unless the one the server has wins: deleted, or changed later.
+         */
+        private void accept(ContentValues habit) {
+            String syncId = habit.getAsString(HabitEntry.COLUMN_SYNC_ID);
+            Integer latest = mLatest.get(syncId);
+            if (latest != null) {
+                ContentValues current = mLog.get(latest);
+                if (current.getAsLong(HabitEntry.COLUMN_DELETED_AT) != null) {
+                    return;
+                }
+                if (habit.getAsLong(HabitEntry.COLUMN_DELETED_AT) == null
+                        && !HabitSync.isNewer(habit.getAsLong(HabitEntry.COLUMN_UPDATED_AT),
+                        habit.getAsString(HabitEntry.COLUMN_UPDATED_BY),
+                        current.getAsLong(HabitEntry.COLUMN_UPDATED_AT),
+                        current.getAsString(HabitEntry.COLUMN_UPDATED_BY))) {
+                    return;
+                }
+            }
+            mLatest.put(syncId, mLog.size());
+            mLog.add(habit);
+        }
+
+        private static byte[] readAll(InputStream input) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read; (read = input.read(buffer)) != -1; ) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.Context;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitTransfer.Format;
+import com.example.android.habittrackerapp.data.HabitTransfer.Table;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Imports a CSV file of a million habits with {@link HabitTransfer}. The rows are streamed in
+ * batches, so alloc_bytes stays the garbage of the rows, not a copy of the file.
+ *
+ * Skipped by a normal test run, run it like {@link HabitDbHelperBenchmark}:
+ * ./gradlew testDebugUnitTest --tests '*HabitTransferBenchmark' -Dhabit.benchmark=true
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitTransferBenchmark {
+
+    private static final String DATABASE_NAME = "habits-transfer-benchmark.db";
+
+    private static final long SEED = 42;
+
+    /** Rows of the imported file */
+    private static final int ROWS = 1000000;
+
+    /** A single import: the ids of the file can only be imported once per database */
+    private static final int OPS = 1;
+    private static final int WARMUP = 0;
+
+    private Context mContext;
+    private BenchmarkReport mReport;
+    private HabitDbHelper mHelper;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue("Benchmarks run with -Dhabit.benchmark=true",
+                Boolean.getBoolean("habit.benchmark"));
+        mContext = RuntimeEnvironment.application;
+        String output = System.getProperty("habit.benchmark.output");
+        mReport = new BenchmarkReport("habit-transfer", SEED,
+                output == null || output.isEmpty() ? null : new File(output));
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+        mFile = File.createTempFile("habits", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) {
+            mHelper.close();
+            mContext.deleteDatabase(DATABASE_NAME);
+            mFile.delete();
+        }
+    }
+
+    @Test
+    public void importCsv() throws IOException {
+        HabitDataGenerator generator = new HabitDataGenerator(SEED);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8"));
+        try {
+            writer.write("_id,habit,importance\n");
+            for (int i = 1; i <= ROWS; i++) {
+                writer.write(i + ",\"" + generator.nextName() + "\"," + generator.nextImportance() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        final long[] imported = new long[1];
+        mReport.measure("import_csv", ROWS, WARMUP, OPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                try {
+                    imported[0] = new HabitTransfer(mHelper, null)
+                            .importTable(Table.HABITS, Format.CSV, mFile);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+
+        assertEquals(ROWS, imported[0]);
+        assertEquals(ROWS, mHelper.getRowCount(HabitEntry.TABLE_HABIT));
+    }
+}
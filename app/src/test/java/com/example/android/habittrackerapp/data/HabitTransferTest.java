@@ -0,0 +1,197 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.CheckinEntry;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+import com.example.android.habittrackerapp.data.HabitContract.SummaryEntry;
+import com.example.android.habittrackerapp.data.HabitTransfer.Format;
+import com.example.android.habittrackerapp.data.HabitTransfer.Table;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Exports tables with {@link HabitTransfer} and imports them into another database.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class HabitTransferTest {
+
+    private static final String SOURCE_NAME = "habits-transfer-source.db";
+    private static final String TARGET_NAME = "habits-transfer-target.db";
+
+    private Context mContext;
+    private HabitDbHelper mSource;
+    private HabitDbHelper mTarget;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = RuntimeEnvironment.application;
+        mSource = new HabitDbHelper(mContext, SOURCE_NAME);
+        mTarget = new HabitDbHelper(mContext, TARGET_NAME);
+        mFile = File.createTempFile("habits", ".transfer");
+    }
+
+    @After
+    public void tearDown() {
+        mSource.close();
+        mTarget.close();
+        mContext.deleteDatabase(SOURCE_NAME);
+        mContext.deleteDatabase(TARGET_NAME);
+        mFile.delete();
+    }
+
+    @Test
+    public void csvRoundTrip_keepsTheHabits() throws IOException {
+        roundTrip(Format.CSV);
+    }
+
+    @Test
+    public void jsonRoundTrip_keepsTheHabits() throws IOException {
+        roundTrip(Format.JSON);
+    }
+
+    @Test
+    public void checkinsImport_updatesTheSummaries() throws IOException {
+        long id = insertHabit(mSource, "Run", 5);
+        for (long day = 100; day < 110; day++) {
+            ContentValues checkin = new ContentValues();
+            checkin.put(CheckinEntry.COLUMN_HABIT_ID, id);
+            checkin.put(CheckinEntry.COLUMN_DAY, day);
+            mSource.insert(CheckinEntry.CONTENT_URI, checkin);
+        }
+
+        for (Format format : Format.values()) {
+            mTarget.close();
+            mContext.deleteDatabase(TARGET_NAME);
+            mTarget = new HabitDbHelper(mContext, TARGET_NAME);
+            HabitTransfer source = new HabitTransfer(mSource, null).setBatchSize(3);
+            HabitTransfer target = new HabitTransfer(mTarget, null).setBatchSize(3);
+
+            source.exportTable(Table.HABITS, format, mFile);
+            assertEquals(1, target.importTable(Table.HABITS, format, mFile));
+            assertEquals(10, source.exportTable(Table.CHECKINS, format, mFile));
+            assertEquals(10, target.importTable(Table.CHECKINS, format, mFile));
+
+            assertEquals(dump(mSource, CheckinEntry.TABLE_CHECKINS), dump(mTarget, CheckinEntry.TABLE_CHECKINS));
+            assertEquals(10, DatabaseUtils.longForQuery(mTarget.getReader(),
+                    "SELECT " + SummaryEntry.COLUMN_CURRENT_STREAK + " FROM " + SummaryEntry.TABLE_SUMMARY
+                            + " WHERE " + SummaryEntry.COLUMN_HABIT_ID + " = " + id, null));
+        }
+    }
+
+    @Test
+    public void import_reportsProgressAfterEveryBatch_andSkipsInvalidRows() throws IOException {
+        StringBuilder csv = new StringBuilder("habit,importance,color\n");
+        for (int i = 0; i < 10; i++) {
+            // The fifth habit has no name, the unknown column is ignored
+            csv.append(i == 4 ? "" : "Habit " + i).append(',').append(i).append(",blue\n");
+        }
+        write(csv.toString());
+
+        final List<Long> progress = new ArrayList<>();
+        long imported = new HabitTransfer(mTarget, null)
+                .setBatchSize(3)
+                .setProgressListener(new HabitTransfer.ProgressListener() {
+                    @Override
+                    public void onProgress(Table table, long rows) {
+                        progress.add(rows);
+                    }
+                })
+                .importTable(Table.HABITS, Format.CSV, mFile);
+
+        assertEquals(9, imported);
+        assertEquals(Arrays.asList(3L, 6L, 9L, 10L), progress);
+        assertEquals(9, mTarget.getRowCount(HabitEntry.TABLE_HABIT));
+    }
+
+    @Test
+    public void malformedFile_keepsTheBatchesBeforeTheError() throws IOException {
+        write("habit,importance\nRun,1\nRead,2\n\"Swim,3\n");
+        try {
+            new HabitTransfer(mTarget, null).setBatchSize(2).importTable(Table.HABITS, Format.CSV, mFile);
+            fail("The unterminated quote should fail the import");
+        } catch (IOException expected) {
+            // The first batch was committed, the second one rolled back
+        }
+        assertEquals(2, mTarget.getRowCount(HabitEntry.TABLE_HABIT));
+    }
+
+    /**
+     * Exports habits with awkward names and checks the imported ones are the same.
+     */
+    private void roundTrip(Format format) throws IOException {
+        String[] names = {"Run", "Read, then write", "Say \"hi\"", "Two\nlines", "Crlf\r\nline",
+                "", " padded ", "\u00dcn\u00efc\u00f6d\u00e9 \u2713", "Comma,\"quote\"\r\n,end"};
+        for (int i = 0; i < names.length; i++) {
+            insertHabit(mSource, names[i], i % 10);
+        }
+
+        HabitTransfer source = new HabitTransfer(mSource, null).setBatchSize(4);
+        HabitTransfer target = new HabitTransfer(mTarget, null).setBatchSize(4);
+        assertEquals(names.length, source.exportTable(Table.HABITS, format, mFile));
+        assertEquals(names.length, target.importTable(Table.HABITS, format, mFile));
+
+        assertEquals(dump(mSource, HabitEntry.TABLE_HABIT), dump(mTarget, HabitEntry.TABLE_HABIT));
+        assertTrue(dump(mTarget, HabitEntry.TABLE_HABIT).contains("Two\nlines"));
+    }
+
+    private static long insertHabit(HabitDbHelper helper, String name, int importance) {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT, name);
+        values.put(HabitEntry.COLUMN_IMPORTANCE, importance);
+        return helper.insert(HabitEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Returns the rows of the table, by _id, with the type of every value.
+     */
+    private static String dump(HabitDbHelper helper, String table) {
+        Cursor cursor = helper.getReader().rawQuery("SELECT * FROM " + table + " ORDER BY _id", null);
+        StringBuilder dump = new StringBuilder();
+        try {
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    dump.append(cursor.getType(i)).append(':').append(cursor.getString(i)).append('|');
+                }
+                dump.append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return dump.toString();
+    }
+
+    private void write(String text) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8");
+        try {
+            writer.write(text);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.android.habittrackerapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.habittrackerapp.BuildConfig;
+import com.example.android.habittrackerapp.data.HabitContract.HabitEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Observes queries through {@link HabitQueries}, with the change notifications of the content
+ * resolver. The main looper is paused, the tests run its tasks and move its clock themselves,
+ * and the queries run when the test says so.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class ObservableQueryTest {
+
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    private ContentResolver mContentResolver;
+
+    /** The runs waiting for the test to run them */
+    private final List<Runnable> mRuns = new ArrayList<>();
+
+    private HabitQueries mQueries;
+
+    @Before
+    public void setUp() {
+        ShadowLooper.pauseMainLooper();
+        mContentResolver = RuntimeEnvironment.application.getContentResolver();
+        mQueries = new HabitQueries(mContentResolver, new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                mRuns.add(runnable);
+            }
+        }, new Handler(Looper.getMainLooper()));
+    }
+
+    @Test
+    public void subscribe_deliversTheFirstResult() {
+        CountingQuery query = new CountingQuery(HabitEntry.CONTENT_URI);
+        Results results = new Results();
+        mQueries.observe(query, DEBOUNCE_MILLIS).subscribe(results);
+
+        runQueries();
+        assertEquals(1, query.mRuns);
+        assertEquals(listOf(1), results.mResults);
+    }
+
+    @Test
+    public void burstOfChanges_runsTheQueryOnce() {
+        CountingQuery query = new CountingQuery(HabitEntry.CONTENT_URI);
+        Results results = new Results();
+        ObservableQuery<Integer> observable = mQueries.observe(query, DEBOUNCE_MILLIS);
+        observable.subscribe(results);
+        runQueries();
+
+        // An import notifying once per batch, and single habits changing meanwhile
+        for (int i = 0; i < 100; i++) {
+            mContentResolver.notifyChange(HabitEntry.CONTENT_URI, null);
+            mContentResolver.notifyChange(Uri.withAppendedPath(HabitEntry.CONTENT_URI, String.valueOf(i)), null);
+        }
+        ShadowLooper.idleMainLooper(DEBOUNCE_MILLIS - 1);
+        runQueries();
+        assertEquals(1, query.mRuns);
+
+        ShadowLooper.idleMainLooper(1);
+        runQueries();
+        assertEquals(2, query.mRuns);
+        assertEquals(2, observable.getRunCount());
+        assertEquals(listOf(1, 2), results.mResults);
+    }
+
+    @Test
+    public void changesDuringARun_runTheQueryOnceMore() {
+        CountingQuery query = new CountingQuery(HabitEntry.CONTENT_URI);
+        Results results = new Results();
+        mQueries.observe(query, DEBOUNCE_MILLIS).subscribe(results);
+
+        // The first run hasn't finished yet
+        mContentResolver.notifyChange(HabitEntry.CONTENT_URI, null);
+        mContentResolver.notifyChange(HabitEntry.CONTENT_URI, null);
+        ShadowLooper.idleMainLooper(DEBOUNCE_MILLIS);
+        assertEquals(1, mRuns.size());
+
+        runQueries();
+        assertEquals(listOf(1), results.mResults);
+        ShadowLooper.idleMainLooper(DEBOUNCE_MILLIS);
+        runQueries();
+        assertEquals(listOf(1, 2), results.mResults);
+
+        // Nothing changed since
+        ShadowLooper.idleMainLooper(DEBOUNCE_MILLIS);
+        assertEquals(0, mRuns.size());
+    }
+
+    @Test
+    public void sameQuery_isSharedBySubscribers() {
+        ObservableQuery<Integer> first = mQueries.observe(countQuery(HabitEntry.CONTENT_URI));
+        ObservableQuery<Integer> second = mQueries.observe(countQuery(HabitEntry.CONTENT_URI));
+        assertSame(first, second);
+        assertNotSame(first, mQueries.observe(countQuery(HabitEntry.LIST_CHANGES_URI)));
+
+        CountingQuery query = new CountingQuery(HabitEntry.CONTENT_URI);
+        Results firstResults = new Results();
+        Results secondResults = new Results();
+        ObservableQuery<Integer> observable = mQueries.observe(query, DEBOUNCE_MILLIS);
+        observable.subscribe(firstResults);
+        runQueries();
+
+        // The new subscriber gets the last result, without running the query again
+        assertSame(observable, mQueries.observe(query, DEBOUNCE_MILLIS));
+        observable.subscribe(secondResults);
+        runQueries();
+        assertEquals(1, query.mRuns);
+        assertEquals(listOf(1), secondResults.mResults);
+
+        mContentResolver.notifyChange(HabitEntry.CONTENT_URI, null);
+        ShadowLooper.idleMainLooper(DEBOUNCE_MILLIS);
+        runQueries();
+        assertEquals(2, query.mRuns);
+        assertEquals(listOf(1, 2), firstResults.mResults);
+        assertEquals(listOf(1, 2), secondResults.mResults);
+    }
+
+    @Test
+    public void lastUnsubscribe_stopsWatching() {
+        CountingQuery query = new CountingQuery(HabitEntry.CONTENT_URI);
+        Results results = new Results();
+        ObservableQuery<Integer> observable = mQueries.observe(query, DEBOUNCE_MILLIS);
+        ObservableQuery<Integer>.Subscription first = observable.subscribe(results);
+        ObservableQuery<Integer>.Subscription second = observable.subscribe(new Results());
+        runQueries();
+
+        first.unsubscribe();
+        assertEquals(1, mQueries.getActiveCount());
+        second.unsubscribe();
+        assertEquals(0, mQueries.getActiveCount());
+
+        mContentResolver.notifyChange(HabitEntry.CONTENT_URI, null);
+        ShadowLooper.idleMainLooper(DEBOUNCE_MILLIS);
+        runQueries();
+        assertEquals(1, query.mRuns);
+        assertEquals(listOf(1), results.mResults);
+
+        // A new observable starts over
+        assertNotSame(observable, mQueries.observe(query, DEBOUNCE_MILLIS));
+    }
+
+    @Test
+    public void unsubscribeDuringARun_dropsItsResult() {
+        CountingQuery query = new CountingQuery(HabitEntry.CONTENT_URI);
+        Results results = new Results();
+        ObservableQuery<Integer> observable = mQueries.observe(query, DEBOUNCE_MILLIS);
+        observable.subscribe(results).unsubscribe();
+
+        runQueries();
+        assertEquals(0, results.mResults.size());
+        assertEquals(null, observable.getResult());
+    }
+
+    /**
+     * Runs the queries waiting for the executor, then delivers their results.
+     */
+    private void runQueries() {
+        while (!mRuns.isEmpty()) {
+            mRuns.remove(0).run();
+        }
+        ShadowLooper.runUiThreadTasks();
+    }
+
+    private static List<Integer> listOf(Integer... values) {
+        List<Integer> list = new ArrayList<>();
+        for (Integer value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static ObservableQuery.CursorQuery<Integer> countQuery(Uri uri) {
+        return new ObservableQuery.CursorQuery<>(uri, new String[]{HabitEntry._ID}, null, null,
+                null, new CountMapper());
+    }
+
+    private static final class CountMapper implements ObservableQuery.Mapper<Integer> {
+        @Override
+        public Integer map(Cursor cursor) {
+            return cursor.getCount();
+        }
+    }
+
+    /**
+     * A query whose result is the number of times it ran.
+     */
+    private static final class CountingQuery implements ObservableQuery.Query<Integer> {
+        private final Uri mUri;
+        int mRuns;
+
+        CountingQuery(Uri uri) {
+            mUri = uri;
+        }
+
+        @Override
+        public Uri getUri() {
+            return mUri;
+        }
+
+        @Override
+        public Integer run(ContentResolver contentResolver) {
+            return ++mRuns;
+        }
+    }
+
+    private static final class Results implements ObservableQuery.Observer<Integer> {
+        final List<Integer> mResults = new ArrayList<>();
+
+        @Override
+        public void onChanged(Integer result) {
+            mResults.add(result);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.android.habittrackerapp.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Schedules made-up reminders with {@link ReminderScheduler} and {@link ReminderRule}, on the
+ * JVM (no Android classes involved).
+ */
+public class ReminderSchedulerTest {
+
+    private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+
+    /** The wakeups registered, {@link ReminderScheduler#NONE} for a cancel */
+    private final List<Long> mWakeups = new ArrayList<>();
+
+    private final ReminderScheduler.Wakeup mWakeup = new ReminderScheduler.Wakeup() {
+        @Override
+        public void schedule(long timeMillis) {
+            mWakeups.add(timeMillis);
+        }
+
+        @Override
+        public void cancel() {
+            mWakeups.add(ReminderScheduler.NONE);
+        }
+    };
+
+    private ReminderScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new ReminderScheduler(BERLIN, mWakeup);
+    }
+
+    @Test
+    public void rule_givesTheNextTime() {
+        ReminderRule daily = ReminderRule.daily(8 * 60);
+        // Wednesday 2 May 2018
+        assertEquals(time(2018, Calendar.MAY, 2, 8, 0), daily.nextAfter(time(2018, Calendar.MAY, 2, 7, 0), BERLIN));
+        // Strictly after: at 08:00 the next one is tomorrow
+        assertEquals(time(2018, Calendar.MAY, 3, 8, 0), daily.nextAfter(time(2018, Calendar.MAY, 2, 8, 0), BERLIN));
+        // Over the end of the year
+        assertEquals(time(2019, Calendar.JANUARY, 1, 8, 0), daily.nextAfter(time(2018, Calendar.DECEMBER, 31, 9, 0), BERLIN));
+
+        ReminderRule threeTimes = ReminderRule.timesPerWeek(3, 19 * 60 + 30);
+        assertEquals((1 << (Calendar.MONDAY - 1)) | (1 << (Calendar.WEDNESDAY - 1))
+                | (1 << (Calendar.FRIDAY - 1)), threeTimes.getDays());
+        // From Friday evening to Monday
+        assertEquals(time(2018, Calendar.MAY, 7, 19, 30),
+                threeTimes.nextAfter(time(2018, Calendar.MAY, 4, 20, 0), BERLIN));
+        assertEquals(ReminderRule.EVERY_DAY, ReminderRule.timesPerWeek(7, 0).getDays());
+
+        // 02:30 doesn't exist on 25 March 2018 in Berlin, the clocks skip to 03:00
+        ReminderRule night = ReminderRule.daily(2 * 60 + 30);
+        assertEquals(time(2018, Calendar.MARCH, 25, 3, 30),
+                night.nextAfter(time(2018, Calendar.MARCH, 25, 0, 0), BERLIN));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rule_refusesTimesPastTheDay() {
+        new ReminderRule(ReminderRule.MINUTES_PER_DAY, ReminderRule.EVERY_DAY);
+    }
+
+    @Test
+    public void onlyTheEarliestWakeup_isRegistered() {
+        long now = time(2018, Calendar.MAY, 2, 12, 0);
+        Random random = new Random(42);
+        long earliest = Long.MAX_VALUE;
+        for (long id = 1; id <= 1000; id++) {
+            ReminderRule rule = ReminderRule.daily(random.nextInt(ReminderRule.MINUTES_PER_DAY));
+            mScheduler.set(id, rule, now);
+            earliest = Math.min(earliest, rule.nextAfter(now, BERLIN));
+        }
+
+        assertEquals(1000, mScheduler.size());
+        assertEquals(earliest, mScheduler.getNextWakeup());
+        assertEquals(earliest, (long) mWakeups.get(mWakeups.size() - 1));
+        // Registered again only when a new habit came first, not for every habit
+        assertTrue(mWakeups.toString(), mWakeups.size() < 20);
+    }
+
+    @Test
+    public void batch_registersOnce() {
+        long now = time(2018, Calendar.MAY, 2, 12, 0);
+        mScheduler.beginBatch();
+        for (long id = 1; id <= 100; id++) {
+            // Each one earlier than the last
+            mScheduler.set(id, ReminderRule.daily(12 * 60 + 100 - (int) id), now);
+        }
+        assertEquals(0, mWakeups.size());
+        mScheduler.endBatch();
+
+        assertEquals(1, mWakeups.size());
+        assertEquals(time(2018, Calendar.MAY, 2, 12, 0) + 60000, (long) mWakeups.get(0));
+    }
+
+    @Test
+    public void changes_moveTheWakeup() {
+        long now = time(2018, Calendar.MAY, 2, 12, 0);
+        mScheduler.set(1, ReminderRule.daily(13 * 60), now);
+        mScheduler.set(2, ReminderRule.daily(14 * 60), now);
+        assertEquals(time(2018, Calendar.MAY, 2, 13, 0), mScheduler.getNextWakeup());
+
+        // The same rule again changes nothing
+        mWakeups.clear();
+        mScheduler.set(1, ReminderRule.daily(13 * 60), now);
+        assertEquals(0, mWakeups.size());
+
+        // Habit 1 moved after habit 2
+        mScheduler.set(1, ReminderRule.daily(15 * 60), now);
+        assertEquals(time(2018, Calendar.MAY, 2, 14, 0), mScheduler.getNextWakeup());
+
+        // Many changes of the same habit: the queue doesn't keep them all
+        for (int i = 0; i < 500; i++) {
+            mScheduler.set(1, ReminderRule.daily(15 * 60 + i % 2), now);
+        }
+        assertEquals(2, mScheduler.size());
+        assertEquals(time(2018, Calendar.MAY, 2, 15, 1), mScheduler.getNextReminder(1));
+
+        mScheduler.remove(2);
+        assertEquals(time(2018, Calendar.MAY, 2, 15, 1), mScheduler.getNextWakeup());
+        mScheduler.remove(1);
+        assertEquals(ReminderScheduler.NONE, mScheduler.getNextWakeup());
+        assertEquals(ReminderScheduler.NONE, (long) mWakeups.get(mWakeups.size() - 1));
+    }
+
+    @Test
+    public void dueReminders_arePolledAndMovedOn() {
+        long now = time(2018, Calendar.MAY, 2, 6, 0);
+        mScheduler.set(1, ReminderRule.daily(8 * 60), now);
+        mScheduler.set(2, ReminderRule.daily(7 * 60), now);
+        mScheduler.set(3, ReminderRule.daily(10 * 60), now);
+        long oneHour = 3600 * 1000;
+
+        assertArrayEquals(new long[0], mScheduler.pollDue(time(2018, Calendar.MAY, 2, 6, 59), oneHour));
+        // The alarm came an hour late: both are due, earliest first
+        assertArrayEquals(new long[]{2, 1}, mScheduler.pollDue(time(2018, Calendar.MAY, 2, 8, 0), oneHour));
+        assertEquals(time(2018, Calendar.MAY, 3, 7, 0), mScheduler.getNextReminder(2));
+        assertEquals(time(2018, Calendar.MAY, 2, 10, 0), mScheduler.getNextWakeup());
+        assertEquals(time(2018, Calendar.MAY, 2, 10, 0), (long) mWakeups.get(mWakeups.size() - 1));
+
+        // The device was off the whole day: yesterday's reminders are skipped, not shown
+        assertArrayEquals(new long[]{2}, mScheduler.pollDue(time(2018, Calendar.MAY, 3, 7, 30), oneHour));
+        assertEquals(time(2018, Calendar.MAY, 3, 10, 0), mScheduler.getNextReminder(3));
+        assertEquals(time(2018, Calendar.MAY, 3, 8, 0), mScheduler.getNextWakeup());
+    }
+
+    @Test
+    public void reregister_registersTheSameWakeupAgain() {
+        long now = time(2018, Calendar.MAY, 2, 6, 0);
+        mScheduler.set(1, ReminderRule.daily(8 * 60), now);
+        mWakeups.clear();
+
+        mScheduler.reregister();
+        assertEquals(1, mWakeups.size());
+        assertEquals(time(2018, Calendar.MAY, 2, 8, 0), (long) mWakeups.get(0));
+
+        // Traveled to New York: 08:00 there is later
+        TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+        mScheduler.setTimeZone(newYork, now);
+        assertEquals(ReminderRule.daily(8 * 60).nextAfter(now, newYork), mScheduler.getNextWakeup());
+    }
+
+    private static long time(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance(BERLIN);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+}